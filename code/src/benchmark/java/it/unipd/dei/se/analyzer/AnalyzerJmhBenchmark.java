@@ -0,0 +1,175 @@
+package it.unipd.dei.se.analyzer;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of {@link CloseAnalyzer} configurations with <a href="https://github.com/openjdk/jmh"
+ * target="_blank">JMH</a>, over a fixed sample of the collection.
+ * <p>
+ * Unlike {@link AnalyzerBenchmark}, each configuration is measured in forked JVMs, after warmup iterations of its own,
+ * so that the code compiled for one configuration does not bias the next one. Each operation analyzes the whole sample;
+ * the tokens produced are reported as a secondary result, in tokens per second, and the bytes allocated per operation
+ * are reported by the GC profiler ({@code gc.alloc.rate.norm}), along with the time spent in garbage collection.
+ * <p>
+ * The class is compiled only with the {@code benchmark} profile, e.g. {@code mvn -P benchmark package}, and is run
+ * either through its main method or through {@code org.openjdk.jmh.Main}, e.g. {@code -p collection=<JSON file>
+ * -prof gc AnalyzerJmhBenchmark}.
+ *
+ * @author CLOSE GROUP
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(2)
+@State(Scope.Thread)
+public class AnalyzerJmhBenchmark {
+
+    /**
+     * The JSON file of the collection the sample is taken from.
+     */
+    @Param("")
+    public String collection;
+
+    /**
+     * The tokenizer of the configuration.
+     */
+    @Param({"Standard", "Ascii"})
+    public CloseAnalyzer.TokenizerType tokenizer;
+
+    /**
+     * The stemmer of the configuration.
+     */
+    @Param({"French", "Porter"})
+    public CloseAnalyzer.StemFilterType stemmer;
+
+    /**
+     * The stop list of the configuration, {@code none} not to remove stop words.
+     */
+    @Param({"none", "new-long-stoplist-fr.txt"})
+    public String stopList;
+
+    /**
+     * Whether the configuration removes French elisions.
+     */
+    @Param({"false", "true"})
+    public boolean elision;
+
+    /**
+     * The texts of the sample.
+     */
+    private List<String> bodies;
+
+    /**
+     * The analyzer of the configuration.
+     */
+    private Analyzer analyzer;
+
+    /**
+     * The tokens produced in an iteration, reported by JMH as a rate.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Tokens {
+
+        /**
+         * The number of tokens produced.
+         */
+        public long tokens;
+
+        /**
+         * Resets the count at the start of each iteration.
+         */
+        @Setup(Level.Iteration)
+        public void reset() {
+            tokens = 0;
+        }
+    }
+
+    /**
+     * Loads the sample and creates the analyzer of the configuration.
+     *
+     * @throws IOException if something goes wrong while loading the sample.
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+
+        if (collection.isEmpty()) {
+            throw new IllegalArgumentException("The collection must be given, e.g. -p collection=<JSON file>.");
+        }
+
+        bodies = AnalyzerBenchmark.loadBodies(collection, "ISO-8859-1");
+
+        analyzer = new CloseAnalyzer.Builder().tokenizer(tokenizer).length(2, 15)
+                .stopList("none".equals(stopList) ? null : stopList).stemmer(stemmer).frenchElision(elision).build();
+    }
+
+    /**
+     * Closes the analyzer of the configuration.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        analyzer.close();
+    }
+
+    /**
+     * Analyzes the whole sample.
+     *
+     * @param t the count of the tokens produced.
+     * @return the number of tokens produced, so that the analysis is not optimized away.
+     * @throws IOException if something goes wrong while analyzing the sample.
+     */
+    @Benchmark
+    public long analyze(final Tokens t) throws IOException {
+
+        long count = 0;
+        for (String body : bodies) {
+            count += AnalyzerBenchmark.countTokens(analyzer, body);
+        }
+
+        t.tokens += count;
+        return count;
+    }
+
+    /**
+     * Main method to measure every configuration with the GC profiler.
+     *
+     * @param args the arguments to be passed to the method: a JSON file of the collection.
+     * @throws RunnerException if something goes wrong while running the benchmark.
+     */
+    public static void main(String[] args) throws RunnerException {
+
+        if (args.length < 1) {
+            throw new IllegalArgumentException("Usage: AnalyzerJmhBenchmark <collection JSON file>");
+        }
+
+        new Runner(new OptionsBuilder()
+                .include(AnalyzerJmhBenchmark.class.getSimpleName())
+                .param("collection", args[0])
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
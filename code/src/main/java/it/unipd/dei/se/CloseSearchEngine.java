@@ -18,6 +18,7 @@ package it.unipd.dei.se;
 import it.unipd.dei.se.parser.Embedded.ClefEmbeddedParser;
 import it.unipd.dei.se.analyzer.CloseAnalyzer;
 import it.unipd.dei.se.parser.Text.ClefParser;
+import it.unipd.dei.se.searcher.QueryStream;
 import it.unipd.dei.se.searcher.Searcher;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.commons.math3.distribution.ChiSquaredDistribution;
@@ -56,7 +57,7 @@ public class CloseSearchEngine {
         /*
          * Check the command line arguments.
          * The first argument is the path to the collection.
-         * The second argument is the path to the topics.
+         * The second argument is the path to the topics, or to a query log (.tsv, .jsonl, or - for the standard input).
          * The third argument is the path to the index.
          */
         if (args.length != 3 || Collections.frequency(Arrays.asList(args), null) > 0) {
@@ -93,7 +94,7 @@ public class CloseSearchEngine {
 
         // creating the similarity to be used for ranking the documents
 
-        //best parameters for french: K=2.0 B=0.85
+        //best parameters for french: K=2.0 B=0.85 (see BM25ParameterSweep to search the grid in a single pass)
         final Similarity sim = new BM25Similarity((float)2.0,(float)0.85);
         
         // creating the analyzer to be used for indexing and searching the collection
@@ -123,6 +124,24 @@ public class CloseSearchEngine {
        // directoryIndexer.index();
 
 
+        // a query log, or - for the standard input, is streamed rather than loaded as topics
+        if (QueryStream.accepts(topicPath)) {
+            final Searcher searcher = new Searcher(
+                    closeAnalyzer,
+                    sim,
+                    indexPath,
+                    runID,
+                    runPath,
+                    maxDocsRetrieved,
+                    false,
+                    null
+            );
+            try (QueryStream queries = QueryStream.open(topicPath)) {
+                searcher.search(queries);
+            }
+            return;
+        }
+
         // searching the topics in the specified path and with the specified extension
         final Searcher searcher = new Searcher(
                 closeAnalyzer,
@@ -0,0 +1,361 @@
+package it.unipd.dei.se.analyzer;
+
+import it.unipd.dei.se.parser.DocumentParser;
+import it.unipd.dei.se.parser.Text.ClefParser;
+import it.unipd.dei.se.parser.Text.ParsedTextDocument;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Measures the cost of {@link CloseAnalyzer} over fixed samples of the collection.
+ * <p>
+ * Two measures are available: how the throughput of a single configuration scales with the number of threads, and
+ * the cost of each configuration in the cross-product of the options of the analyzer. The latter reports, for each
+ * configuration, the tokens per second, the (UTF-8) bytes of text per second and the bytes allocated per token, so
+ * that configurations can be chosen on cost as well as on effectiveness. Each configuration is first run for some
+ * warmup rounds, then measured as the best of some measurement rounds on a single thread.
+ * <p>
+ * The measures are a quick, rough comparison: all the configurations run in the same JVM, one after the other, so the
+ * code compiled and the garbage left by one of them bias the next ones; there are no forks, so there is no estimate of
+ * the variance between runs; and the allocated bytes are read through {@code com.sun.management.ThreadMXBean}, which
+ * only HotSpot-based JVMs provide. Figures worth reporting come from {@code AnalyzerJmhBenchmark}, built with the
+ * {@code benchmark} profile.
+ *
+ * @author CLOSE GROUP
+ * @version 1.0
+ */
+public class AnalyzerBenchmark {
+
+    /**
+     * The name of the field used to analyze the texts.
+     */
+    private static final String FIELD = ParsedTextDocument.Fields.BODY;
+
+    /**
+     * The number of rounds run before measuring each configuration.
+     */
+    private static final int WARMUP_ROUNDS = 3;
+
+    /**
+     * The number of measured rounds of each configuration.
+     */
+    private static final int MEASURED_ROUNDS = 5;
+
+    /**
+     * The cost of an analyzer configuration.
+     */
+    static final class Cost {
+
+        /**
+         * The number of tokens produced per second.
+         */
+        final double tokensPerSecond;
+
+        /**
+         * The number of bytes of text analyzed per second.
+         */
+        final double bytesPerSecond;
+
+        /**
+         * The number of bytes allocated per token.
+         */
+        final double bytesAllocatedPerToken;
+
+        /**
+         * Creates a new cost.
+         *
+         * @param tokensPerSecond        the number of tokens produced per second.
+         * @param bytesPerSecond         the number of bytes of text analyzed per second.
+         * @param bytesAllocatedPerToken the number of bytes allocated per token.
+         */
+        Cost(final double tokensPerSecond, final double bytesPerSecond, final double bytesAllocatedPerToken) {
+            this.tokensPerSecond = tokensPerSecond;
+            this.bytesPerSecond = bytesPerSecond;
+            this.bytesAllocatedPerToken = bytesAllocatedPerToken;
+        }
+    }
+
+    /** Default constructor for the class
+     */
+    public AnalyzerBenchmark() {
+        super();
+    }
+
+    /**
+     * Loads the bodies of the documents in a JSON file of the collection.
+     *
+     * @param file        the JSON file of the collection.
+     * @param charsetName the name of the charset used for encoding the file.
+     * @return the bodies of the documents.
+     * @throws IOException if an I/O error occurs.
+     */
+    static List<String> loadBodies(final String file, final String charsetName) throws IOException {
+        try (Stream<ParsedTextDocument> docs = DocumentParser.create(ClefParser.class,
+                Files.newBufferedReader(Paths.get(file), Charset.forName(charsetName)))) {
+            return docs.map(ParsedTextDocument::getBody).collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Consumes the token stream of a text without printing anything.
+     *
+     * @param a the analyzer to use.
+     * @param t the text to process.
+     * @return the number of tokens.
+     * @throws IOException if something goes wrong while processing the text.
+     */
+    static long countTokens(final Analyzer a, final String t) throws IOException {
+        long count = 0;
+        try (TokenStream stream = a.tokenStream(FIELD, t)) {
+            stream.reset();
+            while (stream.incrementToken()) {
+                count++;
+            }
+            stream.end();
+        }
+        return count;
+    }
+
+    /**
+     * Analyzes all the texts with the given number of threads, each thread taking every {@code threads}-th text.
+     *
+     * @param a       the analyzer to use.
+     * @param bodies  the texts to process.
+     * @param threads the number of threads.
+     * @return the throughput in tokens per second.
+     * @throws InterruptedException if interrupted while waiting for the threads.
+     * @throws IllegalStateException if any of the threads fails to analyze its texts.
+     */
+    static double throughput(final Analyzer a, final List<String> bodies, final int threads)
+            throws InterruptedException {
+
+        final AtomicLong tokens = new AtomicLong();
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        final Thread[] workers = new Thread[threads];
+
+        for (int i = 0; i < threads; i++) {
+            final int id = i;
+            workers[i] = new Thread(() -> {
+                long count = 0;
+                try {
+                    for (int j = id, n = bodies.size(); j < n; j += threads) {
+                        count += countTokens(a, bodies.get(j));
+                    }
+                } catch (IOException | RuntimeException e) {
+                    failure.compareAndSet(null, new IllegalStateException(
+                            String.format("Unable to analyze the documents: %s", e.getMessage()), e));
+                }
+                tokens.addAndGet(count);
+            });
+        }
+
+        final long start = System.nanoTime();
+        for (Thread w : workers) {
+            w.start();
+        }
+        for (Thread w : workers) {
+            w.join();
+        }
+        final long elapsed = System.nanoTime() - start;
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+
+        return tokens.get() / (elapsed / 1e9);
+    }
+
+    /**
+     * Prints the throughput of the given analyzer from 1 up to {@code maxThreads} threads, doubling each time.
+     *
+     * @param a          the analyzer to use.
+     * @param bodies     the texts to process.
+     * @param maxThreads the maximum number of threads.
+     * @throws InterruptedException if interrupted while waiting for the threads.
+     */
+    static void scaling(final Analyzer a, final List<String> bodies, final int maxThreads)
+            throws InterruptedException {
+
+        double single = 0;
+
+        for (int threads = 1; threads <= maxThreads; threads = threads < maxThreads ? Math.min(threads << 1,
+                maxThreads) : threads + 1) {
+
+            // warm up the components of every thread, then measure
+            throughput(a, bodies, threads);
+            final double tps = throughput(a, bodies, threads);
+
+            if (threads == 1) {
+                single = tps;
+            }
+
+            System.out.printf("+ %2d thread(s): %12.0f tokens/s (speedup %.2f)%n", threads, tps, tps / single);
+        }
+    }
+
+    /**
+     * Measures the cost of an analyzer on the calling thread.
+     *
+     * @param a      the analyzer to use.
+     * @param bodies the texts to process.
+     * @return the cost of the analyzer.
+     * @throws IOException if something goes wrong while processing the texts.
+     */
+    static Cost cost(final Analyzer a, final List<String> bodies) throws IOException {
+
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+
+        long bytes = 0;
+        for (String body : bodies) {
+            bytes += body.getBytes(StandardCharsets.UTF_8).length;
+        }
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            countTokens(a, bodies);
+        }
+
+        long tokens = 0;
+        long best = Long.MAX_VALUE;
+        long allocated = Long.MAX_VALUE;
+
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            final long startAllocated = threads.getThreadAllocatedBytes(thread);
+            final long start = System.nanoTime();
+
+            tokens = countTokens(a, bodies);
+
+            best = Math.min(best, System.nanoTime() - start);
+            allocated = Math.min(allocated, threads.getThreadAllocatedBytes(thread) - startAllocated);
+        }
+
+        final double seconds = best / 1e9;
+
+        return new Cost(tokens / seconds, bytes / seconds, tokens == 0 ? 0 : (double) allocated / tokens);
+    }
+
+    /**
+     * Consumes the token streams of all the given texts.
+     *
+     * @param a      the analyzer to use.
+     * @param bodies the texts to process.
+     * @return the number of tokens.
+     * @throws IOException if something goes wrong while processing the texts.
+     */
+    private static long countTokens(final Analyzer a, final List<String> bodies) throws IOException {
+        long count = 0;
+        for (String body : bodies) {
+            count += countTokens(a, body);
+        }
+        return count;
+    }
+
+    /**
+     * Prints the cost of each configuration in the cross-product of the options of {@link CloseAnalyzer} over a
+     * corpus. The NLP filter and the lemmatization, which rely on English models, are only tried on the English
+     * corpus, while the elision filter is only tried on the French one.
+     *
+     * @param language the language of the corpus, either {@code en} or {@code fr}.
+     * @param bodies   the texts of the corpus.
+     * @param stopList the name of the stop list of the language.
+     */
+    static void configurations(final String language, final List<String> bodies, final String stopList) {
+
+        final boolean english = "en".equals(language);
+
+        for (CloseAnalyzer.TokenizerType tokenizer : CloseAnalyzer.TokenizerType.values()) {
+            for (CloseAnalyzer.StemFilterType stemmer : CloseAnalyzer.StemFilterType.values()) {
+                for (String stop : new String[]{null, stopList}) {
+                    for (Integer nGram : new Integer[]{null, 3}) {
+                        for (Integer shingle : new Integer[]{null, 2}) {
+                            for (boolean elision : english ? new boolean[]{false} : new boolean[]{false, true}) {
+                                for (boolean nlp : english ? new boolean[]{false, true} : new boolean[]{false}) {
+                                    for (boolean lemmas : english ? new boolean[]{false, true} : new boolean[]{false}) {
+
+                                        final String config = String.format("%s\t%s\t%s\t%s\t%s\t%s\t%b\t%b\t%b",
+                                                language, tokenizer, stemmer, stop, nGram, shingle, elision, nlp,
+                                                lemmas);
+
+                                        try (Analyzer a = new CloseAnalyzer(tokenizer, 2, 15, false, stop, stemmer,
+                                                nGram, shingle, nlp, lemmas, elision)) {
+
+                                            final Cost c = cost(a, bodies);
+
+                                            System.out.printf("%s\t%.0f\t%.0f\t%.1f%n", config, c.tokensPerSecond,
+                                                    c.bytesPerSecond, c.bytesAllocatedPerToken);
+
+                                        } catch (IOException | RuntimeException e) {
+                                            // e.g. a model missing from the resources
+                                            System.out.printf("%s\tskipped: %s%n", config, e.getMessage());
+                                        }
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Main method to measure the cost of the analyzer.
+     * <p>
+     * With {@code configs}, the cost of every configuration is printed as a tab-separated line: language, tokenizer,
+     * stemmer, stop list, n-gram size, shingle size, elision, NLP, lemmatization, tokens/s, bytes/s and bytes
+     * allocated per token. With {@code scaling}, the throughput of the NLP-enabled analyzer is printed from 1 up to the
+     * given number of threads. Neither measure isolates the warmup of a configuration from the others nor forks the
+     * JVM, and the allocations are only measured on HotSpot, see above.
+     *
+     * @param args the arguments to be passed to the method: either {@code configs}, a JSON file of the English
+     *             collection and one of the French collection, or {@code scaling}, a JSON file of the collection and,
+     *             optionally, the maximum number of threads.
+     * @throws Exception if something goes wrong while measuring.
+     */
+    public static void main(String[] args) throws Exception {
+
+        if (args.length >= 3 && "configs".equals(args[0])) {
+
+            final List<String> english = loadBodies(args[1], "ISO-8859-1");
+            final List<String> french = loadBodies(args[2], "ISO-8859-1");
+
+            System.out.printf("language\ttokenizer\tstemmer\tstop\tngram\tshingle\telision\tnlp\tlemmas" +
+                    "\ttokens/s\tbytes/s\talloc/token%n");
+
+            configurations("en", english, "stoplist.txt");
+            configurations("fr", french, "new-long-stoplist-fr.txt");
+
+        } else if (args.length >= 2 && "scaling".equals(args[0])) {
+
+            final int maxThreads = args.length > 2 ? Integer.parseInt(args[2])
+                    : Runtime.getRuntime().availableProcessors();
+
+            final List<String> bodies = loadBodies(args[1], "ISO-8859-1");
+
+            final Analyzer a = new CloseAnalyzer(CloseAnalyzer.TokenizerType.Standard, 2, 15, false, "stoplist.txt",
+                    CloseAnalyzer.StemFilterType.Porter, null, null, true, false, false);
+
+            System.out.printf("NLP analyzer over %d document(s)%n", bodies.size());
+            scaling(a, bodies, maxThreads);
+
+            a.close();
+
+        } else {
+            throw new IllegalArgumentException("Usage: AnalyzerBenchmark configs <English collection JSON file> " +
+                    "<French collection JSON file> | scaling <collection JSON file> [max threads]");
+        }
+    }
+}
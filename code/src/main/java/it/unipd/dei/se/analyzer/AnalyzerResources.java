@@ -0,0 +1,381 @@
+package it.unipd.dei.se.analyzer;
+
+import opennlp.tools.lemmatizer.LemmatizerModel;
+import opennlp.tools.namefind.TokenNameFinderModel;
+import opennlp.tools.postag.POSModel;
+import opennlp.tools.sentdetect.SentenceModel;
+import opennlp.tools.tokenize.TokenizerModel;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.opennlp.tools.*;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide registry of the resources needed by {@link CloseAnalyzer}.
+ * <p>
+ * Stop lists, lemma dictionaries and <a href="http://opennlp.apache.org/" target="_blank">Apache OpenNLP</a> models
+ * are loaded from the {@code resources} directory, and synonym maps from the file system, only the first time they are
+ * requested and then shared by all the analyzers and all the threads of the process. Stop lists are handed out as
+ * unmodifiable sets, while models are immutable and thread-safe; the OpenNLP tagger wrappers are not, so a new one is
+ * created around the shared model at each request. Since {@link Analyzer#createComponents(String)} runs once per
+ * thread, each thread ends up with its own taggers at the cost of a cheap wrapper, instead of deserializing the whole
+ * model again. Taggers obtained this way are confined to their thread, so the filters using them need no locking.
+ * <p>
+ * Models, lemma dictionaries and gazetteers are registered by type and file name, and deserialized outside of the
+ * registry map: a thread requesting a resource being loaded waits for it, while the requests for any other resource go
+ * on. Stop lists and synonym maps, which are small or only memory-mapped, are instead loaded within
+ * {@link ConcurrentHashMap#computeIfAbsent}, briefly blocking the other requests of the same map.
+ *
+ * @author CLOSE GROUP
+ * @version 1.0
+ */
+public final class AnalyzerResources {
+
+    /**
+     * The class loader of this class. Needed for reading files from the {@code resource} directory.
+     */
+    private static final ClassLoader CL = AnalyzerResources.class.getClassLoader();
+
+    /**
+     * The French articles and pronouns removed by the elision filter.
+     */
+    public static final CharArraySet FRENCH_ELISIONS = CharArraySet.unmodifiableSet(
+            new CharArraySet(Arrays.asList("l", "d", "s", "t", "n", "m"), true));
+
+    /**
+     * The stop lists loaded so far, by file name.
+     */
+    private static final Map<String, CharArraySet> STOP_LISTS = new ConcurrentHashMap<>();
+
+    /**
+     * The Apache OpenNLP models, lemma dictionaries and gazetteers loaded, or being loaded, so far, by type and file
+     * name.
+     */
+    private static final Map<ModelKey, CompletableFuture<Object>> MODELS = new ConcurrentHashMap<>();
+
+    /**
+     * The synonym maps loaded so far, by absolute path.
+     */
+    private static final Map<Path, SynonymMap> SYNONYM_MAPS = new ConcurrentHashMap<>();
+
+    /**
+     * The key of a model in the registry: the same file may be loaded as different types.
+     *
+     * @param type the type of the model.
+     * @param file the name of the file containing the model.
+     */
+    private record ModelKey(Class<?> type, String file) {
+    }
+
+    /**
+     * A model loader which can fail with an {@code IOException}.
+     *
+     * @param <M> the type of the model.
+     */
+    @FunctionalInterface
+    private interface ModelLoader<M> {
+
+        /**
+         * Deserializes the model.
+         *
+         * @param in the stream to read the model from.
+         * @return the model.
+         * @throws IOException if something goes wrong while reading the model.
+         */
+        M load(InputStream in) throws IOException;
+    }
+
+    /**
+     * This class is not meant to be instantiated.
+     */
+    private AnalyzerResources() {
+        throw new AssertionError("AnalyzerResources cannot be instantiated.");
+    }
+
+    /**
+     * Returns the required stop list, loading it the first time it is requested.
+     *
+     * @param stopFile the name of the file containing the stop list.
+     * @return the unmodifiable stop list.
+     * @throws IllegalStateException if there is any issue while loading the stop list.
+     */
+    public static CharArraySet stopList(final String stopFile) {
+
+        if (stopFile == null) {
+            throw new NullPointerException("Stop list file name cannot be null.");
+        }
+
+        return STOP_LISTS.computeIfAbsent(stopFile,
+                f -> CharArraySet.unmodifiableSet(AnalyzerUtil.loadStopList(f)));
+    }
+
+    /**
+     * Returns a new POS tagger, for the calling thread only, backed by the shared model.
+     *
+     * @param modelFile the name of the file containing the model.
+     * @return the POS tagger.
+     * @throws IllegalStateException if there is any issue while loading the model.
+     */
+    public static NLPPOSTaggerOp posTaggerOp(final String modelFile) {
+        try {
+            return new NLPPOSTaggerOp(model(modelFile, POSModel.class, POSModel::new));
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format("Unable to create the POS tagger %s: %s", modelFile,
+                    e.getMessage()), e);
+        }
+    }
+
+    /**
+     * Returns a new NER tagger, for the calling thread only, backed by the shared model.
+     *
+     * @param modelFile the name of the file containing the model.
+     * @return the NER tagger.
+     * @throws IllegalStateException if there is any issue while loading the model.
+     */
+    public static NLPNERTaggerOp nerTaggerOp(final String modelFile) {
+        return new NLPNERTaggerOp(model(modelFile, TokenNameFinderModel.class, TokenNameFinderModel::new));
+    }
+
+    /**
+     * Returns a new lemmatizer, for the calling thread only, backed by the shared model.
+     *
+     * @param modelFile the name of the file containing the model.
+     * @return the lemmatizer.
+     * @throws IllegalStateException if there is any issue while loading the model.
+     */
+    public static NLPLemmatizerOp lemmatizerOp(final String modelFile) {
+        try {
+            return new NLPLemmatizerOp(null, model(modelFile, LemmatizerModel.class, LemmatizerModel::new));
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format("Unable to create the lemmatizer %s: %s", modelFile,
+                    e.getMessage()), e);
+        }
+    }
+
+    /**
+     * Returns the required lemma dictionary, loading it the first time it is requested. The dictionary is shared by
+     * all the threads, each one looking it up through its own {@link LemmaDictionary.Lookup}.
+     *
+     * @param dictionaryFile the name of the file containing the dictionary.
+     * @return the lemma dictionary.
+     * @throws IllegalStateException if there is any issue while loading the dictionary.
+     */
+    public static LemmaDictionary lemmaDictionary(final String dictionaryFile) {
+        return model(dictionaryFile, LemmaDictionary.class, LemmaDictionary::load);
+    }
+
+    /**
+     * Returns the required gazetteer, loading it the first time it is requested. The gazetteer is shared by all the
+     * threads, each one matching it through its own {@link Gazetteer.Matcher}.
+     *
+     * @param gazetteerFile the name of the file containing the gazetteer.
+     * @return the gazetteer.
+     * @throws IllegalStateException if there is any issue while loading the gazetteer.
+     */
+    public static Gazetteer gazetteer(final String gazetteerFile) {
+        return model(gazetteerFile, Gazetteer.class, Gazetteer::load);
+    }
+
+    /**
+     * Returns the required synonym map, memory-mapping it the first time it is requested.
+     *
+     * @param synonymFile the path of the file containing the map, as written by {@link SynonymMapCompiler}.
+     * @return the synonym map.
+     * @throws IllegalStateException if there is any issue while loading the map.
+     */
+    public static SynonymMap synonymMap(final String synonymFile) {
+
+        if (synonymFile == null) {
+            throw new NullPointerException("Synonym map file name cannot be null.");
+        }
+
+        if (synonymFile.isEmpty()) {
+            throw new IllegalArgumentException("Synonym map file name cannot be empty.");
+        }
+
+        return SYNONYM_MAPS.computeIfAbsent(Paths.get(synonymFile).toAbsolutePath().normalize(), f -> {
+            try {
+                return SynonymMapCompiler.load(f);
+            } catch (IOException e) {
+                throw new IllegalStateException(String.format("Unable to load the synonym map %s: %s", f,
+                        e.getMessage()), e);
+            }
+        });
+    }
+
+    /**
+     * Returns a new sentence detector, for the calling thread only, backed by the shared model.
+     *
+     * @param modelFile the name of the file containing the model.
+     * @return the sentence detector.
+     * @throws IllegalStateException if there is any issue while loading the model.
+     */
+    public static NLPSentenceDetectorOp sentenceDetectorOp(final String modelFile) {
+        try {
+            return new NLPSentenceDetectorOp(model(modelFile, SentenceModel.class, SentenceModel::new));
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format("Unable to create the sentence detector %s: %s", modelFile,
+                    e.getMessage()), e);
+        }
+    }
+
+    /**
+     * Returns a new tokenizer, for the calling thread only, backed by the shared model.
+     *
+     * @param modelFile the name of the file containing the model.
+     * @return the tokenizer.
+     * @throws IllegalStateException if there is any issue while loading the model.
+     */
+    public static NLPTokenizerOp tokenizerOp(final String modelFile) {
+        return new NLPTokenizerOp(model(modelFile, TokenizerModel.class, TokenizerModel::new));
+    }
+
+    /**
+     * Returns the required model, loading it the first time it is requested. The first thread requesting the model
+     * loads it, while the others wait for it; if loading fails, the model is unregistered, so that the next request
+     * tries again.
+     *
+     * @param modelFile the name of the file containing the model.
+     * @param type      the type of the model.
+     * @param loader    the function deserializing the model.
+     * @param <M>       the type of the model.
+     * @return the shared model.
+     * @throws IllegalStateException if there is any issue while loading the model.
+     */
+    private static <M> M model(final String modelFile, final Class<M> type, final ModelLoader<M> loader) {
+
+        if (modelFile == null) {
+            throw new NullPointerException("Model file name cannot be null.");
+        }
+
+        if (modelFile.isEmpty()) {
+            throw new IllegalArgumentException("Model file name cannot be empty.");
+        }
+
+        final ModelKey key = new ModelKey(type, modelFile);
+
+        CompletableFuture<Object> model = MODELS.get(key);
+
+        if (model == null) {
+            final CompletableFuture<Object> loading = new CompletableFuture<>();
+
+            model = MODELS.putIfAbsent(key, loading);
+
+            if (model == null) {
+                model = loading;
+                try {
+                    loading.complete(load(modelFile, loader));
+                } catch (Throwable t) {
+                    // also on errors, e.g. from the static initializers of OpenNLP, or the waiting threads never wake up
+                    MODELS.remove(key, loading);
+                    loading.completeExceptionally(t);
+                    throw t;
+                }
+            }
+        }
+
+        try {
+            return type.cast(model.join());
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Deserializes a model from the {@code resources} directory.
+     *
+     * @param modelFile the name of the file containing the model.
+     * @param loader    the function deserializing the model.
+     * @param <M>       the type of the model.
+     * @return the model.
+     * @throws IllegalStateException if there is any issue while loading the model.
+     */
+    private static <M> M load(final String modelFile, final ModelLoader<M> loader) {
+
+        final InputStream resource = CL.getResourceAsStream(modelFile);
+        if (resource == null) {
+            throw new IllegalStateException(String.format("Unable to find the model %s.", modelFile));
+        }
+
+        try (InputStream in = new BufferedInputStream(resource)) {
+            return loader.load(in);
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format("Unable to load the model %s: %s", modelFile,
+                    e.getMessage()), e);
+        }
+    }
+
+    /**
+     * Main method to measure the startup and the per-thread warmup time of the analyzer, with and without the
+     * registry.
+     *
+     * @param args the arguments to be passed to the method: the number of threads, by default 4.
+     * @throws Exception if something goes wrong while measuring.
+     */
+    public static void main(String[] args) throws Exception {
+
+        final int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+
+        long start = System.nanoTime();
+        AnalyzerUtil.loadStopList("new-long-stoplist-fr.txt");
+        AnalyzerUtil.loadLemmatizerModel("en-lemmatizer.bin");
+        System.out.printf("Resources loaded without the registry in %d milliseconds.%n",
+                (System.nanoTime() - start) / 1_000_000);
+
+        start = System.nanoTime();
+        stopList("new-long-stoplist-fr.txt");
+        lemmatizerOp("en-lemmatizer.bin");
+        System.out.printf("Resources loaded by the registry (first time) in %d milliseconds.%n",
+                (System.nanoTime() - start) / 1_000_000);
+
+        final Analyzer a = new CloseAnalyzer(CloseAnalyzer.TokenizerType.Standard, 2, 15, false,
+                "new-long-stoplist-fr.txt", CloseAnalyzer.StemFilterType.French, null, null, false, true, true);
+
+        // each thread builds its own token stream components the first time it uses the analyzer
+        final Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(() -> {
+                final long t = System.nanoTime();
+                try (TokenStream ts = a.tokenStream("field", new StringReader("la maison est grande"))) {
+                    ts.reset();
+                    while (ts.incrementToken()) {
+                        // consume the stream
+                    }
+                    ts.end();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                System.out.printf("Thread %s warmed up in %d milliseconds.%n", Thread.currentThread().getName(),
+                        (System.nanoTime() - t) / 1_000_000);
+            });
+        }
+
+        start = System.nanoTime();
+        for (Thread w : workers) {
+            w.start();
+        }
+        for (Thread w : workers) {
+            w.join();
+        }
+        System.out.printf("%d thread(s) warmed up in %d milliseconds.%n", threads,
+                (System.nanoTime() - start) / 1_000_000);
+
+        a.close();
+    }
+}
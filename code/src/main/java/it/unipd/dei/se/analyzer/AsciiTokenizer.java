@@ -0,0 +1,552 @@
+package it.unipd.dei.se.analyzer;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.CharacterUtils;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.apache.lucene.util.ArrayUtil;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A tokenizer producing the same lower-cased tokens as a {@link StandardTokenizer} followed by a
+ * {@link LowerCaseFilter}, optimized for texts which are mostly ASCII.
+ * <p>
+ * The text is split into chunks at ASCII whitespace, where the Unicode word break rules followed by
+ * {@link StandardTokenizer} always break. Chunks made only of ASCII characters are tokenized and lower-cased in a
+ * single loop, driven by a table of the word break classes of the ASCII characters: letters, digits, the
+ * {@code MidLetter} colon, the {@code MidNumLet} full stop and apostrophe, the {@code MidNum} comma and semicolon and
+ * the {@code ExtendNumLet} underscore. Chunks containing any non-ASCII character, or longer than the maximum token
+ * length, fall back to an inner {@link StandardTokenizer}.
+ *
+ * @author CLOSE GROUP
+ * @version 1.0
+ */
+public final class AsciiTokenizer extends Tokenizer {
+
+    /**
+     * The word break class of whitespace, where chunks are split.
+     */
+    private static final byte SPACE = 0;
+
+    /**
+     * The word break class of characters which are not part of any word.
+     */
+    private static final byte OTHER = 1;
+
+    /**
+     * The word break class of letters.
+     */
+    private static final byte LETTER = 2;
+
+    /**
+     * The word break class of digits.
+     */
+    private static final byte DIGIT = 3;
+
+    /**
+     * The word break class of the underscore, joining letters and digits.
+     */
+    private static final byte EXTEND = 4;
+
+    /**
+     * The word break class of the colon, joining letters.
+     */
+    private static final byte MID_LETTER = 5;
+
+    /**
+     * The word break class of the full stop and the apostrophe, joining letters or digits.
+     */
+    private static final byte MID_NUM_LET = 6;
+
+    /**
+     * The word break class of the comma and the semicolon, joining digits.
+     */
+    private static final byte MID_NUM = 7;
+
+    /**
+     * The word break class of each ASCII character.
+     */
+    private static final byte[] CLASSES = new byte[128];
+
+    static {
+        for (int c = 0; c < 128; c++) {
+            if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z') {
+                CLASSES[c] = LETTER;
+            } else if (c >= '0' && c <= '9') {
+                CLASSES[c] = DIGIT;
+            } else {
+                CLASSES[c] = OTHER;
+            }
+        }
+
+        CLASSES[' '] = SPACE;
+        CLASSES['\t'] = SPACE;
+        CLASSES['\n'] = SPACE;
+        CLASSES['\r'] = SPACE;
+        CLASSES[0x0B] = SPACE;
+        CLASSES['\f'] = SPACE;
+
+        CLASSES['_'] = EXTEND;
+        CLASSES[':'] = MID_LETTER;
+        CLASSES['.'] = MID_NUM_LET;
+        CLASSES['\''] = MID_NUM_LET;
+        CLASSES[','] = MID_NUM;
+        CLASSES[';'] = MID_NUM;
+    }
+
+    /**
+     * The number of ASCII chunks in a row which ends a run of the fallback tokenizer.
+     */
+    private static final int ASCII_RUN = 32;
+
+    /**
+     * The type of the tokens made only of digits.
+     */
+    private static final String NUM = StandardTokenizer.TOKEN_TYPES[StandardTokenizer.NUM];
+
+    /**
+     * The type of the other tokens.
+     */
+    private static final String ALPHANUM = StandardTokenizer.TOKEN_TYPES[StandardTokenizer.ALPHANUM];
+
+    /**
+     * The term of the current token.
+     */
+    private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+
+    /**
+     * The offsets of the current token.
+     */
+    private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+
+    /**
+     * The position increment of the current token.
+     */
+    private final PositionIncrementAttribute posIncrAtt = addAttribute(PositionIncrementAttribute.class);
+
+    /**
+     * The type of the current token.
+     */
+    private final TypeAttribute typeAtt = addAttribute(TypeAttribute.class);
+
+    /**
+     * The tokenizer used for the chunks which are not pure ASCII.
+     */
+    private final StandardTokenizer fallback = new StandardTokenizer();
+
+    /**
+     * The term of the current token of the fallback tokenizer.
+     */
+    private final CharTermAttribute fallbackTermAtt = fallback.addAttribute(CharTermAttribute.class);
+
+    /**
+     * The offsets of the current token of the fallback tokenizer.
+     */
+    private final OffsetAttribute fallbackOffsetAtt = fallback.addAttribute(OffsetAttribute.class);
+
+    /**
+     * The position increment of the current token of the fallback tokenizer.
+     */
+    private final PositionIncrementAttribute fallbackPosIncrAtt =
+            fallback.addAttribute(PositionIncrementAttribute.class);
+
+    /**
+     * The type of the current token of the fallback tokenizer.
+     */
+    private final TypeAttribute fallbackTypeAtt = fallback.addAttribute(TypeAttribute.class);
+
+    /**
+     * The whole text.
+     */
+    private char[] buffer = new char[4096];
+
+    /**
+     * The length of the text.
+     */
+    private int length = 0;
+
+    /**
+     * The position of the next character to be tokenized.
+     */
+    private int position = 0;
+
+    /**
+     * The end of the current ASCII chunk.
+     */
+    private int chunkEnd = 0;
+
+    /**
+     * Whether the last chunk scanned can be tokenized by the fast path.
+     */
+    private boolean asciiChunk = false;
+
+    /**
+     * The start of the chunk being tokenized by the fallback tokenizer, {@code -1} if there is none.
+     */
+    private int fallbackStart = -1;
+
+    /**
+     * Creates a new ASCII tokenizer.
+     */
+    public AsciiTokenizer() {
+        super();
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+
+        clearAttributes();
+
+        while (true) {
+
+            // the fallback tokenizer is going through a non-ASCII chunk
+            if (fallbackStart >= 0) {
+                if (nextFallbackToken()) {
+                    return true;
+                }
+                continue;
+            }
+
+            // tokenize the rest of the current ASCII chunk
+            if (position < chunkEnd) {
+                if (nextAsciiToken()) {
+                    return true;
+                }
+                continue;
+            }
+
+            if (position >= length) {
+                return false;
+            }
+
+            nextChunk();
+        }
+    }
+
+    /**
+     * Finds the next chunk, either setting the end of the ASCII chunk or starting the fallback tokenizer.
+     * <p>
+     * The fallback tokenizer goes on over the following chunks until {@link #ASCII_RUN} ASCII chunks in a row are
+     * found, so that texts with many non-ASCII characters are not split into many small fallback runs.
+     *
+     * @throws IOException if the fallback tokenizer cannot be started.
+     */
+    private void nextChunk() throws IOException {
+
+        position = skipSpaces(position);
+
+        final int end = scanChunk(position);
+        if (asciiChunk) {
+            chunkEnd = end;
+            return;
+        }
+
+        int fallbackEnd = end;
+        int run = 0;
+        for (int p = skipSpaces(end); p < length && run < ASCII_RUN; p = skipSpaces(p)) {
+            final int e = scanChunk(p);
+            if (asciiChunk) {
+                run++;
+            } else {
+                run = 0;
+                fallbackEnd = e;
+            }
+            p = e;
+        }
+
+        fallbackStart = position;
+        fallback.setReader(new CharArrayReader(buffer, position, fallbackEnd - position));
+        fallback.reset();
+        position = fallbackEnd;
+        chunkEnd = fallbackEnd;
+    }
+
+    /**
+     * Skips the whitespace starting at the given position.
+     *
+     * @param from the position where to start.
+     * @return the position of the first character which is not whitespace.
+     */
+    private int skipSpaces(int from) {
+        while (from < length && buffer[from] < 128 && CLASSES[buffer[from]] == SPACE) {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * Finds the end of the chunk starting at the given position and sets {@link #asciiChunk}.
+     *
+     * @param from the start of the chunk.
+     * @return the end of the chunk.
+     */
+    private int scanChunk(final int from) {
+
+        final char[] b = buffer;
+        boolean ascii = true;
+        int end = from;
+        while (end < length) {
+            final char c = b[end];
+            if (c >= 128) {
+                ascii = false;
+            } else if (CLASSES[c] == SPACE) {
+                break;
+            }
+            end++;
+        }
+
+        asciiChunk = ascii && end - from <= StandardAnalyzer.DEFAULT_MAX_TOKEN_LENGTH;
+        return end;
+    }
+
+    /**
+     * Reads the next token of the current ASCII chunk.
+     *
+     * @return {@code true} if a token has been found; {@code false} if the chunk is over.
+     */
+    private boolean nextAsciiToken() {
+
+        final char[] b = buffer;
+        final int end = chunkEnd;
+        int i = position;
+
+        while (i < end) {
+
+            // skip the characters which cannot start a word
+            final byte first = CLASSES[b[i]];
+            if (first != LETTER && first != DIGIT && first != EXTEND) {
+                i++;
+                continue;
+            }
+
+            final int start = i;
+            boolean letters = first == LETTER;
+            boolean alphanumeric = first != EXTEND;
+            byte last = first;
+            i++;
+
+            while (i < end) {
+                final byte c = CLASSES[b[i]];
+
+                if (c == LETTER || c == DIGIT || c == EXTEND) {
+                    // letters, digits and underscores always stick together
+                    letters |= c == LETTER;
+                    alphanumeric |= c != EXTEND;
+                    last = c;
+                    i++;
+                } else if (i + 1 < end && (
+                        last == LETTER && (c == MID_LETTER || c == MID_NUM_LET) && CLASSES[b[i + 1]] == LETTER ||
+                        last == DIGIT && (c == MID_NUM || c == MID_NUM_LET) && CLASSES[b[i + 1]] == DIGIT)) {
+                    // a middle character between two letters or two digits
+                    i += 2;
+                } else {
+                    break;
+                }
+            }
+
+            // a run of underscores is not a word
+            if (!alphanumeric) {
+                continue;
+            }
+
+            final int n = i - start;
+            final char[] term = termAtt.resizeBuffer(n);
+            for (int k = 0; k < n; k++) {
+                final char c = b[start + k];
+                term[k] = c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+            }
+            termAtt.setLength(n);
+
+            offsetAtt.setOffset(correctOffset(start), correctOffset(i));
+            posIncrAtt.setPositionIncrement(1);
+            typeAtt.setType(letters ? ALPHANUM : NUM);
+
+            position = i;
+            return true;
+        }
+
+        position = end;
+        return false;
+    }
+
+    /**
+     * Reads the next token of the chunk being tokenized by the fallback tokenizer, lower-casing it.
+     *
+     * @return {@code true} if a token has been found; {@code false} if the chunk is over.
+     * @throws IOException if something goes wrong while tokenizing the chunk.
+     */
+    private boolean nextFallbackToken() throws IOException {
+
+        if (!fallback.incrementToken()) {
+            fallback.end();
+            fallback.close();
+            fallbackStart = -1;
+            return false;
+        }
+
+        termAtt.copyBuffer(fallbackTermAtt.buffer(), 0, fallbackTermAtt.length());
+        CharacterUtils.toLowerCase(termAtt.buffer(), 0, termAtt.length());
+
+        offsetAtt.setOffset(correctOffset(fallbackStart + fallbackOffsetAtt.startOffset()),
+                correctOffset(fallbackStart + fallbackOffsetAtt.endOffset()));
+        posIncrAtt.setPositionIncrement(fallbackPosIncrAtt.getPositionIncrement());
+        typeAtt.setType(fallbackTypeAtt.type());
+
+        return true;
+    }
+
+    @Override
+    public void end() throws IOException {
+        super.end();
+
+        final int finalOffset = correctOffset(length);
+        offsetAtt.setOffset(finalOffset, finalOffset);
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+
+        // the whole text is read at once, so that chunks can be checked before being tokenized
+        length = 0;
+        int read;
+        while ((read = input.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+            if (length == buffer.length) {
+                buffer = ArrayUtil.grow(buffer, length + 1);
+            }
+        }
+
+        position = 0;
+        chunkEnd = 0;
+        if (fallbackStart >= 0) {
+            fallback.close();
+            fallbackStart = -1;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+
+        if (fallbackStart >= 0) {
+            fallback.close();
+            fallbackStart = -1;
+        }
+    }
+
+    /**
+     * Main method to check that the tokenizer produces the same tokens as the standard one, on random texts and,
+     * optionally, on a sample of the collection, and to compare their throughput.
+     *
+     * @param args the arguments to be passed to the method: optionally, a JSON file of the collection.
+     * @throws IOException if something goes wrong while tokenizing the texts.
+     */
+    public static void main(String[] args) throws IOException {
+
+        final Analyzer ascii = new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName) {
+                return new TokenStreamComponents(new AsciiTokenizer());
+            }
+        };
+
+        final Analyzer standard = new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName) {
+                final Tokenizer source = new StandardTokenizer();
+                return new TokenStreamComponents(source, new LowerCaseFilter(source));
+            }
+        };
+
+        // random texts mixing the ASCII word break classes with a few non-ASCII characters
+        final String alphabet = "aAzZ09_:.',; \t\n-()/\"!?éÉ 中";
+        final Random rnd = new Random(42);
+        int mismatches = 0;
+        for (int t = 0; t < 100_000; t++) {
+            final StringBuilder sb = new StringBuilder();
+            for (int i = 0, n = rnd.nextInt(20); i < n; i++) {
+                sb.append(alphabet.charAt(rnd.nextInt(t % 2 == 0 ? alphabet.length() : alphabet.length() - 4)));
+            }
+            if (!dump(ascii, sb.toString()).equals(dump(standard, sb.toString()))) {
+                if (mismatches++ < 10) {
+                    System.out.printf("Mismatch on [%s]:%n+ ascii:    %s%n+ standard: %s%n", sb,
+                            dump(ascii, sb.toString()), dump(standard, sb.toString()));
+                }
+            }
+        }
+        System.out.printf("%d mismatch(es) on random texts.%n", mismatches);
+
+        if (args.length > 0) {
+            final List<String> bodies = AnalyzerBenchmark.loadBodies(args[0], "ISO-8859-1");
+
+            // the same documents with accents stripped and the other non-ASCII characters removed
+            final List<String> folded = new ArrayList<>(bodies.size());
+            for (String body : bodies) {
+                folded.add(Normalizer.normalize(body, Normalizer.Form.NFD).replaceAll("[^\\x00-\\x7F]", ""));
+            }
+
+            for (List<String> texts : List.of(bodies, folded)) {
+                mismatches = 0;
+                for (String text : texts) {
+                    if (!dump(ascii, text).equals(dump(standard, text))) {
+                        mismatches++;
+                    }
+                }
+
+                final AnalyzerBenchmark.Cost s = AnalyzerBenchmark.cost(standard, texts);
+                final AnalyzerBenchmark.Cost a = AnalyzerBenchmark.cost(ascii, texts);
+
+                System.out.printf("%s: %d mismatch(es) on %d document(s)%n", texts == bodies ? "Original" : "ASCII",
+                        mismatches, texts.size());
+                System.out.printf("+ standard: %.0f tokens/s, %.1f bytes/token%n", s.tokensPerSecond,
+                        s.bytesAllocatedPerToken);
+                System.out.printf("+ ascii:    %.0f tokens/s, %.1f bytes/token%n", a.tokensPerSecond,
+                        a.bytesAllocatedPerToken);
+            }
+        }
+
+        ascii.close();
+        standard.close();
+    }
+
+    /**
+     * Lists the term, offsets, position increment and type of all the tokens of a text.
+     *
+     * @param a    the analyzer to use.
+     * @param text the text to tokenize.
+     * @return the list of the tokens.
+     * @throws IOException if something goes wrong while tokenizing the text.
+     */
+    private static String dump(final Analyzer a, final String text) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        try (TokenStream ts = a.tokenStream("field", text)) {
+            final CharTermAttribute term = ts.addAttribute(CharTermAttribute.class);
+            final OffsetAttribute offset = ts.addAttribute(OffsetAttribute.class);
+            final PositionIncrementAttribute posIncr = ts.addAttribute(PositionIncrementAttribute.class);
+            final TypeAttribute type = ts.addAttribute(TypeAttribute.class);
+            ts.reset();
+            while (ts.incrementToken()) {
+                sb.append(term).append('[').append(offset.startOffset()).append(',').append(offset.endOffset())
+                        .append(',').append(posIncr.getPositionIncrement()).append(',').append(type.type())
+                        .append("] ");
+            }
+            ts.end();
+            sb.append("end=").append(offset.endOffset());
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,266 @@
+package it.unipd.dei.se.analyzer;
+
+import it.unipd.dei.se.parser.DocumentParser;
+import it.unipd.dei.se.parser.Text.ClefParser;
+import it.unipd.dei.se.parser.Text.ParsedTextDocument;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.StopFilter;
+import org.apache.lucene.analysis.fr.FrenchLightStemFilter;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.KeywordAttribute;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A filter memoizing the stems computed by any stemming filter which honours the {@link KeywordAttribute}.
+ * <p>
+ * The filter places a lookup stage in front of the stemmer and a store stage after it. When the term is in the
+ * {@link StemCache}, the lookup stage copies the cached stem straight into the {@link CharTermAttribute} and marks the
+ * token as a keyword, so that the stemmer leaves it alone; the store stage then restores the keyword flag. When the
+ * term is not in the cache, the store stage records the stem produced by the stemmer. Tokens which are already
+ * keywords are never cached nor changed.
+ * <p>
+ * The wrapped stemmer must emit exactly one token for each input token, as all the stemmers of
+ * {@link CloseAnalyzer.StemFilterType} do.
+ *
+ * @author CLOSE GROUP
+ * @version 1.0
+ */
+public final class CachingStemFilter extends TokenFilter {
+
+    /**
+     * The lookup stage in front of the stemmer.
+     */
+    private final Lookup lookup;
+
+    /**
+     * The term of the current token.
+     */
+    private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+
+    /**
+     * The keyword flag of the current token.
+     */
+    private final KeywordAttribute keywordAtt = addAttribute(KeywordAttribute.class);
+
+    /**
+     * What the lookup stage did with the current token.
+     */
+    private enum Outcome {
+        /**
+         * The token is a keyword and has been left untouched.
+         */
+        BYPASS,
+        /**
+         * The stem has been found in the cache.
+         */
+        HIT,
+        /**
+         * The stem has to be computed by the stemmer.
+         */
+        MISS
+    }
+
+    /**
+     * The stage looking up each term in the cache before the stemmer.
+     */
+    private static final class Lookup extends TokenFilter {
+
+        /**
+         * The cache of the stems.
+         */
+        private final StemCache cache;
+
+        /**
+         * The term of the current token.
+         */
+        private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+
+        /**
+         * The keyword flag of the current token.
+         */
+        private final KeywordAttribute keywordAtt = addAttribute(KeywordAttribute.class);
+
+        /**
+         * The original term of the current token, when it has been missed.
+         */
+        private char[] pending = new char[StemCache.MAX_TERM_LENGTH];
+
+        /**
+         * The length of the original term of the current token.
+         */
+        private int pendingLength;
+
+        /**
+         * What has been done with the current token.
+         */
+        private Outcome outcome = Outcome.BYPASS;
+
+        /**
+         * Creates the lookup stage.
+         *
+         * @param input the source of tokens.
+         * @param cache the cache of the stems.
+         */
+        private Lookup(final TokenStream input, final StemCache cache) {
+            super(input);
+            this.cache = cache;
+        }
+
+        @Override
+        public boolean incrementToken() throws IOException {
+
+            if (!input.incrementToken()) {
+                return false;
+            }
+
+            if (keywordAtt.isKeyword()) {
+                outcome = Outcome.BYPASS;
+            } else if (cache.lookup(termAtt.buffer(), termAtt.length())) {
+                termAtt.copyBuffer(cache.stemBuffer(), cache.stemOffset(), cache.stemLength());
+                keywordAtt.setKeyword(true);
+                outcome = Outcome.HIT;
+            } else {
+                pendingLength = termAtt.length();
+                if (pendingLength > pending.length) {
+                    pending = new char[pendingLength];
+                }
+                System.arraycopy(termAtt.buffer(), 0, pending, 0, pendingLength);
+                outcome = Outcome.MISS;
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Creates a new caching stem filter.
+     *
+     * @param input   the source of tokens for this filter.
+     * @param cache   the cache of the stems.
+     * @param stemmer the function wrapping a token stream with the stemming filter.
+     */
+    public CachingStemFilter(final TokenStream input, final StemCache cache,
+                             final Function<TokenStream, TokenStream> stemmer) {
+        this(new Lookup(input, cache), stemmer);
+    }
+
+    /**
+     * Creates a new caching stem filter around an already created lookup stage.
+     *
+     * @param lookup  the lookup stage.
+     * @param stemmer the function wrapping a token stream with the stemming filter.
+     */
+    private CachingStemFilter(final Lookup lookup, final Function<TokenStream, TokenStream> stemmer) {
+        super(stemmer.apply(lookup));
+        this.lookup = lookup;
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+
+        if (!input.incrementToken()) {
+            return false;
+        }
+
+        switch (lookup.outcome) {
+            case HIT:
+                keywordAtt.setKeyword(false);
+                break;
+
+            case MISS:
+                lookup.cache.put(lookup.pending, lookup.pendingLength, termAtt.buffer(), termAtt.length());
+                break;
+
+            default:
+                break;
+        }
+
+        return true;
+    }
+
+    /**
+     * Main method to report the hit rate of the cache and the throughput gain of the French chain on a sample of the
+     * collection.
+     *
+     * @param args the arguments to be passed to the method: a JSON file of the collection and, optionally, the
+     *             capacity of the cache.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 1) {
+            throw new IllegalArgumentException("Usage: CachingStemFilter <collection JSON file> [cache capacity]");
+        }
+
+        final int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 8192;
+
+        final List<String> bodies;
+        try (Stream<ParsedTextDocument> docs = DocumentParser.create(ClefParser.class,
+                Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.ISO_8859_1))) {
+            bodies = docs.map(ParsedTextDocument::getBody).collect(Collectors.toList());
+        }
+
+        final StemCache cache = new StemCache(capacity);
+
+        // warm up both chains before measuring
+        for (int i = 0; i < 3; i++) {
+            analyze(bodies, null);
+            analyze(bodies, new StemCache(capacity));
+        }
+
+        long start = System.nanoTime();
+        final long tokens = analyze(bodies, null);
+        final long plain = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        analyze(bodies, cache);
+        final long cached = System.nanoTime() - start;
+
+        System.out.printf("%d document(s), %d token(s)%n", bodies.size(), tokens);
+        System.out.printf("+ hit rate: %.2f%% (%d hits, %d misses, capacity %d)%n", cache.getHitRate() * 100,
+                cache.getHits(), cache.getMisses(), capacity);
+        System.out.printf("+ without cache: %.0f tokens/s%n", tokens / (plain / 1e9));
+        System.out.printf("+ with cache: %.0f tokens/s%n", tokens / (cached / 1e9));
+    }
+
+    /**
+     * Analyzes the given texts with the French chain of {@link CloseAnalyzer}.
+     *
+     * @param bodies the texts to analyze.
+     * @param cache  the cache of the stems, {@code null} not to use it.
+     * @return the number of produced tokens.
+     * @throws IOException if an I/O error occurs.
+     */
+    private static long analyze(final List<String> bodies, final StemCache cache) throws IOException {
+        final Tokenizer source = new StandardTokenizer();
+        TokenStream tokens = new StopFilter(new LowerCaseFilter(source),
+                AnalyzerResources.stopList("new-long-stoplist-fr.txt"));
+        tokens = cache == null ? new FrenchLightStemFilter(tokens)
+                : new CachingStemFilter(tokens, cache, FrenchLightStemFilter::new);
+
+        long count = 0;
+        for (String body : bodies) {
+            source.setReader(new StringReader(body));
+            tokens.reset();
+            while (tokens.incrementToken()) {
+                count++;
+            }
+            tokens.end();
+            tokens.close();
+        }
+        return count;
+    }
+}
@@ -52,6 +52,7 @@ public class CloseAnalyzer extends Analyzer {
      * WhitespaceTokenizer
      * LetterTokenizer
      * StandardTokenizer
+     * AsciiTokenizer
      */
     public enum TokenizerType
     {
@@ -67,6 +68,10 @@ public class CloseAnalyzer extends Analyzer {
          * StandardTokenizer
          */
         Standard,
+        /**
+         * AsciiTokenizer, the same tokens as StandardTokenizer, already lower-cased, faster on ASCII text
+         */
+        Ascii,
 
 
     }
@@ -121,8 +126,15 @@ public class CloseAnalyzer extends Analyzer {
 
     private final boolean frenchElisionFilter;
 
+    private final Integer stemCacheSize; //set to null if don't want to use
+
+    private final String lemmaDictionaryName; //set to null to lemmatize with the model only
+
+    private final String gazetteerName; //set to null to recognize entities with the NER models
+
     /**
-     * Creates a new instance of the analyzer.
+     * Creates a new instance of the analyzer. The options added since, e.g. the stem cache, the lemma dictionary and
+     * the gazetteer, are set through a {@link Builder}.
      * @param frenchElisionFilter boolean to indicate whether to use or not use the French elision filter
      * @param lemmatization boolean to indicate whether to use or not lemmatization
      * @param isEnglishPossessiveFilter boolean to indicate whether to use or not use the English possessive filter
@@ -139,30 +151,310 @@ public class CloseAnalyzer extends Analyzer {
                          boolean isEnglishPossessiveFilter, String stopFilterListName, StemFilterType stemFilterType,
                          Integer nGramFilterSize, Integer shingleFilterSize,
                          boolean useNLPFilter, boolean lemmatization, boolean frenchElisionFilter)
+    {
+        this(new Builder().tokenizer(tokenizerType).length(minLength, maxLength)
+                .englishPossessive(isEnglishPossessiveFilter).stopList(stopFilterListName).stemmer(stemFilterType)
+                .nGrams(nGramFilterSize).shingles(shingleFilterSize).nlp(useNLPFilter).lemmatization(lemmatization)
+                .frenchElision(frenchElisionFilter));
+    }
+
+    /**
+     * Creates a new instance of the analyzer with the options of a builder.
+     * @param b the builder holding the options.
+     */
+    private CloseAnalyzer(Builder b)
     {
         super();
 
-        this.tokenizerType = tokenizerType;
+        this.tokenizerType = b.tokenizerType;
+
+
+        this.minLength = b.minLength;
+        this.maxLength = b.maxLength;
 
+        this.isEnglishPossessiveFilter = b.isEnglishPossessiveFilter;
 
-        this.minLength = minLength;
-        this.maxLength = maxLength;
+        this.stopFilterListName = b.stopFilterListName;
 
-        this.isEnglishPossessiveFilter = isEnglishPossessiveFilter;
+        this.stemFilterType = b.stemFilterType;
 
-        this.stopFilterListName = stopFilterListName;
+        this.nGramFilterSize = b.nGramFilterSize;
 
-        this.stemFilterType = stemFilterType;
+        this.shingleFilterSize = b.shingleFilterSize;
 
-        this.nGramFilterSize = nGramFilterSize;
+        this.useNLPFilter = b.useNLPFilter;
 
-        this.shingleFilterSize = shingleFilterSize;
+        this.lemmatization = b.lemmatization;
 
-        this.useNLPFilter = useNLPFilter;
+        this.frenchElisionFilter = b.frenchElisionFilter;
 
-        this.lemmatization = lemmatization;
+        this.stemCacheSize = b.stemCacheSize;
 
-        this.frenchElisionFilter = frenchElisionFilter;
+        this.lemmaDictionaryName = b.lemmaDictionaryName;
+
+        this.gazetteerName = b.gazetteerName;
+    }
+
+    /**
+     * Collects the options of an analyzer. By default, texts are split by the {@link StandardTokenizer} and only
+     * lower-cased; each option adds the corresponding filter.
+     */
+    public static final class Builder {
+
+        /**
+         * The type of tokenizer.
+         */
+        private TokenizerType tokenizerType = TokenizerType.Standard;
+
+        /**
+         * The minimum length of the tokens, {@code null} not to filter them by length.
+         */
+        private Integer minLength = null;
+
+        /**
+         * The maximum length of the tokens, {@code null} not to filter them by length.
+         */
+        private Integer maxLength = null;
+
+        /**
+         * Whether to remove English possessives.
+         */
+        private boolean isEnglishPossessiveFilter = false;
+
+        /**
+         * The name of the stop list, {@code null} not to remove stop words.
+         */
+        private String stopFilterListName = null;
+
+        /**
+         * The type of stemming, {@code null} not to stem.
+         */
+        private StemFilterType stemFilterType = null;
+
+        /**
+         * The size of the n-grams, {@code null} not to produce them.
+         */
+        private Integer nGramFilterSize = null;
+
+        /**
+         * The size of the shingles, {@code null} not to produce them.
+         */
+        private Integer shingleFilterSize = null;
+
+        /**
+         * Whether to add the POS tags and the named entities.
+         */
+        private boolean useNLPFilter = false;
+
+        /**
+         * Whether to lemmatize.
+         */
+        private boolean lemmatization = false;
+
+        /**
+         * Whether to remove French elisions.
+         */
+        private boolean frenchElisionFilter = false;
+
+        /**
+         * The number of stems cached by each thread, {@code null} not to cache them.
+         */
+        private Integer stemCacheSize = null;
+
+        /**
+         * The name of the lemma dictionary, {@code null} to lemmatize with the model only.
+         */
+        private String lemmaDictionaryName = null;
+
+        /**
+         * The name of the gazetteer, {@code null} to recognize entities with the NER models.
+         */
+        private String gazetteerName = null;
+
+        /**
+         * Creates a new builder with the default options.
+         */
+        public Builder() {
+        }
+
+        /**
+         * Sets the type of tokenizer.
+         *
+         * @param tokenizerType the type of tokenizer.
+         * @return this builder.
+         * @throws NullPointerException if the type is {@code null}.
+         */
+        public Builder tokenizer(final TokenizerType tokenizerType) {
+
+            if (tokenizerType == null) {
+                throw new NullPointerException("Tokenizer type cannot be null.");
+            }
+
+            this.tokenizerType = tokenizerType;
+            return this;
+        }
+
+        /**
+         * Keeps only the tokens whose length is within the given bounds.
+         *
+         * @param minLength the minimum length of the tokens.
+         * @param maxLength the maximum length of the tokens.
+         * @return this builder.
+         * @throws IllegalArgumentException if the bounds are negative or the minimum is greater than the maximum.
+         */
+        public Builder length(final int minLength, final int maxLength) {
+
+            if (minLength < 0 || minLength > maxLength) {
+                throw new IllegalArgumentException(String.format("Invalid token length bounds: %d-%d.", minLength,
+                        maxLength));
+            }
+
+            this.minLength = minLength;
+            this.maxLength = maxLength;
+            return this;
+        }
+
+        /**
+         * Sets whether to remove English possessives.
+         *
+         * @param isEnglishPossessiveFilter {@code true} to remove English possessives.
+         * @return this builder.
+         */
+        public Builder englishPossessive(final boolean isEnglishPossessiveFilter) {
+            this.isEnglishPossessiveFilter = isEnglishPossessiveFilter;
+            return this;
+        }
+
+        /**
+         * Sets the stop list.
+         *
+         * @param stopFilterListName the name of the file in the "resources" folder to use as a word stop list,
+         *                           {@code null} not to remove stop words.
+         * @return this builder.
+         */
+        public Builder stopList(final String stopFilterListName) {
+            this.stopFilterListName = stopFilterListName;
+            return this;
+        }
+
+        /**
+         * Sets the type of stemming.
+         *
+         * @param stemFilterType the type of stemming, {@code null} not to stem.
+         * @return this builder.
+         */
+        public Builder stemmer(final StemFilterType stemFilterType) {
+            this.stemFilterType = stemFilterType;
+            return this;
+        }
+
+        /**
+         * Sets the size of the n-grams.
+         *
+         * @param nGramFilterSize the size of the n-grams, {@code null} not to produce them.
+         * @return this builder.
+         */
+        public Builder nGrams(final Integer nGramFilterSize) {
+            this.nGramFilterSize = nGramFilterSize;
+            return this;
+        }
+
+        /**
+         * Sets the size of the shingles.
+         *
+         * @param shingleFilterSize the size of the shingles, {@code null} not to produce them.
+         * @return this builder.
+         */
+        public Builder shingles(final Integer shingleFilterSize) {
+            this.shingleFilterSize = shingleFilterSize;
+            return this;
+        }
+
+        /**
+         * Sets whether to add the POS tags and the named entities.
+         *
+         * @param useNLPFilter {@code true} to use the NLP filter.
+         * @return this builder.
+         */
+        public Builder nlp(final boolean useNLPFilter) {
+            this.useNLPFilter = useNLPFilter;
+            return this;
+        }
+
+        /**
+         * Sets whether to lemmatize.
+         *
+         * @param lemmatization {@code true} to lemmatize.
+         * @return this builder.
+         */
+        public Builder lemmatization(final boolean lemmatization) {
+            this.lemmatization = lemmatization;
+            return this;
+        }
+
+        /**
+         * Sets whether to remove French elisions.
+         *
+         * @param frenchElisionFilter {@code true} to use the French elision filter.
+         * @return this builder.
+         */
+        public Builder frenchElision(final boolean frenchElisionFilter) {
+            this.frenchElisionFilter = frenchElisionFilter;
+            return this;
+        }
+
+        /**
+         * Sets the number of stems cached by each thread.
+         *
+         * @param stemCacheSize the number of cached stems, {@code null} not to cache them.
+         * @return this builder.
+         * @throws IllegalArgumentException if the size is not positive.
+         */
+        public Builder stemCache(final Integer stemCacheSize) {
+
+            if (stemCacheSize != null && stemCacheSize <= 0) {
+                throw new IllegalArgumentException(String.format("Stem cache size must be positive: %d given.",
+                        stemCacheSize));
+            }
+
+            this.stemCacheSize = stemCacheSize;
+            return this;
+        }
+
+        /**
+         * Sets the lemma dictionary looked up before the lemmatizer model.
+         *
+         * @param lemmaDictionaryName the name of the file in the "resources" folder containing the lemma dictionary,
+         *                            {@code null} to lemmatize with the model only.
+         * @return this builder.
+         */
+        public Builder lemmaDictionary(final String lemmaDictionaryName) {
+            this.lemmaDictionaryName = lemmaDictionaryName;
+            return this;
+        }
+
+        /**
+         * Sets the gazetteer used by the NLP filter instead of the NER models, whose output is not equivalent, see
+         * {@link GazetteerEntityFilter}. With {@link TokenizerType#Ascii}, whose tokens are lower-cased, the entities
+         * are matched lower-cased too.
+         *
+         * @param gazetteerName the name of the file in the "resources" folder containing the gazetteer, {@code null}
+         *                      to recognize entities with the NER models.
+         * @return this builder.
+         */
+        public Builder gazetteer(final String gazetteerName) {
+            this.gazetteerName = gazetteerName;
+            return this;
+        }
+
+        /**
+         * Creates an analyzer with the options of this builder.
+         *
+         * @return the analyzer.
+         */
+        public CloseAnalyzer build() {
+            return new CloseAnalyzer(this);
+        }
     }
 
 
@@ -186,9 +478,14 @@ public class CloseAnalyzer extends Analyzer {
             case Standard:
                 source = new StandardTokenizer();
                 break;
+
+            case Ascii:
+                source = new AsciiTokenizer();
+                break;
         }
 
-        tokens = new LowerCaseFilter(source);
+        // the ASCII tokenizer already lower-cases its tokens
+        tokens = tokenizerType == TokenizerType.Ascii ? source : new LowerCaseFilter(source);
 
         //tokens = new ASCIIFoldingFilter(source);
 
@@ -201,40 +498,86 @@ public class CloseAnalyzer extends Analyzer {
         }
 
         if (stopFilterListName != null) {
-            tokens = new StopFilter(tokens, loadStopList(stopFilterListName));
+            tokens = new StopFilter(tokens, AnalyzerResources.stopList(stopFilterListName));
         }
 
 
 
-      /*  SynonymMap.Builder builder = new SynonymMap.Builder(true);
+        // synonyms are expanded at query time only, see QuerySynonymAnalyzer and SynonymMapCompiler
+
+
+        if (stemCacheSize != null) {
+            // the components are created once per thread, so is the cache
+            tokens = new CachingStemFilter(tokens, new StemCache(stemCacheSize), this::stemFilter);
+        } else {
+            tokens = stemFilter(tokens);
+        }
+
+        if (nGramFilterSize != null) {
+            tokens = new NGramTokenFilter(tokens, nGramFilterSize);
+        }
 
-    // Lettura del file contenente i sinonimi
-        Path synonymsFile = Paths.get("python_scripts/synonyms-french.txt");
-        List<String> lines = null;
-        try {
-            lines = Files.readAllLines(synonymsFile);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+        if (shingleFilterSize != null) {
+            tokens = new ShingleFilter(tokens, shingleFilterSize);
         }
 
-        // Aggiunta dei sinonimi alla SynonymMap.Builder
-        for (String line : lines) {
-            String[] words = line.split(", ");
-            for (int i = 1; i < words.length; i++) {
-                builder.add(new CharsRef(words[i]), new CharsRef(words[0].toLowerCase()), true);
+        if (useNLPFilter) {
+            tokens = new OpenNLPPOSFilter(source, AnalyzerResources.posTaggerOp("en-pos-maxent.bin"));
+
+            if (gazetteerName != null) {
+                final Gazetteer gazetteer = AnalyzerResources.gazetteer(gazetteerName);
+                try {
+                    // the NLP filters see the tokens of the tokenizer, which the ASCII tokenizer already lower-cases
+                    tokens = new GazetteerEntityFilter(tokens,
+                            tokenizerType == TokenizerType.Ascii ? gazetteer.lowerCase() : gazetteer);
+                } catch (IOException e) {
+                    throw new IllegalStateException(String.format("Unable to lower-case the gazetteer %s: %s",
+                            gazetteerName, e.getMessage()), e);
+                }
+            } else {
+                // a single pass over each sentence runs all the NER models
+                tokens = new OpenNLPNERFilter(tokens,
+                        AnalyzerResources.nerTaggerOp("en-ner-location.bin"),
+                        AnalyzerResources.nerTaggerOp("en-ner-person.bin"),
+                        AnalyzerResources.nerTaggerOp("en-ner-organization.bin")
+                        //AnalyzerResources.nerTaggerOp("en-ner-money.bin"),
+                        //AnalyzerResources.nerTaggerOp("en-ner-date.bin"),
+                        //AnalyzerResources.nerTaggerOp("en-ner-time.bin")
+                );
             }
+
+            tokens = new TypeAsSynonymFilter(tokens, "<nlp>");
+
         }
 
-    // Creazione della SynonymMap
-        SynonymMap synonymMap = null;
-        try {
-            synonymMap = builder.build();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }*/
+        if (lemmatization) {
 
-        //tokens = new SynonymGraphFilter(tokens, synonymMap, true);
+            if (lemmaDictionaryName != null) {
+                tokens = new DictionaryLemmatizerFilter(tokens, AnalyzerResources.lemmaDictionary(lemmaDictionaryName),
+                        AnalyzerResources.lemmatizerOp("en-lemmatizer.bin"));
+            } else {
+                tokens = new OpenNLPLemmatizerFilter(tokens, AnalyzerResources.lemmatizerOp("en-lemmatizer.bin"));
+            }
+        }
+
+        if(frenchElisionFilter) {
+            tokens = new ElisionFilter(tokens, AnalyzerResources.FRENCH_ELISIONS);
+        }
+
+        return new TokenStreamComponents(source, tokens);
+
+    }
 
+    /**
+     * Adds the stemming filter of the configured type to the given tokens.
+     *
+     * @param tokens the tokens to be stemmed.
+     * @return the stemmed tokens, or the given ones if no stemming is configured.
+     */
+    private TokenStream stemFilter(TokenStream tokens) {
+        if (stemFilterType == null) {
+            return tokens;
+        }
 
         switch (stemFilterType) {
             case EnglishMinimal:
@@ -253,53 +596,29 @@ public class CloseAnalyzer extends Analyzer {
                 tokens = new FrenchLightStemFilter(tokens);
                 break;
 
-            /*case Lovins:
-                tokens = new LovinsStemFilter(tokens);
-                break;*/
-
-        }
-
-        if (nGramFilterSize != null) {
-            tokens = new NGramTokenFilter(tokens, nGramFilterSize);
-        }
-
-        if (shingleFilterSize != null) {
-            tokens = new ShingleFilter(tokens, shingleFilterSize);
-        }
-
-        if (useNLPFilter) {
-            tokens = new OpenNLPPOSFilter(source, loadPosTaggerModel("en-pos-maxent.bin"));
-
-            tokens = new OpenNLPNERFilter(tokens, loadLNerTaggerModel("en-ner-location.bin"));
-
-            tokens = new OpenNLPNERFilter(tokens, loadLNerTaggerModel("en-ner-person.bin"));
-
-            tokens = new OpenNLPNERFilter(tokens, loadLNerTaggerModel("en-ner-organization.bin"));
-
-            //tokens = new OpenNLPNERFilter(tokens, loadLNerTaggerModel("en-ner-money.bin"));
-
-            //tokens = new OpenNLPNERFilter(tokens, loadLNerTaggerModel("en-ner-date.bin"));
-
-            //tokens = new OpenNLPNERFilter(tokens, loadLNerTaggerModel("en-ner-time.bin"));
-
-            tokens = new TypeAsSynonymFilter(tokens, "<nlp>");
-
-        }
-
-        if (lemmatization) {
-
-            tokens = new OpenNLPLemmatizerFilter(tokens, loadLemmatizerModel("en-lemmatizer.bin"));
-        }
+            case Lovins:
+                tokens = new LovinsStemmerFilter(tokens);
+                break;
 
-        if(frenchElisionFilter) {
-            Character[] elisionsList = {'l', 'd', 's', 't', 'n', 'm'};
-            CharArraySet elisionArray = new CharArraySet(elisionsList.length, true);
-            elisionArray.addAll(Arrays.asList(elisionsList));
-            tokens = new ElisionFilter(tokens, elisionArray);
         }
 
-        return new TokenStreamComponents(source, tokens);
+        return tokens;
+    }
 
+    /**
+     * Returns the configuration of the analyzer, so that two analyzers with the same configuration, which produce the
+     * same tokens, have the same description. The size of the stem cache is left out, since it does not change the
+     * tokens.
+     *
+     * @return the configuration of the analyzer.
+     */
+    @Override
+    public String toString() {
+        return String.format("CloseAnalyzer(tokenizer=%s, length=%s-%s, possessive=%b, stopList=%s, stem=%s, " +
+                        "nGrams=%s, shingles=%s, nlp=%b, lemmatization=%b, elision=%b, lemmaDictionary=%s, " +
+                        "gazetteer=%s)", tokenizerType, minLength, maxLength, isEnglishPossessiveFilter,
+                stopFilterListName, stemFilterType, nGramFilterSize, shingleFilterSize, useNLPFilter, lemmatization,
+                frenchElisionFilter, lemmaDictionaryName, gazetteerName);
     }
 
     /**
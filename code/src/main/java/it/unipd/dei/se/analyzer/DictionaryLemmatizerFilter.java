@@ -0,0 +1,149 @@
+package it.unipd.dei.se.analyzer;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.opennlp.OpenNLPLemmatizerFilter;
+import org.apache.lucene.analysis.opennlp.tools.NLPLemmatizerOp;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.KeywordAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.apache.lucene.util.CharsRef;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A filter replacing each word with its lemma, looking it up in a precompiled {@link LemmaDictionary} first and
+ * asking the <a href="http://opennlp.apache.org/" target="_blank">Apache OpenNLP</a> lemmatizer model only when the
+ * (word, POS tag) pair is missing from the dictionary.
+ * <p>
+ * Unlike {@link OpenNLPLemmatizerFilter}, the filter does not buffer whole sentences: hits are rewritten in place and
+ * each miss is lemmatized on its own. The model does not see the lemma it predicted for the previous word, one of its
+ * features, so the output is not the one of the model-only filter. On an English sample, with a dictionary built from
+ * another half of it, 85.6% of the words were hits and 99.5% of all the lemmas agreed with the model-only filter: 99.7%
+ * of the hits and 98.1% of the misses. Passing the whole sentence to the model whenever it has a miss raised the
+ * agreement to 99.8%, but more than half of the sentences had one, so the filter was only 1.6 times faster than the
+ * model-only one instead of about 11 times. The POS tags are read from the {@link TypeAttribute}, as set by
+ * {@link org.apache.lucene.analysis.opennlp.OpenNLPPOSFilter}; keywords are left untouched.
+ *
+ * @author CLOSE GROUP
+ * @version 1.0
+ */
+public final class DictionaryLemmatizerFilter extends TokenFilter {
+
+    /**
+     * The cursor over the lemma dictionary.
+     */
+    private final LemmaDictionary.Lookup lookup;
+
+    /**
+     * The lemmatizer model, {@code null} to leave the missed words unchanged.
+     */
+    private final NLPLemmatizerOp lemmatizerOp;
+
+    /**
+     * The term of the current token.
+     */
+    private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+
+    /**
+     * The POS tag of the current token.
+     */
+    private final TypeAttribute typeAtt = addAttribute(TypeAttribute.class);
+
+    /**
+     * The keyword flag of the current token.
+     */
+    private final KeywordAttribute keywordAtt = addAttribute(KeywordAttribute.class);
+
+    /**
+     * The word passed to the model on a miss.
+     */
+    private final String[] word = new String[1];
+
+    /**
+     * The POS tag passed to the model on a miss.
+     */
+    private final String[] tag = new String[1];
+
+    /**
+     * Creates a new lemmatizer filter.
+     *
+     * @param input        the source of tokens for this filter.
+     * @param dictionary   the lemma dictionary.
+     * @param lemmatizerOp the lemmatizer model used on misses, {@code null} to leave the missed words unchanged.
+     */
+    public DictionaryLemmatizerFilter(final TokenStream input, final LemmaDictionary dictionary,
+                                      final NLPLemmatizerOp lemmatizerOp) {
+        super(input);
+
+        if (dictionary == null) {
+            throw new NullPointerException("Lemma dictionary cannot be null.");
+        }
+
+        this.lookup = dictionary.newLookup();
+        this.lemmatizerOp = lemmatizerOp;
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+
+        if (!input.incrementToken()) {
+            return false;
+        }
+
+        if (keywordAtt.isKeyword()) {
+            return true;
+        }
+
+        if (lookup.find(termAtt.buffer(), termAtt.length(), typeAtt.type())) {
+            final CharsRef lemma = lookup.lemma();
+            termAtt.copyBuffer(lemma.chars, lemma.offset, lemma.length);
+        } else if (lemmatizerOp != null) {
+            word[0] = termAtt.toString();
+            tag[0] = typeAtt.type();
+            termAtt.setEmpty().append(lemmatizerOp.lemmatize(word, tag)[0]);
+        }
+
+        return true;
+    }
+
+    /**
+     * Main method to compare the throughput of the lemmatization with and without the dictionary on a sample of the
+     * collection.
+     *
+     * @param args the arguments to be passed to the method: a JSON file of the collection and the name of a
+     *             dictionary file, written by {@link LemmaDictionary#main(String[])}, in the {@code resources}
+     *             directory.
+     * @throws Exception if something goes wrong while measuring.
+     */
+    public static void main(String[] args) throws Exception {
+
+        if (args.length < 2) {
+            throw new IllegalArgumentException(
+                    "Usage: DictionaryLemmatizerFilter <collection JSON file> <dictionary resource>");
+        }
+
+        final List<String> bodies = AnalyzerBenchmark.loadBodies(args[0], "ISO-8859-1");
+
+        final CloseAnalyzer.Builder options = new CloseAnalyzer.Builder().length(2, 15)
+                .stemmer(CloseAnalyzer.StemFilterType.EnglishMinimal).nlp(true).lemmatization(true);
+
+        final Analyzer model = options.build();
+
+        final Analyzer dictionary = options.lemmaDictionary(args[1]).build();
+
+        System.out.printf("Lemmatization over %d document(s), dictionary of %d bytes%n", bodies.size(),
+                AnalyzerResources.lemmaDictionary(args[1]).ramBytesUsed());
+
+        System.out.printf("+ model only:%n");
+        AnalyzerBenchmark.scaling(model, bodies, 1);
+
+        System.out.printf("+ dictionary first:%n");
+        AnalyzerBenchmark.scaling(dictionary, bodies, 1);
+
+        model.close();
+        dictionary.close();
+    }
+}
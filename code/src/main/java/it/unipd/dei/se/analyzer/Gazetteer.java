@@ -0,0 +1,577 @@
+package it.unipd.dei.se.analyzer;
+
+import it.unipd.dei.se.parser.Text.ParsedTextDocument;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.CharacterUtils;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.KeywordAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.apache.lucene.store.InputStreamDataInput;
+import org.apache.lucene.store.OutputStreamDataOutput;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.FSTCompiler;
+import org.apache.lucene.util.fst.IntsRefFSTEnum;
+import org.apache.lucene.util.fst.PositiveIntOutputs;
+import org.apache.lucene.util.fst.Util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A list of known entities, each one a sequence of tokens with its type, compiled into a Lucene {@link FST}.
+ * <p>
+ * Entities are keyed by their tokens joined by a {@link #SEPARATOR}, which is also how {@link OpenNLPNERFilter}
+ * merges the tokens of an entity, and the FST maps each key to the index of its type. A {@link Matcher} walks the FST
+ * one token at a time, so that {@link GazetteerEntityFilter} finds the longest entity starting at each token without
+ * allocating memory. The gazetteer is immutable and can be shared by all the threads, each one using its own
+ * {@link Matcher}.
+ * <p>
+ * Entities are matched case-sensitively, as their tokens were added; {@link #lowerCase()} gives the copy to match
+ * against lower-cased tokens.
+ * <p>
+ * Gazetteers are created by a {@link Builder}, either from lists of entities or from the entities recognized by a
+ * one-off pass of the NER models over a sample of the collection.
+ *
+ * @author CLOSE GROUP
+ * @version 1.0
+ */
+public final class Gazetteer {
+
+    /**
+     * The character separating the tokens of an entity in the keys.
+     */
+    public static final char SEPARATOR = ' ';
+
+    /**
+     * The outputs of the FST.
+     */
+    private static final PositiveIntOutputs OUTPUTS = PositiveIntOutputs.getSingleton();
+
+    /**
+     * The FST from keys to the indexes of the types.
+     */
+    private final FST<Long> fst;
+
+    /**
+     * The entity types.
+     */
+    private final String[] types;
+
+    /**
+     * The maximum number of tokens of an entity.
+     */
+    private final int maxTokens;
+
+    /**
+     * The lower-cased copy of the gazetteer, created the first time it is requested.
+     */
+    private Gazetteer lowerCased = null;
+
+    /**
+     * A non-thread-safe cursor walking the gazetteer one token at a time.
+     */
+    public final class Matcher {
+
+        /**
+         * The reader of the FST.
+         */
+        private final FST.BytesReader reader = fst.getBytesReader();
+
+        /**
+         * The arc being followed.
+         */
+        private final FST.Arc<Long> arc = new FST.Arc<>();
+
+        /**
+         * The output accumulated along the followed arcs.
+         */
+        private long output;
+
+        /**
+         * The number of tokens followed since the last call to {@link #start()}.
+         */
+        private int tokens;
+
+        /**
+         * Creates a new cursor.
+         */
+        private Matcher() {
+        }
+
+        /**
+         * Moves the cursor back to the root of the gazetteer, before the first token of an entity.
+         */
+        public void start() {
+            fst.getFirstArc(arc);
+            output = 0;
+            tokens = 0;
+        }
+
+        /**
+         * Follows the next token of an entity.
+         *
+         * @param term   the buffer containing the term of the token.
+         * @param length the length of the term.
+         * @return {@code true} if some entity starts with the tokens followed so far; {@code false} otherwise, and the
+         * cursor must be started again.
+         * @throws IOException if something goes wrong while reading the FST.
+         */
+        public boolean next(final char[] term, final int length) throws IOException {
+
+            if (tokens > 0 && !follow(SEPARATOR)) {
+                return false;
+            }
+
+            for (int i = 0; i < length; i++) {
+                if (!follow(term[i])) {
+                    return false;
+                }
+            }
+
+            tokens++;
+            return true;
+        }
+
+        /**
+         * Indicates whether the tokens followed so far are an entity.
+         *
+         * @return {@code true} if they are an entity; {@code false} otherwise.
+         */
+        public boolean isEntity() {
+            return arc.isFinal();
+        }
+
+        /**
+         * Returns the type of the entity made of the tokens followed so far.
+         *
+         * @return the type of the entity.
+         * @throws IllegalStateException if the tokens are not an entity.
+         */
+        public String type() {
+
+            if (!arc.isFinal()) {
+                throw new IllegalStateException("The tokens followed so far are not an entity.");
+            }
+
+            return types[(int) (output + arc.nextFinalOutput())];
+        }
+
+        /**
+         * Follows the arc labelled with the given character, adding its output.
+         *
+         * @param label the character.
+         * @return {@code true} if the arc exists; {@code false} otherwise.
+         * @throws IOException if something goes wrong while reading the FST.
+         */
+        private boolean follow(final char label) throws IOException {
+            if (fst.findTargetArc(label, arc, arc, reader) == null) {
+                return false;
+            }
+            output += arc.output();
+            return true;
+        }
+    }
+
+    /**
+     * Collects the entities of a gazetteer and compiles them.
+     */
+    public static final class Builder {
+
+        /**
+         * The type of each entity, keyed by its tokens joined by a {@link #SEPARATOR}.
+         */
+        private final Map<String, String> entities = new HashMap<>();
+
+        /**
+         * Creates a new, empty, builder.
+         */
+        public Builder() {
+        }
+
+        /**
+         * Adds an entity, replacing its type if it was already added.
+         *
+         * @param type   the type of the entity.
+         * @param tokens the tokens of the entity, as they reach the entity filter.
+         * @return this builder.
+         */
+        public Builder add(final String type, final String... tokens) {
+
+            if (type == null) {
+                throw new NullPointerException("Type cannot be null.");
+            }
+
+            if (type.isEmpty()) {
+                throw new IllegalArgumentException("Type cannot be empty.");
+            }
+
+            if (tokens == null) {
+                throw new NullPointerException("Tokens cannot be null.");
+            }
+
+            if (tokens.length == 0) {
+                throw new IllegalArgumentException("An entity needs at least one token.");
+            }
+
+            for (String t : tokens) {
+                if (t.isEmpty() || t.indexOf(SEPARATOR) >= 0) {
+                    throw new IllegalArgumentException(String.format(
+                            "Token [%s] cannot be empty or contain the separator.", t));
+                }
+            }
+
+            entities.put(String.join(String.valueOf(SEPARATOR), tokens), type);
+            return this;
+        }
+
+        /**
+         * Adds a list of entities of the same type, splitting each one into tokens with the given analyzer.
+         * Entities the analyzer reduces to nothing are skipped.
+         *
+         * @param analyzer the analyzer producing the tokens which reach the entity filter.
+         * @param type     the type of the entities.
+         * @param names    the entities.
+         * @return the number of added entities.
+         * @throws IOException if something goes wrong while analyzing the entities.
+         */
+        public int addAll(final Analyzer analyzer, final String type, final Iterable<String> names)
+                throws IOException {
+
+            int added = 0;
+            final List<String> tokens = new ArrayList<>();
+
+            for (String name : names) {
+                try (TokenStream stream = analyzer.tokenStream(ParsedTextDocument.Fields.BODY, name)) {
+
+                    final CharTermAttribute termAtt = stream.addAttribute(CharTermAttribute.class);
+
+                    stream.reset();
+                    while (stream.incrementToken()) {
+                        tokens.add(termAtt.toString());
+                    }
+                    stream.end();
+                }
+
+                if (!tokens.isEmpty()) {
+                    add(type, tokens.toArray(new String[0]));
+                    added++;
+                    tokens.clear();
+                }
+            }
+
+            return added;
+        }
+
+        /**
+         * Runs an analyzer including the NER models over the given texts and adds the entities it recognizes at least
+         * {@code minFrequency} times, with the type they were given most often.
+         * <p>
+         * Entities are the keyword tokens produced by {@link OpenNLPNERFilter}; tokens stacked on others, such as the
+         * types added as synonyms, are skipped.
+         *
+         * @param analyzer     the analyzer including the NER models.
+         * @param texts        the texts to process.
+         * @param minFrequency the minimum number of occurrences of an entity to be added.
+         * @return the number of added entities.
+         * @throws IOException if something goes wrong while processing the texts.
+         */
+        public int collect(final Analyzer analyzer, final Iterable<String> texts, final int minFrequency)
+                throws IOException {
+
+            if (minFrequency <= 0) {
+                throw new IllegalArgumentException("Minimum frequency cannot be less than or equal to zero.");
+            }
+
+            // the counts of the types of each entity
+            final Map<String, Map<String, Integer>> counts = new HashMap<>();
+
+            for (String text : texts) {
+                try (TokenStream stream = analyzer.tokenStream(ParsedTextDocument.Fields.BODY, text)) {
+
+                    final CharTermAttribute termAtt = stream.addAttribute(CharTermAttribute.class);
+                    final TypeAttribute typeAtt = stream.addAttribute(TypeAttribute.class);
+                    final KeywordAttribute keywordAtt = stream.addAttribute(KeywordAttribute.class);
+                    final PositionIncrementAttribute posIncrAtt =
+                            stream.addAttribute(PositionIncrementAttribute.class);
+
+                    stream.reset();
+                    while (stream.incrementToken()) {
+                        if (keywordAtt.isKeyword() && posIncrAtt.getPositionIncrement() > 0) {
+                            counts.computeIfAbsent(termAtt.toString(), k -> new HashMap<>())
+                                    .merge(typeAtt.type(), 1, Integer::sum);
+                        }
+                    }
+                    stream.end();
+                }
+            }
+
+            int added = 0;
+
+            for (Map.Entry<String, Map<String, Integer>> entity : counts.entrySet()) {
+
+                int total = 0;
+                int best = 0;
+                String type = null;
+
+                for (Map.Entry<String, Integer> e : entity.getValue().entrySet()) {
+                    total += e.getValue();
+                    if (e.getValue() > best) {
+                        best = e.getValue();
+                        type = e.getKey();
+                    }
+                }
+
+                if (total >= minFrequency) {
+                    entities.put(entity.getKey(), type);
+                    added++;
+                }
+            }
+
+            return added;
+        }
+
+        /**
+         * Returns the number of entities added so far.
+         *
+         * @return the number of entities.
+         */
+        public int size() {
+            return entities.size();
+        }
+
+        /**
+         * Compiles the added entities into a gazetteer.
+         *
+         * @return the gazetteer.
+         * @throws IOException           if something goes wrong while compiling the FST.
+         * @throws IllegalStateException if no entity has been added.
+         */
+        public Gazetteer build() throws IOException {
+
+            if (entities.isEmpty()) {
+                throw new IllegalStateException("A gazetteer needs at least one entity.");
+            }
+
+            final String[] types = new TreeSet<>(entities.values()).toArray(new String[0]);
+            final Map<String, Long> indexes = new HashMap<>();
+            for (int i = 0; i < types.length; i++) {
+                indexes.put(types[i], (long) i);
+            }
+
+            final FSTCompiler<Long> compiler = new FSTCompiler<>(FST.INPUT_TYPE.BYTE2, OUTPUTS);
+            final IntsRefBuilder key = new IntsRefBuilder();
+            int maxTokens = 0;
+
+            // the FST needs its inputs sorted by code unit, which is the natural order of the strings
+            for (Map.Entry<String, String> e : new TreeMap<>(entities).entrySet()) {
+                compiler.add(Util.toUTF16(e.getKey(), key), indexes.get(e.getValue()));
+                maxTokens = Math.max(maxTokens, e.getKey().split(String.valueOf(SEPARATOR)).length);
+            }
+
+            return new Gazetteer(compiler.compile(), types, maxTokens);
+        }
+    }
+
+    /**
+     * Creates a new gazetteer around an already compiled FST.
+     *
+     * @param fst       the FST from keys to the indexes of the types.
+     * @param types     the entity types.
+     * @param maxTokens the maximum number of tokens of an entity.
+     */
+    private Gazetteer(final FST<Long> fst, final String[] types, final int maxTokens) {
+        this.fst = fst;
+        this.types = types;
+        this.maxTokens = maxTokens;
+    }
+
+    /**
+     * Returns a new cursor over the gazetteer, for the calling thread only.
+     *
+     * @return the cursor.
+     */
+    public Matcher newMatcher() {
+        return new Matcher();
+    }
+
+    /**
+     * Returns a copy of the gazetteer whose entities are lower-cased as by {@link LowerCaseFilter}, to be matched
+     * against tokens already lower-cased by the tokenizer, e.g. by {@link AsciiTokenizer}. Entities differing only in
+     * case are merged, keeping the type of the last one in the order of their keys. The copy is created the first time
+     * it is requested and then shared.
+     *
+     * @return the lower-cased gazetteer.
+     * @throws IOException if something goes wrong while reading or compiling the FST.
+     */
+    public synchronized Gazetteer lowerCase() throws IOException {
+
+        if (lowerCased == null) {
+            final Builder builder = new Builder();
+            final IntsRefFSTEnum<Long> entities = new IntsRefFSTEnum<>(fst);
+
+            for (IntsRefFSTEnum.InputOutput<Long> e = entities.next(); e != null; e = entities.next()) {
+                final char[] key = new char[e.input.length];
+                for (int i = 0; i < key.length; i++) {
+                    key[i] = (char) e.input.ints[e.input.offset + i];
+                }
+                CharacterUtils.toLowerCase(key, 0, key.length);
+
+                builder.add(types[e.output.intValue()], new String(key).split(String.valueOf(SEPARATOR)));
+            }
+
+            lowerCased = builder.build();
+        }
+
+        return lowerCased;
+    }
+
+    /**
+     * Returns the maximum number of tokens of an entity, which bounds how far ahead the entity filter reads.
+     *
+     * @return the maximum number of tokens of an entity.
+     */
+    public int getMaxTokens() {
+        return maxTokens;
+    }
+
+    /**
+     * Returns the memory used by the gazetteer.
+     *
+     * @return the size of the FST in bytes.
+     */
+    public long ramBytesUsed() {
+        return fst.ramBytesUsed();
+    }
+
+    /**
+     * Reads a gazetteer previously written by {@link #save(OutputStream)}.
+     *
+     * @param in the stream to read the gazetteer from.
+     * @return the gazetteer.
+     * @throws IOException if something goes wrong while reading the gazetteer.
+     */
+    public static Gazetteer load(final InputStream in) throws IOException {
+
+        final InputStreamDataInput data = new InputStreamDataInput(in);
+
+        final String[] types = new String[data.readVInt()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = data.readString();
+        }
+
+        final int maxTokens = data.readVInt();
+
+        return new Gazetteer(new FST<>(data, data, OUTPUTS), types, maxTokens);
+    }
+
+    /**
+     * Writes the gazetteer.
+     *
+     * @param out the stream to write the gazetteer to.
+     * @throws IOException if something goes wrong while writing the gazetteer.
+     */
+    public void save(final OutputStream out) throws IOException {
+
+        final OutputStreamDataOutput data = new OutputStreamDataOutput(out);
+
+        data.writeVInt(types.length);
+        for (String type : types) {
+            data.writeString(type);
+        }
+
+        data.writeVInt(maxTokens);
+
+        fst.save(data, data);
+    }
+
+    /**
+     * Main method to compile a gazetteer.
+     * <p>
+     * Entity lists are files with one entity per line, split into tokens as {@link CloseAnalyzer} does before its NER
+     * filter; a JSON file of the collection is instead run through the NER models of {@link CloseAnalyzer}, keeping the
+     * entities recognized at least three times.
+     *
+     * @param args the arguments to be passed to the method: the gazetteer file to write followed by any number of
+     *             entity lists, as {@code <type>=<file>}, and JSON files of the collection.
+     * @throws IOException if something goes wrong while compiling the gazetteer.
+     */
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 2) {
+            throw new IllegalArgumentException(
+                    "Usage: Gazetteer <gazetteer file> (<type>=<entity list file> | <collection JSON file>)+");
+        }
+
+        final long start = System.currentTimeMillis();
+
+        final Builder builder = new Builder();
+
+        // the NER filter of CloseAnalyzer sees the tokens straight out of the tokenizer
+        final Analyzer lists = new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName) {
+                final Tokenizer source = new StandardTokenizer();
+                return new TokenStreamComponents(source);
+            }
+        };
+
+        for (int i = 1; i < args.length; i++) {
+
+            final int eq = args[i].indexOf('=');
+
+            if (eq > 0) {
+                final String type = args[i].substring(0, eq);
+                final List<String> names = Files.readAllLines(Paths.get(args[i].substring(eq + 1)),
+                        StandardCharsets.UTF_8);
+
+                System.out.printf("%d %s entit(ies) added from %s.%n", builder.addAll(lists, type, names), type,
+                        args[i].substring(eq + 1));
+            } else {
+                final Analyzer ner = new CloseAnalyzer(CloseAnalyzer.TokenizerType.Standard, 2, 15, false, null,
+                        CloseAnalyzer.StemFilterType.EnglishMinimal, null, null, true, false, false);
+
+                final List<String> bodies = AnalyzerBenchmark.loadBodies(args[i], "ISO-8859-1");
+
+                System.out.printf("%d entit(ies) recognized in %d document(s) of %s.%n",
+                        builder.collect(ner, bodies, 3), bodies.size(), args[i]);
+                ner.close();
+            }
+        }
+
+        lists.close();
+
+        final Gazetteer gazetteer = builder.build();
+
+        final Path file = Paths.get(args[0]);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            gazetteer.save(out);
+        }
+
+        // check that the gazetteer reads back
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            load(in);
+        }
+
+        System.out.printf("%d entit(ies) of %d type(s) compiled into %d bytes in %d milliseconds.%n", builder.size(),
+                gazetteer.types.length, gazetteer.ramBytesUsed(), System.currentTimeMillis() - start);
+    }
+}
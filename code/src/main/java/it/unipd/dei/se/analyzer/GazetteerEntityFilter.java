@@ -0,0 +1,391 @@
+package it.unipd.dei.se.analyzer;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.KeywordAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
+import org.apache.lucene.analysis.tokenattributes.SentenceAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A filter recognizing the entities listed in a {@link Gazetteer}, as a dictionary-lookup alternative to the maxent
+ * models of {@link OpenNLPNERFilter}.
+ * <p>
+ * At each token the longest entity of the gazetteer starting there, within the same sentence, is looked for, reading
+ * ahead at most as many tokens as the longest entity. The tokens of an entity are merged into a single token exactly as
+ * {@link OpenNLPNERFilter} does: the terms joined by a space, the type of the entity in the {@link TypeAttribute}, the
+ * spanned positions in the {@link PositionLengthAttribute} and the keyword flag set. The other tokens pass through
+ * unchanged. Tokens which do not start any entity are not buffered, while the tokens read ahead are buffered as
+ * captured states in arrays which are reused from one token to the next.
+ * <p>
+ * The output is <em>not</em> equivalent to that of {@link OpenNLPNERFilter}, and the two have not been compared, since
+ * the NER models are not in the "resources" folder. The gazetteer tags every occurrence of a listed entity regardless
+ * of its context, e.g. "Paris" as a location even in "Paris Hilton" unless the longer entity is listed too, and never
+ * tags an entity it does not list; the models weigh the context and can recognize unseen entities. Indexes built with
+ * either filter are therefore not interchangeable, and a run using the gazetteer must be evaluated on its own.
+ *
+ * @author CLOSE GROUP
+ * @version 1.0
+ */
+public final class GazetteerEntityFilter extends TokenFilter {
+
+    /**
+     * The cursor over the gazetteer.
+     */
+    private final Gazetteer.Matcher matcher;
+
+    /**
+     * The maximum number of tokens of an entity.
+     */
+    private final int maxTokens;
+
+    /**
+     * The term of the current token.
+     */
+    private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+
+    /**
+     * The offsets of the current token.
+     */
+    private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+
+    /**
+     * The position increment of the current token.
+     */
+    private final PositionIncrementAttribute posIncrAtt = addAttribute(PositionIncrementAttribute.class);
+
+    /**
+     * The position length of the current token.
+     */
+    private final PositionLengthAttribute posLenAtt = addAttribute(PositionLengthAttribute.class);
+
+    /**
+     * The type of the current token.
+     */
+    private final TypeAttribute typeAtt = addAttribute(TypeAttribute.class);
+
+    /**
+     * The keyword flag of the current token.
+     */
+    private final KeywordAttribute keywordAtt = addAttribute(KeywordAttribute.class);
+
+    /**
+     * The sentence of the current token.
+     */
+    private final SentenceAttribute sentenceAtt = addAttribute(SentenceAttribute.class);
+
+    /**
+     * The captured states of the buffered tokens.
+     */
+    private State[] states = new State[8];
+
+    /**
+     * The terms of the buffered tokens.
+     */
+    private char[][] terms = new char[8][16];
+
+    /**
+     * The lengths of the terms of the buffered tokens.
+     */
+    private int[] lengths = new int[8];
+
+    /**
+     * The position increments of the buffered tokens.
+     */
+    private int[] posIncrs = new int[8];
+
+    /**
+     * The start offsets of the buffered tokens.
+     */
+    private int[] startOffsets = new int[8];
+
+    /**
+     * The end offsets of the buffered tokens.
+     */
+    private int[] endOffsets = new int[8];
+
+    /**
+     * The sentences of the buffered tokens.
+     */
+    private int[] sentences = new int[8];
+
+    /**
+     * The index of the first buffered token.
+     */
+    private int head = 0;
+
+    /**
+     * The index after the last buffered token.
+     */
+    private int tail = 0;
+
+    /**
+     * Indicates whether there are more tokens in the stream.
+     */
+    private boolean moreTokensAvailable = true;
+
+    /**
+     * Creates a new gazetteer entity filter.
+     *
+     * @param input     the source of tokens for this filter.
+     * @param gazetteer the gazetteer listing the entities.
+     * @throws NullPointerException if the gazetteer is {@code null}.
+     */
+    public GazetteerEntityFilter(final TokenStream input, final Gazetteer gazetteer) {
+        super(input);
+
+        if (gazetteer == null) {
+            throw new NullPointerException("Gazetteer cannot be null.");
+        }
+
+        this.matcher = gazetteer.newMatcher();
+        this.maxTokens = gazetteer.getMaxTokens();
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+
+        if (head == tail) {
+
+            if (!moreTokensAvailable || !(moreTokensAvailable = input.incrementToken())) {
+                return false;
+            }
+
+            // no entity starts with the token: pass it through without buffering it
+            matcher.start();
+            if (!matcher.next(termAtt.buffer(), termAtt.length())) {
+                return true;
+            }
+
+            buffer();
+        }
+
+        // look for the longest entity starting at the first buffered token
+        matcher.start();
+        int entityTokens = 0;
+        String type = null;
+
+        for (int k = 0; k < maxTokens; k++) {
+
+            // reading a token may move the buffered ones to the front
+            if (head + k == tail && !read()) {
+                break;
+            }
+
+            final int i = head + k;
+            if (sentences[i] != sentences[head] || !matcher.next(terms[i], lengths[i])) {
+                break;
+            }
+
+            if (matcher.isEntity()) {
+                entityTokens = k + 1;
+                type = matcher.type();
+            }
+        }
+
+        if (entityTokens > 0) {
+            emitEntity(entityTokens, type);
+        } else {
+            restoreState(states[head]);
+            states[head++] = null;
+        }
+
+        return true;
+    }
+
+    /**
+     * Reads the next token of the stream and buffers it.
+     *
+     * @return {@code true} if there was one more token; {@code false} otherwise.
+     * @throws IOException if something goes wrong while reading the token.
+     */
+    private boolean read() throws IOException {
+
+        if (!moreTokensAvailable || !(moreTokensAvailable = input.incrementToken())) {
+            return false;
+        }
+
+        buffer();
+        return true;
+    }
+
+    /**
+     * Buffers the current token.
+     */
+    private void buffer() {
+
+        // the buffer is empty, or full: make room at its end
+        if (head == tail) {
+            head = 0;
+            tail = 0;
+        } else if (tail == states.length) {
+            compact();
+        }
+
+        final int n = termAtt.length();
+        if (terms[tail].length < n) {
+            terms[tail] = new char[ArrayUtil.oversize(n, Character.BYTES)];
+        }
+        System.arraycopy(termAtt.buffer(), 0, terms[tail], 0, n);
+
+        states[tail] = captureState();
+        lengths[tail] = n;
+        posIncrs[tail] = posIncrAtt.getPositionIncrement();
+        startOffsets[tail] = offsetAtt.startOffset();
+        endOffsets[tail] = offsetAtt.endOffset();
+        sentences[tail] = sentenceAtt.getSentenceIndex();
+        tail++;
+    }
+
+    /**
+     * Moves the buffered tokens to the front of the buffers, growing them if they are still full.
+     */
+    private void compact() {
+
+        if (head > 0) {
+            final int n = tail - head;
+            for (int i = 0; i < n; i++) {
+                // swap the term buffers, so that they are all kept
+                final char[] term = terms[i];
+                terms[i] = terms[head + i];
+                terms[head + i] = term;
+            }
+            System.arraycopy(states, head, states, 0, n);
+            Arrays.fill(states, n, tail, null);
+            System.arraycopy(lengths, head, lengths, 0, n);
+            System.arraycopy(posIncrs, head, posIncrs, 0, n);
+            System.arraycopy(startOffsets, head, startOffsets, 0, n);
+            System.arraycopy(endOffsets, head, endOffsets, 0, n);
+            System.arraycopy(sentences, head, sentences, 0, n);
+            head = 0;
+            tail = n;
+            return;
+        }
+
+        final int n = ArrayUtil.oversize(tail + 1, RamUsageEstimator.NUM_BYTES_OBJECT_REF);
+        states = Arrays.copyOf(states, n);
+        terms = Arrays.copyOf(terms, n);
+        for (int i = tail; i < n; i++) {
+            terms[i] = new char[16];
+        }
+        lengths = Arrays.copyOf(lengths, n);
+        posIncrs = Arrays.copyOf(posIncrs, n);
+        startOffsets = Arrays.copyOf(startOffsets, n);
+        endOffsets = Arrays.copyOf(endOffsets, n);
+        sentences = Arrays.copyOf(sentences, n);
+    }
+
+    /**
+     * Emits a single token for the first buffered tokens, making up an entity.
+     *
+     * @param entityTokens the number of tokens of the entity.
+     * @param type         the type of the entity.
+     */
+    private void emitEntity(final int entityTokens, final String type) {
+
+        // start from the attributes of the first token in the entity
+        restoreState(states[head]);
+
+        int length = lengths[head];
+        int spannedPositions = posIncrs[head];
+        for (int i = head + 1; i < head + entityTokens; i++) {
+            length += 1 + lengths[i];
+            spannedPositions += posIncrs[i];
+        }
+
+        // join the terms of the tokens with a separator
+        final char[] term = termAtt.resizeBuffer(length);
+        int offset = 0;
+        for (int i = head; i < head + entityTokens; i++) {
+            if (i > head) {
+                term[offset++] = Gazetteer.SEPARATOR;
+            }
+            System.arraycopy(terms[i], 0, term, offset, lengths[i]);
+            offset += lengths[i];
+        }
+        termAtt.setLength(length);
+
+        posIncrAtt.setPositionIncrement(1);
+        posLenAtt.setPositionLength(spannedPositions);
+        offsetAtt.setOffset(startOffsets[head], endOffsets[head + entityTokens - 1]);
+        typeAtt.setType(type);
+        keywordAtt.setKeyword(true);
+
+        Arrays.fill(states, head, head + entityTokens, null);
+        head += entityTokens;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+
+        moreTokensAvailable = true;
+        Arrays.fill(states, null);
+        head = 0;
+        tail = 0;
+    }
+
+    /**
+     * Main method to try the filter on a text with a small gazetteer and to compare its cost with the one of the
+     * tokenizer alone on a sample of the collection.
+     *
+     * @param args the arguments to be passed to the method: optionally, a JSON file of the collection.
+     * @throws IOException if something goes wrong while processing the texts.
+     */
+    public static void main(String[] args) throws IOException {
+
+        final Gazetteer gazetteer = new Gazetteer.Builder()
+                .add("location", "Paris")
+                .add("location", "New", "York")
+                .add("location", "New", "York", "City")
+                .add("organization", "United", "Nations")
+                .add("person", "Victor", "Hugo")
+                .build();
+
+        final Analyzer tokenizer = new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName) {
+                return new TokenStreamComponents(new StandardTokenizer());
+            }
+        };
+
+        final Analyzer entities = new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName) {
+                final Tokenizer source = new StandardTokenizer();
+                return new TokenStreamComponents(source, new GazetteerEntityFilter(source, gazetteer));
+            }
+        };
+
+        AnalyzerUtil.consumeTokenStream(entities,
+                "Victor Hugo left Paris for New York City, where the United Nations meet, and New Jersey.");
+
+        if (args.length > 0) {
+
+            final List<String> bodies = AnalyzerBenchmark.loadBodies(args[0], "ISO-8859-1");
+
+            final AnalyzerBenchmark.Cost t = AnalyzerBenchmark.cost(tokenizer, bodies);
+            final AnalyzerBenchmark.Cost e = AnalyzerBenchmark.cost(entities, bodies);
+
+            System.out.printf("+ tokenizer:            %.0f tokens/s, %.1f bytes/token%n", t.tokensPerSecond,
+                    t.bytesAllocatedPerToken);
+            System.out.printf("+ tokenizer + entities: %.0f tokens/s, %.1f bytes/token%n", e.tokensPerSecond,
+                    e.bytesAllocatedPerToken);
+        }
+
+        tokenizer.close();
+        entities.close();
+    }
+}
@@ -0,0 +1,258 @@
+package it.unipd.dei.se.analyzer;
+
+import it.unipd.dei.se.parser.Text.ParsedTextDocument;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.AnalyzerWrapper;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.ngram.NGramTokenFilter;
+import org.apache.lucene.analysis.shingle.ShingleFilter;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MultiTerms;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An analyzer hashing the character n-grams, or the shingles, of the tokens of another analyzer, for a field whose
+ * term dictionary has a fixed size whatever the size of the collection.
+ * <p>
+ * The n-grams are produced as by the {@code nGramFilterSize} and {@code shingleFilterSize} options of
+ * {@link CloseAnalyzer} and then replaced by {@link HashedNGramFilter} with compact binary terms, so the same analyzer
+ * is used for indexing the dedicated field and for expanding the queries over it. The token stream components are
+ * created once per thread, field and wrapped analyzer: when the wrapped analyzer is a {@link LanguageRoutingAnalyzer},
+ * each language gets its own components, so the texts are still routed to the chain of their language.
+ * <p>
+ * The wrapped analyzer is not closed with this one, since it is usually shared, e.g. with the index writer.
+ *
+ * @author CLOSE GROUP
+ * @version 1.0
+ */
+public class HashedNGramAnalyzer extends AnalyzerWrapper {
+
+    /**
+     * The kinds of n-grams which are hashed.
+     */
+    public enum Mode {
+        /**
+         * Character n-grams of each token
+         */
+        CHARACTER,
+        /**
+         * Shingles of consecutive tokens
+         */
+        SHINGLE
+    }
+
+    /**
+     * Reuses the token stream components per field and per analyzer producing the tokens, as resolved by
+     * {@link #getWrappedAnalyzer(String)} when the text is analyzed.
+     */
+    private static final ReuseStrategy PER_WRAPPED_ANALYZER_REUSE_STRATEGY = new ReuseStrategy() {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public TokenStreamComponents getReusableComponents(final Analyzer analyzer, final String fieldName) {
+            final Map<Analyzer, Map<String, TokenStreamComponents>> components =
+                    (Map<Analyzer, Map<String, TokenStreamComponents>>) getStoredValue(analyzer);
+            if (components == null) {
+                return null;
+            }
+
+            final Map<String, TokenStreamComponents> byField =
+                    components.get(((HashedNGramAnalyzer) analyzer).getWrappedAnalyzer(fieldName));
+            return byField != null ? byField.get(fieldName) : null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void setReusableComponents(final Analyzer analyzer, final String fieldName,
+                                          final TokenStreamComponents components) {
+            Map<Analyzer, Map<String, TokenStreamComponents>> stored =
+                    (Map<Analyzer, Map<String, TokenStreamComponents>>) getStoredValue(analyzer);
+            if (stored == null) {
+                stored = new HashMap<>();
+                setStoredValue(analyzer, stored);
+            }
+
+            stored.computeIfAbsent(((HashedNGramAnalyzer) analyzer).getWrappedAnalyzer(fieldName),
+                    k -> new HashMap<>()).put(fieldName, components);
+        }
+    };
+
+    /**
+     * The analyzer producing the tokens the n-grams are taken from.
+     */
+    private final Analyzer analyzer;
+
+    /**
+     * The kind of n-grams.
+     */
+    private final Mode mode;
+
+    /**
+     * The size of the n-grams, in characters or in tokens.
+     */
+    private final int size;
+
+    /**
+     * The number of bits of a bucket.
+     */
+    private final int bits;
+
+    /**
+     * Creates a new hashed n-gram analyzer.
+     *
+     * @param analyzer the analyzer producing the tokens the n-grams are taken from.
+     * @param mode     the kind of n-grams.
+     * @param size     the size of the n-grams, in characters or in tokens.
+     * @param bits     the number of bits of a bucket, so that there are at most {@code 2^bits} distinct terms.
+     * @throws NullPointerException     if the analyzer or the mode are {@code null}.
+     * @throws IllegalArgumentException if the size or the number of bits are out of range.
+     */
+    public HashedNGramAnalyzer(final Analyzer analyzer, final Mode mode, final int size, final int bits) {
+        super(PER_WRAPPED_ANALYZER_REUSE_STRATEGY);
+
+        if (analyzer == null) {
+            throw new NullPointerException("Analyzer cannot be null.");
+        }
+
+        if (mode == null) {
+            throw new NullPointerException("Mode cannot be null.");
+        }
+
+        if (size < (mode == Mode.SHINGLE ? 2 : 1)) {
+            throw new IllegalArgumentException(String.format("Invalid n-gram size for %s mode: %d.", mode, size));
+        }
+
+        if (bits <= 0 || bits > HashedNGramFilter.MAX_BITS) {
+            throw new IllegalArgumentException(String.format("Number of bits must be between 1 and %d: %d given.",
+                    HashedNGramFilter.MAX_BITS, bits));
+        }
+
+        this.analyzer = analyzer;
+        this.mode = mode;
+        this.size = size;
+        this.bits = bits;
+    }
+
+    /**
+     * Returns the analyzer producing the tokens, i.e. the chain of the current language of the calling thread when the
+     * wrapped analyzer is a {@link LanguageRoutingAnalyzer}.
+     *
+     * @param fieldName the name of the field.
+     * @return the analyzer producing the tokens.
+     */
+    @Override
+    protected Analyzer getWrappedAnalyzer(final String fieldName) {
+        return analyzer instanceof LanguageRoutingAnalyzer ? ((LanguageRoutingAnalyzer) analyzer).getRoutedAnalyzer()
+                : analyzer;
+    }
+
+    @Override
+    protected TokenStreamComponents wrapComponents(final String fieldName, final TokenStreamComponents components) {
+
+        TokenStream tokens = components.getTokenStream();
+
+        if (mode == Mode.CHARACTER) {
+            tokens = new NGramTokenFilter(tokens, size);
+        } else {
+            final ShingleFilter shingles = new ShingleFilter(tokens, size, size);
+            shingles.setOutputUnigrams(false);
+            tokens = shingles;
+        }
+
+        return new TokenStreamComponents(components.getSource(), new HashedNGramFilter(tokens, bits));
+    }
+
+    /**
+     * Main method to compare the term dictionary of the n-grams indexed as they are with the one of the hashed n-grams,
+     * on a sample of the collection.
+     *
+     * @param args the arguments to be passed to the method: a JSON file of the collection and, optionally, the number
+     *             of bits of a bucket, by default 20.
+     * @throws IOException if something goes wrong while indexing the sample.
+     */
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 1) {
+            throw new IllegalArgumentException("Usage: HashedNGramAnalyzer <collection JSON file> [bits]");
+        }
+
+        final int bits = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        final List<String> bodies = AnalyzerBenchmark.loadBodies(args[0], "ISO-8859-1");
+
+        for (Mode mode : Mode.values()) {
+
+            final Integer nGramSize = mode == Mode.CHARACTER ? 3 : null;
+            final Integer shingleSize = mode == Mode.SHINGLE ? 2 : null;
+
+            final Analyzer plain = new CloseAnalyzer(CloseAnalyzer.TokenizerType.Standard, 2, 15, false,
+                    "stoplist.txt", CloseAnalyzer.StemFilterType.Porter, nGramSize, shingleSize, false, false, false);
+
+            final Analyzer tokens = new CloseAnalyzer(CloseAnalyzer.TokenizerType.Standard, 2, 15, false,
+                    "stoplist.txt", CloseAnalyzer.StemFilterType.Porter, null, null, false, false, false);
+            final Analyzer hashed = new HashedNGramAnalyzer(tokens, mode, mode == Mode.CHARACTER ? 3 : 2, bits);
+
+            System.out.printf("%s n-grams of %d document(s)%n", mode, bodies.size());
+            dictionary("plain", plain, bodies);
+            dictionary(String.format("hashed, %d bits", bits), hashed, bodies);
+
+            plain.close();
+            hashed.close();
+            tokens.close();
+        }
+    }
+
+    /**
+     * Indexes the given texts in memory and prints the size of the resulting term dictionary and index.
+     *
+     * @param label    the label of the analyzer.
+     * @param analyzer the analyzer.
+     * @param texts    the texts to index.
+     * @throws IOException if something goes wrong while indexing the texts.
+     */
+    private static void dictionary(final String label, final Analyzer analyzer, final List<String> texts)
+            throws IOException {
+
+        final FieldType type = new FieldType();
+        type.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
+        type.setTokenized(true);
+        type.freeze();
+
+        final long start = System.currentTimeMillis();
+
+        try (Directory dir = new ByteBuffersDirectory()) {
+
+            try (IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(analyzer))) {
+                for (String text : texts) {
+                    final Document doc = new Document();
+                    doc.add(new Field(ParsedTextDocument.Fields.BODY, text, type));
+                    writer.addDocument(doc);
+                }
+                writer.forceMerge(1);
+            }
+
+            long bytes = 0;
+            for (String file : dir.listAll()) {
+                bytes += dir.fileLength(file);
+            }
+
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                System.out.printf("+ %s: %d term(s), %d Kbytes, indexed in %d milliseconds%n", label,
+                        MultiTerms.getTerms(reader, ParsedTextDocument.Fields.BODY).size(), bytes / 1024,
+                        System.currentTimeMillis() - start);
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package it.unipd.dei.se.analyzer;
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+
+import java.io.IOException;
+
+/**
+ * A filter replacing each term with the bucket it is hashed into, so that the number of distinct terms never exceeds
+ * the number of buckets.
+ * <p>
+ * Terms are hashed into {@code 2^bits} buckets and each bucket is written as a fixed-width term of 7-bit characters,
+ * most significant first, which Lucene encodes as one byte each: e.g., with 20 bits every term takes 3 bytes. Distinct
+ * terms falling into the same bucket are conflated, as usual with feature hashing.
+ *
+ * @author CLOSE GROUP
+ * @version 1.0
+ */
+public final class HashedNGramFilter extends TokenFilter {
+
+    /**
+     * The maximum number of bits of a bucket.
+     */
+    public static final int MAX_BITS = 28;
+
+    /**
+     * The number of bits written in each character of a hashed term.
+     */
+    private static final int BITS_PER_CHAR = 7;
+
+    /**
+     * The term of the current token.
+     */
+    private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+
+    /**
+     * The mask selecting the bits of a bucket.
+     */
+    private final int mask;
+
+    /**
+     * The number of characters of a hashed term.
+     */
+    private final int width;
+
+    /**
+     * Creates a new hashing filter.
+     *
+     * @param input the source of tokens for this filter.
+     * @param bits  the number of bits of a bucket, between 1 and {@link #MAX_BITS}.
+     * @throws IllegalArgumentException if the number of bits is out of range.
+     */
+    public HashedNGramFilter(final TokenStream input, final int bits) {
+        super(input);
+
+        if (bits <= 0 || bits > MAX_BITS) {
+            throw new IllegalArgumentException(
+                    String.format("Number of bits must be between 1 and %d: %d given.", MAX_BITS, bits));
+        }
+
+        this.mask = (1 << bits) - 1;
+        this.width = (bits + BITS_PER_CHAR - 1) / BITS_PER_CHAR;
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+
+        if (!input.incrementToken()) {
+            return false;
+        }
+
+        int bucket = hash(termAtt.buffer(), termAtt.length()) & mask;
+
+        final char[] term = termAtt.resizeBuffer(width);
+        for (int i = width - 1; i >= 0; i--) {
+            term[i] = (char) (bucket & ((1 << BITS_PER_CHAR) - 1));
+            bucket >>>= BITS_PER_CHAR;
+        }
+        termAtt.setLength(width);
+
+        return true;
+    }
+
+    /**
+     * Hashes a term, mixing the bits of the result as the finalizer of MurmurHash3 does.
+     *
+     * @param term   the buffer containing the term.
+     * @param length the length of the term.
+     * @return the hash of the term.
+     */
+    static int hash(final char[] term, final int length) {
+
+        int h = length;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + term[i];
+        }
+
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+
+        return h;
+    }
+}
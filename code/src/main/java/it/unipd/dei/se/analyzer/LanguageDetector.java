@@ -0,0 +1,393 @@
+package it.unipd.dei.se.analyzer;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * A character trigram language detector telling English texts from French ones.
+ * <p>
+ * Each language is profiled by the counts of the trigrams of a sample of its texts, stored in
+ * {@link #PROFILES_FILE} and compiled offline by {@link #main(String[])}. Trigrams are hashed into a small table
+ * holding, for each bucket, the log-ratio between the English and the French probability, so that detecting a
+ * language costs one table lookup per character. Only the first {@link #MAX_CHARS} characters of a text are looked
+ * at, and fewer when the language is already clear. The detector is immutable and thread-safe.
+ *
+ * @author CLOSE GROUP
+ * @version 1.0
+ */
+public final class LanguageDetector {
+
+    /**
+     * The languages told apart by the detector.
+     */
+    public enum Language {
+        /**
+         * English
+         */
+        ENGLISH("en"),
+        /**
+         * French
+         */
+        FRENCH("fr");
+
+        /**
+         * The code of the language in the profiles file.
+         */
+        private final String code;
+
+        /**
+         * Creates a new language.
+         *
+         * @param code the code of the language in the profiles file.
+         */
+        Language(final String code) {
+            this.code = code;
+        }
+    }
+
+    /**
+     * The name of the file, in the {@code resources} directory, containing the trigram profiles of the languages.
+     */
+    public static final String PROFILES_FILE = "language-profiles.txt";
+
+    /**
+     * The maximum number of characters of a text which are looked at.
+     */
+    public static final int MAX_CHARS = 1024;
+
+    /**
+     * The score beyond which a text is considered detected, without looking at the following characters.
+     */
+    private static final double MARGIN = 30;
+
+    /**
+     * The number of buckets of the trigram table.
+     */
+    private static final int BUCKETS = 1 << 14;
+
+    /**
+     * The class loader of this class. Needed for reading files from the {@code resource} directory.
+     */
+    private static final ClassLoader CL = LanguageDetector.class.getClassLoader();
+
+    /**
+     * Holds the detector shared by the whole process, loaded the first time it is requested.
+     */
+    private static final class Holder {
+
+        /**
+         * The detector profiled on {@link #PROFILES_FILE}.
+         */
+        private static final LanguageDetector INSTANCE = new LanguageDetector(readProfiles());
+    }
+
+    /**
+     * The log-ratio between the English and the French probability of each bucket.
+     */
+    private final float[] weights = new float[BUCKETS];
+
+    /**
+     * Creates a new detector.
+     *
+     * @param profiles the counts of the trigrams of each language.
+     */
+    private LanguageDetector(final Map<Language, Map<String, Integer>> profiles) {
+
+        final double[] english = logProbabilities(profiles.get(Language.ENGLISH));
+        final double[] french = logProbabilities(profiles.get(Language.FRENCH));
+
+        for (int i = 0; i < BUCKETS; i++) {
+            weights[i] = (float) (english[i] - french[i]);
+        }
+    }
+
+    /**
+     * Returns the detector shared by the whole process.
+     *
+     * @return the language detector.
+     * @throws IllegalStateException if the profiles cannot be read.
+     */
+    public static LanguageDetector getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Detects the language of a text, French if it cannot be told.
+     *
+     * @param text the text.
+     * @return the language of the text.
+     */
+    public Language detect(final CharSequence text) {
+        return score(text) > 0 ? Language.ENGLISH : Language.FRENCH;
+    }
+
+    /**
+     * Scores a text: the higher the score, the more likely the text is English. Scoring stops as soon as the score
+     * goes beyond a fixed margin.
+     *
+     * @param text the text.
+     * @return the log-ratio between the English and the French likelihood of the (scored part of the) text.
+     */
+    public double score(final CharSequence text) {
+
+        if (text == null) {
+            throw new NullPointerException("Text cannot be null.");
+        }
+
+        double score = 0;
+
+        // a text starts as if preceded by a space
+        char c1 = ' ';
+        char c2 = ' ';
+
+        for (int i = 0, n = Math.min(text.length(), MAX_CHARS); i < n; i++) {
+
+            final char c3 = normalize(text.charAt(i));
+
+            // collapse runs of separators
+            if (c3 == ' ' && c2 == ' ') {
+                continue;
+            }
+
+            score += weights[bucket(c1, c2, c3)];
+
+            if (score > MARGIN || score < -MARGIN) {
+                return score;
+            }
+
+            c1 = c2;
+            c2 = c3;
+        }
+
+        if (c2 != ' ') {
+            score += weights[bucket(c1, c2, ' ')];
+        }
+
+        return score;
+    }
+
+    /**
+     * Counts the trigrams of the given texts, normalized as they are when detecting a language.
+     *
+     * @param texts  the texts.
+     * @param counts the counts to update.
+     */
+    static void countTrigrams(final Iterable<String> texts, final Map<String, Integer> counts) {
+
+        final char[] trigram = new char[3];
+
+        for (String text : texts) {
+
+            char c1 = ' ';
+            char c2 = ' ';
+
+            for (int i = 0, n = text.length(); i <= n; i++) {
+                final char c3 = i < n ? normalize(text.charAt(i)) : ' ';
+
+                if (c3 == ' ' && c2 == ' ') {
+                    continue;
+                }
+
+                trigram[0] = c1;
+                trigram[1] = c2;
+                trigram[2] = c3;
+                counts.merge(new String(trigram), 1, Integer::sum);
+
+                c1 = c2;
+                c2 = c3;
+            }
+        }
+    }
+
+    /**
+     * Computes the smoothed log-probability of each bucket from the counts of the trigrams of a language.
+     *
+     * @param counts the counts of the trigrams.
+     * @return the log-probability of each bucket.
+     */
+    private static double[] logProbabilities(final Map<String, Integer> counts) {
+
+        final double[] p = new double[BUCKETS];
+        double total = 0;
+
+        for (Map.Entry<String, Integer> e : counts.entrySet()) {
+            final String t = e.getKey();
+            p[bucket(t.charAt(0), t.charAt(1), t.charAt(2))] += e.getValue();
+            total += e.getValue();
+        }
+
+        // add-one smoothing, so that unseen trigrams do not rule a language out
+        for (int i = 0; i < BUCKETS; i++) {
+            p[i] = Math.log((p[i] + 1) / (total + BUCKETS));
+        }
+
+        return p;
+    }
+
+    /**
+     * Reads the trigram profiles of the languages from {@link #PROFILES_FILE}, one tab-separated language code,
+     * trigram and count per line.
+     *
+     * @return the counts of the trigrams of each language.
+     * @throws IllegalStateException if the profiles cannot be read.
+     */
+    private static Map<Language, Map<String, Integer>> readProfiles() {
+
+        final InputStream resource = CL.getResourceAsStream(PROFILES_FILE);
+        if (resource == null) {
+            throw new IllegalStateException(String.format("Unable to find the language profiles %s.", PROFILES_FILE));
+        }
+
+        final Map<Language, Map<String, Integer>> profiles = new EnumMap<>(Language.class);
+        for (Language l : Language.values()) {
+            profiles.put(l, new HashMap<>());
+        }
+
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(resource, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                final String[] fields = line.split("\t");
+                for (Language l : Language.values()) {
+                    if (l.code.equals(fields[0])) {
+                        profiles.get(l).put(fields[1], Integer.parseInt(fields[2]));
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalStateException(String.format("Unable to read the language profiles %s: %s",
+                    PROFILES_FILE, e.getMessage()), e);
+        }
+
+        return profiles;
+    }
+
+    /**
+     * Reads the phrases of a query expansion file, a JSON object mapping each topic to a list of phrases.
+     *
+     * @param file the query expansion file.
+     * @return the phrases.
+     * @throws IOException if the file cannot be read.
+     */
+    private static List<String> readPhrases(final String file) throws IOException {
+        try (Reader in = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            final Map<String, List<String>> expansions = new Gson().fromJson(in,
+                    new TypeToken<Map<String, List<String>>>() {
+                    }.getType());
+            return expansions.values().stream().flatMap(List::stream).collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Reads a stop list from the {@code resources} directory.
+     *
+     * @param file the name of the file containing the stop list.
+     * @return the stop words.
+     * @throws IOException if the file cannot be read.
+     */
+    private static List<String> readWords(final String file) throws IOException {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(CL.getResourceAsStream(file),
+                StandardCharsets.UTF_8))) {
+            return in.lines().map(String::trim).filter(w -> !w.isEmpty()).collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Lower-cases letters and turns any other character into a space.
+     *
+     * @param c the character.
+     * @return the normalized character.
+     */
+    private static char normalize(final char c) {
+        return Character.isLetter(c) ? Character.toLowerCase(c) : ' ';
+    }
+
+    /**
+     * Hashes a trigram into a bucket of the table.
+     *
+     * @param c1 the first character.
+     * @param c2 the second character.
+     * @param c3 the third character.
+     * @return the bucket.
+     */
+    private static int bucket(final char c1, final char c2, final char c3) {
+        int h = (c1 * 31 + c2) * 31 + c3;
+        h *= 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (BUCKETS - 1);
+    }
+
+    /**
+     * Main method to compile the trigram profiles of the languages and to check the detector on held-out phrases.
+     * <p>
+     * Each language is profiled on its stop list and on the query expansions of the July topics; phrases found in the
+     * expansions of both languages, such as brand names, are left out. The detector is then checked on the expansions
+     * of the September topics.
+     *
+     * @param args the arguments to be passed to the method: the profiles file to write, by default
+     *             {@code src/main/resources/language-profiles.txt}.
+     * @throws IOException if something goes wrong while reading or writing the files.
+     */
+    public static void main(String[] args) throws IOException {
+
+        final String output = args.length > 0 ? args[0] : "src/main/resources/" + PROFILES_FILE;
+
+        final List<String> englishPhrases = readPhrases("python_scripts/test-english_short-july.json");
+        final List<String> frenchPhrases = readPhrases("python_scripts/test-french_short-july.json");
+
+        final Set<String> common = englishPhrases.stream().map(String::toLowerCase).collect(Collectors.toSet());
+        common.retainAll(frenchPhrases.stream().map(String::toLowerCase).collect(Collectors.toSet()));
+
+        final Map<Language, Map<String, Integer>> profiles = new EnumMap<>(Language.class);
+
+        final Map<String, Integer> english = new TreeMap<>();
+        countTrigrams(readWords("long-stoplist.txt"), english);
+        countTrigrams(englishPhrases.stream().filter(p -> !common.contains(p.toLowerCase()))
+                .collect(Collectors.toList()), english);
+        profiles.put(Language.ENGLISH, english);
+
+        final Map<String, Integer> french = new TreeMap<>();
+        countTrigrams(readWords("new-long-stoplist-fr.txt"), french);
+        countTrigrams(frenchPhrases.stream().filter(p -> !common.contains(p.toLowerCase()))
+                .collect(Collectors.toList()), french);
+        profiles.put(Language.FRENCH, french);
+
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8))) {
+            for (Map.Entry<Language, Map<String, Integer>> p : profiles.entrySet()) {
+                for (Map.Entry<String, Integer> e : p.getValue().entrySet()) {
+                    out.printf("%s\t%s\t%d%n", p.getKey().code, e.getKey(), e.getValue());
+                }
+            }
+        }
+
+        System.out.printf("%d English and %d French trigram(s) written to %s.%n", english.size(), french.size(),
+                output);
+
+        final LanguageDetector detector = new LanguageDetector(profiles);
+
+        for (Language l : Language.values()) {
+            final List<String> phrases = readPhrases(String.format("python_scripts/test-%s_long-september.json",
+                    l == Language.ENGLISH ? "english" : "french"));
+
+            final long correct = phrases.stream().filter(p -> detector.detect(p) == l).count();
+
+            System.out.printf("%s: %d out of %d held-out phrase(s) detected correctly.%n", l, correct,
+                    phrases.size());
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package it.unipd.dei.se.analyzer;
+
+import it.unipd.dei.se.analyzer.LanguageDetector.Language;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.DelegatingAnalyzerWrapper;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An analyzer routing each text to the chain of its language.
+ * <p>
+ * {@link DelegatingAnalyzerWrapper} chooses the wrapped analyzer by field name only, so the language of the text about
+ * to be analyzed is set beforehand, for the calling thread, by {@link #route(CharSequence)}: the indexer routes each
+ * document before adding it to the index and the searcher routes each topic before parsing it. The token stream
+ * components are still created once per thread and reused, since they are kept by the wrapped analyzers.
+ *
+ * @author CLOSE GROUP
+ * @version 1.0
+ */
+public class LanguageRoutingAnalyzer extends DelegatingAnalyzerWrapper {
+
+    /**
+     * The language detector.
+     */
+    private final LanguageDetector detector;
+
+    /**
+     * The analyzer of each language.
+     */
+    private final Map<Language, Analyzer> analyzers = new EnumMap<>(Language.class);
+
+    /**
+     * The language of the next text analyzed by each thread.
+     */
+    private final ThreadLocal<Language> language;
+
+    /**
+     * Creates a new language routing analyzer.
+     *
+     * @param english  the analyzer of English texts.
+     * @param french   the analyzer of French texts.
+     * @param fallback the language used by a thread until its first text is routed.
+     * @throws NullPointerException if any of the parameters is {@code null}.
+     */
+    public LanguageRoutingAnalyzer(final Analyzer english, final Analyzer french, final Language fallback) {
+        super(PER_FIELD_REUSE_STRATEGY);
+
+        if (english == null) {
+            throw new NullPointerException("English analyzer cannot be null.");
+        }
+
+        if (french == null) {
+            throw new NullPointerException("French analyzer cannot be null.");
+        }
+
+        if (fallback == null) {
+            throw new NullPointerException("Fallback language cannot be null.");
+        }
+
+        analyzers.put(Language.ENGLISH, english);
+        analyzers.put(Language.FRENCH, french);
+
+        this.detector = LanguageDetector.getInstance();
+        this.language = ThreadLocal.withInitial(() -> fallback);
+    }
+
+    /**
+     * Detects the language of a text and routes the next texts analyzed by the calling thread to its chain.
+     *
+     * @param text the text about to be analyzed.
+     * @return the detected language.
+     */
+    public Language route(final CharSequence text) {
+        final Language l = detector.detect(text);
+        language.set(l);
+        return l;
+    }
+
+    /**
+     * Routes the next texts analyzed by the calling thread to the chain of the given language.
+     *
+     * @param l the language.
+     */
+    public void setLanguage(final Language l) {
+
+        if (l == null) {
+            throw new NullPointerException("Language cannot be null.");
+        }
+
+        language.set(l);
+    }
+
+    /**
+     * Returns the analyzer of the language the next texts analyzed by the calling thread are routed to.
+     *
+     * @return the analyzer of the current language.
+     */
+    public Analyzer getRoutedAnalyzer() {
+        return analyzers.get(language.get());
+    }
+
+    @Override
+    protected Analyzer getWrappedAnalyzer(final String fieldName) {
+        return getRoutedAnalyzer();
+    }
+
+    @Override
+    public void close() {
+        for (Analyzer a : analyzers.values()) {
+            a.close();
+        }
+        super.close();
+    }
+
+    /**
+     * Main method to try the analyzer on an English and a French text, and to measure the cost of the detection
+     * against the one of the analysis on a sample of the collection.
+     *
+     * @param args the arguments to be passed to the method: optionally, a JSON file of the collection.
+     * @throws Exception if something goes wrong while processing the texts.
+     */
+    public static void main(String[] args) throws Exception {
+
+        final LanguageRoutingAnalyzer a = new LanguageRoutingAnalyzer(
+                new CloseAnalyzer(CloseAnalyzer.TokenizerType.Standard, 2, 15, false, "stoplist.txt",
+                        CloseAnalyzer.StemFilterType.Porter, null, null, false, false, false),
+                new CloseAnalyzer(CloseAnalyzer.TokenizerType.Standard, 2, 15, false, "new-long-stoplist-fr.txt",
+                        CloseAnalyzer.StemFilterType.French, null, null, false, false, true),
+                Language.FRENCH);
+
+        for (String text : new String[]{"The cheapest flights to Paris are booked online by the travellers",
+                "Les vols les moins chers pour Paris sont réservés en ligne par les voyageurs"}) {
+            System.out.printf("%s: %s%n", a.route(text), text);
+            AnalyzerUtil.consumeTokenStream(a, text);
+        }
+
+        if (args.length > 0) {
+
+            final List<String> bodies = AnalyzerBenchmark.loadBodies(args[0], "ISO-8859-1");
+            final LanguageDetector detector = LanguageDetector.getInstance();
+
+            // warm up both before measuring
+            for (int i = 0; i < 3; i++) {
+                for (String body : bodies) {
+                    detector.detect(body);
+                    AnalyzerBenchmark.countTokens(a, body);
+                }
+            }
+
+            int english = 0;
+            long start = System.nanoTime();
+            for (String body : bodies) {
+                if (detector.detect(body) == Language.ENGLISH) {
+                    english++;
+                }
+            }
+            final long detection = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (String body : bodies) {
+                a.route(body);
+                AnalyzerBenchmark.countTokens(a, body);
+            }
+            final long analysis = System.nanoTime() - start;
+
+            System.out.printf("%d document(s), %d English, %d French%n", bodies.size(), english,
+                    bodies.size() - english);
+            System.out.printf("Detection took %.2f%% of the analysis time.%n", 100.0 * detection / analysis);
+        }
+
+        a.close();
+    }
+}
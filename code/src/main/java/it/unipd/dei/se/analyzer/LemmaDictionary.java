@@ -0,0 +1,387 @@
+package it.unipd.dei.se.analyzer;
+
+import it.unipd.dei.se.parser.Text.ParsedTextDocument;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.opennlp.tools.NLPLemmatizerOp;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.KeywordAttribute;
+import org.apache.lucene.analysis.tokenattributes.SentenceAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.apache.lucene.store.InputStreamDataInput;
+import org.apache.lucene.store.OutputStreamDataOutput;
+import org.apache.lucene.util.CharsRef;
+import org.apache.lucene.util.CharsRefBuilder;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.fst.CharSequenceOutputs;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.FSTCompiler;
+import org.apache.lucene.util.fst.Util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A dictionary from (word, POS tag) pairs to their lemmas, compiled into a Lucene {@link FST}.
+ * <p>
+ * The dictionary is built offline by running the statistical lemmatizer over a sample of the collection and keeping,
+ * for each pair seen at least a given number of times, the lemma the model assigned most often. Pairs are keyed as
+ * the word, a {@link #SEPARATOR} and the tag, and the FST is traversed one {@code char} at a time, so a lookup does not
+ * allocate memory. The dictionary is immutable and can be shared by all the threads, each one using its own
+ * {@link Lookup}.
+ *
+ * @author CLOSE GROUP
+ * @version 1.0
+ */
+public final class LemmaDictionary {
+
+    /**
+     * The character separating the word from the POS tag in the keys.
+     */
+    public static final char SEPARATOR = '\u0000';
+
+    /**
+     * The outputs of the FST.
+     */
+    private static final CharSequenceOutputs OUTPUTS = CharSequenceOutputs.getSingleton();
+
+    /**
+     * The FST from keys to lemmas.
+     */
+    private final FST<CharsRef> fst;
+
+    /**
+     * A non-thread-safe cursor over the dictionary, reusing its buffers from one lookup to the next.
+     */
+    public final class Lookup {
+
+        /**
+         * The reader of the FST.
+         */
+        private final FST.BytesReader reader = fst.getBytesReader();
+
+        /**
+         * The arc being followed.
+         */
+        private final FST.Arc<CharsRef> arc = new FST.Arc<>();
+
+        /**
+         * The lemma found by the last successful lookup.
+         */
+        private final CharsRefBuilder lemma = new CharsRefBuilder();
+
+        /**
+         * Creates a new cursor.
+         */
+        private Lookup() {
+        }
+
+        /**
+         * Looks up the lemma of a word. On success the lemma can be read through {@link #lemma()} until the next call
+         * to this method.
+         *
+         * @param word   the buffer containing the word.
+         * @param length the length of the word.
+         * @param tag    the POS tag of the word.
+         * @return {@code true} if the pair is in the dictionary; {@code false} otherwise.
+         * @throws IOException if something goes wrong while reading the FST.
+         */
+        public boolean find(final char[] word, final int length, final CharSequence tag) throws IOException {
+
+            lemma.clear();
+            fst.getFirstArc(arc);
+
+            for (int i = 0; i < length; i++) {
+                if (!follow(word[i])) {
+                    return false;
+                }
+            }
+
+            if (!follow(SEPARATOR)) {
+                return false;
+            }
+
+            for (int i = 0, n = tag.length(); i < n; i++) {
+                if (!follow(tag.charAt(i))) {
+                    return false;
+                }
+            }
+
+            if (!arc.isFinal()) {
+                return false;
+            }
+
+            append(arc.nextFinalOutput());
+            return true;
+        }
+
+        /**
+         * Returns the lemma found by the last successful lookup.
+         *
+         * @return the lemma.
+         */
+        public CharsRef lemma() {
+            return lemma.get();
+        }
+
+        /**
+         * Follows the arc labelled with the given character, appending its output to the lemma.
+         *
+         * @param label the character.
+         * @return {@code true} if the arc exists; {@code false} otherwise.
+         * @throws IOException if something goes wrong while reading the FST.
+         */
+        private boolean follow(final char label) throws IOException {
+            if (fst.findTargetArc(label, arc, arc, reader) == null) {
+                return false;
+            }
+            append(arc.output());
+            return true;
+        }
+
+        /**
+         * Appends an output of the FST to the lemma.
+         *
+         * @param output the output.
+         */
+        private void append(final CharsRef output) {
+            if (output.length > 0) {
+                lemma.append(output.chars, output.offset, output.length);
+            }
+        }
+    }
+
+    /**
+     * Creates a new dictionary around an already compiled FST.
+     *
+     * @param fst the FST from keys to lemmas.
+     */
+    private LemmaDictionary(final FST<CharsRef> fst) {
+        this.fst = fst;
+    }
+
+    /**
+     * Returns a new cursor over the dictionary, for the calling thread only.
+     *
+     * @return the cursor.
+     */
+    public Lookup newLookup() {
+        return new Lookup();
+    }
+
+    /**
+     * Returns the memory used by the dictionary.
+     *
+     * @return the size of the FST in bytes.
+     */
+    public long ramBytesUsed() {
+        return fst.ramBytesUsed();
+    }
+
+    /**
+     * Reads a dictionary previously written by {@link #save(OutputStream)}.
+     *
+     * @param in the stream to read the dictionary from.
+     * @return the dictionary.
+     * @throws IOException if something goes wrong while reading the dictionary.
+     */
+    public static LemmaDictionary load(final InputStream in) throws IOException {
+        final InputStreamDataInput data = new InputStreamDataInput(in);
+        return new LemmaDictionary(new FST<>(data, data, OUTPUTS));
+    }
+
+    /**
+     * Writes the dictionary.
+     *
+     * @param out the stream to write the dictionary to.
+     * @throws IOException if something goes wrong while writing the dictionary.
+     */
+    public void save(final OutputStream out) throws IOException {
+        final OutputStreamDataOutput data = new OutputStreamDataOutput(out);
+        fst.save(data, data);
+    }
+
+    /**
+     * Compiles a dictionary from the given pairs.
+     *
+     * @param lemmas the lemmas of the pairs, keyed as the word, a {@link #SEPARATOR} and the POS tag.
+     * @return the dictionary.
+     * @throws IOException if something goes wrong while compiling the FST.
+     */
+    public static LemmaDictionary compile(final Map<String, String> lemmas) throws IOException {
+
+        if (lemmas == null) {
+            throw new NullPointerException("Lemmas cannot be null.");
+        }
+
+        final FSTCompiler<CharsRef> compiler = new FSTCompiler<>(FST.INPUT_TYPE.BYTE2, OUTPUTS);
+        final IntsRefBuilder key = new IntsRefBuilder();
+
+        // the FST needs its inputs sorted by code unit, which is the natural order of the strings
+        for (Map.Entry<String, String> e : new TreeMap<>(lemmas).entrySet()) {
+            compiler.add(Util.toUTF16(e.getKey(), key), new CharsRef(e.getValue()));
+        }
+
+        return new LemmaDictionary(compiler.compile());
+    }
+
+    /**
+     * Runs the lemmatizer model over the given texts, sentence by sentence as {@code OpenNLPLemmatizerFilter} does, and
+     * keeps the most frequent lemma of each (word, POS tag) pair seen at least {@code minFrequency} times.
+     *
+     * @param analyzer     the analyzer producing the tokens, tagged with their POS, which reach the lemmatizer.
+     * @param texts        the texts to process.
+     * @param lemmatizerOp the lemmatizer model.
+     * @param minFrequency the minimum number of occurrences of a pair to be kept.
+     * @return the lemmas of the kept pairs, keyed as the word, a {@link #SEPARATOR} and the POS tag.
+     * @throws IOException if something goes wrong while processing the texts.
+     */
+    public static Map<String, String> collect(final Analyzer analyzer, final Iterable<String> texts,
+                                              final NLPLemmatizerOp lemmatizerOp, final int minFrequency)
+            throws IOException {
+
+        if (minFrequency <= 0) {
+            throw new IllegalArgumentException("Minimum frequency cannot be less than or equal to zero.");
+        }
+
+        // the counts of the lemmas of each pair
+        final Map<String, Map<String, Integer>> counts = new HashMap<>();
+
+        final List<String> words = new ArrayList<>();
+        final List<String> tags = new ArrayList<>();
+
+        for (String text : texts) {
+            try (TokenStream stream = analyzer.tokenStream(ParsedTextDocument.Fields.BODY, text)) {
+
+                final CharTermAttribute termAtt = stream.addAttribute(CharTermAttribute.class);
+                final TypeAttribute typeAtt = stream.addAttribute(TypeAttribute.class);
+                final KeywordAttribute keywordAtt = stream.addAttribute(KeywordAttribute.class);
+                final SentenceAttribute sentenceAtt = stream.addAttribute(SentenceAttribute.class);
+
+                int sentence = -1;
+
+                stream.reset();
+                while (stream.incrementToken()) {
+
+                    if (sentenceAtt.getSentenceIndex() != sentence) {
+                        count(counts, words, tags, lemmatizerOp);
+                        sentence = sentenceAtt.getSentenceIndex();
+                    }
+
+                    // keywords are left alone by the lemmatizer
+                    if (!keywordAtt.isKeyword()) {
+                        words.add(termAtt.toString());
+                        tags.add(typeAtt.type());
+                    }
+                }
+                stream.end();
+
+                count(counts, words, tags, lemmatizerOp);
+            }
+        }
+
+        final Map<String, String> lemmas = new HashMap<>();
+
+        for (Map.Entry<String, Map<String, Integer>> pair : counts.entrySet()) {
+
+            int total = 0;
+            int best = 0;
+            String lemma = null;
+
+            for (Map.Entry<String, Integer> e : pair.getValue().entrySet()) {
+                total += e.getValue();
+                if (e.getValue() > best) {
+                    best = e.getValue();
+                    lemma = e.getKey();
+                }
+            }
+
+            if (total >= minFrequency) {
+                lemmas.put(pair.getKey(), lemma);
+            }
+        }
+
+        return lemmas;
+    }
+
+    /**
+     * Lemmatizes a sentence and counts the lemma of each of its words, then empties the sentence.
+     *
+     * @param counts       the counts of the lemmas of each pair.
+     * @param words        the words of the sentence.
+     * @param tags         the POS tags of the words.
+     * @param lemmatizerOp the lemmatizer model.
+     */
+    private static void count(final Map<String, Map<String, Integer>> counts, final List<String> words,
+                              final List<String> tags, final NLPLemmatizerOp lemmatizerOp) {
+
+        if (words.isEmpty()) {
+            return;
+        }
+
+        final String[] lemmas = lemmatizerOp.lemmatize(words.toArray(new String[0]), tags.toArray(new String[0]));
+
+        for (int i = 0; i < lemmas.length; i++) {
+            counts.computeIfAbsent(words.get(i) + SEPARATOR + tags.get(i), k -> new HashMap<>())
+                    .merge(lemmas[i], 1, Integer::sum);
+        }
+
+        words.clear();
+        tags.clear();
+    }
+
+    /**
+     * Main method to compile the dictionary from a sample of the collection, using the chain which precedes the
+     * lemmatizer in {@link CloseAnalyzer} when the NLP filter is enabled.
+     *
+     * @param args the arguments to be passed to the method: a JSON file of the collection, the dictionary file to write
+     *             and, optionally, the minimum frequency of a pair, by default 3.
+     * @throws IOException if something goes wrong while compiling the dictionary.
+     */
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 2) {
+            throw new IllegalArgumentException(
+                    "Usage: LemmaDictionary <collection JSON file> <dictionary file> [min frequency]");
+        }
+
+        final int minFrequency = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        final long start = System.currentTimeMillis();
+
+        final List<String> bodies = AnalyzerBenchmark.loadBodies(args[0], "ISO-8859-1");
+
+        final Analyzer a = new CloseAnalyzer(CloseAnalyzer.TokenizerType.Standard, 2, 15, false, null,
+                CloseAnalyzer.StemFilterType.EnglishMinimal, null, null, true, false, false);
+
+        final Map<String, String> lemmas = collect(a, bodies, AnalyzerResources.lemmatizerOp("en-lemmatizer.bin"),
+                minFrequency);
+        a.close();
+
+        final LemmaDictionary dictionary = compile(lemmas);
+
+        final Path file = Paths.get(args[1]);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            dictionary.save(out);
+        }
+
+        // check that the dictionary reads back
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            load(in);
+        }
+
+        System.out.printf("%d pair(s) from %d document(s) compiled into %d bytes in %d milliseconds.%n",
+                lemmas.size(), bodies.size(), dictionary.ramBytesUsed(), System.currentTimeMillis() - start);
+    }
+}
@@ -0,0 +1,456 @@
+package it.unipd.dei.se.analyzer;
+
+import java.util.Arrays;
+
+/**
+ * A native implementation of the stemmer by Lovins, computing the same stems as the Snowball {@code LovinsStemmer}
+ * directly over the buffer of a term.
+ * <p>
+ * The 294 endings and the 35 transformation rules of the algorithm are kept in two tries of reversed suffixes, built
+ * once when the class is loaded, so that a term is matched by walking its characters backwards from the end. As in the
+ * Snowball version, the longest ending whose condition holds on the remaining stem is removed, a final double
+ * consonant is undoubled and the longest matching transformation is applied, if its condition holds. Nothing is
+ * allocated while stemming: a term is stemmed in place and only needs two spare characters at the end of its buffer,
+ * since a transformation may lengthen it.
+ *
+ * @author CLOSE GROUP
+ * @version 1.0
+ */
+public final class LovinsStemmer {
+
+    /**
+     * The maximum number of characters a term grows by when stemmed.
+     */
+    public static final int MAX_GROWTH = 2;
+
+    /**
+     * The endings, each followed by the code of the condition the stem has to satisfy for it to be removed.
+     */
+    private static final String[] ENDINGS = {
+            "alistically B", "arizability A", "izationally B",
+            "antialness A", "arisations A", "arizations A", "entialness A",
+            "allically C", "antaneous A", "antiality A", "arisation A", "arization A", "ationally B", "ativeness A",
+            "eableness E", "entations A", "entiality A", "entialize A", "entiation A", "ionalness A", "istically A",
+            "itousness A", "izability A", "izational A",
+            "ableness A", "arizable A", "entation A", "entially A", "eousness A", "ibleness A", "icalness A",
+            "ionalism A", "ionality A", "ionalize A", "iousness A", "izations A", "lessness A",
+            "ability A", "aically A", "alistic B", "alities A", "ariness E", "aristic A", "arizing A", "ateness A",
+            "atingly A", "ational B", "atively A", "ativism A", "elihood E", "encible A", "entally A", "entials A",
+            "entiate A", "entness A", "fulness A", "ibility A", "icalism A", "icalist A", "icality A", "icalize A",
+            "ication G", "icianry A", "ination A", "ingness A", "ionally A", "isation A", "ishness A", "istical A",
+            "iteness A", "iveness A", "ivistic A", "ivities A", "ization F", "izement A", "oidally A", "ousness A",
+            "aceous A", "acious B", "action G", "alness A", "ancial A", "ancies A", "ancing B", "ariser A",
+            "arized A", "arizer A", "atable A", "ations B", "atives A", "eature Z", "efully A", "encies A",
+            "encing A", "ential A", "enting C", "entist A", "eously A", "ialist A", "iality A", "ialize A",
+            "ically A", "icance A", "icians A", "icists A", "ifully A", "ionals A", "ionate D", "ioning A",
+            "ionist A", "iously A", "istics A", "izable E", "lessly A", "nesses A", "oidism A",
+            "acies A", "acity A", "aging B", "aical A", "alism B", "alist A", "ality A", "alize A", "allic BB",
+            "anced B", "ances B", "antic C", "arial A", "aries A", "arily A", "arity B", "arize A", "aroid A",
+            "ately A", "ating I", "ation B", "ative A", "ators A", "atory A", "ature E", "early Y", "ehood A",
+            "eless A", "elity A", "ement A", "enced A", "ences A", "eness E", "ening E", "ental A", "ented C",
+            "ently A", "fully A", "ially A", "icant A", "ician A", "icide A", "icism A", "icist A", "icity A",
+            "idine I", "iedly A", "ihood A", "inate A", "iness A", "ingly B", "inism J", "inity CC", "ional A",
+            "ioned A", "ished A", "istic A", "ities A", "itous A", "ively A", "ivity A", "izers F", "izing F",
+            "oidal A", "oides A", "otide A", "ously A",
+            "able A", "ably A", "ages B", "ally B", "ance B", "ancy B", "ants B", "aric A", "arly K", "ated I",
+            "ates A", "atic B", "ator A", "ealy Y", "edly E", "eful A", "eity A", "ence A", "ency A", "ened E",
+            "enly E", "eous A", "hood A", "ials A", "ians A", "ible A", "ibly A", "ical A", "ides L", "iers A",
+            "iful A", "ines M", "ings N", "ions B", "ious A", "isms B", "ists A", "itic H", "ized F", "izer F",
+            "less A", "lily A", "ness A", "ogen A", "ward A", "wise A", "ying B", "yish A",
+            "'s A", "acy A", "age B", "aic A", "als BB", "ant B", "ars O", "ary F", "ata A", "ate A", "eal Y",
+            "ear Y", "ely E", "ene E", "ent C", "ery E", "ese A", "ful A", "ial A", "ian A", "ics A", "ide L",
+            "ied A", "ier A", "ies P", "ily A", "ine M", "ing N", "ion Q", "ish C", "ism B", "ist A", "ite AA",
+            "ity A", "ium A", "ive A", "ize F", "oid A", "one R", "ous A", "s' A",
+            "ae A", "al BB", "ar X", "as B", "ed E", "en F", "es E", "ia A", "ic A", "is A", "ly B", "on S", "or T",
+            "um U", "us V", "yl R",
+            "a A", "e A", "i A", "o A", "s W", "y B"
+    };
+
+    /**
+     * The transformations, each as the suffix to replace, its replacement and the code of the condition on the
+     * character preceding the suffix, if any.
+     */
+    private static final String[] TRANSFORMATIONS = {
+            "iev ief", "uct uc", "umpt um", "rpt rb", "urs ur", "istr ister", "metr meter", "olv olut", "ul l aio",
+            "bex bic", "dex dic", "pex pic", "tex tic", "ax ac", "ex ec", "ix ic", "lux luc", "uad uas", "vad vas",
+            "cid cis", "lid lis", "erid eris", "pand pans", "end ens s", "ond ons", "lud lus", "rud rus",
+            "her hes pt", "mit mis", "ent ens m", "ert ers", "et es n", "yt ys", "yz ys"
+    };
+
+    /**
+     * The trie of the reversed endings.
+     */
+    private static final SuffixTrie ENDING_TRIE = new SuffixTrie();
+
+    /**
+     * The conditions of the endings, indexed by the values of {@link #ENDING_TRIE}.
+     */
+    private static final String[] ENDING_CONDITIONS = new String[ENDINGS.length];
+
+    /**
+     * The trie of the reversed suffixes of the transformations.
+     */
+    private static final SuffixTrie TRANSFORMATION_TRIE = new SuffixTrie();
+
+    /**
+     * The replacements of the transformations, indexed by the values of {@link #TRANSFORMATION_TRIE}.
+     */
+    private static final char[][] REPLACEMENTS = new char[TRANSFORMATIONS.length][];
+
+    /**
+     * The characters which must not precede the suffix of a transformation, indexed by the values of
+     * {@link #TRANSFORMATION_TRIE}; empty if there is no condition.
+     */
+    private static final char[][] EXCLUDED = new char[TRANSFORMATIONS.length][];
+
+    static {
+        for (int i = 0; i < ENDINGS.length; i++) {
+            final String[] entry = ENDINGS[i].split(" ");
+            ENDING_TRIE.add(entry[0], i);
+            ENDING_CONDITIONS[i] = entry[1];
+        }
+
+        for (int i = 0; i < TRANSFORMATIONS.length; i++) {
+            final String[] entry = TRANSFORMATIONS[i].split(" ");
+            TRANSFORMATION_TRIE.add(entry[0], i);
+            REPLACEMENTS[i] = entry[1].toCharArray();
+            EXCLUDED[i] = entry.length > 2 ? entry[2].toCharArray() : new char[0];
+        }
+    }
+
+    /**
+     * The lengths of the endings matching the term being stemmed, from the shortest to the longest.
+     */
+    private final int[] matchLengths = new int[ENDING_TRIE.maxLength + 1];
+
+    /**
+     * The endings matching the term being stemmed, as values of {@link #ENDING_TRIE}.
+     */
+    private final int[] matchValues = new int[ENDING_TRIE.maxLength + 1];
+
+    /**
+     * Stems a term in place.
+     *
+     * @param term   the buffer containing the term, with room for at least {@link #MAX_GROWTH} more characters.
+     * @param length the length of the term.
+     * @return the length of the stem.
+     * @throws IllegalArgumentException if the buffer has not room enough for the stem.
+     */
+    public int stem(final char[] term, int length) {
+
+        if (term.length < length + MAX_GROWTH) {
+            throw new IllegalArgumentException(String.format("Buffer of %d characters too short for a term of %d.",
+                    term.length, length));
+        }
+
+        length = removeEnding(term, length);
+        length = undouble(term, length);
+        return transform(term, length);
+    }
+
+    /**
+     * Removes the longest ending of a term whose condition holds.
+     *
+     * @param term   the buffer containing the term.
+     * @param length the length of the term.
+     * @return the length of the term without the ending.
+     */
+    private int removeEnding(final char[] term, final int length) {
+
+        int matches = 0;
+        int node = 0;
+        for (int i = length - 1; i >= 0; i--) {
+            node = ENDING_TRIE.next(node, term[i]);
+            if (node < 0) {
+                break;
+            }
+            if (ENDING_TRIE.values[node] >= 0) {
+                matchLengths[matches] = length - i;
+                matchValues[matches] = ENDING_TRIE.values[node];
+                matches++;
+            }
+        }
+
+        // as Snowball does, fall back to shorter endings when the condition of a longer one fails
+        for (int m = matches - 1; m >= 0; m--) {
+            final int stem = length - matchLengths[m];
+            if (condition(ENDING_CONDITIONS[matchValues[m]], term, stem)) {
+                return stem;
+            }
+        }
+
+        return length;
+    }
+
+    /**
+     * Checks the condition of an ending on the stem preceding it.
+     *
+     * @param code the code of the condition.
+     * @param s    the buffer containing the term.
+     * @param p    the length of the stem, that is the position where the ending starts.
+     * @return {@code true} if the condition holds; {@code false} otherwise.
+     */
+    private static boolean condition(final String code, final char[] s, final int p) {
+
+        // every condition requires a stem of two characters at least
+        if (p < 2) {
+            return false;
+        }
+
+        final char c = s[p - 1];
+
+        switch (code) {
+            case "A":
+                return true;
+            case "B":
+                return p >= 3;
+            case "C":
+                return p >= 4;
+            case "D":
+                return p >= 5;
+            case "E":
+                return c != 'e';
+            case "F":
+                return p >= 3 && c != 'e';
+            case "G":
+                return p >= 3 && c == 'f';
+            case "H":
+                return c == 't' || (c == 'l' && s[p - 2] == 'l');
+            case "I":
+                return c != 'o' && c != 'e';
+            case "J":
+                return c != 'a' && c != 'e';
+            case "K":
+                return p >= 3 && (c == 'l' || c == 'i' || (c == 'e' && s[p - 3] == 'u'));
+            case "L":
+                return c != 'u' && c != 'x' && (c != 's' || s[p - 2] == 'o');
+            case "M":
+                return c != 'a' && c != 'c' && c != 'e' && c != 'm';
+            case "N":
+                return p >= 3 && (s[p - 3] != 's' || p >= 4);
+            case "O":
+                return c == 'l' || c == 'i';
+            case "P":
+                return c != 'c';
+            case "Q":
+                return p >= 3 && c != 'l' && c != 'n';
+            case "R":
+                return c == 'n' || c == 'r';
+            case "S":
+                return (c == 'r' && s[p - 2] == 'd') || (c == 't' && s[p - 2] != 't');
+            case "T":
+                return c == 's' || (c == 't' && s[p - 2] != 'o');
+            case "U":
+                return c == 'l' || c == 'm' || c == 'n' || c == 'r';
+            case "V":
+                return c == 'c';
+            case "W":
+                return c != 's' && c != 'u';
+            case "X":
+                return c == 'l' || c == 'i' || (c == 'e' && p >= 3 && s[p - 3] == 'u');
+            case "Y":
+                return c == 'n' && s[p - 2] == 'i';
+            case "Z":
+                return c != 'f';
+            case "AA":
+                return c == 'd' || c == 'f' || c == 'l' || c == 't'
+                        || (c == 'h' && (s[p - 2] == 'p' || s[p - 2] == 't'))
+                        || (c == 'r' && (s[p - 2] == 'e' || s[p - 2] == 'o'))
+                        || (c == 's' && s[p - 2] == 'e');
+            case "BB":
+                return p >= 3 && !endsWith(s, p, "met") && !endsWith(s, p, "ryst");
+            case "CC":
+                return c == 'l';
+            default:
+                throw new IllegalStateException(String.format("Unknown condition %s.", code));
+        }
+    }
+
+    /**
+     * Checks whether the first characters of a term end with the given suffix.
+     *
+     * @param s      the buffer containing the term.
+     * @param p      the number of characters to consider.
+     * @param suffix the suffix.
+     * @return {@code true} if the characters end with the suffix; {@code false} otherwise.
+     */
+    private static boolean endsWith(final char[] s, final int p, final String suffix) {
+
+        final int n = suffix.length();
+        if (p < n) {
+            return false;
+        }
+
+        for (int i = 0; i < n; i++) {
+            if (s[p - n + i] != suffix.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Removes the last character of a term ending with a double {@code b}, {@code d}, {@code g}, {@code l}, {@code m},
+     * {@code n}, {@code p}, {@code r}, {@code s} or {@code t}.
+     *
+     * @param term   the buffer containing the term.
+     * @param length the length of the term.
+     * @return the length of the undoubled term.
+     */
+    private static int undouble(final char[] term, final int length) {
+
+        if (length < 2 || term[length - 1] != term[length - 2]) {
+            return length;
+        }
+
+        switch (term[length - 1]) {
+            case 'b':
+            case 'd':
+            case 'g':
+            case 'l':
+            case 'm':
+            case 'n':
+            case 'p':
+            case 'r':
+            case 's':
+            case 't':
+                return length - 1;
+            default:
+                return length;
+        }
+    }
+
+    /**
+     * Applies the longest transformation matching the end of a term, if its condition holds.
+     *
+     * @param term   the buffer containing the term.
+     * @param length the length of the term.
+     * @return the length of the transformed term.
+     */
+    private static int transform(final char[] term, final int length) {
+
+        int value = -1;
+        int suffix = 0;
+        int node = 0;
+        for (int i = length - 1; i >= 0; i--) {
+            node = TRANSFORMATION_TRIE.next(node, term[i]);
+            if (node < 0) {
+                break;
+            }
+            if (TRANSFORMATION_TRIE.values[node] >= 0) {
+                value = TRANSFORMATION_TRIE.values[node];
+                suffix = length - i;
+            }
+        }
+
+        if (value < 0) {
+            return length;
+        }
+
+        // as Snowball does, a failing condition does not fall back to a shorter transformation
+        final int start = length - suffix;
+        if (start > 0) {
+            for (char excluded : EXCLUDED[value]) {
+                if (term[start - 1] == excluded) {
+                    return length;
+                }
+            }
+        }
+
+        final char[] replacement = REPLACEMENTS[value];
+        System.arraycopy(replacement, 0, term, start, replacement.length);
+        return start + replacement.length;
+    }
+
+    /**
+     * A trie of reversed suffixes over the lowercase ASCII letters and the apostrophe, stored in arrays.
+     */
+    private static final class SuffixTrie {
+
+        /**
+         * The number of distinct characters.
+         */
+        private static final int ALPHABET = 27;
+
+        /**
+         * The children of the nodes, {@link #ALPHABET} per node, or {@code -1} if missing; node {@code 0} is the root.
+         */
+        private int[] children = new int[ALPHABET * 64];
+
+        /**
+         * The values of the suffixes ending at the nodes, or {@code -1} if none.
+         */
+        private int[] values = new int[64];
+
+        /**
+         * The number of nodes.
+         */
+        private int size = 1;
+
+        /**
+         * The length of the longest suffix.
+         */
+        private int maxLength = 0;
+
+        /**
+         * Creates a new trie with the root only.
+         */
+        SuffixTrie() {
+            Arrays.fill(children, -1);
+            Arrays.fill(values, -1);
+        }
+
+        /**
+         * Maps a character to its index in the alphabet.
+         *
+         * @param c the character.
+         * @return the index of the character, or {@code -1} if it is not in the alphabet.
+         */
+        private static int index(final char c) {
+            if (c >= 'a' && c <= 'z') {
+                return c - 'a';
+            }
+            return c == '\'' ? ALPHABET - 1 : -1;
+        }
+
+        /**
+         * Follows the edge of a node for a character.
+         *
+         * @param node the node.
+         * @param c    the character.
+         * @return the child of the node for the character, or {@code -1} if there is none.
+         */
+        int next(final int node, final char c) {
+            final int i = index(c);
+            return i < 0 ? -1 : children[node * ALPHABET + i];
+        }
+
+        /**
+         * Adds a suffix to the trie, reading it backwards.
+         *
+         * @param suffix the suffix.
+         * @param value  the value of the suffix.
+         */
+        void add(final String suffix, final int value) {
+
+            int node = 0;
+            for (int i = suffix.length() - 1; i >= 0; i--) {
+                final int slot = node * ALPHABET + index(suffix.charAt(i));
+                if (children[slot] < 0) {
+                    if (size == values.length) {
+                        children = Arrays.copyOf(children, children.length * 2);
+                        Arrays.fill(children, children.length / 2, children.length, -1);
+                        values = Arrays.copyOf(values, values.length * 2);
+                        Arrays.fill(values, values.length / 2, values.length, -1);
+                    }
+                    children[slot] = size++;
+                }
+                node = children[slot];
+            }
+
+            values[node] = value;
+            maxLength = Math.max(maxLength, suffix.length());
+        }
+    }
+}
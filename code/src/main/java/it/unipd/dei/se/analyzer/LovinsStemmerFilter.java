@@ -1,46 +1,190 @@
 package it.unipd.dei.se.analyzer;
 
+import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenFilter;
 import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.LowerCaseFilter;
+import org.apache.lucene.analysis.en.PorterStemFilter;
+import org.apache.lucene.analysis.snowball.SnowballFilter;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
-import org.tartarus.snowball.ext.LovinsStemmer;
+import org.apache.lucene.analysis.tokenattributes.KeywordAttribute;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
 
 /**
- * A custom stemming filter using LovinsStemmer
+ * A stemming filter using the native {@link LovinsStemmer}.
+ * <p>
+ * Terms are stemmed in place in the buffer of the {@link CharTermAttribute}, without any allocation, while terms marked
+ * as keywords in the {@link KeywordAttribute}, such as the entities, are left unchanged.
+ *
  * @author CLOSE GROUP
  * @version 1.0
  */
-public class LovinsStemmerFilter extends TokenFilter {
+public final class LovinsStemmerFilter extends TokenFilter {
 
-    private LovinsStemmer stemmer;
-    private CharTermAttribute termAtt;
+    /**
+     * The stemmer.
+     */
+    private final LovinsStemmer stemmer = new LovinsStemmer();
+
+    /**
+     * The term of the current token.
+     */
+    private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+
+    /**
+     * The keyword flag of the current token.
+     */
+    private final KeywordAttribute keywordAtt = addAttribute(KeywordAttribute.class);
 
     /**
      * Method to create the LovinsStemmerFilter.
+     *
      * @param input the tokens to be stemmed.
      */
-    public LovinsStemmerFilter(TokenStream input) {
+    public LovinsStemmerFilter(final TokenStream input) {
         super(input);
-        stemmer = new LovinsStemmer();
-        termAtt = addAttribute(CharTermAttribute.class);
     }
 
     @Override
     public boolean incrementToken() throws IOException {
-        if (input.incrementToken()) {
-            char[] term = termAtt.buffer();
-            int len = termAtt.length();
-            stemmer.setCurrent(term, len);
-            if (stemmer.stem()) {
-                char[] stem = stemmer.getCurrentBuffer();
-                int stemLen = stemmer.getCurrentBufferLength();
-                termAtt.copyBuffer(stem, 0, stemLen);
-            }
-            return true;
-        } else {
+
+        if (!input.incrementToken()) {
             return false;
         }
+
+        if (!keywordAtt.isKeyword()) {
+            final int length = termAtt.length();
+            termAtt.setLength(stemmer.stem(termAtt.resizeBuffer(length + LovinsStemmer.MAX_GROWTH), length));
+        }
+
+        return true;
+    }
+
+    /**
+     * Main method to check that the stems are the same as the ones of the Snowball {@code LovinsStemmer} and to compare
+     * the cost of the filter with the one of {@link PorterStemFilter}.
+     *
+     * @param args the arguments to be passed to the method: optionally, a JSON file of the collection.
+     * @throws IOException if something goes wrong while processing the texts.
+     */
+    public static void main(String[] args) throws IOException {
+
+        // the words to check: all the endings after some stems, a word list and the terms of the collection
+        final Set<String> words = new LinkedHashSet<>();
+        final Random random = new Random(42);
+        final String[] stems = {"", "a", "ab", "ort", "mat", "flue", "ryst", "met", "tin", "prod", "sens", "coll"};
+        final String letters = "abcdefghijklmnopqrstuvwxyz'";
+        for (String ending : new String[]{"alistically", "arizability", "ation", "ement", "ities", "ness", "ings",
+                "ides", "ines", "ears", "ion", "als", "ite", "yl", "on", "or", "um", "us", "es", "ed", "s", "e",
+                "ly", "s'", "'s", "ful", "ism", "ied", "inity", "allic"}) {
+            for (String stem : stems) {
+                words.add(stem + ending);
+            }
+        }
+        for (int i = 0; i < 200_000; i++) {
+            final StringBuilder word = new StringBuilder();
+            final int length = 1 + random.nextInt(12);
+            for (int j = 0; j < length; j++) {
+                word.append(letters.charAt(random.nextInt(letters.length())));
+            }
+            words.add(word.toString());
+        }
+
+        final Path dictionary = Paths.get("/usr/share/dict/words");
+        if (Files.isReadable(dictionary)) {
+            for (String word : Files.readAllLines(dictionary, StandardCharsets.ISO_8859_1)) {
+                words.add(word.toLowerCase());
+            }
+        }
+
+        List<String> bodies = new ArrayList<>();
+        if (args.length > 0) {
+            bodies = AnalyzerBenchmark.loadBodies(args[0], "ISO-8859-1");
+            for (String body : bodies) {
+                for (String word : body.toLowerCase().split("[^\\p{L}\\p{N}']+")) {
+                    words.add(word);
+                }
+            }
+        }
+
+        final LovinsStemmer stemmer = new LovinsStemmer();
+        final org.tartarus.snowball.ext.LovinsStemmer snowball = new org.tartarus.snowball.ext.LovinsStemmer();
+        int mismatches = 0;
+
+        for (String word : words) {
+
+            snowball.setCurrent(word);
+            snowball.stem();
+            final String expected = snowball.getCurrent();
+
+            final char[] buffer = new char[word.length() + LovinsStemmer.MAX_GROWTH];
+            word.getChars(0, word.length(), buffer, 0);
+            final String actual = new String(buffer, 0, stemmer.stem(buffer, word.length()));
+
+            if (!expected.equals(actual)) {
+                if (mismatches++ < 20) {
+                    System.out.printf("- %s: %s expected, %s found%n", word, expected, actual);
+                }
+            }
+        }
+
+        System.out.printf("%d word(s) checked, %d mismatch(es)%n", words.size(), mismatches);
+
+        if (bodies.isEmpty()) {
+            return;
+        }
+
+        final Analyzer porter = new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName) {
+                final Tokenizer source = new StandardTokenizer();
+                return new TokenStreamComponents(source, new PorterStemFilter(new LowerCaseFilter(source)));
+            }
+        };
+
+        final Analyzer lovins = new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName) {
+                final Tokenizer source = new StandardTokenizer();
+                return new TokenStreamComponents(source, new LovinsStemmerFilter(new LowerCaseFilter(source)));
+            }
+        };
+
+        final Analyzer lovinsSnowball = new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName) {
+                final Tokenizer source = new StandardTokenizer();
+                return new TokenStreamComponents(source,
+                        new SnowballFilter(new LowerCaseFilter(source),
+                                new org.tartarus.snowball.ext.LovinsStemmer()));
+            }
+        };
+
+        final AnalyzerBenchmark.Cost p = AnalyzerBenchmark.cost(porter, bodies);
+        final AnalyzerBenchmark.Cost l = AnalyzerBenchmark.cost(lovins, bodies);
+        final AnalyzerBenchmark.Cost s = AnalyzerBenchmark.cost(lovinsSnowball, bodies);
+
+        System.out.printf("+ Porter:           %.0f tokens/s, %.1f bytes/token%n", p.tokensPerSecond,
+                p.bytesAllocatedPerToken);
+        System.out.printf("+ Lovins:           %.0f tokens/s, %.1f bytes/token%n", l.tokensPerSecond,
+                l.bytesAllocatedPerToken);
+        System.out.printf("+ Lovins, Snowball: %.0f tokens/s, %.1f bytes/token%n", s.tokensPerSecond,
+                s.bytesAllocatedPerToken);
+
+        porter.close();
+        lovins.close();
+        lovinsSnowball.close();
     }
-}
\ No newline at end of file
+}
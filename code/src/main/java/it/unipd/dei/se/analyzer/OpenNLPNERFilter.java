@@ -2,23 +2,30 @@ package it.unipd.dei.se.analyzer;
 
 
 
-import opennlp.tools.formats.ad.ADSentenceStream;
+import opennlp.tools.namefind.NameFinderME;
 import opennlp.tools.util.Span;
 import org.apache.lucene.analysis.TokenFilter;
 import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.opennlp.OpenNLPTokenizer;
 import org.apache.lucene.analysis.opennlp.tools.NLPNERTaggerOp;
 import org.apache.lucene.analysis.tokenattributes.*;
-import org.apache.lucene.util.AttributeSource;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.RamUsageEstimator;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * A filter that relies on the <a href="http://opennlp.apache.org/" target="_blank">Apache OpenNLP</a>
  * Named Entity Recognizer (NER) to detect different types of entities.
+ * <p>
+ * All the given NER models are run over the same buffered sentence, so a single filter can recognize, e.g.,
+ * locations, persons and organizations at once. When the entities found by different models overlap, the one
+ * starting first, and then the longest one, is kept. The tokens of a sentence are buffered as captured states in
+ * arrays which are reused from one sentence to the next.
+ * <p>
+ * The Apache OpenNLP NER taggers are not thread-safe, yet no lock is taken: the taggers must be confined to the
+ * thread consuming this filter, as are the ones obtained from {@link AnalyzerResources#nerTaggerOp(String)} within
+ * {@link org.apache.lucene.analysis.Analyzer#createComponents(String)}.
  *
  * @author Nicola Ferro (ferro@dei.unipd.it)
  * @version 1.0
@@ -27,9 +34,9 @@ import java.util.List;
 public final class OpenNLPNERFilter extends TokenFilter {
 
     /**
-     * The wrapper around the Apache OpenNLP NER tagger
+     * The wrappers around the Apache OpenNLP NER taggers
      */
-    private final NLPNERTaggerOp nerTaggerOp;
+    private final NLPNERTaggerOp[] nerTaggerOps;
 
     /**
      * The classes of relevant {@code Attribute}s of a token
@@ -39,13 +46,51 @@ public final class OpenNLPNERFilter extends TokenFilter {
     private final PositionIncrementAttribute posIncrAtt = addAttribute(PositionIncrementAttribute.class);
     private final PositionLengthAttribute posLenAtt = addAttribute(PositionLengthAttribute.class);
     private final TypeAttribute typeAtt = addAttribute(TypeAttribute.class);
+    private final KeywordAttribute keywordAtt = addAttribute(KeywordAttribute.class);
     private final SentenceAttribute sentenceAtt = addAttribute(SentenceAttribute.class);
 
     /**
-     * The list of the actual attribute values for the tokens in the current sentence
+     * The captured states of the tokens in the current sentence, plus possibly the first token of the next one
      */
-    private final List<AttributeSource> sentenceTokens = new ArrayList<>();
-    private Iterator<AttributeSource> iterator = sentenceTokens.iterator();
+    private State[] states = new State[64];
+
+    /**
+     * The terms, position increments and offsets of the tokens in the current sentence
+     */
+    private String[] terms = new String[64];
+    private int[] posIncrs = new int[64];
+    private int[] startOffsets = new int[64];
+    private int[] endOffsets = new int[64];
+
+    /**
+     * The number of tokens in the current sentence
+     */
+    private int size = 0;
+
+    /**
+     * Indicates whether the token after the current sentence has already been read
+     */
+    private boolean carry = false;
+
+    /**
+     * The sentence index of the token after the current sentence, if it has already been read
+     */
+    private int carriedSentenceIndex = -1;
+
+    /**
+     * The entities identified in the current sentence, sorted and without overlaps
+     */
+    private Span[] spans = new Span[0];
+
+    /**
+     * The index of the next token of the current sentence to be emitted
+     */
+    private int next = 0;
+
+    /**
+     * The index of the next entity of the current sentence to be emitted
+     */
+    private int nextSpan = 0;
 
     /**
      * Indicates whether there are more tokens in the stream
@@ -55,45 +100,49 @@ public final class OpenNLPNERFilter extends TokenFilter {
     /**
      * Creates a new Named Entity Recognizer (NER) filter.
      *
-     * @param input       the source of tokens for this filter.
-     * @param nerTaggerOp the NER tagger to use.
+     * @param input        the source of tokens for this filter.
+     * @param nerTaggerOps the NER taggers to use.
      */
-    public OpenNLPNERFilter(TokenStream input, NLPNERTaggerOp nerTaggerOp) {
+    public OpenNLPNERFilter(TokenStream input, NLPNERTaggerOp... nerTaggerOps) {
         super(input);
 
-        this.nerTaggerOp = nerTaggerOp;
+        if (nerTaggerOps == null || nerTaggerOps.length == 0) {
+            throw new IllegalArgumentException("At least one NER tagger is needed.");
+        }
+
+        this.nerTaggerOps = nerTaggerOps.clone();
 
         // Forget all adaptive data collected during previous calls
-        this.nerTaggerOp.reset();
+        for (NLPNERTaggerOp nerTaggerOp : this.nerTaggerOps) {
+            nerTaggerOp.reset();
+        }
     }
 
     @Override
     public final boolean incrementToken() throws IOException {
 
-        // if there is a token, copy it back to the stream
-        if (iterator.hasNext()) {
-            iterator.next().copyTo(this);
-            return true;
-        }
+        // if the current sentence is exhausted, try to process the next one
+        if (next >= size) {
 
-        // we have already reached the end of the stream before
-        if (!moreTokensAvailable) {
-            return false;
-        }
+            // we have already reached the end of the stream before
+            if (!moreTokensAvailable && !carry) {
+                return false;
+            }
 
-        // try to process the next sentence
-        if (!nextSentence()) {
-            return false;
+            if (!nextSentence()) {
+                return false;
+            }
         }
 
-        // now there should be a token but double check, copy it back to the stream
-        if (iterator.hasNext()) {
-            iterator.next().copyTo(this);
+        // the token is (part of) an entity: merge it with the other tokens in the same entity
+        if (nextSpan < spans.length && spans[nextSpan].getStart() == next) {
+            emitEntity(spans[nextSpan++]);
             return true;
         }
 
-        // we should never get here, so be pessimistic and return false
-        return false;
+        // the token is not (part of) an entity: copy it back to the stream
+        restoreState(states[next++]);
+        return true;
     }
 
     /**
@@ -105,121 +154,154 @@ public final class OpenNLPNERFilter extends TokenFilter {
      */
     private boolean nextSentence() throws IOException {
 
-        // empty any previous sentence
-        sentenceTokens.clear();
-        iterator = sentenceTokens.iterator();
-
-        // the attributes for the tokens in the current sentence
-        final List<AttributeSource> localAttrs = new ArrayList<>();
+        int sentenceIndex = -1;
+
+        // release the states of the previous sentence, moving the already read token, if any, to the front
+        if (carry) {
+            move(size, 0);
+            Arrays.fill(states, 1, size + 1, null);
+            size = 1;
+            carry = false;
+            sentenceIndex = carriedSentenceIndex;
+        } else {
+            Arrays.fill(states, 0, size, null);
+            size = 0;
+        }
 
-        // the list of terms in the sentence
-        final List<String> termList = new ArrayList<>();
+        next = 0;
+        nextSpan = 0;
 
-        boolean endOfSentence = false;
+        // advance until we reach either the end of a sentence or the end of the stream
+        while (moreTokensAvailable && (moreTokensAvailable = input.incrementToken())) {
 
-        int sentenceIndex = sentenceAtt.getSentenceIndex();
+            final int currentIndex = sentenceAtt.getSentenceIndex();
 
-        // advance until  we reach either the end of a sentence or the end of the stream
-        while (!endOfSentence && (moreTokensAvailable = input.incrementToken())) {
+            if (sentenceIndex == -1) {
+                sentenceIndex = currentIndex;
+            }
 
-            // get the term from the current token
-            termList.add(termAtt.toString());
+            capture(size);
 
-            // check whether the current token marks the end of the sentence
-            endOfSentence = sentenceIndex != sentenceAtt.getSentenceIndex();
+            // the current token is the first one of the next sentence: keep it for later
+            if (currentIndex != sentenceIndex) {
+                carry = true;
+                carriedSentenceIndex = currentIndex;
+                break;
+            }
 
-            // copy all the attributes for the current token
-            localAttrs.add(input.cloneAttributes());
+            size++;
         }
 
         // there was no next sentence
-        if (localAttrs.isEmpty()) {
+        if (size == 0) {
             return false;
         }
 
-        // the identified entities, if any
-        Span[] spans = null;
-        int spanCount = 0;
+        final String[] sentence = Arrays.copyOf(terms, size);
 
-        // Apache OpenNLP NER Tagger is not thread-safe
-        synchronized (nerTaggerOp) {
-            // recognize entities
-            spans = nerTaggerOp.getNames(termList.toArray(new String[termList.size()]));
-        }
+        // recognize entities with each of the models
+        Span[] found = new Span[0];
+        for (NLPNERTaggerOp nerTaggerOp : nerTaggerOps) {
+            final Span[] names = nerTaggerOp.getNames(sentence);
 
-        // go through each local token:
-        // 1) if it is (part of) an entity, merge it with the other tokens in the same entity and add it back to the stream
-        // 2) if it is not (part of) an entity add it back to the stream
-        for (int i = 0, n = localAttrs.size(); i < n; ) {
-
-            // the token is (part of) an entity
-            if (spanCount < spans.length && spans[spanCount].getStart() == i) {
-
-                // get the first token in the entity
-                AttributeSource as = localAttrs.get(i++);
+            if (names.length > 0) {
+                final int n = found.length;
+                found = Arrays.copyOf(found, n + names.length);
+                System.arraycopy(names, 0, found, n, names.length);
+            }
+        }
 
-                StringBuilder tmp = new StringBuilder(as.getAttribute(CharTermAttribute.class).toString());
-                String entityType = spans[spanCount].getType();
-                int spannedPositions = as.getAttribute(PositionIncrementAttribute.class).getPositionIncrement();
-                int startOffset = as.getAttribute(OffsetAttribute.class).startOffset();
-                sentenceIndex = as.getAttribute(SentenceAttribute.class).getSentenceIndex();
+        spans = nerTaggerOps.length == 1 ? found : NameFinderME.dropOverlappingSpans(found);
 
-                // the entity spans multiple tokens
-                while (i < spans[spanCount].getEnd()) {
+        return true;
+    }
 
-                    // get the next token in the entity
-                    as = localAttrs.get(i++);
+    /**
+     * Captures the current token at the given position of the buffers, growing them if needed.
+     *
+     * @param i the position of the token.
+     */
+    private void capture(final int i) {
+
+        if (i >= states.length) {
+            final int n = ArrayUtil.oversize(i + 1, RamUsageEstimator.NUM_BYTES_OBJECT_REF);
+            states = Arrays.copyOf(states, n);
+            terms = Arrays.copyOf(terms, n);
+            posIncrs = Arrays.copyOf(posIncrs, n);
+            startOffsets = Arrays.copyOf(startOffsets, n);
+            endOffsets = Arrays.copyOf(endOffsets, n);
+        }
 
-                    // append the term of the token
-                    tmp.append(" ").append(as.getAttribute(CharTermAttribute.class).toString());
+        states[i] = captureState();
+        terms[i] = termAtt.toString();
+        posIncrs[i] = posIncrAtt.getPositionIncrement();
+        startOffsets[i] = offsetAtt.startOffset();
+        endOffsets[i] = offsetAtt.endOffset();
+    }
 
-                    // increase the count of the spanned tokens
-                    spannedPositions += as.getAttribute(PositionIncrementAttribute.class).getPositionIncrement();
-                }
+    /**
+     * Moves a buffered token to another position.
+     *
+     * @param from the current position of the token.
+     * @param to   the new position of the token.
+     */
+    private void move(final int from, final int to) {
+        states[to] = states[from];
+        terms[to] = terms[from];
+        posIncrs[to] = posIncrs[from];
+        startOffsets[to] = startOffsets[from];
+        endOffsets[to] = endOffsets[from];
+    }
 
-                int endOffset = as.getAttribute(OffsetAttribute.class).endOffset();
+    /**
+     * Emits a single token for all the tokens spanned by an entity.
+     *
+     * @param span the entity.
+     */
+    private void emitEntity(final Span span) {
 
-                // create a new token for the entity and add it back to the stream
-                as.clearAttributes();
-                as.addAttribute(CharTermAttribute.class).append(tmp);
-                as.addAttribute(PositionIncrementAttribute.class).setPositionIncrement(1);
-                as.addAttribute(PositionLengthAttribute.class).setPositionLength(spannedPositions);
-                as.addAttribute(OffsetAttribute.class).setOffset(startOffset, endOffset);
-                as.addAttribute(TypeAttribute.class).setType(entityType);
-                as.addAttribute(KeywordAttribute.class).setKeyword(true);
-                as.addAttribute(SentenceAttribute.class).setSentenceIndex(sentenceIndex);
+        // start from the attributes of the first token in the entity
+        restoreState(states[next]);
 
-                sentenceTokens.add(as);
+        termAtt.setEmpty().append(terms[next]);
+        int spannedPositions = posIncrs[next];
+        final int startOffset = startOffsets[next];
+        next++;
 
-                // advance to the next span
-                spanCount++;
+        // the entity spans multiple tokens
+        while (next < span.getEnd()) {
 
-            } else {
-                // get the next token in the current sentence and add it back to the stream
-                sentenceTokens.add(localAttrs.get(i++));
-            }
+            // append the term of the token
+            termAtt.append(' ').append(terms[next]);
 
+            // increase the count of the spanned tokens
+            spannedPositions += posIncrs[next];
+            next++;
         }
 
-        // set the new iterator
-        iterator = sentenceTokens.iterator();
-
-        return true;
+        posIncrAtt.setPositionIncrement(1);
+        posLenAtt.setPositionLength(spannedPositions);
+        offsetAtt.setOffset(startOffset, endOffsets[next - 1]);
+        typeAtt.setType(span.getType());
+        keywordAtt.setKeyword(true);
     }
 
     @Override
     public void reset() throws IOException {
+        super.reset();
 
-        // Apache OpenNLP NER Tagger is not thread-safe
-        synchronized (nerTaggerOp) {
-            super.reset();
-            moreTokensAvailable = true;
-            sentenceTokens.clear();
-            iterator = sentenceTokens.iterator();
+        moreTokensAvailable = true;
+        carry = false;
+        Arrays.fill(states, null);
+        size = 0;
+        next = 0;
+        spans = new Span[0];
+        nextSpan = 0;
 
-            // Forget all adaptive data collected during previous calls
+        // Forget all adaptive data collected during previous calls
+        for (NLPNERTaggerOp nerTaggerOp : nerTaggerOps) {
             nerTaggerOp.reset();
         }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,286 @@
+package it.unipd.dei.se.analyzer;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.KeywordAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.apache.lucene.util.ArrayUtil;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The tokens of a text analyzed ahead of indexing, which can be replayed as a {@link TokenStream}.
+ * <p>
+ * The term, the offsets, the position increment and length, the type and the keyword flag of each token are kept in
+ * parallel arrays, with the terms one after the other in a single array of characters. The tokens of the parts of a
+ * text analyzed separately, such as its sentences, are appended one part after the other, shifting their offsets by
+ * the start of the part in the text.
+ *
+ * @author CLOSE GROUP
+ * @version 1.0
+ */
+public final class PreAnalyzedTokens {
+
+    /**
+     * The characters of the terms, one after the other.
+     */
+    private char[] chars = new char[256];
+
+    /**
+     * The end of the term of each token in {@link #chars}.
+     */
+    private int[] termEnds = new int[32];
+
+    /**
+     * The start offsets of the tokens.
+     */
+    private int[] startOffsets = new int[32];
+
+    /**
+     * The end offsets of the tokens.
+     */
+    private int[] endOffsets = new int[32];
+
+    /**
+     * The position increments of the tokens.
+     */
+    private int[] posIncrs = new int[32];
+
+    /**
+     * The position lengths of the tokens.
+     */
+    private int[] posLens = new int[32];
+
+    /**
+     * The types of the tokens.
+     */
+    private String[] types = new String[32];
+
+    /**
+     * The keyword flags of the tokens.
+     */
+    private boolean[] keywords = new boolean[32];
+
+    /**
+     * The number of tokens.
+     */
+    private int size = 0;
+
+    /**
+     * The positions skipped after the last token, to be added to the increment of the next one.
+     */
+    private int pendingPosIncr = 0;
+
+    /**
+     * The final offset of the text.
+     */
+    private int finalOffset = 0;
+
+    /**
+     * Creates a new, empty, sequence of tokens.
+     */
+    public PreAnalyzedTokens() {
+    }
+
+    /**
+     * Appends the tokens of a stream, which is consumed and closed, shifting their offsets.
+     *
+     * @param ts     the stream of tokens, not yet reset.
+     * @param shift  the start of the analyzed part in the whole text, added to the offsets of the tokens.
+     * @throws IOException if something goes wrong while consuming the stream.
+     */
+    public void append(final TokenStream ts, final int shift) throws IOException {
+
+        final CharTermAttribute termAtt = ts.addAttribute(CharTermAttribute.class);
+        final OffsetAttribute offsetAtt = ts.addAttribute(OffsetAttribute.class);
+        final PositionIncrementAttribute posIncrAtt = ts.addAttribute(PositionIncrementAttribute.class);
+        final PositionLengthAttribute posLenAtt = ts.addAttribute(PositionLengthAttribute.class);
+        final TypeAttribute typeAtt = ts.addAttribute(TypeAttribute.class);
+        final KeywordAttribute keywordAtt = ts.addAttribute(KeywordAttribute.class);
+
+        try (ts) {
+            ts.reset();
+
+            while (ts.incrementToken()) {
+
+                if (size == termEnds.length) {
+                    grow();
+                }
+
+                final int start = size == 0 ? 0 : termEnds[size - 1];
+                final int length = termAtt.length();
+                chars = ArrayUtil.grow(chars, start + length);
+                System.arraycopy(termAtt.buffer(), 0, chars, start, length);
+
+                termEnds[size] = start + length;
+                startOffsets[size] = shift + offsetAtt.startOffset();
+                endOffsets[size] = shift + offsetAtt.endOffset();
+                posIncrs[size] = pendingPosIncr + posIncrAtt.getPositionIncrement();
+                posLens[size] = posLenAtt.getPositionLength();
+                types[size] = typeAtt.type();
+                keywords[size] = keywordAtt.isKeyword();
+                pendingPosIncr = 0;
+                size++;
+            }
+
+            // the positions removed at the end of a part, e.g. by a stop filter, still count in the next one
+            ts.end();
+            pendingPosIncr += posIncrAtt.getPositionIncrement();
+            finalOffset = Math.max(finalOffset, shift + offsetAtt.endOffset());
+        }
+    }
+
+    /**
+     * Appends other tokens after these ones, shifting their offsets.
+     *
+     * @param other the tokens to append.
+     * @param shift the start of the part of the text they come from, added to their offsets.
+     */
+    public void append(final PreAnalyzedTokens other, final int shift) {
+
+        for (int i = 0; i < other.size; i++) {
+
+            if (size == termEnds.length) {
+                grow();
+            }
+
+            final int otherStart = i == 0 ? 0 : other.termEnds[i - 1];
+            final int length = other.termEnds[i] - otherStart;
+            final int start = size == 0 ? 0 : termEnds[size - 1];
+            chars = ArrayUtil.grow(chars, start + length);
+            System.arraycopy(other.chars, otherStart, chars, start, length);
+
+            termEnds[size] = start + length;
+            startOffsets[size] = shift + other.startOffsets[i];
+            endOffsets[size] = shift + other.endOffsets[i];
+            posIncrs[size] = (i == 0 ? pendingPosIncr : 0) + other.posIncrs[i];
+            posLens[size] = other.posLens[i];
+            types[size] = other.types[i];
+            keywords[size] = other.keywords[i];
+            size++;
+        }
+
+        pendingPosIncr = other.size == 0 ? pendingPosIncr + other.pendingPosIncr : other.pendingPosIncr;
+        finalOffset = Math.max(finalOffset, shift + other.finalOffset);
+    }
+
+    /**
+     * Sets the final offset of the text, reported at the end of the replayed stream.
+     *
+     * @param finalOffset the final offset, usually the length of the text.
+     */
+    public void setFinalOffset(final int finalOffset) {
+        this.finalOffset = finalOffset;
+    }
+
+    /**
+     * Returns the number of tokens.
+     *
+     * @return the number of tokens.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns a new stream replaying the tokens.
+     *
+     * @return a new stream replaying the tokens.
+     */
+    public TokenStream tokenStream() {
+        return new Replay();
+    }
+
+    /**
+     * Grows the arrays of the tokens.
+     */
+    private void grow() {
+        final int n = ArrayUtil.oversize(size + 1, Integer.BYTES);
+        termEnds = Arrays.copyOf(termEnds, n);
+        startOffsets = Arrays.copyOf(startOffsets, n);
+        endOffsets = Arrays.copyOf(endOffsets, n);
+        posIncrs = Arrays.copyOf(posIncrs, n);
+        posLens = Arrays.copyOf(posLens, n);
+        types = Arrays.copyOf(types, n);
+        keywords = Arrays.copyOf(keywords, n);
+    }
+
+    /**
+     * A stream replaying the tokens.
+     */
+    private final class Replay extends TokenStream {
+
+        /**
+         * The term of the current token.
+         */
+        private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+
+        /**
+         * The offsets of the current token.
+         */
+        private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+
+        /**
+         * The position increment of the current token.
+         */
+        private final PositionIncrementAttribute posIncrAtt = addAttribute(PositionIncrementAttribute.class);
+
+        /**
+         * The position length of the current token.
+         */
+        private final PositionLengthAttribute posLenAtt = addAttribute(PositionLengthAttribute.class);
+
+        /**
+         * The type of the current token.
+         */
+        private final TypeAttribute typeAtt = addAttribute(TypeAttribute.class);
+
+        /**
+         * The keyword flag of the current token.
+         */
+        private final KeywordAttribute keywordAtt = addAttribute(KeywordAttribute.class);
+
+        /**
+         * The index of the next token.
+         */
+        private int next = 0;
+
+        @Override
+        public boolean incrementToken() {
+
+            if (next == size) {
+                return false;
+            }
+
+            clearAttributes();
+
+            final int start = next == 0 ? 0 : termEnds[next - 1];
+            termAtt.copyBuffer(chars, start, termEnds[next] - start);
+            offsetAtt.setOffset(startOffsets[next], endOffsets[next]);
+            posIncrAtt.setPositionIncrement(posIncrs[next]);
+            posLenAtt.setPositionLength(posLens[next]);
+            typeAtt.setType(types[next]);
+            keywordAtt.setKeyword(keywords[next]);
+            next++;
+
+            return true;
+        }
+
+        @Override
+        public void end() throws IOException {
+            super.end();
+            offsetAtt.setOffset(finalOffset, finalOffset);
+            posIncrAtt.setPositionIncrement(pendingPosIncr);
+        }
+
+        @Override
+        public void reset() throws IOException {
+            super.reset();
+            next = 0;
+        }
+    }
+}
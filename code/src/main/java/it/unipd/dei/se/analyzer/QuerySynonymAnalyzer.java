@@ -0,0 +1,90 @@
+package it.unipd.dei.se.analyzer;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.AnalyzerWrapper;
+import org.apache.lucene.analysis.synonym.SynonymGraphFilter;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+
+import java.io.IOException;
+
+/**
+ * A query-time analyzer adding a {@link SynonymGraphFilter} at the end of the chain of another analyzer.
+ * <p>
+ * Synonyms are expanded only in the queries, so the index does not grow, and the synonym map is the one compiled
+ * offline by {@link SynonymMapCompiler} with the same wrapped analyzer and shared through
+ * {@link AnalyzerResources#synonymMap(String)}, so it is loaded once per process.
+ *
+ * @author CLOSE GROUP
+ * @version 1.0
+ */
+public class QuerySynonymAnalyzer extends AnalyzerWrapper {
+
+    /**
+     * The analyzer whose chain is extended.
+     */
+    private final Analyzer analyzer;
+
+    /**
+     * The synonym map.
+     */
+    private final SynonymMap synonyms;
+
+    /**
+     * Creates a new query-time synonym analyzer.
+     *
+     * @param analyzer the analyzer whose chain is extended.
+     * @param synonyms the synonym map, compiled with the same analyzer.
+     * @throws NullPointerException if any of the parameters is {@code null}.
+     */
+    public QuerySynonymAnalyzer(final Analyzer analyzer, final SynonymMap synonyms) {
+        super(PER_FIELD_REUSE_STRATEGY);
+
+        if (analyzer == null) {
+            throw new NullPointerException("Analyzer cannot be null.");
+        }
+
+        if (synonyms == null) {
+            throw new NullPointerException("Synonym map cannot be null.");
+        }
+
+        this.analyzer = analyzer;
+        this.synonyms = synonyms;
+    }
+
+    @Override
+    protected Analyzer getWrappedAnalyzer(final String fieldName) {
+        return analyzer;
+    }
+
+    @Override
+    protected TokenStreamComponents wrapComponents(final String fieldName, final TokenStreamComponents components) {
+        return new TokenStreamComponents(components.getSource(),
+                new SynonymGraphFilter(components.getTokenStream(), synonyms, false));
+    }
+
+    @Override
+    public void close() {
+        analyzer.close();
+        super.close();
+    }
+
+    /**
+     * Main method to try the analyzer on a French query.
+     *
+     * @param args the arguments to be passed to the method: the file containing the synonym map, by default
+     *             {@code python_scripts/synonyms-french.fst}.
+     * @throws IOException if something goes wrong while processing the query.
+     */
+    public static void main(String[] args) throws IOException {
+
+        final String synonymFile = args.length > 0 ? args[0] : "python_scripts/synonyms-french.fst";
+
+        final Analyzer a = new QuerySynonymAnalyzer(new CloseAnalyzer(CloseAnalyzer.TokenizerType.Standard, 2, 15,
+                false, "new-long-stoplist-fr.txt", CloseAnalyzer.StemFilterType.French, null, null, false, false,
+                true), AnalyzerResources.synonymMap(synonymFile));
+
+        AnalyzerUtil.consumeTokenStream(a, "Comment résilier et abolir un contrat");
+
+        a.close();
+    }
+}
@@ -0,0 +1,327 @@
+package it.unipd.dei.se.analyzer;
+
+import it.unipd.dei.se.parser.Text.ParsedTextDocument;
+import opennlp.tools.util.Span;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.opennlp.tools.NLPSentenceDetectorOp;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Analyzes texts ahead of indexing, sentence by sentence, spreading the sentences of long texts over a fork-join pool.
+ * <p>
+ * Meant for the analyzers using the NLP filters, whose cost grows with the length of the sentences they tag: a text is
+ * split into sentences by an OpenNLP sentence detector and each sentence is analyzed on its own, so that the POS and
+ * NER taggers never see more than one sentence at a time. The sentences are grouped into batches of about
+ * {@code batchChars} characters; a text fitting in one batch is analyzed by the calling thread, while the batches of a
+ * longer text are analyzed in parallel, so that the time taken by a single long document is bounded by the size of the
+ * batches and the number of threads rather than by the length of the document.
+ * <p>
+ * The resulting {@link PreAnalyzedTokens} are in the same order as the sentences, with their offsets in the whole text
+ * and the positions skipped at the end of a sentence carried over to the next one, so that the indexer gets the same
+ * tokens it would get from the analyzer if this were sentence-aware. The analyzer keeps one token stream per thread,
+ * as usual, so it is used concurrently by the threads of the pool; when it is a {@link LanguageRoutingAnalyzer}, the
+ * language of the whole text is detected once and set in each thread analyzing one of its batches.
+ *
+ * @author CLOSE GROUP
+ * @version 1.0
+ */
+public class SentenceParallelAnalyzer implements Closeable {
+
+    /**
+     * The analyzer used for each sentence.
+     */
+    private final Analyzer analyzer;
+
+    /**
+     * The analyzer routing the texts by language, {@code null} if the analyzer does not route.
+     */
+    private final LanguageRoutingAnalyzer router;
+
+    /**
+     * The name of the file containing the sentence detector model.
+     */
+    private final String sentenceModelFile;
+
+    /**
+     * The sentence detector of each indexing thread.
+     */
+    private final ThreadLocal<NLPSentenceDetectorOp> detectors;
+
+    /**
+     * The pool analyzing the batches of sentences.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * The minimum number of characters of a batch of sentences.
+     */
+    private final int batchChars;
+
+    /**
+     * Creates a new sentence-parallel analyzer.
+     *
+     * @param analyzer          the analyzer used for each sentence.
+     * @param sentenceModelFile the name of the file in the "resources" folder containing the sentence detector model,
+     *                          e.g. {@code en-sent.bin}.
+     * @param parallelism       the number of threads of the pool analyzing the batches of sentences.
+     * @param batchChars        the minimum number of characters of a batch of sentences.
+     * @throws NullPointerException     if the analyzer or the model file name are {@code null}.
+     * @throws IllegalArgumentException if the model file name is empty, or the parallelism or the size of the batches
+     *                                  are not positive.
+     */
+    public SentenceParallelAnalyzer(final Analyzer analyzer, final String sentenceModelFile, final int parallelism,
+                                    final int batchChars) {
+
+        if (analyzer == null) {
+            throw new NullPointerException("Analyzer cannot be null.");
+        }
+
+        if (sentenceModelFile == null) {
+            throw new NullPointerException("Sentence model file cannot be null.");
+        }
+
+        if (sentenceModelFile.isEmpty()) {
+            throw new IllegalArgumentException("Sentence model file cannot be empty.");
+        }
+
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism cannot be less than or equal to zero.");
+        }
+
+        if (batchChars <= 0) {
+            throw new IllegalArgumentException("Batch size cannot be less than or equal to zero.");
+        }
+
+        this.analyzer = analyzer;
+        this.router = analyzer instanceof LanguageRoutingAnalyzer ? (LanguageRoutingAnalyzer) analyzer : null;
+        this.sentenceModelFile = sentenceModelFile;
+        this.detectors = ThreadLocal.withInitial(() -> AnalyzerResources.sentenceDetectorOp(sentenceModelFile));
+        this.pool = new ForkJoinPool(parallelism);
+        this.batchChars = batchChars;
+
+        // fail now, rather than at the first document, if the model cannot be loaded
+        detectors.get();
+    }
+
+    /**
+     * Analyzes a text sentence by sentence.
+     *
+     * @param fieldName the name of the field the text belongs to.
+     * @param text      the text.
+     * @return the tokens of the text.
+     * @throws IOException if something goes wrong while analyzing the text.
+     */
+    public PreAnalyzedTokens analyze(final String fieldName, final String text) throws IOException {
+
+        final Span[] sentences = detectors.get().splitSentences(text);
+
+        // group the sentences into batches of at least batchChars characters
+        final List<Span[]> batches = new ArrayList<>();
+        int first = 0;
+        for (int i = 0; i < sentences.length; i++) {
+            if (sentences[i].getEnd() - sentences[first].getStart() >= batchChars || i == sentences.length - 1) {
+                batches.add(Arrays.copyOfRange(sentences, first, i + 1));
+                first = i + 1;
+            }
+        }
+
+        final LanguageDetector.Language language = router != null ? router.route(text) : null;
+
+        final PreAnalyzedTokens tokens;
+
+        if (batches.size() <= 1) {
+            tokens = analyzeBatch(fieldName, text, sentences);
+        } else {
+
+            final List<Callable<PreAnalyzedTokens>> tasks = new ArrayList<>(batches.size());
+            for (Span[] batch : batches) {
+                tasks.add(() -> {
+                    if (router != null) {
+                        router.setLanguage(language);
+                    }
+                    return analyzeBatch(fieldName, text, batch);
+                });
+            }
+
+            tokens = new PreAnalyzedTokens();
+            try {
+                for (Future<PreAnalyzedTokens> batch : pool.invokeAll(tasks)) {
+                    tokens.append(batch.get(), 0);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while analyzing the sentences.", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(String.format("Unable to analyze the sentences: %s", e.getCause().getMessage()),
+                        e.getCause());
+            }
+        }
+
+        tokens.setFinalOffset(text.length());
+        return tokens;
+    }
+
+    /**
+     * Analyzes a batch of sentences, one at a time.
+     *
+     * @param fieldName the name of the field the text belongs to.
+     * @param text      the text.
+     * @param sentences the sentences of the batch.
+     * @return the tokens of the sentences, with their offsets in the whole text.
+     * @throws IOException if something goes wrong while analyzing the sentences.
+     */
+    private PreAnalyzedTokens analyzeBatch(final String fieldName, final String text, final Span[] sentences)
+            throws IOException {
+
+        final PreAnalyzedTokens tokens = new PreAnalyzedTokens();
+        for (Span sentence : sentences) {
+            tokens.append(analyzer.tokenStream(fieldName, text.substring(sentence.getStart(), sentence.getEnd())),
+                    sentence.getStart());
+        }
+        return tokens;
+    }
+
+    /**
+     * Returns the name of the file containing the sentence detector model.
+     *
+     * @return the name of the file containing the sentence detector model.
+     */
+    public String getSentenceModelFile() {
+        return sentenceModelFile;
+    }
+
+    /**
+     * Shuts down the pool; the analyzer is left open.
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    /**
+     * Main method to check that the tokens are the same as the ones of the analyzer over the whole text and to compare
+     * the time taken by each document, on a sample of the collection whose documents are also concatenated into long
+     * ones.
+     *
+     * @param args the arguments to be passed to the method: a JSON file of the collection and, optionally, the number
+     *             of documents concatenated into a long one, by default 100.
+     * @throws IOException if something goes wrong while analyzing the texts.
+     */
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 1) {
+            throw new IllegalArgumentException("Usage: SentenceParallelAnalyzer <collection JSON file> [documents]");
+        }
+
+        final int concatenated = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        final String field = ParsedTextDocument.Fields.BODY;
+
+        final List<String> bodies = AnalyzerBenchmark.loadBodies(args[0], "ISO-8859-1");
+        final List<String> longBodies = new ArrayList<>();
+        for (int i = 0; i + concatenated <= bodies.size(); i += concatenated) {
+            longBodies.add(String.join("\n", bodies.subList(i, i + concatenated)));
+        }
+
+        final Analyzer analyzer = new CloseAnalyzer(CloseAnalyzer.TokenizerType.Standard, 2, 15, false,
+                "new-long-stoplist-fr.txt", CloseAnalyzer.StemFilterType.French, null, null, false, false, true);
+
+        final int threads = Runtime.getRuntime().availableProcessors();
+
+        try (SentenceParallelAnalyzer parallel = new SentenceParallelAnalyzer(analyzer, "en-sent.bin", threads,
+                2048)) {
+
+            int mismatches = 0;
+            for (String body : bodies) {
+                // analyzed first, since short texts are analyzed by this thread with the same token stream
+                final TokenStream actual = parallel.analyze(field, body).tokenStream();
+                if (!same(analyzer.tokenStream(field, body), actual)) {
+                    mismatches++;
+                }
+            }
+            System.out.printf("%d document(s) checked, %d with different tokens%n", bodies.size(), mismatches);
+
+            System.out.printf("%d document(s) of %d documents each, %d thread(s)%n", longBodies.size(), concatenated,
+                    threads);
+
+            for (int round = 0; round < 3; round++) {
+
+                long whole = 0, wholeMax = 0, split = 0, splitMax = 0;
+
+                for (String body : longBodies) {
+
+                    long start = System.nanoTime();
+                    AnalyzerBenchmark.countTokens(analyzer, body);
+                    long elapsed = System.nanoTime() - start;
+                    whole += elapsed;
+                    wholeMax = Math.max(wholeMax, elapsed);
+
+                    start = System.nanoTime();
+                    parallel.analyze(field, body);
+                    elapsed = System.nanoTime() - start;
+                    split += elapsed;
+                    splitMax = Math.max(splitMax, elapsed);
+                }
+
+                System.out.printf("+ round %d: whole text %.1f ms/document (max %.1f), sentences in parallel %.1f " +
+                                "ms/document (max %.1f)%n", round, whole / 1e6 / longBodies.size(), wholeMax / 1e6,
+                        split / 1e6 / longBodies.size(), splitMax / 1e6);
+            }
+        }
+
+        analyzer.close();
+    }
+
+    /**
+     * Checks whether two streams have the same terms, positions and offsets.
+     *
+     * @param expected the expected stream, not yet reset.
+     * @param actual   the actual stream, not yet reset.
+     * @return {@code true} if the streams have the same tokens; {@code false} otherwise.
+     * @throws IOException if something goes wrong while consuming the streams.
+     */
+    private static boolean same(final TokenStream expected, final TokenStream actual) throws IOException {
+
+        final CharTermAttribute expectedTerm = expected.addAttribute(CharTermAttribute.class);
+        final OffsetAttribute expectedOffset = expected.addAttribute(OffsetAttribute.class);
+        final PositionIncrementAttribute expectedPosIncr = expected.addAttribute(PositionIncrementAttribute.class);
+        final CharTermAttribute actualTerm = actual.addAttribute(CharTermAttribute.class);
+        final OffsetAttribute actualOffset = actual.addAttribute(OffsetAttribute.class);
+        final PositionIncrementAttribute actualPosIncr = actual.addAttribute(PositionIncrementAttribute.class);
+
+        try (expected; actual) {
+            expected.reset();
+            actual.reset();
+
+            boolean more;
+            while ((more = expected.incrementToken()) == actual.incrementToken() && more) {
+                if (!expectedTerm.toString().equals(actualTerm.toString())
+                        || expectedPosIncr.getPositionIncrement() != actualPosIncr.getPositionIncrement()
+                        || expectedOffset.startOffset() != actualOffset.startOffset()
+                        || expectedOffset.endOffset() != actualOffset.endOffset()) {
+                    more = true;
+                    break;
+                }
+            }
+
+            expected.end();
+            actual.end();
+            return !more && expectedOffset.endOffset() == actualOffset.endOffset();
+        }
+    }
+}
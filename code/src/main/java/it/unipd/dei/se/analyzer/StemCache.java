@@ -0,0 +1,224 @@
+package it.unipd.dei.se.analyzer;
+
+/**
+ * A bounded cache from terms to their stems, keyed directly on {@code char[]} buffers.
+ * <p>
+ * The cache is direct-mapped: each term hashes to exactly one slot and a new entry simply overwrites the previous
+ * occupant of its slot. Keys and stems are stored in two flat arrays allocated once, so neither lookups nor
+ * insertions allocate memory. Terms longer than {@link #MAX_TERM_LENGTH} are never cached.
+ * <p>
+ * The cache is not thread-safe: it is meant to be confined to the token stream of a single thread, as the ones
+ * created by {@link CloseAnalyzer}.
+ *
+ * @author CLOSE GROUP
+ * @version 1.0
+ */
+public final class StemCache {
+
+    /**
+     * The maximum length of the terms (and stems) which are cached.
+     */
+    public static final int MAX_TERM_LENGTH = 24;
+
+    /**
+     * The mask selecting a slot from a hash.
+     */
+    private final int mask;
+
+    /**
+     * The keys of the slots, {@link #MAX_TERM_LENGTH} chars each.
+     */
+    private final char[] keys;
+
+    /**
+     * The length of the key in each slot, {@code -1} if the slot is empty.
+     */
+    private final int[] keyLengths;
+
+    /**
+     * The stems of the slots, {@link #MAX_TERM_LENGTH} chars each.
+     */
+    private final char[] stems;
+
+    /**
+     * The length of the stem in each slot.
+     */
+    private final int[] stemLengths;
+
+    /**
+     * The slot of the last successful lookup.
+     */
+    private int lastSlot = -1;
+
+    /**
+     * The number of lookups which found the term.
+     */
+    private long hits;
+
+    /**
+     * The number of lookups which did not find the term.
+     */
+    private long misses;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param capacity the number of slots, rounded up to the next power of two.
+     * @throws IllegalArgumentException if {@code capacity} is less than or equal to zero.
+     */
+    public StemCache(final int capacity) {
+
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Stem cache capacity cannot be less than or equal to zero.");
+        }
+
+        final int slots = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+
+        mask = slots - 1;
+        keys = new char[slots * MAX_TERM_LENGTH];
+        keyLengths = new int[slots];
+        stems = new char[slots * MAX_TERM_LENGTH];
+        stemLengths = new int[slots];
+
+        java.util.Arrays.fill(keyLengths, -1);
+    }
+
+    /**
+     * Looks up a term. On success the stem can be read through {@link #stemBuffer()}, {@link #stemOffset()} and
+     * {@link #stemLength()} until the next call to this method.
+     *
+     * @param term   the buffer containing the term.
+     * @param length the length of the term.
+     * @return {@code true} if the term is in the cache; {@code false} otherwise.
+     */
+    public boolean lookup(final char[] term, final int length) {
+
+        if (length > MAX_TERM_LENGTH) {
+            misses++;
+            return false;
+        }
+
+        final int slot = hash(term, length) & mask;
+
+        if (keyLengths[slot] == length && equals(slot, term, length)) {
+            lastSlot = slot;
+            hits++;
+            return true;
+        }
+
+        misses++;
+        return false;
+    }
+
+    /**
+     * Stores the stem of a term, replacing whatever was in its slot.
+     *
+     * @param term       the buffer containing the term.
+     * @param length     the length of the term.
+     * @param stem       the buffer containing the stem.
+     * @param stemLength the length of the stem.
+     */
+    public void put(final char[] term, final int length, final char[] stem, final int stemLength) {
+
+        if (length > MAX_TERM_LENGTH || stemLength > MAX_TERM_LENGTH) {
+            return;
+        }
+
+        final int slot = hash(term, length) & mask;
+        final int offset = slot * MAX_TERM_LENGTH;
+
+        System.arraycopy(term, 0, keys, offset, length);
+        keyLengths[slot] = length;
+        System.arraycopy(stem, 0, stems, offset, stemLength);
+        stemLengths[slot] = stemLength;
+    }
+
+    /**
+     * Returns the buffer containing the stem found by the last successful lookup.
+     *
+     * @return the buffer containing the stem.
+     */
+    public char[] stemBuffer() {
+        return stems;
+    }
+
+    /**
+     * Returns the offset of the stem found by the last successful lookup.
+     *
+     * @return the offset of the stem within {@link #stemBuffer()}.
+     */
+    public int stemOffset() {
+        return lastSlot * MAX_TERM_LENGTH;
+    }
+
+    /**
+     * Returns the length of the stem found by the last successful lookup.
+     *
+     * @return the length of the stem.
+     */
+    public int stemLength() {
+        return stemLengths[lastSlot];
+    }
+
+    /**
+     * Returns the number of lookups which found the term.
+     *
+     * @return the number of hits.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups which did not find the term.
+     *
+     * @return the number of misses.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the fraction of lookups which found the term.
+     *
+     * @return the hit rate, {@code 0} if there has been no lookup.
+     */
+    public double getHitRate() {
+        final long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * Compares the key in a slot with a term.
+     *
+     * @param slot   the slot.
+     * @param term   the buffer containing the term.
+     * @param length the length of the term, equal to the one of the key.
+     * @return {@code true} if the key and the term are equal; {@code false} otherwise.
+     */
+    private boolean equals(final int slot, final char[] term, final int length) {
+        final int offset = slot * MAX_TERM_LENGTH;
+        for (int i = 0; i < length; i++) {
+            if (keys[offset + i] != term[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hashes a term, spreading the bits so that the low ones can be used to select a slot.
+     *
+     * @param term   the buffer containing the term.
+     * @param length the length of the term.
+     * @return the hash of the term.
+     */
+    private static int hash(final char[] term, final int length) {
+        int h = 0;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + term[i];
+        }
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,226 @@
+package it.unipd.dei.se.analyzer;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.synonym.SynonymMap;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefHash;
+import org.apache.lucene.util.CharsRef;
+import org.apache.lucene.util.CharsRefBuilder;
+import org.apache.lucene.util.fst.ByteSequenceOutputs;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.OffHeapFSTStore;
+
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.ParseException;
+
+/**
+ * Compiles a synonym file into a {@link SynonymMap} and serializes it to disk, so that it can be memory-mapped at
+ * query time instead of being rebuilt by each analyzer.
+ * <p>
+ * Each line of the synonym file lists a head word followed by its synonyms, separated by {@code ", "}; each synonym is
+ * mapped to the head word, keeping the original. Both are analyzed with the same analyzer used for the queries, so
+ * that the map matches the tokens produced by that analyzer; synonyms which the analyzer reduces to nothing or to
+ * tokens with holes, e.g. because of stop words, are skipped.
+ * <p>
+ * The serialized map holds the words of the map followed by its FST, which is read off-heap by {@link #load(Path)}.
+ *
+ * @author CLOSE GROUP
+ * @version 1.0
+ */
+public final class SynonymMapCompiler extends SynonymMap.Parser {
+
+    /**
+     * The codec name written in the header of the serialized map.
+     */
+    private static final String CODEC = "CloseSynonymMap";
+
+    /**
+     * The version of the format of the serialized map.
+     */
+    private static final int VERSION = 0;
+
+    /**
+     * The number of synonyms added to the map.
+     */
+    private int added = 0;
+
+    /**
+     * The number of synonyms skipped because of their analysis.
+     */
+    private int skipped = 0;
+
+    /**
+     * Creates a new compiler.
+     *
+     * @param analyzer the analyzer used for the queries.
+     */
+    public SynonymMapCompiler(final Analyzer analyzer) {
+        super(true, analyzer);
+    }
+
+    @Override
+    public void parse(final Reader in) throws IOException, ParseException {
+
+        final LineNumberReader lines = new LineNumberReader(in);
+        final CharsRefBuilder scratch = new CharsRefBuilder();
+
+        String line;
+        while ((line = lines.readLine()) != null) {
+
+            if (line.isBlank()) {
+                continue;
+            }
+
+            final String[] words = line.split(", ");
+
+            final CharsRef head;
+            try {
+                head = analyze(words[0].trim().toLowerCase(), scratch);
+            } catch (IllegalArgumentException e) {
+                skipped += words.length - 1;
+                continue;
+            }
+
+            for (int i = 1; i < words.length; i++) {
+                try {
+                    add(analyze(words[i].trim(), new CharsRefBuilder()), head, true);
+                    added++;
+                } catch (IllegalArgumentException e) {
+                    skipped++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of synonyms added to the map.
+     *
+     * @return the number of added synonyms.
+     */
+    public int getAdded() {
+        return added;
+    }
+
+    /**
+     * Returns the number of synonyms skipped because of their analysis.
+     *
+     * @return the number of skipped synonyms.
+     */
+    public int getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Writes a synonym map.
+     *
+     * @param map  the synonym map.
+     * @param file the file where to write the map.
+     * @throws IOException              if something goes wrong while writing the map.
+     * @throws IllegalArgumentException if the map is empty.
+     */
+    public static void save(final SynonymMap map, final Path file) throws IOException {
+
+        if (map.fst == null) {
+            throw new IllegalArgumentException("Synonym map cannot be empty.");
+        }
+
+        try (Directory dir = new MMapDirectory(file.toAbsolutePath().getParent());
+             IndexOutput out = dir.createOutput(file.getFileName().toString(), IOContext.DEFAULT)) {
+
+            CodecUtil.writeHeader(out, CODEC, VERSION);
+
+            out.writeVInt(map.maxHorizontalContext);
+
+            final BytesRef word = new BytesRef();
+            out.writeVInt(map.words.size());
+            for (int i = 0; i < map.words.size(); i++) {
+                map.words.get(i, word);
+                out.writeVInt(word.length);
+                out.writeBytes(word.bytes, word.offset, word.length);
+            }
+
+            map.fst.save(out, out);
+        }
+    }
+
+    /**
+     * Reads a synonym map previously written by {@link #save(SynonymMap, Path)}, memory-mapping its FST.
+     * <p>
+     * The mapped file stays open as long as the map is used, which is meant to be the whole life of the process.
+     *
+     * @param file the file containing the map.
+     * @return the synonym map.
+     * @throws IOException if something goes wrong while reading the map.
+     */
+    public static SynonymMap load(final Path file) throws IOException {
+
+        final Directory dir = new MMapDirectory(file.toAbsolutePath().getParent());
+        final IndexInput in = dir.openInput(file.getFileName().toString(), IOContext.READ);
+
+        CodecUtil.checkHeader(in, CODEC, VERSION, VERSION);
+
+        final int maxHorizontalContext = in.readVInt();
+
+        // words are added in the same order, so they get the same ids
+        final BytesRefHash words = new BytesRefHash();
+        final BytesRef word = new BytesRef();
+        for (int i = 0, n = in.readVInt(); i < n; i++) {
+            word.length = in.readVInt();
+            word.bytes = new byte[word.length];
+            in.readBytes(word.bytes, 0, word.length);
+            words.add(word);
+        }
+
+        final FST<BytesRef> fst = new FST<>(in, in, ByteSequenceOutputs.getSingleton(), new OffHeapFSTStore());
+
+        return new SynonymMap(fst, words, maxHorizontalContext);
+    }
+
+    /**
+     * Main method to compile the French synonyms with the analyzer used by {@link it.unipd.dei.se.CloseSearchEngine}.
+     *
+     * @param args the arguments to be passed to the method: the synonym file, by default
+     *             {@code python_scripts/synonyms-french.txt}, and the file where to write the map, by default
+     *             {@code python_scripts/synonyms-french.fst}.
+     * @throws Exception if something goes wrong while compiling the map.
+     */
+    public static void main(String[] args) throws Exception {
+
+        final Path synonyms = Paths.get(args.length > 0 ? args[0] : "python_scripts/synonyms-french.txt");
+        final Path output = Paths.get(args.length > 1 ? args[1] : "python_scripts/synonyms-french.fst");
+
+        final long start = System.currentTimeMillis();
+
+        final Analyzer a = new CloseAnalyzer(CloseAnalyzer.TokenizerType.Standard, 2, 15, false,
+                "new-long-stoplist-fr.txt", CloseAnalyzer.StemFilterType.French, null, null, false, false, true);
+
+        final SynonymMapCompiler compiler = new SynonymMapCompiler(a);
+        try (Reader in = Files.newBufferedReader(synonyms, StandardCharsets.UTF_8)) {
+            compiler.parse(in);
+        }
+
+        final SynonymMap map = compiler.build();
+        save(map, output);
+        a.close();
+
+        System.out.printf("%d synonym(s) compiled (%d skipped) into %s (%d bytes) in %d milliseconds.%n",
+                compiler.getAdded(), compiler.getSkipped(), output, Files.size(output),
+                System.currentTimeMillis() - start);
+
+        final long loadStart = System.nanoTime();
+        load(output);
+        System.out.printf("Synonym map loaded in %d microseconds.%n", (System.nanoTime() - loadStart) / 1000);
+    }
+}
@@ -17,6 +17,9 @@ package it.unipd.dei.se.indexer;
 
 import com.google.gson.stream.JsonWriter;
 import it.unipd.dei.se.analyzer.DocEmbeddings;
+import it.unipd.dei.se.analyzer.HashedNGramAnalyzer;
+import it.unipd.dei.se.analyzer.LanguageRoutingAnalyzer;
+import it.unipd.dei.se.analyzer.SentenceParallelAnalyzer;
 import it.unipd.dei.se.parser.*;
 import it.unipd.dei.se.parser.Embedded.ClefEmbeddedParser;
 import it.unipd.dei.se.parser.Embedded.ParsedEmbeddedDocument;
@@ -43,6 +46,7 @@ import org.apache.lucene.index.VectorSimilarityFunction;
 import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.search.similarities.Similarity;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
 
 import java.io.FileWriter;
 import java.io.IOException;
@@ -121,8 +125,29 @@ public class DirectoryIndexer {
      */
     private long bytesCount;
 
+    /**
+     * The total number of documents skipped, since their body could not be analyzed beforehand.
+     */
+    private long skippedCount;
+
     private boolean useEmbeddings = false;
 
+    /**
+     * The analyzer routing each document to the chain of its language, {@code null} if the analyzer does not route.
+     */
+    private final LanguageRoutingAnalyzer router;
+
+    /**
+     * The analyzer hashing the n-grams of the body into their own field, {@code null} if the field is not indexed.
+     */
+    private HashedNGramAnalyzer hashedNGrams = null;
+
+    /**
+     * The analyzer of the body, sentence by sentence, ahead of indexing, {@code null} if the body is analyzed by the
+     * index writer.
+     */
+    private SentenceParallelAnalyzer preAnalyzer = null;
+
     /**
      * Creates a new indexer.
      *
@@ -166,6 +191,8 @@ public class DirectoryIndexer {
             this.useEmbeddings = true;
         }
 
+        this.router = analyzer instanceof LanguageRoutingAnalyzer ? (LanguageRoutingAnalyzer) analyzer : null;
+
         final IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
         if (!this.useEmbeddings) iwc.setSimilarity(similarity);
         iwc.setRAMBufferSizeMB(ramBufferSizeMB);
@@ -260,6 +287,8 @@ public class DirectoryIndexer {
 
         this.filesCount = 0;
 
+        this.skippedCount = 0;
+
         try {
             writer = new IndexWriter(FSDirectory.open(indexDir), iwc);
         } catch (IOException e) {
@@ -271,6 +300,28 @@ public class DirectoryIndexer {
 
     }
 
+    /**
+     * Indexes the hashed n-grams of the body of each document in the
+     * {@link ParsedTextDocument.Fields#HASHED_NGRAMS} field, besides the body itself.
+     *
+     * @param hashedNGrams the analyzer hashing the n-grams, {@code null} not to index the field.
+     */
+    public void setHashedNGrams(final HashedNGramAnalyzer hashedNGrams) {
+        this.hashedNGrams = hashedNGrams;
+    }
+
+    /**
+     * Analyzes the body of each document sentence by sentence, on the pool of the given analyzer, before adding the
+     * document to the index, instead of leaving the analysis to the index writer. It is meant for analyzers using the
+     * NLP filters, so that a long document does not hold up the indexing while its sentences are tagged one after the
+     * other.
+     *
+     * @param preAnalyzer the analyzer of the body, {@code null} to leave the analysis to the index writer.
+     */
+    public void setPreAnalyzer(final SentenceParallelAnalyzer preAnalyzer) {
+        this.preAnalyzer = preAnalyzer;
+    }
+
     /**
      * Method to create embedded documents
      *
@@ -352,6 +403,10 @@ public class DirectoryIndexer {
                             // add the document identifier
                             doc.add(new StringField(ParsedEmbeddedDocument.Fields.ID, ped.getIdentifier(), Field.Store.YES));
 
+                            // and as doc values, to resolve the hits to their identifiers without the stored fields
+                            doc.add(new SortedDocValuesField(ParsedEmbeddedDocument.Fields.ID,
+                                    new BytesRef(ped.getIdentifier())));
+
                             // add the document embedding
                             doc.add(new KnnFloatVectorField(ParsedEmbeddedDocument.Fields.EMB_BODY, ped.getBody(), VectorSimilarityFunction.EUCLIDEAN));
 
@@ -362,8 +417,38 @@ public class DirectoryIndexer {
                             // add the document identifier
                             doc.add(new StringField(ParsedTextDocument.Fields.ID, ptd.getIdentifier(), Field.Store.YES));
 
-                            // add the document embedding
-                            doc.add(new BodyField(ptd.getBody()));
+                            // and as doc values, to resolve the hits to their identifiers without the stored fields
+                            doc.add(new SortedDocValuesField(ParsedTextDocument.Fields.ID,
+                                    new BytesRef(ptd.getIdentifier())));
+
+                            // the body is analyzed by the chain of its language, when the analyzer routes
+                            if (router != null) {
+                                router.route(ptd.getBody());
+                            }
+
+                            // the body field, whose tokens are replaced below by the pre-analyzed ones, if any
+                            final BodyField body = new BodyField(ptd.getBody());
+
+                            // the body is still stored as it is, but indexed with the tokens analyzed beforehand;
+                            // a document whose body cannot be analyzed is skipped rather than indexed with the
+                            // analyzer of the writer, whose tokens would not match the ones of the other documents
+                            if (preAnalyzer != null) {
+                                try {
+                                    body.setTokenStream(preAnalyzer.analyze(ParsedTextDocument.Fields.BODY,
+                                            ptd.getBody()).tokenStream());
+                                } catch (IOException e) {
+                                    skippedCount++;
+                                    System.out.printf("Skipping document %s, unable to analyze its body: %s.%n",
+                                            ptd.getIdentifier(), e.getMessage());
+                                    return;
+                                }
+                            }
+
+                            doc.add(body);
+
+                            if (hashedNGrams != null) {
+                                doc.add(new HashedNGramField(hashedNGrams, ptd.getBody()));
+                            }
                         }
 
 
@@ -392,6 +477,10 @@ public class DirectoryIndexer {
 
         writer.close();
 
+        if (skippedCount > 0) {
+            System.out.printf("%d document(s) skipped, since their body could not be analyzed.%n", skippedCount);
+        }
+
         if (docsCount != expectedDocs) {
             System.out.printf("Expected to index %d documents; %d indexed instead.%n", expectedDocs, docsCount);
         }
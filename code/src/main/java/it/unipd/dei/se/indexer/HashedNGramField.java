@@ -0,0 +1,86 @@
+/*
+ *  Copyright 2017-2023 University of Padua, Italy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package it.unipd.dei.se.indexer;
+
+import it.unipd.dei.se.analyzer.HashedNGramAnalyzer;
+import it.unipd.dei.se.parser.Text.ParsedTextDocument;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.IndexOptions;
+
+/**
+ * Represents a {@link Field} for containing the hashed n-grams of the body of a document.
+ * <p>
+ * It is a tokenized field, not stored, keeping only document ids and term frequencies (see {@link
+ * IndexOptions#DOCS_AND_FREQS}). The body is analyzed by a {@link HashedNGramAnalyzer} rather than by the analyzer of
+ * the index writer, so that the n-grams are hashed into a fixed number of terms, when the document is indexed.
+ *
+ * @author CLOSE GROUP
+ * @version 1.0
+ */
+public class HashedNGramField extends Field {
+
+    /**
+     * The type of the hashed n-grams field
+     */
+    private static final FieldType HASHED_NGRAMS_TYPE = new FieldType();
+
+    static {
+        HASHED_NGRAMS_TYPE.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
+        HASHED_NGRAMS_TYPE.setTokenized(true);
+        HASHED_NGRAMS_TYPE.setStored(false);
+        HASHED_NGRAMS_TYPE.freeze();
+    }
+
+    /**
+     * The analyzer hashing the n-grams.
+     */
+    private final HashedNGramAnalyzer analyzer;
+
+    /**
+     * Create a new field for the hashed n-grams of the body of a document.
+     *
+     * @param analyzer the analyzer hashing the n-grams.
+     * @param value    the contents of the body of a document.
+     * @throws NullPointerException if the analyzer is {@code null}.
+     */
+    public HashedNGramField(final HashedNGramAnalyzer analyzer, final String value) {
+        super(ParsedTextDocument.Fields.HASHED_NGRAMS, value, HASHED_NGRAMS_TYPE);
+
+        if (analyzer == null) {
+            throw new NullPointerException("Analyzer cannot be null.");
+        }
+
+        this.analyzer = analyzer;
+    }
+
+    /**
+     * Returns the token stream of the hashed n-grams, created only when the field is indexed, by the calling thread,
+     * rather than with the field, so that the reused components of the analyzer are not taken before their time.
+     *
+     * @param analyzer the analyzer of the index writer, ignored.
+     * @param reuse    the token stream to reuse, ignored.
+     * @return the token stream of the hashed n-grams.
+     */
+    @Override
+    public TokenStream tokenStream(final Analyzer analyzer, final TokenStream reuse) {
+        return this.analyzer.tokenStream(name(), stringValue());
+    }
+
+}
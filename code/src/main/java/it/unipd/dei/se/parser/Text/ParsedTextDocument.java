@@ -46,6 +46,10 @@ public record ParsedTextDocument(String id, String body) {
          * BODY: the document body.
          */
         public static final String BODY = "contents";
+        /**
+         * HASHED_NGRAMS: the hashed n-grams of the document body.
+         */
+        public static final String HASHED_NGRAMS = "hashed-ngrams";
     }
 
     /**
@@ -0,0 +1,738 @@
+/*
+ *  Copyright 2021-2023 University of Padua, Italy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package it.unipd.dei.se.searcher;
+
+import it.unipd.dei.se.analyzer.CloseAnalyzer;
+import it.unipd.dei.se.parser.Text.ParsedTextDocument;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.benchmark.quality.QualityQuery;
+import org.apache.lucene.index.*;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.queryparser.classic.QueryParserBase;
+import org.apache.lucene.search.*;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.automaton.ByteRunAutomaton;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Sweeps a grid of BM25 {@code k1}/{@code b} values and expansion boosts in a single pass over the topics.
+ * <p>
+ * For each topic the query is built exactly as in {@link Searcher}, i.e. the boosted title as a {@code MUST} clause
+ * and the expansions as {@code SHOULD} clauses, but instead of running one search per parameter combination the
+ * postings of the matching terms are decoded once into primitive arrays of (document, term frequency, length norm).
+ * Every grid point is then scored in memory from those arrays and written to its own TREC run, so a sweep over many
+ * points costs little more than a single run.
+ * <p>
+ * Scores are computed through the very same {@link BM25Similarity} scorers used by Lucene, so each run matches the one
+ * {@link Searcher} would produce with the same parameters, up to the order in which floating point sums are taken.
+ * Only term clauses are scored this way: a topic whose title or expansions are parsed into other queries over the body,
+ * e.g. a {@link SynonymQuery} for tokens at the same position or a {@link PhraseQuery}, which Lucene scores as a whole
+ * rather than term by term, is skipped, left out of every run and reported at the end of the sweep.
+ *
+ * @author CLOSE GROUP
+ * @version 1.00
+ * @since 1.00
+ */
+public class BM25ParameterSweep {
+
+    /**
+     * The fields of the typical TREC topics.
+     */
+    private static final class TOPIC_FIELDS {
+
+        /**
+         * The title of a topic.
+         */
+        public static final String TITLE = "title";
+    }
+
+    /**
+     * The identifier prefix of the runs
+     */
+    private final String runID;
+
+    /**
+     * The directory where the runs are written
+     */
+    private final Path runDir;
+
+    /**
+     * The index reader
+     */
+    private final DirectoryReader reader;
+
+    /**
+     * The stored fields of the index.
+     */
+    private final StoredFields storedFields;
+
+    /**
+     * The index searcher, used only to compute collection and term statistics.
+     */
+    private final IndexSearcher searcher;
+
+    /**
+     * The topics to be searched
+     */
+    private final QualityQuery[] topics;
+
+    /**
+     * The query parser
+     */
+    private final QueryParser qp;
+
+    /**
+     * The maximum number of documents to retrieve
+     */
+    private final int maxDocsRetrieved;
+
+    /**
+     * The {@code k1} values of the grid.
+     */
+    private final float[] k1Values;
+
+    /**
+     * The {@code b} values of the grid.
+     */
+    private final float[] bValues;
+
+    /**
+     * The per-expansion boosts of the title of the grid.
+     */
+    private final float[] boostValues;
+
+    /**
+     * The provider of the expansions of the topics, loaded once.
+     */
+    private ExpansionProvider expansions;
+
+    /**
+     * Maps a global document identifier to its slot among the candidates of the current topic, {@code -1} if absent.
+     */
+    private final int[] docSlot;
+
+    /**
+     * The total elapsed time.
+     */
+    private long elapsedTime = Long.MIN_VALUE;
+
+    /**
+     * The postings of a single term decoded into primitive arrays.
+     */
+    private static final class DecodedPostings {
+
+        /**
+         * The term statistics of the term.
+         */
+        private final TermStatistics stats;
+
+        /**
+         * How many times the term occurs in the title.
+         */
+        private final int titleCount;
+
+        /**
+         * How many times the term occurs in the expansions.
+         */
+        private final int expansionCount;
+
+        /**
+         * The global identifiers of the documents containing the term, later replaced by their candidate slots.
+         */
+        private final int[] docs;
+
+        /**
+         * The frequencies of the term in the documents.
+         */
+        private final int[] freqs;
+
+        /**
+         * The encoded length norms of the documents.
+         */
+        private final long[] norms;
+
+        /**
+         * The number of valid entries in the arrays.
+         */
+        private int size;
+
+        /**
+         * Creates new decoded postings.
+         *
+         * @param stats          the term statistics.
+         * @param titleCount     how many times the term occurs in the title.
+         * @param expansionCount how many times the term occurs in the expansions.
+         */
+        private DecodedPostings(final TermStatistics stats, final int titleCount, final int expansionCount) {
+            this.stats = stats;
+            this.titleCount = titleCount;
+            this.expansionCount = expansionCount;
+            this.docs = new int[(int) stats.docFreq()];
+            this.freqs = new int[(int) stats.docFreq()];
+            this.norms = new long[(int) stats.docFreq()];
+        }
+    }
+
+    /**
+     * Creates a new parameter sweep.
+     *
+     * @param analyzer         the {@code Analyzer} to be used.
+     * @param indexPath        the directory where containing the index to be searched.
+     * @param topicsFile       the file containing the topics to search for.
+     * @param runID            the identifier prefix of the runs to be created.
+     * @param runPath          the path where to store the runs.
+     * @param maxDocsRetrieved the maximum number of documents to be retrieved.
+     * @param k1Values         the {@code k1} values of the grid.
+     * @param bValues          the {@code b} values of the grid.
+     * @param boostValues      the per-expansion boosts of the title of the grid.
+     * @throws NullPointerException     if any of the parameters is {@code null}.
+     * @throws IllegalArgumentException if any of the parameters assumes invalid values.
+     */
+    public BM25ParameterSweep(final Analyzer analyzer, final String indexPath, final String topicsFile,
+                              final String runID, final String runPath, final int maxDocsRetrieved,
+                              final float[] k1Values, final float[] bValues, final float[] boostValues) {
+
+        if (analyzer == null) {
+            throw new NullPointerException("Analyzer cannot be null.");
+        }
+
+        if (indexPath == null) {
+            throw new NullPointerException("Index path cannot be null.");
+        }
+
+        if (indexPath.isEmpty()) {
+            throw new IllegalArgumentException("Index path cannot be empty.");
+        }
+
+        final Path indexDir = Paths.get(indexPath);
+        if (!Files.isReadable(indexDir)) {
+            throw new IllegalArgumentException(
+                    String.format("Index directory %s cannot be read.", indexDir.toAbsolutePath()));
+        }
+
+        if (!Files.isDirectory(indexDir)) {
+            throw new IllegalArgumentException(String.format("%s expected to be a directory where to search the index.",
+                    indexDir.toAbsolutePath()));
+        }
+
+        try {
+            reader = DirectoryReader.open(FSDirectory.open(indexDir));
+            storedFields = reader.storedFields();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(String.format("Unable to create the index reader for directory %s: %s.",
+                    indexDir.toAbsolutePath(), e.getMessage()), e);
+        }
+
+        searcher = new IndexSearcher(reader);
+
+        if (topicsFile == null) {
+            throw new NullPointerException("Topics file cannot be null.");
+        }
+
+        if (topicsFile.isEmpty()) {
+            throw new IllegalArgumentException("Topics file cannot be empty.");
+        }
+
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(topicsFile), StandardCharsets.UTF_8)) {
+            topics = new ClefQueryParser().readQueries(in);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(
+                    String.format("Unable to process topic file %s: %s.", topicsFile, e.getMessage()), e);
+        }
+
+        try {
+            expansions = new JsonExpansionProvider(Paths.get(ExpansionProvider.DEFAULT_FILE),
+                    ExpansionProvider.DEFAULT_LIMIT);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(String.format("Unable to process expansions file %s: %s.",
+                    ExpansionProvider.DEFAULT_FILE, e.getMessage()), e);
+        }
+
+        qp = new QueryParser(ParsedTextDocument.Fields.BODY, analyzer);
+
+        if (runID == null) {
+            throw new NullPointerException("Run identifier cannot be null.");
+        }
+
+        if (runID.isEmpty()) {
+            throw new IllegalArgumentException("Run identifier cannot be empty.");
+        }
+
+        this.runID = runID;
+
+        if (runPath == null) {
+            throw new NullPointerException("Run path cannot be null.");
+        }
+
+        if (runPath.isEmpty()) {
+            throw new IllegalArgumentException("Run path cannot be empty.");
+        }
+
+        runDir = Paths.get(runPath);
+        if (!Files.isWritable(runDir)) {
+            throw new IllegalArgumentException(
+                    String.format("Run directory %s cannot be written.", runDir.toAbsolutePath()));
+        }
+
+        if (!Files.isDirectory(runDir)) {
+            throw new IllegalArgumentException(String.format("%s expected to be a directory where to write the run.",
+                    runDir.toAbsolutePath()));
+        }
+
+        if (maxDocsRetrieved <= 0) {
+            throw new IllegalArgumentException(
+                    "The maximum number of documents to be retrieved cannot be less than or equal to zero.");
+        }
+
+        this.maxDocsRetrieved = maxDocsRetrieved;
+
+        if (k1Values == null || bValues == null || boostValues == null) {
+            throw new NullPointerException("Grid values cannot be null.");
+        }
+
+        if (k1Values.length == 0 || bValues.length == 0 || boostValues.length == 0) {
+            throw new IllegalArgumentException("Grid values cannot be empty.");
+        }
+
+        this.k1Values = k1Values.clone();
+        this.bValues = bValues.clone();
+        this.boostValues = boostValues.clone();
+
+        docSlot = new int[reader.maxDoc()];
+        Arrays.fill(docSlot, -1);
+    }
+
+    /**
+     * Returns the total elapsed time.
+     *
+     * @return the total elapsed time.
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    /**
+     * Sets the provider of the expansions of the topics, instead of the default one.
+     *
+     * @param expansions the provider of the expansions.
+     * @throws NullPointerException if the provider is {@code null}.
+     */
+    public void setExpansions(final ExpansionProvider expansions) {
+
+        if (expansions == null) {
+            throw new NullPointerException("Expansion provider cannot be null.");
+        }
+
+        this.expansions = expansions;
+    }
+
+    /**
+     * Scores every topic for every point of the grid and writes one run per grid point.
+     *
+     * @throws IOException    if something goes wrong while searching.
+     * @throws ParseException if something goes wrong while parsing topics.
+     */
+    public void sweep() throws IOException, ParseException {
+
+        System.out.printf("%n#### Start parameter sweep ####%n");
+
+        // the start time of the sweep
+        final long start = System.currentTimeMillis();
+
+        final Set<String> idField = new HashSet<>();
+        idField.add(ParsedTextDocument.Fields.ID);
+
+        final int points = k1Values.length * bValues.length * boostValues.length;
+        final PrintWriter[] runs = new PrintWriter[points];
+        final String[] runIDs = new String[points];
+        final BM25Similarity[] similarities = new BM25Similarity[k1Values.length * bValues.length];
+
+        final CollectionStatistics collectionStats = searcher.collectionStatistics(ParsedTextDocument.Fields.BODY);
+
+        // the topics whose query cannot be scored term by term
+        final List<String> skipped = new ArrayList<>();
+
+        try {
+            for (int i = 0, p = 0; i < k1Values.length; i++) {
+                for (int j = 0; j < bValues.length; j++) {
+                    similarities[i * bValues.length + j] = new BM25Similarity(k1Values[i], bValues[j]);
+
+                    for (int h = 0; h < boostValues.length; h++, p++) {
+                        runIDs[p] = String.format(Locale.ENGLISH, "%s-k1_%.2f-b_%.2f-boost_%.2f", runID,
+                                k1Values[i], bValues[j], boostValues[h]);
+                        runs[p] = openRun(runIDs[p]);
+                    }
+                }
+            }
+
+            for (QualityQuery t : topics) {
+
+                System.out.printf("Sweeping topic %s.%n", t.getQueryID());
+
+                final String query = QueryParserBase.escape(t.getValue(TOPIC_FIELDS.TITLE));
+                final List<String> queries = getExpansion(t.getQueryID());
+
+                // count the occurrences of each term in the title and in the expansions
+                final Map<Term, int[]> counts = new LinkedHashMap<>();
+                boolean termsOnly = collectTerms(qp.parse(query), counts, 0);
+                for (String qr : queries) {
+                    termsOnly &= collectTerms(qp.parse(qr), counts, 1);
+                }
+
+                if (!termsOnly) {
+                    System.out.printf("Skipping topic %s: its query is not made of term clauses only.%n",
+                            t.getQueryID());
+                    skipped.add(t.getQueryID());
+                    continue;
+                }
+
+                // decode the postings of each term once
+                final List<DecodedPostings> postings = new ArrayList<>(counts.size());
+                for (Map.Entry<Term, int[]> e : counts.entrySet()) {
+                    final DecodedPostings dp = decode(e.getKey(), e.getValue()[0], e.getValue()[1]);
+                    if (dp != null) {
+                        postings.add(dp);
+                    }
+                }
+
+                // the candidates are the documents matching at least one title term, as required by the MUST clause
+                final int[] candidates = assignSlots(postings);
+
+                // the stored identifiers of the documents already resolved for this topic
+                final Map<Integer, String> ids = new HashMap<>();
+
+                final float[] scores = new float[candidates.length];
+
+                for (int i = 0, p = 0; i < k1Values.length; i++) {
+                    for (int j = 0; j < bValues.length; j++) {
+                        final BM25Similarity sim = similarities[i * bValues.length + j];
+
+                        for (int h = 0; h < boostValues.length; h++, p++) {
+                            // as in Searcher, a topic without expansions keeps the boost of a single one
+                            final float titleBoost = boostValues[h] * Math.max(1, queries.size());
+
+                            Arrays.fill(scores, 0f);
+                            for (DecodedPostings dp : postings) {
+                                final float boost = dp.titleCount * titleBoost + dp.expansionCount;
+                                final Similarity.SimScorer scorer = sim.scorer(boost, collectionStats, dp.stats);
+
+                                for (int k = 0; k < dp.size; k++) {
+                                    if (dp.docs[k] >= 0) {
+                                        scores[dp.docs[k]] += scorer.score(dp.freqs[k], dp.norms[k]);
+                                    }
+                                }
+                            }
+
+                            writeTopic(runs[p], runIDs[p], t.getQueryID(), candidates, scores, ids, idField);
+                        }
+                    }
+                }
+
+                // reset the slots of the candidates for the next topic
+                for (int doc : candidates) {
+                    docSlot[doc] = -1;
+                }
+            }
+        } finally {
+            for (PrintWriter run : runs) {
+                if (run != null) {
+                    run.close();
+                }
+            }
+
+            reader.close();
+        }
+
+        elapsedTime = System.currentTimeMillis() - start;
+
+        System.out.printf("%d topic(s) swept over %d grid point(s) in %d seconds.%n", topics.length - skipped.size(),
+                points, elapsedTime / 1000);
+
+        if (!skipped.isEmpty()) {
+            System.out.printf("%d topic(s) skipped, since their query is not made of term clauses only: %s.%n",
+                    skipped.size(), String.join(", ", skipped));
+        }
+
+        System.out.printf("#### Parameter sweep complete ####%n");
+    }
+
+    /**
+     * Returns the expansions for the given topic.
+     *
+     * @param queryID the id of the query from which we get expansion
+     * @return list of expansions
+     */
+    private List<String> getExpansion(final String queryID) {
+        return expansions.getExpansions(queryID);
+    }
+
+    /**
+     * Counts the occurrences of the terms of the body field within a parsed query.
+     *
+     * @param q      the parsed query.
+     * @param counts the occurrences of each term, in the title (index 0) and in the expansions (index 1).
+     * @param index  the index of the counter to increment.
+     * @return {@code true} if the terms of the body field are all in term clauses, which can be scored independently.
+     */
+    private static boolean collectTerms(final Query q, final Map<Term, int[]> counts, final int index) {
+
+        final boolean[] termsOnly = {true};
+
+        q.visit(new QueryVisitor() {
+            @Override
+            public boolean acceptField(String field) {
+                return ParsedTextDocument.Fields.BODY.equals(field);
+            }
+
+            @Override
+            public void consumeTerms(Query query, Term... terms) {
+                if (!(query instanceof TermQuery)) {
+                    termsOnly[0] = false;
+                }
+
+                for (Term term : terms) {
+                    counts.computeIfAbsent(term, k -> new int[2])[index]++;
+                }
+            }
+
+            @Override
+            public QueryVisitor getSubVisitor(BooleanClause.Occur occur, Query parent) {
+                return occur == BooleanClause.Occur.MUST_NOT ? QueryVisitor.EMPTY_VISITOR : this;
+            }
+
+            @Override
+            public void consumeTermsMatching(Query query, String field, Supplier<ByteRunAutomaton> automaton) {
+                termsOnly[0] = false;
+            }
+
+            @Override
+            public void visitLeaf(Query query) {
+                termsOnly[0] = false;
+            }
+        });
+
+        return termsOnly[0];
+    }
+
+    /**
+     * Decodes the postings of a term across all the segments of the index.
+     *
+     * @param term           the term to decode.
+     * @param titleCount     how many times the term occurs in the title.
+     * @param expansionCount how many times the term occurs in the expansions.
+     * @return the decoded postings or {@code null} if the term does not occur in the index.
+     * @throws IOException if something goes wrong while reading the index.
+     */
+    private DecodedPostings decode(final Term term, final int titleCount, final int expansionCount)
+            throws IOException {
+
+        final TermStates states = TermStates.build(reader.getContext(), term, true);
+
+        if (states.docFreq() == 0) {
+            return null;
+        }
+
+        final DecodedPostings dp = new DecodedPostings(
+                searcher.termStatistics(term, states.docFreq(), states.totalTermFreq()), titleCount, expansionCount);
+
+        final BytesRef bytes = term.bytes();
+
+        for (LeafReaderContext leaf : reader.leaves()) {
+            final Terms terms = leaf.reader().terms(term.field());
+            if (terms == null) {
+                continue;
+            }
+
+            final TermsEnum te = terms.iterator();
+            if (!te.seekExact(bytes)) {
+                continue;
+            }
+
+            final NumericDocValues norms = leaf.reader().getNormValues(term.field());
+            final Bits liveDocs = leaf.reader().getLiveDocs();
+            final PostingsEnum pe = te.postings(null, PostingsEnum.FREQS);
+
+            for (int doc = pe.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = pe.nextDoc()) {
+                if (liveDocs != null && !liveDocs.get(doc)) {
+                    continue;
+                }
+
+                // deleted documents may make docFreq an over-estimate, but never an under-estimate
+                dp.docs[dp.size] = leaf.docBase + doc;
+                dp.freqs[dp.size] = pe.freq();
+                dp.norms[dp.size] = norms != null && norms.advanceExact(doc) ? norms.longValue() : 1L;
+                dp.size++;
+            }
+        }
+
+        return dp;
+    }
+
+    /**
+     * Assigns a slot to each document matching at least one title term and replaces the global document identifiers
+     * in the postings with those slots, or with {@code -1} for documents which are not candidates.
+     *
+     * @param postings the decoded postings of the topic.
+     * @return the global document identifiers of the candidates, indexed by slot.
+     */
+    private int[] assignSlots(final List<DecodedPostings> postings) {
+        int[] candidates = new int[16];
+        int n = 0;
+
+        for (DecodedPostings dp : postings) {
+            if (dp.titleCount == 0) {
+                continue;
+            }
+
+            for (int k = 0; k < dp.size; k++) {
+                final int doc = dp.docs[k];
+                if (docSlot[doc] == -1) {
+                    if (n == candidates.length) {
+                        candidates = Arrays.copyOf(candidates, n << 1);
+                    }
+                    docSlot[doc] = n;
+                    candidates[n++] = doc;
+                }
+            }
+        }
+
+        for (DecodedPostings dp : postings) {
+            for (int k = 0; k < dp.size; k++) {
+                dp.docs[k] = docSlot[dp.docs[k]];
+            }
+        }
+
+        return Arrays.copyOf(candidates, n);
+    }
+
+    /**
+     * Writes the top documents of a topic for a grid point, ordered as Lucene does by decreasing score and increasing
+     * document identifier, skipping duplicated stored identifiers as {@link Searcher} does.
+     *
+     * @param run        the run to write.
+     * @param gridRunID  the identifier of the run of the grid point.
+     * @param queryID    the identifier of the topic.
+     * @param candidates the global document identifiers of the candidates, indexed by slot.
+     * @param scores     the scores of the candidates, indexed by slot.
+     * @param ids        the stored identifiers already resolved for the topic.
+     * @param idField    the set containing the name of the identifier field.
+     * @throws IOException if something goes wrong while reading the stored fields.
+     */
+    private void writeTopic(final PrintWriter run, final String gridRunID, final String queryID,
+                            final int[] candidates, final float[] scores, final Map<Integer, String> ids,
+                            final Set<String> idField) throws IOException {
+
+        final Comparator<Integer> worstFirst = (a, c) -> {
+            final int cmp = Float.compare(scores[a], scores[c]);
+            return cmp != 0 ? cmp : Integer.compare(candidates[c], candidates[a]);
+        };
+
+        final PriorityQueue<Integer> pq = new PriorityQueue<>(maxDocsRetrieved + 1, worstFirst);
+        for (int slot = 0; slot < candidates.length; slot++) {
+            if (pq.size() < maxDocsRetrieved) {
+                pq.add(slot);
+            } else if (worstFirst.compare(slot, pq.peek()) > 0) {
+                pq.poll();
+                pq.add(slot);
+            }
+        }
+
+        final int[] top = new int[pq.size()];
+        for (int i = top.length - 1; i >= 0; i--) {
+            top[i] = pq.poll();
+        }
+
+        final Set<String> docIDs = new HashSet<>();
+
+        for (int i = 0; i < top.length; i++) {
+            final int doc = candidates[top[i]];
+
+            String docID = ids.get(doc);
+            if (docID == null) {
+                docID = storedFields.document(doc, idField).get(ParsedTextDocument.Fields.ID);
+                ids.put(doc, docID);
+            }
+
+            // if the document has already been retrieved, skip it -> avoid duplicates
+            if (!docIDs.add(docID)) {
+                continue;
+            }
+
+            run.printf(Locale.ENGLISH, "%s\tQ0\t%s\t%d\t%.6f\t%s%n", queryID, docID, i, scores[top[i]], gridRunID);
+        }
+
+        run.flush();
+    }
+
+    /**
+     * Opens the run file for a grid point.
+     *
+     * @param gridRunID the identifier of the run of the grid point.
+     * @return the writer for the run.
+     */
+    private PrintWriter openRun(final String gridRunID) {
+        final Path runFile = runDir.resolve(gridRunID + ".txt");
+        try {
+            return new PrintWriter(Files.newBufferedWriter(runFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(
+                    String.format("Unable to open run file %s: %s.", runFile.toAbsolutePath(), e.getMessage()), e);
+        }
+    }
+
+    /**
+     * Main method of the class. Sweeps the grid around the best known parameters for French.
+     *
+     * @param args command line arguments: the index path, the topics file and the run path.
+     * @throws Exception if something goes wrong while sweeping.
+     */
+    public static void main(String[] args) throws Exception {
+
+        if (args.length != 3) {
+            throw new IllegalArgumentException("Usage: BM25ParameterSweep <index path> <topic path> <run path>");
+        }
+
+        final Analyzer closeAnalyzer = new CloseAnalyzer(CloseAnalyzer.TokenizerType.Standard, 2, 15, false,
+                "new-long-stoplist-fr.txt", CloseAnalyzer.StemFilterType.French, null, null, false, false, true);
+
+        final float[] k1 = {0.9f, 1.2f, 1.5f, 1.8f, 2.0f};
+        final float[] b = {0.55f, 0.65f, 0.75f, 0.85f, 0.95f};
+        final float[] boost = {Searcher.EXPANSION_BOOST * 0.5f, Searcher.EXPANSION_BOOST,
+                Searcher.EXPANSION_BOOST * 1.5f, Searcher.EXPANSION_BOOST * 2};
+
+        BM25ParameterSweep sweep = new BM25ParameterSweep(closeAnalyzer, args[0], args[1], "seupd2223-close",
+                args[2], 1000, k1, b, boost);
+
+        sweep.sweep();
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ *  Copyright 2021-2023 University of Padua, Italy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package it.unipd.dei.se.searcher;
+
+import it.unipd.dei.se.analyzer.CloseAnalyzer;
+import it.unipd.dei.se.indexer.BodyField;
+import it.unipd.dei.se.parser.DocumentParser;
+import it.unipd.dei.se.parser.Text.ClefParser;
+import it.unipd.dei.se.parser.Text.ParsedTextDocument;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * An {@link IndexSearcher} searching the segments of the index in parallel, with one slice of segments per thread of
+ * its executor and the slices balanced by number of documents.
+ * <p>
+ * The default slicing of Lucene only groups small segments together, so an index with a few large segments and many
+ * small ones gets slices of very different sizes, and the latency of a query is the one of the largest slice. Here the
+ * segments are assigned, from the largest to the smallest, to the slice with the fewest documents so far, so that the
+ * slices are as even as the segments allow. A single segment is never split, hence an index merged into one segment is
+ * still searched by one thread. The approximate nearest neighbour search of {@code KnnFloatVectorQuery} happens while
+ * rewriting the query, which Lucene 9.5 does one segment after the other, so only the scoring of the other queries is
+ * parallel.
+ * <p>
+ * As for the layout of the index, the latency of a query goes down with the number of threads only as long as there
+ * are at least as many segments of similar size: an index to be searched with {@code n} threads is better merged into
+ * about {@code n} segments, e.g. {@code IndexWriter.forceMerge(n)}, than into a single one. The main method measures
+ * the latency against the number of threads for indexes of 1, 4 and 16 segments.
+ *
+ * @author CLOSE GROUP
+ * @version 1.00
+ * @since 1.00
+ */
+public class BalancedSliceSearcher extends IndexSearcher {
+
+    /**
+     * Creates a new searcher.
+     *
+     * @param reader   the reader of the index.
+     * @param executor the executor searching the slices, one slice per thread; see {@link #threads(Executor)}.
+     * @throws NullPointerException if the executor is {@code null}.
+     */
+    public BalancedSliceSearcher(final IndexReader reader, final Executor executor) {
+        super(reader, requireExecutor(executor));
+    }
+
+    /**
+     * Checks that the executor is not {@code null}, since a searcher without executor would not be sliced at all.
+     *
+     * @param executor the executor.
+     * @return the executor.
+     * @throws NullPointerException if the executor is {@code null}.
+     */
+    private static Executor requireExecutor(final Executor executor) {
+
+        if (executor == null) {
+            throw new NullPointerException("Executor cannot be null.");
+        }
+
+        return executor;
+    }
+
+    /**
+     * Returns the number of threads of an executor, i.e. the number of slices the segments are split into.
+     * <p>
+     * It is taken from the executor itself since the slices are computed by the constructor of {@link IndexSearcher},
+     * before any field of this class is set: the maximum size of a {@link ThreadPoolExecutor}, the parallelism of a
+     * {@link ForkJoinPool} and the number of processors for any other executor.
+     *
+     * @param executor the executor.
+     * @return the number of threads of the executor.
+     */
+    static int threads(final Executor executor) {
+
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getMaximumPoolSize();
+        }
+
+        if (executor instanceof ForkJoinPool) {
+            return ((ForkJoinPool) executor).getParallelism();
+        }
+
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    @Override
+    protected LeafSlice[] slices(final List<LeafReaderContext> leaves) {
+        return balancedSlices(leaves, threads(getExecutor()));
+    }
+
+    /**
+     * Splits the segments into slices with about the same number of documents, assigning each segment, from the
+     * largest to the smallest, to the slice with the fewest documents so far.
+     *
+     * @param leaves the segments.
+     * @param slices the maximum number of slices.
+     * @return the slices, none of them empty.
+     */
+    static LeafSlice[] balancedSlices(final List<LeafReaderContext> leaves, final int slices) {
+
+        final int n = Math.max(1, Math.min(slices, leaves.size()));
+
+        final List<LeafReaderContext> sorted = new ArrayList<>(leaves);
+        sorted.sort(Comparator.comparingInt((LeafReaderContext l) -> l.reader().maxDoc()).reversed());
+
+        final List<List<LeafReaderContext>> groups = new ArrayList<>(n);
+        final long[] docs = new long[n];
+        for (int i = 0; i < n; i++) {
+            groups.add(new ArrayList<>());
+        }
+
+        for (LeafReaderContext leaf : sorted) {
+            int lightest = 0;
+            for (int i = 1; i < n; i++) {
+                if (docs[i] < docs[lightest]) {
+                    lightest = i;
+                }
+            }
+            groups.get(lightest).add(leaf);
+            docs[lightest] += leaf.reader().maxDoc();
+        }
+
+        return groups.stream().filter(g -> !g.isEmpty()).map(LeafSlice::new).toArray(LeafSlice[]::new);
+    }
+
+    /**
+     * Main method to measure the latency of the queries against the number of threads, on indexes of a sample of the
+     * collection with a different number of segments.
+     *
+     * @param args the arguments to be passed to the method: a JSON file of the collection and, optionally, how many
+     *             times its documents are indexed, by default 5.
+     * @throws IOException    if something goes wrong while indexing or searching.
+     * @throws ParseException if something goes wrong while parsing the queries.
+     */
+    public static void main(String[] args) throws IOException, ParseException {
+
+        if (args.length < 1) {
+            throw new IllegalArgumentException("Usage: BalancedSliceSearcher <collection JSON file> [copies]");
+        }
+
+        final int copies = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        final List<String> bodies;
+        try (Stream<ParsedTextDocument> docs = DocumentParser.create(ClefParser.class,
+                Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.ISO_8859_1))) {
+            bodies = docs.map(ParsedTextDocument::getBody).collect(Collectors.toList());
+        }
+
+        final Analyzer analyzer = new CloseAnalyzer(CloseAnalyzer.TokenizerType.Standard, 2, 15, false,
+                "new-long-stoplist-fr.txt", CloseAnalyzer.StemFilterType.French, null, null, false, false, true);
+
+        // queries of two or three words taken from the documents
+        final Random random = new Random(42);
+        final QueryParser qp = new QueryParser(ParsedTextDocument.Fields.BODY, analyzer);
+        final List<Query> queries = new ArrayList<>();
+        while (queries.size() < 200) {
+            final String[] words = bodies.get(random.nextInt(bodies.size())).split("[^\\p{L}]+");
+            if (words.length < 10) {
+                continue;
+            }
+            final int from = random.nextInt(words.length - 3);
+            queries.add(qp.parse(QueryParser.escape(String.join(" ",
+                    Arrays.copyOfRange(words, from, from + 2 + random.nextInt(2))))));
+        }
+
+        final int maxThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+        System.out.printf("%d document(s), %d queries, %d processor(s)%n", bodies.size() * copies, queries.size(),
+                Runtime.getRuntime().availableProcessors());
+
+        for (int segments : new int[]{1, 4, 16}) {
+
+            try (Directory dir = new ByteBuffersDirectory()) {
+
+                // one flush per segment, without merges
+                final IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
+                iwc.setMergePolicy(NoMergePolicy.INSTANCE);
+                iwc.setSimilarity(new BM25Similarity(2.0f, 0.85f));
+                iwc.setMaxBufferedDocs(Math.max(2, (bodies.size() * copies + segments - 1) / segments));
+                iwc.setRAMBufferSizeMB(IndexWriterConfig.DISABLE_AUTO_FLUSH);
+
+                try (IndexWriter writer = new IndexWriter(dir, iwc)) {
+                    for (int c = 0; c < copies; c++) {
+                        for (String body : bodies) {
+                            final Document doc = new Document();
+                            doc.add(new BodyField(body));
+                            writer.addDocument(doc);
+                        }
+                    }
+                }
+
+                try (DirectoryReader reader = DirectoryReader.open(dir)) {
+
+                    System.out.printf("%d segment(s)%n", reader.leaves().size());
+
+                    for (int threads = 1; threads <= maxThreads; threads *= 2) {
+
+                        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+                        final IndexSearcher searcher = new BalancedSliceSearcher(reader, executor);
+                        searcher.setSimilarity(new BM25Similarity(2.0f, 0.85f));
+
+                        // warm up, then measure
+                        for (Query q : queries) {
+                            searcher.search(q, 1000);
+                        }
+
+                        final long[] latencies = new long[queries.size()];
+                        for (int i = 0; i < queries.size(); i++) {
+                            final long start = System.nanoTime();
+                            searcher.search(queries.get(i), 1000);
+                            latencies[i] = System.nanoTime() - start;
+                        }
+                        Arrays.sort(latencies);
+
+                        System.out.printf("+ %d thread(s), %d slice(s): mean %.2f ms, median %.2f ms, p99 %.2f ms%n",
+                                threads, searcher.getSlices().length,
+                                Arrays.stream(latencies).average().orElse(0) / 1e6,
+                                latencies[latencies.length / 2] / 1e6,
+                                latencies[(int) (latencies.length * 0.99)] / 1e6);
+
+                        executor.shutdown();
+                    }
+                }
+            }
+        }
+
+        analyzer.close();
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ *  Copyright 2021-2023 University of Padua, Italy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package it.unipd.dei.se.searcher;
+
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.OutputStreamDataOutput;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Provides the expansions of the topics read from a compact binary file, converted once from the JSON file of the
+ * scripts by {@link #write(Map, Path)}.
+ * <p>
+ * The file holds the number of topics and, for each topic, its identifier, the number of its expansions and the
+ * expansions, with the numbers written as variable-length integers, i.e. VInts, and the strings as standard UTF-8,
+ * prefixed by its length in bytes as a VInt, as Lucene does. Reading it needs neither a JSON parser nor reflection, and
+ * the expansions beyond the limit are skipped without being decoded.
+ *
+ * @author CLOSE GROUP
+ * @version 1.00
+ * @since 1.00
+ */
+public class BinaryExpansionProvider implements ExpansionProvider {
+
+    /**
+     * The expansions of each topic, already truncated.
+     */
+    private final Map<String, List<String>> expansions;
+
+    /**
+     * The maximum number of expansions of each topic.
+     */
+    private final int limit;
+
+    /**
+     * Reads the expansions from a binary file.
+     *
+     * @param file  the binary file.
+     * @param limit the maximum number of expansions used for each topic.
+     * @throws NullPointerException     if the file is {@code null}.
+     * @throws IllegalArgumentException if the limit is negative.
+     * @throws IOException              if something goes wrong while reading the file.
+     */
+    public BinaryExpansionProvider(final Path file, final int limit) throws IOException {
+
+        if (file == null) {
+            throw new NullPointerException("Expansions file cannot be null.");
+        }
+
+        if (limit < 0) {
+            throw new IllegalArgumentException("The number of expansions cannot be less than zero.");
+        }
+
+        // the file is small: read it at once, then decode it from memory
+        final ByteArrayDataInput data = new ByteArrayDataInput(Files.readAllBytes(file));
+
+        final int topics = data.readVInt();
+        expansions = new HashMap<>(topics * 2);
+
+        for (int i = 0; i < topics; i++) {
+            final String topicID = data.readString();
+            final int n = data.readVInt();
+
+            final List<String> list = new ArrayList<>(Math.min(n, limit));
+            for (int j = 0; j < n; j++) {
+                if (j < limit) {
+                    list.add(data.readString());
+                } else {
+                    data.skipBytes(data.readVInt());
+                }
+            }
+
+            expansions.put(topicID, List.copyOf(list));
+        }
+
+        this.limit = limit;
+    }
+
+    @Override
+    public List<String> getExpansions(final String topicID) {
+        return expansions.getOrDefault(topicID, Collections.emptyList());
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Writes the expansions of the topics in the binary format, sorted by topic identifier.
+     *
+     * @param expansions the expansions of each topic.
+     * @param file       the file to write.
+     * @throws IOException if something goes wrong while writing the file.
+     */
+    public static void write(final Map<String, List<String>> expansions, final Path file) throws IOException {
+
+        if (expansions == null) {
+            throw new NullPointerException("Expansions cannot be null.");
+        }
+
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            final OutputStreamDataOutput data = new OutputStreamDataOutput(out);
+
+            data.writeVInt(expansions.size());
+            for (Map.Entry<String, List<String>> e : new TreeMap<>(expansions).entrySet()) {
+                data.writeString(e.getKey());
+                data.writeVInt(e.getValue().size());
+                for (String expansion : e.getValue()) {
+                    data.writeString(expansion);
+                }
+            }
+        }
+    }
+
+    /**
+     * Main method to convert the JSON file of the expansions to the binary format and to compare the time taken to
+     * load them in the two formats.
+     *
+     * @param args the arguments to be passed to the method: the JSON file and the binary file to write.
+     * @throws IOException if something goes wrong while reading or writing the files.
+     */
+    public static void main(String[] args) throws IOException {
+
+        if (args.length != 2) {
+            throw new IllegalArgumentException("Usage: BinaryExpansionProvider <JSON file> <binary file>");
+        }
+
+        final Path json = Paths.get(args[0]);
+        final Path binary = Paths.get(args[1]);
+
+        write(new JsonExpansionProvider(json, Integer.MAX_VALUE).getAll(), binary);
+
+        System.out.printf("%d topic(s): JSON %d Kbytes, binary %d Kbytes%n",
+                new JsonExpansionProvider(json, 0).getAll().size(), Files.size(json) / 1024,
+                Files.size(binary) / 1024);
+
+        long jsonTime = Long.MAX_VALUE;
+        long binaryTime = Long.MAX_VALUE;
+        int mismatches = 0;
+
+        // the best of some rounds, since each load takes a few milliseconds
+        for (int round = 0; round < 20; round++) {
+
+            long start = System.nanoTime();
+            final JsonExpansionProvider fromJson = new JsonExpansionProvider(json, DEFAULT_LIMIT);
+            jsonTime = Math.min(jsonTime, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            final ExpansionProvider fromBinary = new BinaryExpansionProvider(binary, DEFAULT_LIMIT);
+            binaryTime = Math.min(binaryTime, System.nanoTime() - start);
+
+            mismatches = 0;
+            for (String topicID : fromJson.getAll().keySet()) {
+                if (!fromJson.getExpansions(topicID).equals(fromBinary.getExpansions(topicID))) {
+                    mismatches++;
+                }
+            }
+        }
+
+        System.out.printf("JSON loaded in %.2f ms, binary in %.2f ms, %d mismatch(es)%n", jsonTime / 1e6,
+                binaryTime / 1e6, mismatches);
+    }
+}
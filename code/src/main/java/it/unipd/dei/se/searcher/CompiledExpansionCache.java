@@ -0,0 +1,134 @@
+/*
+ *  Copyright 2021-2023 University of Padua, Italy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package it.unipd.dei.se.searcher;
+
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.Query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the expansions of the topics parsed into queries, so that they are parsed once however many runs search the
+ * same topics.
+ * <p>
+ * The parsed queries depend on the analyzer of the parser, so they are kept apart for each analyzer configuration, as
+ * described by the {@code toString()} of the analyzer, and field: runs using analyzers with the same configuration, as
+ * {@code CloseAnalyzer} describes it, share the queries, while any other analyzer only shares them with itself. Queries
+ * are immutable, so the cache can be used by several threads at once.
+ *
+ * @author CLOSE GROUP
+ * @version 1.00
+ * @since 1.00
+ */
+public class CompiledExpansionCache {
+
+    /**
+     * The provider of the expansions.
+     */
+    private final ExpansionProvider provider;
+
+    /**
+     * The parsed expansions of each topic, for each analyzer configuration and field.
+     */
+    private final Map<String, Map<String, List<Query>>> queries = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new, empty, cache.
+     *
+     * @param provider the provider of the expansions.
+     * @throws NullPointerException if the provider is {@code null}.
+     */
+    public CompiledExpansionCache(final ExpansionProvider provider) {
+
+        if (provider == null) {
+            throw new NullPointerException("Expansion provider cannot be null.");
+        }
+
+        this.provider = provider;
+    }
+
+    /**
+     * Returns the provider of the expansions.
+     *
+     * @return the provider of the expansions.
+     */
+    public ExpansionProvider getProvider() {
+        return provider;
+    }
+
+    /**
+     * Returns the expansions of a topic parsed by the given parser, parsing them the first time they are requested for
+     * the configuration of its analyzer.
+     *
+     * @param topicID the identifier of the topic.
+     * @param qp      the parser of the expansions.
+     * @return the parsed expansions, in the same order as the expansions.
+     * @throws ParseException if something goes wrong while parsing the expansions.
+     */
+    public List<Query> getQueries(final String topicID, final QueryParser qp) throws ParseException {
+
+        final Map<String, List<Query>> byTopic = queries.computeIfAbsent(
+                qp.getAnalyzer() + "|" + qp.getField(), k -> new ConcurrentHashMap<>());
+
+        final List<Query> cached = byTopic.get(topicID);
+        if (cached != null) {
+            return cached;
+        }
+
+        // topics without expansions are not cached, so that the cache does not grow with streamed queries
+        final List<String> expansions = provider.getExpansions(topicID);
+        if (expansions.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final List<Query> parsed = new ArrayList<>(expansions.size());
+        for (String expansion : expansions) {
+            parsed.add(qp.parse(expansion));
+        }
+
+        // two threads may parse the same topic at once: keep the first queries
+        final List<Query> previous = byTopic.putIfAbsent(topicID, List.copyOf(parsed));
+        return previous != null ? previous : byTopic.get(topicID);
+    }
+
+    /**
+     * Parses in advance the expansions of the given topics.
+     *
+     * @param topicIDs the identifiers of the topics.
+     * @param qp       the parser of the expansions.
+     * @throws ParseException if something goes wrong while parsing the expansions.
+     */
+    public void precompute(final Iterable<String> topicIDs, final QueryParser qp) throws ParseException {
+        for (String topicID : topicIDs) {
+            getQueries(topicID, qp);
+        }
+    }
+
+    /**
+     * Returns the number of topics whose expansions are cached, over all the analyzer configurations.
+     *
+     * @return the number of cached topics.
+     */
+    public int size() {
+        return queries.values().stream().mapToInt(Map::size).sum();
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ *  Copyright 2021-2023 University of Padua, Italy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package it.unipd.dei.se.searcher;
+
+import it.unipd.dei.se.indexer.BodyField;
+import it.unipd.dei.se.parser.DocumentParser;
+import it.unipd.dei.se.parser.Text.ClefParser;
+import it.unipd.dei.se.parser.Text.ParsedTextDocument;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.OrdinalMap;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.LongValues;
+import org.apache.lucene.util.hppc.IntIntHashMap;
+import org.apache.lucene.util.packed.PackedInts;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Resolves the documents retrieved for a topic to their identifiers, without duplicate identifiers.
+ * <p>
+ * When the identifiers are indexed also as sorted doc values, as {@code DirectoryIndexer} does, the hits are visited in
+ * the order of their Lucene document numbers, segment after segment, so that the doc values are read forward only, and
+ * the duplicates are found by the ordinals of the identifiers, mapped to ordinals over the whole index when there are
+ * several segments; only the distinct identifiers are then looked up. Otherwise, e.g. for an index built before the
+ * doc values were added, the identifiers are read from the stored fields, which decompresses a block of documents for
+ * each hit.
+ * <p>
+ * The resolver can be used by several threads at once, each with its own stored fields.
+ *
+ * @author CLOSE GROUP
+ * @version 1.00
+ * @since 1.00
+ */
+public class DocIDResolver {
+
+    /**
+     * The segments of the index.
+     */
+    private final List<LeafReaderContext> leaves;
+
+    /**
+     * The field of the identifiers.
+     */
+    private final String field;
+
+    /**
+     * The fields loaded from the stored fields, i.e. only the identifier.
+     */
+    private final Set<String> fieldsToLoad;
+
+    /**
+     * Whether all the segments have the identifiers as sorted doc values.
+     */
+    private final boolean docValues;
+
+    /**
+     * The map from the ordinals of each segment to the ordinals over the index, {@code null} if there is a single
+     * segment or no doc values.
+     */
+    private final OrdinalMap ordinalMap;
+
+    /**
+     * Creates a new resolver.
+     *
+     * @param reader the reader of the index.
+     * @param field  the field of the identifiers.
+     * @throws NullPointerException     if any of the parameters is {@code null}.
+     * @throws IllegalArgumentException if the field is empty.
+     * @throws IOException              if something goes wrong while mapping the ordinals of the segments.
+     */
+    public DocIDResolver(final IndexReader reader, final String field) throws IOException {
+
+        if (reader == null) {
+            throw new NullPointerException("Index reader cannot be null.");
+        }
+
+        if (field == null) {
+            throw new NullPointerException("Identifier field cannot be null.");
+        }
+
+        if (field.isEmpty()) {
+            throw new IllegalArgumentException("Identifier field cannot be empty.");
+        }
+
+        this.leaves = reader.leaves();
+        this.field = field;
+        this.fieldsToLoad = Set.of(field);
+
+        boolean all = true;
+        for (LeafReaderContext leaf : leaves) {
+            final FieldInfo fi = leaf.reader().getFieldInfos().fieldInfo(field);
+            all &= fi != null && fi.getDocValuesType() == DocValuesType.SORTED;
+        }
+        this.docValues = all;
+
+        if (docValues && leaves.size() > 1) {
+            final SortedDocValues[] values = new SortedDocValues[leaves.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = DocValues.getSorted(leaves.get(i).reader(), field);
+            }
+            ordinalMap = OrdinalMap.build(null, values, PackedInts.DEFAULT);
+        } else {
+            ordinalMap = null;
+        }
+    }
+
+    /**
+     * Returns whether the identifiers are read from the doc values rather than from the stored fields.
+     *
+     * @return {@code true} if the identifiers are read from the doc values.
+     */
+    public boolean hasDocValues() {
+        return docValues;
+    }
+
+    /**
+     * Resolves the hits to their identifiers, keeping only the first hit of each identifier.
+     *
+     * @param sd           the hits, in the order of the ranking.
+     * @param storedFields the stored fields of the index, used only without doc values and confined to the calling
+     *                     thread.
+     * @param docIDs       where to write the distinct identifiers, in the order of the ranking; at least as long as the
+     *                     hits.
+     * @param ranks        where to write the position among the hits of each distinct identifier; at least as long as
+     *                     the hits.
+     * @return the number of distinct identifiers.
+     * @throws IOException if something goes wrong while reading the identifiers.
+     */
+    public int resolve(final ScoreDoc[] sd, final StoredFields storedFields, final String[] docIDs, final int[] ranks)
+            throws IOException {
+
+        return docValues ? resolveDocValues(sd, docIDs, ranks) : resolveStoredFields(sd, storedFields, docIDs, ranks);
+    }
+
+    /**
+     * Resolves the hits to their identifiers through the doc values.
+     *
+     * @param sd     the hits, in the order of the ranking.
+     * @param docIDs where to write the distinct identifiers.
+     * @param ranks  where to write the position among the hits of each distinct identifier.
+     * @return the number of distinct identifiers.
+     * @throws IOException if something goes wrong while reading the doc values.
+     */
+    private int resolveDocValues(final ScoreDoc[] sd, final String[] docIDs, final int[] ranks) throws IOException {
+
+        final int n = sd.length;
+
+        // the hits sorted by document number, each with its position in the ranking in the lower bits
+        final long[] order = new long[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = ((long) sd[i].doc << 32) | i;
+        }
+        Arrays.sort(order);
+
+        final SortedDocValues[] values = new SortedDocValues[leaves.size()];
+        final int[] hitLeaf = new int[n];
+        final int[] segmentOrd = new int[n];
+        final int[] globalOrd = new int[n];
+
+        int l = -1;
+        int leafEnd = 0;
+        LeafReaderContext leaf = null;
+        LongValues global = null;
+
+        for (long o : order) {
+            final int doc = (int) (o >>> 32);
+            final int i = (int) o;
+
+            while (doc >= leafEnd) {
+                leaf = leaves.get(++l);
+                leafEnd = leaf.docBase + leaf.reader().maxDoc();
+                values[l] = DocValues.getSorted(leaf.reader(), field);
+                global = ordinalMap != null ? ordinalMap.getGlobalOrds(l) : null;
+            }
+
+            hitLeaf[i] = l;
+            if (values[l].advanceExact(doc - leaf.docBase)) {
+                segmentOrd[i] = values[l].ordValue();
+                globalOrd[i] = global != null ? (int) global.get(segmentOrd[i]) : segmentOrd[i];
+            } else {
+                segmentOrd[i] = -1;
+            }
+        }
+
+        // the first hit of each identifier, in the order of the ranking; documents without identifier are skipped
+        final IntIntHashMap seen = new IntIntHashMap(n);
+        int size = 0;
+        for (int i = 0; i < n; i++) {
+            if (segmentOrd[i] >= 0 && seen.putIfAbsent(globalOrd[i], i)) {
+                final BytesRef id = values[hitLeaf[i]].lookupOrd(segmentOrd[i]);
+                docIDs[size] = id.utf8ToString();
+                ranks[size] = i;
+                size++;
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Resolves the hits to their identifiers through the stored fields.
+     *
+     * @param sd           the hits, in the order of the ranking.
+     * @param storedFields the stored fields of the index.
+     * @param docIDs       where to write the distinct identifiers.
+     * @param ranks        where to write the position among the hits of each distinct identifier.
+     * @return the number of distinct identifiers.
+     * @throws IOException if something goes wrong while reading the stored fields.
+     */
+    private int resolveStoredFields(final ScoreDoc[] sd, final StoredFields storedFields, final String[] docIDs,
+                                    final int[] ranks) throws IOException {
+
+        final Set<String> seen = new HashSet<>();
+        int size = 0;
+
+        for (int i = 0; i < sd.length; i++) {
+            final String docID = storedFields.document(sd[i].doc, fieldsToLoad).get(field);
+
+            // if the document has already been retrieved, skip it -> avoid duplicates
+            if (seen.add(docID)) {
+                docIDs[size] = docID;
+                ranks[size] = i;
+                size++;
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Main method to compare the time taken to resolve the hits through the stored fields and through the doc values,
+     * on an index of a sample of the collection.
+     *
+     * @param args the arguments to be passed to the method: a JSON file of the collection and, optionally, how many
+     *             times its documents are indexed, by default 5, each time with the same identifiers.
+     * @throws IOException if something goes wrong while indexing or resolving.
+     */
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 1) {
+            throw new IllegalArgumentException("Usage: DocIDResolver <collection JSON file> [copies]");
+        }
+
+        final int copies = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        try (Directory dir = new ByteBuffersDirectory()) {
+
+            final IndexWriterConfig iwc = new IndexWriterConfig(new StandardAnalyzer());
+            iwc.setMaxBufferedDocs(2000);
+
+            // copies of the same documents, so that the identifiers have duplicates, as in the collection
+            try (IndexWriter writer = new IndexWriter(dir, iwc)) {
+                for (int c = 0; c < copies; c++) {
+                    try (Stream<ParsedTextDocument> docs = DocumentParser.create(ClefParser.class,
+                            Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.ISO_8859_1))) {
+                        docs.forEach(pd -> {
+                            final Document doc = new Document();
+                            doc.add(new StringField(ParsedTextDocument.Fields.ID, pd.getIdentifier(),
+                                    Field.Store.YES));
+                            doc.add(new SortedDocValuesField(ParsedTextDocument.Fields.ID,
+                                    new BytesRef(pd.getIdentifier())));
+                            doc.add(new BodyField(pd.getBody()));
+                            try {
+                                writer.addDocument(doc);
+                            } catch (IOException e) {
+                                throw new IllegalStateException(e);
+                            }
+                        });
+                    }
+                }
+            }
+
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+
+                final DocIDResolver resolver = new DocIDResolver(reader, ParsedTextDocument.Fields.ID);
+                final StoredFields storedFields = reader.storedFields();
+
+                // rankings of 1000 random documents, as many as the topics
+                final Random random = new Random(42);
+                final ScoreDoc[][] rankings = new ScoreDoc[370][];
+                for (int t = 0; t < rankings.length; t++) {
+                    rankings[t] = new ScoreDoc[Math.min(1000, reader.maxDoc())];
+                    for (int i = 0; i < rankings[t].length; i++) {
+                        rankings[t][i] = new ScoreDoc(random.nextInt(reader.maxDoc()), 1.0f / (i + 1));
+                    }
+                }
+
+                System.out.printf("%d document(s), %d segment(s), %d rankings of %d hits%n", reader.maxDoc(),
+                        reader.leaves().size(), rankings.length, rankings[0].length);
+
+                final String[] storedIDs = new String[rankings[0].length];
+                final int[] storedRanks = new int[rankings[0].length];
+                final String[] valuesIDs = new String[rankings[0].length];
+                final int[] valuesRanks = new int[rankings[0].length];
+
+                long storedTime = Long.MAX_VALUE;
+                long valuesTime = Long.MAX_VALUE;
+                int mismatches = 0;
+
+                // the best of some rounds
+                for (int round = 0; round < 5; round++) {
+
+                    mismatches = 0;
+                    long stored = 0;
+                    long values = 0;
+
+                    for (ScoreDoc[] sd : rankings) {
+
+                        long start = System.nanoTime();
+                        final int n = resolver.resolveStoredFields(sd, storedFields, storedIDs, storedRanks);
+                        stored += System.nanoTime() - start;
+
+                        start = System.nanoTime();
+                        final int m = resolver.resolve(sd, storedFields, valuesIDs, valuesRanks);
+                        values += System.nanoTime() - start;
+
+                        if (n != m || !Arrays.equals(storedIDs, 0, n, valuesIDs, 0, m)
+                                || !Arrays.equals(storedRanks, 0, n, valuesRanks, 0, m)) {
+                            mismatches++;
+                        }
+                    }
+
+                    storedTime = Math.min(storedTime, stored);
+                    valuesTime = Math.min(valuesTime, values);
+                }
+
+                System.out.printf("stored fields %.3f ms per ranking, doc values %.3f ms per ranking, " +
+                                "%d mismatch(es)%n", storedTime / 1e6 / rankings.length,
+                        valuesTime / 1e6 / rankings.length, mismatches);
+            }
+        }
+    }
+}
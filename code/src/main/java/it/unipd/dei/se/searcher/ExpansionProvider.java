@@ -0,0 +1,101 @@
+/*
+ *  Copyright 2021-2023 University of Padua, Italy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package it.unipd.dei.se.searcher;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Provides the expansions of the topics, loaded once when the provider is created.
+ * <p>
+ * The expansions of each topic are the alternative phrasings produced offline by the scripts in
+ * {@code python_scripts}, searched as optional clauses besides the title. Each provider keeps at most a given number of
+ * expansions per topic, the first ones in the order they were produced.
+ *
+ * @author CLOSE GROUP
+ * @version 1.00
+ * @since 1.00
+ */
+public interface ExpansionProvider {
+
+    /**
+     * The file containing the query expansions produced by the scripts.
+     */
+    String DEFAULT_FILE = "python_scripts/result.json";
+
+    /**
+     * The default maximum number of expansions used for each topic.
+     */
+    int DEFAULT_LIMIT = 3;
+
+    /**
+     * Returns the expansions of a topic.
+     *
+     * @param topicID the identifier of the topic.
+     * @return the expansions of the topic, at most as many as the limit of the provider; empty if the topic has none.
+     */
+    List<String> getExpansions(String topicID);
+
+    /**
+     * Returns the maximum number of expansions returned for each topic.
+     *
+     * @return the maximum number of expansions returned for each topic.
+     */
+    int getLimit();
+
+    /**
+     * Opens the expansions in the given file, as JSON if its name ends with {@code .json} and in the binary format of
+     * {@link BinaryExpansionProvider} otherwise.
+     *
+     * @param file  the file containing the expansions.
+     * @param limit the maximum number of expansions used for each topic.
+     * @return the provider of the expansions.
+     * @throws IOException if something goes wrong while reading the file.
+     */
+    static ExpansionProvider open(final Path file, final int limit) throws IOException {
+        return file.getFileName().toString().endsWith(".json")
+                ? new JsonExpansionProvider(file, limit) : new BinaryExpansionProvider(file, limit);
+    }
+
+    /**
+     * Keeps at most the given number of expansions of each topic, as unmodifiable lists.
+     *
+     * @param expansions the expansions of each topic.
+     * @param limit      the maximum number of expansions of each topic.
+     * @return the truncated expansions of each topic.
+     * @throws IllegalArgumentException if the limit is negative.
+     */
+    static Map<String, List<String>> truncate(final Map<String, List<String>> expansions, final int limit) {
+
+        if (limit < 0) {
+            throw new IllegalArgumentException("The number of expansions cannot be less than zero.");
+        }
+
+        final Map<String, List<String>> truncated = new HashMap<>(expansions.size() * 2);
+        for (Map.Entry<String, List<String>> e : expansions.entrySet()) {
+            final List<String> list = e.getValue();
+            truncated.put(e.getKey(), list == null ? Collections.emptyList()
+                    : List.copyOf(list.subList(0, Math.min(limit, list.size()))));
+        }
+
+        return truncated;
+    }
+}
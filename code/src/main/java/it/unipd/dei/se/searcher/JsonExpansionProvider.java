@@ -0,0 +1,98 @@
+/*
+ *  Copyright 2021-2023 University of Padua, Italy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package it.unipd.dei.se.searcher;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Provides the expansions of the topics read from a JSON object mapping each topic identifier to the array of its
+ * expansions, as written by the scripts in {@code python_scripts}.
+ *
+ * @author CLOSE GROUP
+ * @version 1.00
+ * @since 1.00
+ */
+public class JsonExpansionProvider implements ExpansionProvider {
+
+    /**
+     * The expansions of each topic, already truncated.
+     */
+    private final Map<String, List<String>> expansions;
+
+    /**
+     * The maximum number of expansions of each topic.
+     */
+    private final int limit;
+
+    /**
+     * Reads the expansions from a JSON file.
+     *
+     * @param file  the JSON file.
+     * @param limit the maximum number of expansions used for each topic.
+     * @throws NullPointerException     if the file is {@code null}.
+     * @throws IllegalArgumentException if the limit is negative.
+     * @throws IOException              if something goes wrong while reading the file.
+     */
+    public JsonExpansionProvider(final Path file, final int limit) throws IOException {
+
+        if (file == null) {
+            throw new NullPointerException("Expansions file cannot be null.");
+        }
+
+        final Map<String, List<String>> all;
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            all = new Gson().fromJson(in, new TypeToken<Map<String, List<String>>>() {
+            }.getType());
+        }
+
+        if (all == null) {
+            throw new IOException(String.format("No expansions in file %s.", file.toAbsolutePath()));
+        }
+
+        this.expansions = ExpansionProvider.truncate(all, limit);
+        this.limit = limit;
+    }
+
+    @Override
+    public List<String> getExpansions(final String topicID) {
+        return expansions.getOrDefault(topicID, Collections.emptyList());
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Returns the expansions of all the topics.
+     *
+     * @return the unmodifiable expansions of each topic.
+     */
+    Map<String, List<String>> getAll() {
+        return Collections.unmodifiableMap(expansions);
+    }
+}
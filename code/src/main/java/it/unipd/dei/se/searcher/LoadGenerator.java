@@ -0,0 +1,571 @@
+/*
+ *  Copyright 2021-2023 University of Padua, Italy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package it.unipd.dei.se.searcher;
+
+import it.unipd.dei.se.analyzer.CloseAnalyzer;
+import it.unipd.dei.se.utils.LatencyHistogram;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.benchmark.quality.QualityQuery;
+import org.apache.lucene.search.similarities.BM25Similarity;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays topics or logged queries against a {@link SearchService}, in-process and without its HTTP server, so that
+ * the search path can be load tested offline against a local index.
+ * <p>
+ * The load is either closed-loop, with a given number of clients each sending its next query as soon as the previous
+ * one is answered, or open-loop, with queries sent at a given rate whatever the latency: the latency of an open-loop
+ * query is measured from when it was due to be sent, so that the time it waits behind slower queries is not hidden.
+ * The latencies are reported every window of time and for the whole run: throughput, percentiles, errors and, in
+ * open-loop, queries dropped because too many were waiting.
+ *
+ * @author CLOSE GROUP
+ * @version 1.00
+ * @since 1.00
+ */
+public class LoadGenerator {
+
+    /**
+     * The latencies and errors of a window of time.
+     */
+    private static final class Window {
+
+        /**
+         * The latency of the queries answered.
+         */
+        final LatencyHistogram latencies = new LatencyHistogram();
+
+        /**
+         * The number of queries failed.
+         */
+        final AtomicLong errors = new AtomicLong();
+
+        /**
+         * The number of queries dropped.
+         */
+        final AtomicLong dropped = new AtomicLong();
+    }
+
+    /**
+     * The outcome of a run.
+     */
+    public static final class Report {
+
+        /**
+         * The latency of the queries answered.
+         */
+        public final LatencyHistogram latencies;
+
+        /**
+         * The number of queries failed.
+         */
+        public final long errors;
+
+        /**
+         * The number of queries dropped.
+         */
+        public final long dropped;
+
+        /**
+         * The duration of the run, in seconds.
+         */
+        public final double seconds;
+
+        /**
+         * Creates the outcome of a run.
+         *
+         * @param run     the latencies and errors of the run.
+         * @param seconds the duration of the run, in seconds.
+         */
+        Report(final Window run, final double seconds) {
+            this.latencies = run.latencies;
+            this.errors = run.errors.get();
+            this.dropped = run.dropped.get();
+            this.seconds = seconds;
+        }
+
+        /**
+         * Returns the number of queries answered per second.
+         *
+         * @return the throughput.
+         */
+        public double getThroughput() {
+            return latencies.getCount() / seconds;
+        }
+
+        @Override
+        public String toString() {
+            return describe(latencies, errors, dropped, seconds);
+        }
+    }
+
+    /**
+     * The service searched.
+     */
+    private final SearchService service;
+
+    /**
+     * The file of the queries, either topics or a query log.
+     */
+    private final String queriesFile;
+
+    /**
+     * The topics, replayed over and over; {@code null} if the queries come from a log.
+     */
+    private final QualityQuery[] topics;
+
+    /**
+     * The log of the queries, reopened when over unless read from the standard input; {@code null} for topics.
+     */
+    private QueryStream log = null;
+
+    /**
+     * The number of queries replayed so far.
+     */
+    private long replayed = 0;
+
+    /**
+     * The number of documents retrieved for each query.
+     */
+    private final int k;
+
+    /**
+     * The length of the windows of time reported, in milliseconds.
+     */
+    private final long windowMillis;
+
+    /**
+     * The window of time being recorded.
+     */
+    private volatile Window window = new Window();
+
+    /**
+     * The start of the window of time being recorded, as of {@link System#nanoTime()}.
+     */
+    private volatile long windowStart = 0;
+
+    /**
+     * The first error met, {@code null} if none.
+     */
+    private volatile Exception firstError = null;
+
+    /**
+     * Creates a new load generator.
+     *
+     * @param service      the service to search.
+     * @param queriesFile  the file of the queries: topics, or a query log as read by {@link QueryStream}.
+     * @param k            the number of documents retrieved for each query.
+     * @param windowMillis the length of the windows of time reported, in milliseconds.
+     * @throws NullPointerException     if any of the parameters is {@code null}.
+     * @throws IllegalArgumentException if any of the parameters assumes invalid values.
+     * @throws IOException              if something goes wrong while reading the queries.
+     */
+    public LoadGenerator(final SearchService service, final String queriesFile, final int k, final long windowMillis)
+            throws IOException {
+
+        if (service == null) {
+            throw new NullPointerException("Search service cannot be null.");
+        }
+
+        if (queriesFile == null) {
+            throw new NullPointerException("Queries file cannot be null.");
+        }
+
+        if (queriesFile.isEmpty()) {
+            throw new IllegalArgumentException("Queries file cannot be empty.");
+        }
+
+        if (k <= 0) {
+            throw new IllegalArgumentException(
+                    "The number of documents to be retrieved cannot be less than or equal to zero.");
+        }
+
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("The length of the windows cannot be less than or equal to zero.");
+        }
+
+        this.service = service;
+        this.queriesFile = queriesFile;
+        this.k = k;
+        this.windowMillis = windowMillis;
+
+        if (QueryStream.accepts(queriesFile)) {
+            topics = null;
+            log = QueryStream.open(queriesFile);
+        } else {
+            try (BufferedReader in = Files.newBufferedReader(Paths.get(queriesFile), StandardCharsets.UTF_8)) {
+                topics = new ClefQueryParser().readQueries(in);
+            }
+
+            if (topics.length == 0) {
+                throw new IllegalArgumentException(String.format("No topics in %s.", queriesFile));
+            }
+        }
+    }
+
+    /**
+     * Returns the next query to replay.
+     *
+     * @return the next query, {@code null} if the queries are over, i.e. the standard input has been read.
+     * @throws IOException if something goes wrong while reading the queries.
+     */
+    private synchronized QualityQuery nextQuery() throws IOException {
+
+        if (topics != null) {
+            return topics[(int) (replayed++ % topics.length)];
+        }
+
+        if (log != null && !log.hasNext()) {
+            log.close();
+            log = queriesFile.equals("-") || replayed == 0 ? null : QueryStream.open(queriesFile);
+        }
+
+        if (log == null || !log.hasNext()) {
+            return null;
+        }
+
+        replayed++;
+        return log.next();
+    }
+
+    /**
+     * Searches a query.
+     *
+     * @param q the query.
+     * @throws Exception if something goes wrong while searching.
+     */
+    private void search(final QualityQuery q) throws Exception {
+        // the topic is searched with its expansions, if any
+        service.search(q.getValue("title"), q.getQueryID(), k);
+    }
+
+    /**
+     * Searches some queries without recording their latency, so that the service is warm when measured.
+     *
+     * @param queries the number of queries.
+     * @throws IOException if something goes wrong while reading the queries.
+     */
+    public void warmUp(final int queries) throws IOException {
+
+        for (int i = 0; i < queries; i++) {
+            final QualityQuery q = nextQuery();
+            if (q == null) {
+                return;
+            }
+            try {
+                search(q);
+            } catch (Exception e) {
+                // reported when measured
+            }
+        }
+    }
+
+    /**
+     * Searches a query and records its latency, measured from when it was due.
+     *
+     * @param q   the query.
+     * @param due when the query was due to be sent, as of {@link System#nanoTime()}.
+     * @param run the latencies and errors of the whole run.
+     */
+    private void measure(final QualityQuery q, final long due, final Window run) {
+
+        try {
+            search(q);
+        } catch (Exception e) {
+            error(e);
+            // the outcome is recorded in the window in which the query completes
+            window.errors.incrementAndGet();
+            run.errors.incrementAndGet();
+            return;
+        }
+
+        final long latency = System.nanoTime() - due;
+        window.latencies.record(latency);
+        run.latencies.record(latency);
+    }
+
+    /**
+     * Records an error, if it is the first one.
+     *
+     * @param e the error.
+     */
+    private synchronized void error(final Exception e) {
+        if (firstError == null) {
+            firstError = e;
+        }
+    }
+
+    /**
+     * Replays the queries in closed-loop: each client sends its next query as soon as the previous one is answered.
+     *
+     * @param clients the number of clients.
+     * @param seconds the duration of the run, in seconds.
+     * @return the outcome of the run.
+     * @throws IllegalArgumentException if any of the parameters assumes invalid values.
+     * @throws InterruptedException     if interrupted while waiting for the clients.
+     */
+    public Report closedLoop(final int clients, final int seconds) throws InterruptedException {
+
+        if (clients <= 0) {
+            throw new IllegalArgumentException("The number of clients cannot be less than or equal to zero.");
+        }
+
+        if (seconds <= 0) {
+            throw new IllegalArgumentException("The duration cannot be less than or equal to zero.");
+        }
+
+        final Window run = new Window();
+        final long start = System.nanoTime();
+        final long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        final ScheduledExecutorService reporter = report(start);
+
+        final List<Thread> threads = new ArrayList<>(clients);
+        for (int c = 0; c < clients; c++) {
+            final Thread t = new Thread(() -> {
+                try {
+                    for (QualityQuery q = nextQuery(); q != null && System.nanoTime() < end; q = nextQuery()) {
+                        measure(q, System.nanoTime(), run);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // e.g. a malformed query log, which would otherwise end the client silently
+                    error(e);
+                }
+            }, "client-" + c);
+            threads.add(t);
+            t.start();
+        }
+
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        return finish(reporter, run, start);
+    }
+
+    /**
+     * Replays the queries in open-loop: the queries are sent at the given rate, to a pool of searching threads, and the
+     * latency of each is measured from when it was due. The queries due while more than ten seconds of queries are
+     * already waiting are dropped.
+     *
+     * @param rate    the number of queries sent per second.
+     * @param threads the number of threads searching the queries.
+     * @param seconds the duration of the run, in seconds.
+     * @return the outcome of the run.
+     * @throws IllegalArgumentException if any of the parameters assumes invalid values.
+     * @throws IOException              if something goes wrong while reading the queries.
+     * @throws InterruptedException     if interrupted while waiting for the queries.
+     */
+    public Report openLoop(final double rate, final int threads, final int seconds)
+            throws IOException, InterruptedException {
+
+        if (!(rate > 0)) {
+            throw new IllegalArgumentException("The rate cannot be less than or equal to zero.");
+        }
+
+        if (threads <= 0) {
+            throw new IllegalArgumentException("The number of threads cannot be less than or equal to zero.");
+        }
+
+        if (seconds <= 0) {
+            throw new IllegalArgumentException("The duration cannot be less than or equal to zero.");
+        }
+
+        final Window run = new Window();
+
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>((int) Math.min(Integer.MAX_VALUE, Math.max(threads, 10 * rate))),
+                (r, e) -> {
+                    window.dropped.incrementAndGet();
+                    run.dropped.incrementAndGet();
+                });
+
+        final long start = System.nanoTime();
+        final long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        final ScheduledExecutorService reporter = report(start);
+
+        try {
+            for (long i = 0; ; i++) {
+                final long due = start + (long) (i * 1e9 / rate);
+                if (due >= end) {
+                    break;
+                }
+
+                // late queries are sent at once, their latency still counted from when they were due
+                for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                    LockSupport.parkNanos(wait);
+                }
+
+                final QualityQuery q = nextQuery();
+                if (q == null) {
+                    break;
+                }
+                pool.execute(() -> measure(q, due, run));
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(1, TimeUnit.HOURS);
+        }
+
+        return finish(reporter, run, start);
+    }
+
+    /**
+     * Starts reporting each window of time.
+     *
+     * @param start the start of the run, as of {@link System#nanoTime()}.
+     * @return the reporter.
+     */
+    private ScheduledExecutorService report(final long start) {
+
+        window = new Window();
+        windowStart = start;
+        firstError = null;
+
+        final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        reporter.scheduleAtFixedRate(() -> {
+            final long now = System.nanoTime();
+            final Window w = window;
+            window = new Window();
+            print(w, windowStart, now, start);
+            windowStart = now;
+        }, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+
+        return reporter;
+    }
+
+    /**
+     * Stops reporting the windows of time, reporting the last one.
+     *
+     * @param reporter the reporter.
+     * @param run      the latencies and errors of the whole run.
+     * @param start    the start of the run, as of {@link System#nanoTime()}.
+     * @return the outcome of the run.
+     * @throws InterruptedException if interrupted while waiting for the reporter.
+     */
+    private Report finish(final ScheduledExecutorService reporter, final Window run, final long start)
+            throws InterruptedException {
+
+        reporter.shutdown();
+        reporter.awaitTermination(1, TimeUnit.MINUTES);
+
+        final long now = System.nanoTime();
+        if (window.latencies.getCount() > 0 || window.errors.get() > 0 || window.dropped.get() > 0) {
+            print(window, windowStart, now, start);
+        }
+
+        if (firstError != null) {
+            System.out.printf("First error: %s%n", firstError);
+        }
+
+        return new Report(run, (now - start) / 1e9);
+    }
+
+    /**
+     * Prints a window of time.
+     *
+     * @param w           the window.
+     * @param windowStart the start of the window, as of {@link System#nanoTime()}.
+     * @param windowEnd   the end of the window, as of {@link System#nanoTime()}.
+     * @param start       the start of the run, as of {@link System#nanoTime()}.
+     */
+    private static void print(final Window w, final long windowStart, final long windowEnd, final long start) {
+        System.out.printf(Locale.ENGLISH, "%7.1f s: %s%n", (windowEnd - start) / 1e9,
+                describe(w.latencies, w.errors.get(), w.dropped.get(), (windowEnd - windowStart) / 1e9));
+    }
+
+    /**
+     * Describes the latencies and errors of a period of time.
+     *
+     * @param latencies the latency of the queries answered.
+     * @param errors    the number of queries failed.
+     * @param dropped   the number of queries dropped.
+     * @param seconds   the duration of the period, in seconds.
+     * @return the description.
+     */
+    private static String describe(final LatencyHistogram latencies, final long errors, final long dropped,
+                                   final double seconds) {
+        return String.format(Locale.ENGLISH,
+                "%d queries, %.1f queries/s, p50 %.2f ms, p95 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms, " +
+                        "%d error(s), %d dropped", latencies.getCount(), latencies.getCount() / seconds,
+                latencies.getPercentile(50), latencies.getPercentile(95), latencies.getPercentile(99),
+                latencies.getPercentile(99.9), latencies.getMax(), errors, dropped);
+    }
+
+    /**
+     * Main method to load test the search of an index.
+     *
+     * @param args the arguments to be passed to the method: {@code <index directory> <expansions file>
+     *             <queries file> closed <clients> <seconds>} or {@code <index directory> <expansions file>
+     *             <queries file> open <queries per second> <seconds>}, followed by the length of the windows in
+     *             milliseconds, by default {@code 1000}.
+     * @throws Exception if something goes wrong while searching.
+     */
+    public static void main(String[] args) throws Exception {
+
+        if (args.length < 6 || !(args[3].equals("closed") || args[3].equals("open"))) {
+            throw new IllegalArgumentException("Usage: LoadGenerator <index directory> <expansions file> " +
+                    "<queries file> closed <clients> <seconds> | open <queries per second> <seconds> [window ms]");
+        }
+
+        final Analyzer analyzer = new CloseAnalyzer(CloseAnalyzer.TokenizerType.Standard, 2, 15, false,
+                "new-long-stoplist-fr.txt", CloseAnalyzer.StemFilterType.French, null, null, false, false, true);
+        final int maxDocsRetrieved = 1000;
+        final int seconds = Integer.parseInt(args[5]);
+        final long windowMillis = args.length > 6 ? Long.parseLong(args[6]) : 1000;
+
+        // the service is searched in-process: its server is never started, nor is its pool created
+        try (SearchService service = new SearchService(analyzer, new BM25Similarity(2.0f, 0.85f), args[0],
+                ExpansionProvider.open(Paths.get(args[1]), ExpansionProvider.DEFAULT_LIMIT), maxDocsRetrieved, 0,
+                Runtime.getRuntime().availableProcessors(), 1024)) {
+
+            final LoadGenerator generator = new LoadGenerator(service, args[2], maxDocsRetrieved, windowMillis);
+            generator.warmUp(500);
+
+            final Report report;
+            if (args[3].equals("closed")) {
+                final int clients = Integer.parseInt(args[4]);
+                System.out.printf("Closed-loop load: %d client(s) for %d seconds.%n", clients, seconds);
+                report = generator.closedLoop(clients, seconds);
+            } else {
+                final double rate = Double.parseDouble(args[4]);
+                final int threads = 2 * Runtime.getRuntime().availableProcessors();
+                System.out.printf(Locale.ENGLISH, "Open-loop load: %.1f queries/s on %d thread(s) for %d seconds.%n",
+                        rate, threads, seconds);
+                report = generator.openLoop(rate, threads, seconds);
+            }
+
+            System.out.printf("Whole run: %s%n", report);
+        }
+
+        analyzer.close();
+    }
+}
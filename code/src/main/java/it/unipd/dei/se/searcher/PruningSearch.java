@@ -0,0 +1,414 @@
+/*
+ *  Copyright 2021-2023 University of Padua, Italy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package it.unipd.dei.se.searcher;
+
+import it.unipd.dei.se.analyzer.CloseAnalyzer;
+import it.unipd.dei.se.indexer.BodyField;
+import it.unipd.dei.se.parser.DocumentParser;
+import it.unipd.dei.se.parser.Text.ClefParser;
+import it.unipd.dei.se.parser.Text.ParsedTextDocument;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.FilterCollector;
+import org.apache.lucene.search.FilterLeafCollector;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.LeafCollector;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Searches the top documents of a query letting Lucene skip the documents which cannot enter them, and measures how
+ * many documents were scored.
+ * <p>
+ * {@code IndexSearcher.search(Query, int)} counts the hits exactly up to a threshold of 1000 before the collector tells
+ * the scorers the minimum competitive score, so that block-max WAND and MAXSCORE skip the blocks of documents whose
+ * best possible score is lower. A {@link TopScoreDocCollector} with a threshold as low as the number of documents to
+ * retrieve starts skipping as soon as its queue is full, while a threshold of {@link Integer#MAX_VALUE} scores every
+ * matching document, as an exhaustive search does. The top documents are the same either way, only the total number of
+ * hits becomes a lower bound.
+ * <p>
+ * Skipping works best on a single, flat disjunction, whose clauses each have their own upper bound of the score: the
+ * optional clauses of the topics, each expansion a disjunction of its terms, are better searched as one disjunction of
+ * all their terms, which {@link #flatten(Query)} does without changing the score of any document.
+ *
+ * @author CLOSE GROUP
+ * @version 1.00
+ * @since 1.00
+ */
+public final class PruningSearch {
+
+    /**
+     * The top documents of a search together with its cost.
+     */
+    public static final class Result {
+
+        /**
+         * The top documents.
+         */
+        public final TopDocs topDocs;
+
+        /**
+         * The number of documents scored.
+         */
+        public final long scored;
+
+        /**
+         * The time taken by the search, in nanoseconds.
+         */
+        public final long elapsed;
+
+        /**
+         * Creates a new result.
+         *
+         * @param topDocs the top documents.
+         * @param scored  the number of documents scored.
+         * @param elapsed the time taken by the search, in nanoseconds.
+         */
+        Result(final TopDocs topDocs, final long scored, final long elapsed) {
+            this.topDocs = topDocs;
+            this.scored = scored;
+            this.elapsed = elapsed;
+        }
+    }
+
+    /**
+     * A collector counting the documents it is given.
+     */
+    private static final class CountingCollector extends FilterCollector {
+
+        /**
+         * The collector of the top documents.
+         */
+        private final TopScoreDocCollector top;
+
+        /**
+         * The number of documents collected.
+         */
+        private long count = 0;
+
+        /**
+         * Creates a new collector.
+         *
+         * @param top the collector of the top documents.
+         */
+        CountingCollector(final TopScoreDocCollector top) {
+            super(top);
+            this.top = top;
+        }
+
+        @Override
+        public LeafCollector getLeafCollector(final LeafReaderContext context) throws IOException {
+            return new FilterLeafCollector(super.getLeafCollector(context)) {
+                @Override
+                public void collect(final int doc) throws IOException {
+                    count++;
+                    super.collect(doc);
+                }
+            };
+        }
+    }
+
+    /**
+     * This class cannot be instantiated.
+     */
+    private PruningSearch() {
+        throw new AssertionError(String.format("No instances of %s allowed.", PruningSearch.class.getName()));
+    }
+
+    /**
+     * Searches the top documents of a query.
+     *
+     * @param searcher  the searcher.
+     * @param q         the query.
+     * @param n         the number of documents to retrieve.
+     * @param threshold the number of hits counted exactly before documents can be skipped: {@code n} to skip as soon
+     *                  as possible, {@link Integer#MAX_VALUE} to score every matching document.
+     * @return the top documents and the cost of the search.
+     * @throws IOException if something goes wrong while searching.
+     */
+    public static Result search(final IndexSearcher searcher, final Query q, final int n, final int threshold)
+            throws IOException {
+
+        final CollectorManager<TopScoreDocCollector, TopDocs> top = TopScoreDocCollector.createSharedManager(
+                Math.max(1, Math.min(n, searcher.getIndexReader().maxDoc())), null, threshold);
+
+        final long[] scored = new long[1];
+
+        final long start = System.nanoTime();
+        final TopDocs docs = searcher.search(q, new CollectorManager<CountingCollector, TopDocs>() {
+
+            @Override
+            public CountingCollector newCollector() throws IOException {
+                return new CountingCollector(top.newCollector());
+            }
+
+            @Override
+            public TopDocs reduce(final Collection<CountingCollector> collectors) throws IOException {
+                final List<TopScoreDocCollector> in = new ArrayList<>(collectors.size());
+                for (CountingCollector c : collectors) {
+                    in.add(c.top);
+                    scored[0] += c.count;
+                }
+                return top.reduce(in);
+            }
+        });
+
+        return new Result(docs, scored[0], System.nanoTime() - start);
+    }
+
+    /**
+     * Flattens the optional clauses of a query which are themselves pure disjunctions, i.e. with optional clauses only,
+     * into optional clauses of the query, moving the boost of each disjunction to its clauses.
+     * <p>
+     * The score of a disjunction is the sum of the scores of its matching clauses, so the flattened query matches the
+     * same documents with the same scores, up to the order of the floating point sums.
+     *
+     * @param q the query.
+     * @return the flattened query, or the query itself if there is nothing to flatten.
+     */
+    public static Query flatten(final Query q) {
+
+        if (!(q instanceof BooleanQuery) || ((BooleanQuery) q).getMinimumNumberShouldMatch() != 0) {
+            return q;
+        }
+
+        final BooleanQuery bq = (BooleanQuery) q;
+        final BooleanQuery.Builder flat = new BooleanQuery.Builder();
+        boolean changed = false;
+
+        for (BooleanClause c : bq.clauses()) {
+            if (c.getOccur() == BooleanClause.Occur.SHOULD && disjunction(c.getQuery())) {
+                addDisjuncts(flat, c.getQuery(), 1.0f);
+                changed = true;
+            } else {
+                flat.add(c);
+            }
+        }
+
+        return changed ? flat.build() : q;
+    }
+
+    /**
+     * Checks whether a query, possibly boosted, is a pure disjunction.
+     *
+     * @param q the query.
+     * @return {@code true} if the query is a disjunction with optional clauses only.
+     */
+    private static boolean disjunction(Query q) {
+
+        while (q instanceof BoostQuery) {
+            q = ((BoostQuery) q).getQuery();
+        }
+
+        if (!(q instanceof BooleanQuery) || ((BooleanQuery) q).getMinimumNumberShouldMatch() != 0
+                || ((BooleanQuery) q).clauses().isEmpty()) {
+            return false;
+        }
+
+        for (BooleanClause c : ((BooleanQuery) q).clauses()) {
+            if (c.getOccur() != BooleanClause.Occur.SHOULD) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Adds the clauses of a disjunction, flattening the nested disjunctions, as optional clauses of a query.
+     *
+     * @param flat  the builder of the flattened query.
+     * @param q     the disjunction or one of its clauses.
+     * @param boost the boost of the enclosing disjunctions.
+     */
+    private static void addDisjuncts(final BooleanQuery.Builder flat, Query q, float boost) {
+
+        while (q instanceof BoostQuery) {
+            boost *= ((BoostQuery) q).getBoost();
+            q = ((BoostQuery) q).getQuery();
+        }
+
+        if (disjunction(q)) {
+            for (BooleanClause c : ((BooleanQuery) q).clauses()) {
+                addDisjuncts(flat, c.getQuery(), boost);
+            }
+        } else {
+            flat.add(boost == 1.0f ? q : new BoostQuery(q, boost), BooleanClause.Occur.SHOULD);
+        }
+    }
+
+    /**
+     * Checks whether two searches retrieved the same documents, in the same order and with about the same scores.
+     *
+     * @param a the first top documents.
+     * @param b the second top documents.
+     * @return {@code true} if the documents are the same.
+     */
+    public static boolean sameTopDocs(final TopDocs a, final TopDocs b) {
+
+        if (a.scoreDocs.length != b.scoreDocs.length) {
+            return false;
+        }
+
+        for (int i = 0; i < a.scoreDocs.length; i++) {
+            final ScoreDoc x = a.scoreDocs[i];
+            final ScoreDoc y = b.scoreDocs[i];
+            if (x.doc != y.doc || Math.abs(x.score - y.score) > 1e-5f * Math.max(1.0f, Math.abs(x.score))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Main method to compare the exhaustive search with the pruned search of the queries as they are and flattened, on
+     * an index of a sample of the collection and queries shaped as the ones of the topics: a boosted required title of
+     * a few words and three optional expansions of a few more words each, taken from the documents.
+     *
+     * @param args the arguments to be passed to the method: a JSON file of the collection and, optionally, how many
+     *             times its documents are indexed, by default 5.
+     * @throws IOException    if something goes wrong while indexing or searching.
+     * @throws ParseException if something goes wrong while parsing the queries.
+     */
+    public static void main(String[] args) throws IOException, ParseException {
+
+        if (args.length < 1) {
+            throw new IllegalArgumentException("Usage: PruningSearch <collection JSON file> [copies]");
+        }
+
+        final int copies = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        final List<String> bodies;
+        try (Stream<ParsedTextDocument> docs = DocumentParser.create(ClefParser.class,
+                Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.ISO_8859_1))) {
+            bodies = docs.map(ParsedTextDocument::getBody).collect(Collectors.toList());
+        }
+
+        final Analyzer analyzer = new CloseAnalyzer(CloseAnalyzer.TokenizerType.Standard, 2, 15, false,
+                "new-long-stoplist-fr.txt", CloseAnalyzer.StemFilterType.French, null, null, false, false, true);
+
+        final Random random = new Random(42);
+        final QueryParser qp = new QueryParser(ParsedTextDocument.Fields.BODY, analyzer);
+        final List<Query> queries = new ArrayList<>();
+        while (queries.size() < 200) {
+            final String[] words = bodies.get(random.nextInt(bodies.size())).split("[^\\p{L}]+");
+            if (words.length < 30) {
+                continue;
+            }
+            final BooleanQuery.Builder bq = new BooleanQuery.Builder();
+            for (int e = 0; e < 3; e++) {
+                final int from = random.nextInt(words.length - 6);
+                bq.add(qp.parse(QueryParser.escape(String.join(" ", Arrays.copyOfRange(words, from, from + 6)))),
+                        BooleanClause.Occur.SHOULD);
+            }
+            final int from = random.nextInt(words.length - 3);
+            bq.add(new BoostQuery(qp.parse(QueryParser.escape(String.join(" ",
+                    Arrays.copyOfRange(words, from, from + 3)))), Searcher.EXPANSION_BOOST * 3), BooleanClause.Occur.MUST);
+            queries.add(bq.build());
+        }
+
+        try (Directory dir = new ByteBuffersDirectory()) {
+
+            final IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
+            iwc.setSimilarity(new BM25Similarity(2.0f, 0.85f));
+
+            try (IndexWriter writer = new IndexWriter(dir, iwc)) {
+                for (int c = 0; c < copies; c++) {
+                    for (String body : bodies) {
+                        final Document doc = new Document();
+                        doc.add(new BodyField(body));
+                        writer.addDocument(doc);
+                    }
+                }
+                writer.forceMerge(1);
+            }
+
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+
+                final IndexSearcher searcher = new IndexSearcher(reader);
+                searcher.setSimilarity(new BM25Similarity(2.0f, 0.85f));
+
+                System.out.printf("%d queries over %d document(s)%n", queries.size(), reader.maxDoc());
+
+                for (int n : new int[]{10, 100, 1000}) {
+
+                    // warm up all the modes
+                    for (Query q : queries) {
+                        search(searcher, q, n, Integer.MAX_VALUE);
+                        search(searcher, q, n, n);
+                        search(searcher, flatten(q), n, n);
+                    }
+
+                    final long[] scored = new long[3];
+                    final long[] time = new long[3];
+                    int mismatches = 0;
+
+                    for (Query q : queries) {
+                        final Result[] results = {search(searcher, q, n, Integer.MAX_VALUE), search(searcher, q, n, n),
+                                search(searcher, flatten(q), n, n)};
+
+                        for (int m = 0; m < results.length; m++) {
+                            scored[m] += results[m].scored;
+                            time[m] += results[m].elapsed;
+                        }
+
+                        if (!sameTopDocs(results[0].topDocs, results[1].topDocs)
+                                || !sameTopDocs(results[0].topDocs, results[2].topDocs)) {
+                            mismatches++;
+                        }
+                    }
+
+                    System.out.printf("+ top %d: exhaustive %d scored, %.3f ms; pruned %d scored, %.3f ms; " +
+                                    "pruned and flattened %d scored, %.3f ms; %d mismatch(es)%n", n,
+                            scored[0] / queries.size(), time[0] / 1e6 / queries.size(), scored[1] / queries.size(),
+                            time[1] / 1e6 / queries.size(), scored[2] / queries.size(),
+                            time[2] / 1e6 / queries.size(), mismatches);
+                }
+            }
+        }
+
+        analyzer.close();
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ *  Copyright 2021-2023 University of Padua, Italy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package it.unipd.dei.se.searcher;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.apache.lucene.benchmark.quality.QualityQuery;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads queries one at a time from a query log, so that the queries of a log of any length can be searched with
+ * bounded memory, unlike {@link ClefQueryParser}, which loads and sorts all the topics of a file.
+ * <p>
+ * Each non-blank line is a query, either as tab separated values, i.e. the identifier and the text of the query, or as
+ * a JSON object with the identifier in {@code id} or {@code qid} and the text in {@code query}, {@code title} or
+ * {@code text}. A line with no identifier, e.g. the text alone, is identified by its line number. Malformed lines are
+ * skipped and counted.
+ *
+ * @author CLOSE GROUP
+ * @version 1.00
+ * @since 1.00
+ */
+public class QueryStream implements Iterator<QualityQuery>, Closeable {
+
+    /**
+     * The formats of the query logs.
+     */
+    public enum Format {
+
+        /**
+         * Tab separated values: identifier and text.
+         */
+        TSV,
+
+        /**
+         * One JSON object per line.
+         */
+        JSONL
+    }
+
+    /**
+     * The reader of the query log.
+     */
+    private final BufferedReader in;
+
+    /**
+     * The format of the query log.
+     */
+    private final Format format;
+
+    /**
+     * The next query, {@code null} if not read yet or if the log is over.
+     */
+    private QualityQuery next = null;
+
+    /**
+     * The number of lines read.
+     */
+    private long lines = 0;
+
+    /**
+     * The number of malformed lines skipped.
+     */
+    private long skipped = 0;
+
+    /**
+     * Creates a new stream of queries.
+     *
+     * @param in     the reader of the query log.
+     * @param format the format of the query log.
+     * @throws NullPointerException if any of the parameters is {@code null}.
+     */
+    public QueryStream(final BufferedReader in, final Format format) {
+
+        if (in == null) {
+            throw new NullPointerException("Query log reader cannot be null.");
+        }
+
+        if (format == null) {
+            throw new NullPointerException("Query log format cannot be null.");
+        }
+
+        this.in = in;
+        this.format = format;
+    }
+
+    /**
+     * Tells whether a path names a query log to be streamed, i.e. {@code -} for the standard input or a file ending
+     * with {@code .tsv} or {@code .jsonl}.
+     *
+     * @param path the path.
+     * @return {@code true} if the path names a query log.
+     */
+    public static boolean accepts(final String path) {
+        return path.equals("-") || path.endsWith(".tsv") || path.endsWith(".jsonl");
+    }
+
+    /**
+     * Opens a query log, as JSON lines if its name ends with {@code .jsonl} and as tab separated values otherwise;
+     * {@code -} reads tab separated values from the standard input.
+     *
+     * @param path the path of the query log, or {@code -}.
+     * @return the stream of the queries of the log.
+     * @throws NullPointerException     if the path is {@code null}.
+     * @throws IllegalArgumentException if the path is empty.
+     * @throws IOException              if something goes wrong while opening the log.
+     */
+    public static QueryStream open(final String path) throws IOException {
+
+        if (path == null) {
+            throw new NullPointerException("Query log path cannot be null.");
+        }
+
+        if (path.isEmpty()) {
+            throw new IllegalArgumentException("Query log path cannot be empty.");
+        }
+
+        if (path.equals("-")) {
+            return new QueryStream(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)),
+                    Format.TSV);
+        }
+
+        return new QueryStream(Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8),
+                path.endsWith(".jsonl") ? Format.JSONL : Format.TSV);
+    }
+
+    /**
+     * Returns the number of malformed lines skipped so far.
+     *
+     * @return the number of skipped lines.
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    @Override
+    public boolean hasNext() {
+
+        try {
+            while (next == null) {
+                final String line = in.readLine();
+                if (line == null) {
+                    return false;
+                }
+
+                lines++;
+                if (!line.isBlank()) {
+                    next = format == Format.TSV ? parseTSV(line) : parseJSON(line);
+                    if (next == null) {
+                        skipped++;
+                        System.out.printf("Skipping malformed query at line %d.%n", lines);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("Unable to read the query log: %s.", e.getMessage()), e);
+        }
+
+        return true;
+    }
+
+    @Override
+    public QualityQuery next() {
+
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more queries in the query log.");
+        }
+
+        final QualityQuery q = next;
+        next = null;
+        return q;
+    }
+
+    /**
+     * Parses a line of tab separated values.
+     *
+     * @param line the line.
+     * @return the query, {@code null} if the line has no text.
+     */
+    private QualityQuery parseTSV(final String line) {
+
+        final int tab = line.indexOf('\t');
+        if (tab < 0) {
+            return query(null, line);
+        }
+
+        // further columns, e.g. timestamps or counts, are ignored
+        final int end = line.indexOf('\t', tab + 1);
+        return query(line.substring(0, tab), line.substring(tab + 1, end < 0 ? line.length() : end));
+    }
+
+    /**
+     * Parses a line holding a JSON object.
+     *
+     * @param line the line.
+     * @return the query, {@code null} if the line is not an object with a text.
+     */
+    private QualityQuery parseJSON(final String line) {
+
+        final JsonObject o;
+        try {
+            final JsonElement e = JsonParser.parseString(line);
+            if (!e.isJsonObject()) {
+                return null;
+            }
+            o = e.getAsJsonObject();
+        } catch (JsonParseException e) {
+            return null;
+        }
+
+        return query(member(o, "id", "qid"), member(o, "query", "title", "text"));
+    }
+
+    /**
+     * Returns the first of the given members of an object which is a string or a number.
+     *
+     * @param o     the object.
+     * @param names the names of the members, in order of preference.
+     * @return the value of the member, {@code null} if none is found.
+     */
+    private static String member(final JsonObject o, final String... names) {
+
+        for (String name : names) {
+            final JsonElement e = o.get(name);
+            if (e != null && e.isJsonPrimitive()) {
+                return e.getAsString();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Creates a query.
+     *
+     * @param id   the identifier of the query, {@code null} or blank to use the line number.
+     * @param text the text of the query.
+     * @return the query, {@code null} if the text is {@code null} or blank.
+     */
+    private QualityQuery query(final String id, final String text) {
+
+        if (text == null || text.isBlank()) {
+            return null;
+        }
+
+        final String queryID = id == null || id.isBlank() ? "q" + lines : id.strip();
+
+        return new QualityQuery(queryID, Map.of("title", text.strip()));
+    }
+
+    /**
+     * Closes the query log.
+     *
+     * @throws IOException if something goes wrong while closing the log.
+     */
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Main method to count the queries of a log, showing that the memory used does not depend on their number.
+     *
+     * @param args the arguments to be passed to the method: the path of the query log, or {@code -}.
+     * @throws IOException if something goes wrong while reading the log.
+     */
+    public static void main(String[] args) throws IOException {
+
+        final long start = System.nanoTime();
+        long queries = 0;
+        long chars = 0;
+
+        try (QueryStream stream = QueryStream.open(args[0])) {
+            while (stream.hasNext()) {
+                chars += stream.next().getValue("title").length();
+                queries++;
+            }
+
+            final Runtime rt = Runtime.getRuntime();
+            System.out.printf("%d query(ies), %d character(s), %d malformed line(s) skipped in %d ms, " +
+                            "%d MB of heap used.%n", queries, chars, stream.getSkipped(),
+                    (System.nanoTime() - start) / 1_000_000, (rt.totalMemory() - rt.freeMemory()) >> 20);
+        }
+    }
+}
@@ -0,0 +1,574 @@
+/*
+ *  Copyright 2021-2023 University of Padua, Italy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package it.unipd.dei.se.searcher;
+
+import it.unipd.dei.se.parser.Text.ParsedTextDocument;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.MultiTerms;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.KnnFloatVectorQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.OutputStreamDataOutput;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOSupplier;
+import org.apache.lucene.util.StringHelper;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches on disk the documents retrieved for the queries, so that runs searching again the same queries on the same
+ * index, e.g. to try another re-ranking or expansion of some topics, skip the search of the queries already seen.
+ * <p>
+ * Each entry is a small binary file in the directory of the cache, named after a digest of its key and holding the key,
+ * the total hits and the identifiers and scores of the top documents. The key is made of the commit of the index, its
+ * generation and unique identifier, the similarity, as described by its {@code toString()}, the number of documents
+ * retrieved, the mode of the search, e.g. exhaustive or pruned, whose total hits differ, and the query, as described by
+ * its {@code toString()}, or by its vector for {@link KnnFloatVectorQuery}, whose description only shows the first
+ * component. The identifiers of the documents are only meaningful for the commit they were retrieved from, so a new
+ * commit of the index never hits the older entries.
+ * <p>
+ * The cache keeps at most a given number of entries, evicting the least recently used ones; the order of use survives
+ * across runs as the time of last modification of the files, updated at each hit. The entries of older commits, or of
+ * other indexes sharing the directory, are never hit again by the current index and are left to this eviction, so that
+ * searchers of different indexes can share a cache. It can be used by several threads at once.
+ *
+ * @author CLOSE GROUP
+ * @version 1.00
+ * @since 1.00
+ */
+public class ResultCache {
+
+    /**
+     * The first bytes of each entry, which also tell its version.
+     */
+    private static final int MAGIC = 0x52435631;
+
+    /**
+     * The extension of the files of the entries.
+     */
+    private static final String EXTENSION = ".rc";
+
+    /**
+     * The prefix of the files of the entries being written.
+     */
+    private static final String TMP_PREFIX = "entry";
+
+    /**
+     * The suffix of the files of the entries being written.
+     */
+    private static final String TMP_SUFFIX = ".tmp";
+
+    /**
+     * The time, in milliseconds, after which an entry being written is deemed left behind by a crashed run.
+     */
+    private static final long TMP_MAX_AGE = 60_000;
+
+    /**
+     * The directory of the cache.
+     */
+    private final Path dir;
+
+    /**
+     * The maximum number of entries.
+     */
+    private final int maxEntries;
+
+    /**
+     * The names of the entries, from the least to the most recently used.
+     */
+    private final LinkedHashMap<String, Boolean> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The description of the commit of each reader seen, forgotten once the reader is no longer used.
+     */
+    private final Map<DirectoryReader, String> commits = new WeakHashMap<>();
+
+    /**
+     * The mode of the searches of {@link #search(IndexSearcher, Query, int)}.
+     */
+    public static final String EXHAUSTIVE = "exhaustive";
+
+    /**
+     * The number of queries found in the cache.
+     */
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * The number of queries searched and added to the cache.
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Opens the cache in the given directory, creating the directory if it does not exist and deleting the entries
+     * left partially written by a previous run.
+     *
+     * @param dir        the directory of the cache.
+     * @param maxEntries the maximum number of entries.
+     * @throws NullPointerException     if the directory is {@code null}.
+     * @throws IllegalArgumentException if the maximum number of entries is less than or equal to zero.
+     * @throws IOException              if something goes wrong while reading the directory.
+     */
+    public ResultCache(final Path dir, final int maxEntries) throws IOException {
+
+        if (dir == null) {
+            throw new NullPointerException("Cache directory cannot be null.");
+        }
+
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("The number of cached queries cannot be less than or equal to zero.");
+        }
+
+        Files.createDirectories(dir);
+
+        // the entries being written when a previous run crashed, which were never moved in place; the recent ones may
+        // still be written by another searcher sharing the directory
+        final long stale = System.currentTimeMillis() - TMP_MAX_AGE;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, TMP_PREFIX + "*" + TMP_SUFFIX)) {
+            for (Path file : stream) {
+                try {
+                    if (Files.getLastModifiedTime(file).toMillis() < stale) {
+                        Files.deleteIfExists(file);
+                    }
+                } catch (NoSuchFileException e) {
+                    // moved in place meanwhile
+                }
+            }
+        }
+
+        // the entries of the previous runs, from the least to the most recently used
+        final List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + EXTENSION)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+
+        final Map<Path, FileTime> times = new LinkedHashMap<>();
+        for (Path file : files) {
+            times.put(file, Files.getLastModifiedTime(file));
+        }
+        files.sort(Comparator.comparing(times::get));
+
+        for (Path file : files) {
+            entries.put(file.getFileName().toString(), Boolean.TRUE);
+        }
+
+        this.dir = dir;
+        this.maxEntries = maxEntries;
+
+        evict();
+    }
+
+    /**
+     * Returns the top documents of a query, from the cache if it has been searched before with the same index,
+     * similarity and number of documents, and from the searcher otherwise.
+     * <p>
+     * Queries over an index which is not a {@link DirectoryReader}, whose commit cannot be known, are always searched.
+     *
+     * @param searcher the searcher.
+     * @param q        the query.
+     * @param n        the number of documents to retrieve.
+     * @return the top documents of the query.
+     * @throws IOException if something goes wrong while searching or while reading or writing the cache.
+     */
+    public TopDocs search(final IndexSearcher searcher, final Query q, final int n) throws IOException {
+        return search(searcher, q, n, EXHAUSTIVE, () -> searcher.search(q, n));
+    }
+
+    /**
+     * Returns the top documents of a query, from the cache if it has been searched before with the same index,
+     * similarity, number of documents and mode, and searched as the given function does otherwise, e.g. pruned.
+     *
+     * @param searcher the searcher, used for the key of the query.
+     * @param q        the query.
+     * @param n        the number of documents to retrieve.
+     * @param mode     the mode of the search, e.g. {@link #EXHAUSTIVE}, telling apart searches of the same query whose
+     *                 top documents or total hits differ.
+     * @param search   the search of the top documents of the query with the given searcher.
+     * @return the top documents of the query.
+     * @throws IOException if something goes wrong while searching or while reading or writing the cache.
+     */
+    public TopDocs search(final IndexSearcher searcher, final Query q, final int n, final String mode,
+                          final IOSupplier<TopDocs> search) throws IOException {
+
+        if (!(searcher.getIndexReader() instanceof DirectoryReader)) {
+            return search.get();
+        }
+
+        final String commit = commit((DirectoryReader) searcher.getIndexReader());
+        final String key = String.format("%s%n%s%n%d%n%s%n%s", commit, searcher.getSimilarity(), n, mode,
+                signature(q));
+        final String name = name(key);
+
+        final boolean known;
+        synchronized (entries) {
+            known = entries.get(name) != null;
+        }
+
+        if (known) {
+            final TopDocs cached = read(dir.resolve(name), key);
+            if (cached != null) {
+                hits.incrementAndGet();
+                try {
+                    Files.setLastModifiedTime(dir.resolve(name), FileTime.fromMillis(System.currentTimeMillis()));
+                } catch (NoSuchFileException e) {
+                    // evicted meanwhile by another thread: nothing to update
+                }
+                return cached;
+            }
+        }
+
+        misses.incrementAndGet();
+        final TopDocs docs = search.get();
+        write(name, commit, key, docs);
+
+        return docs;
+    }
+
+    /**
+     * Returns the number of queries found in the cache.
+     *
+     * @return the number of queries found in the cache.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of queries searched and added to the cache.
+     *
+     * @return the number of queries searched and added to the cache.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of entries of the cache.
+     *
+     * @return the number of entries of the cache.
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Describes the commit of a reader.
+     *
+     * @param reader the reader.
+     * @return the generation and unique identifier of the commit.
+     * @throws IOException if something goes wrong while reading the commit.
+     */
+    private String commit(final DirectoryReader reader) throws IOException {
+
+        synchronized (commits) {
+
+            String commit = commits.get(reader);
+            if (commit == null) {
+                final IndexCommit ic = reader.getIndexCommit();
+                final SegmentInfos infos = SegmentInfos.readCommit(ic.getDirectory(), ic.getSegmentsFileName());
+                commit = String.format("%d:%s", ic.getGeneration(), StringHelper.idToString(infos.getId()));
+                commits.put(reader, commit);
+            }
+
+            return commit;
+        }
+    }
+
+    /**
+     * Reads an entry.
+     *
+     * @param file the file of the entry.
+     * @param key  the expected key of the entry.
+     * @return the top documents of the entry, {@code null} if the entry is missing, damaged or has another key.
+     * @throws IOException if something goes wrong while reading the entry.
+     */
+    private static TopDocs read(final Path file, final String key) throws IOException {
+
+        final byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+
+        try {
+            final ByteArrayDataInput in = new ByteArrayDataInput(bytes);
+
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+
+            in.readString();
+            if (!key.equals(in.readString())) {
+                return null;
+            }
+
+            final long totalHits = in.readVLong();
+            final TotalHits.Relation relation = TotalHits.Relation.values()[in.readByte()];
+
+            final ScoreDoc[] sd = new ScoreDoc[in.readVInt()];
+            for (int i = 0; i < sd.length; i++) {
+                sd[i] = new ScoreDoc(in.readVInt(), Float.intBitsToFloat(in.readInt()));
+            }
+
+            return new TopDocs(new TotalHits(totalHits, relation), sd);
+        } catch (RuntimeException e) {
+            // a truncated entry, e.g. written by a run stopped meanwhile
+            return null;
+        }
+    }
+
+    /**
+     * Writes an entry, replacing any previous one with the same name, and evicts the least recently used entries if
+     * there are too many.
+     *
+     * @param name   the name of the entry.
+     * @param commit the description of the commit of the index.
+     * @param key    the key of the entry.
+     * @param docs   the top documents.
+     * @throws IOException if something goes wrong while writing the entry.
+     */
+    private void write(final String name, final String commit, final String key, final TopDocs docs)
+            throws IOException {
+
+        // written aside and then moved, so that readers never see a partial entry
+        final Path tmp = Files.createTempFile(dir, TMP_PREFIX, TMP_SUFFIX);
+        boolean moved = false;
+
+        try {
+            try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                final OutputStreamDataOutput out = new OutputStreamDataOutput(os);
+
+                out.writeInt(MAGIC);
+                out.writeString(commit);
+                out.writeString(key);
+                out.writeVLong(docs.totalHits.value);
+                out.writeByte((byte) docs.totalHits.relation.ordinal());
+                out.writeVInt(docs.scoreDocs.length);
+                for (ScoreDoc sd : docs.scoreDocs) {
+                    out.writeVInt(sd.doc);
+                    out.writeInt(Float.floatToIntBits(sd.score));
+                }
+            }
+
+            Files.move(tmp, dir.resolve(name), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(tmp);
+            }
+        }
+
+        synchronized (entries) {
+            entries.put(name, Boolean.TRUE);
+            evict();
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries beyond the maximum number of entries.
+     *
+     * @throws IOException if something goes wrong while deleting the entries.
+     */
+    private void evict() throws IOException {
+
+        synchronized (entries) {
+            for (Iterator<String> i = entries.keySet().iterator(); entries.size() > maxEntries; ) {
+                Files.deleteIfExists(dir.resolve(i.next()));
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Describes a query for the key of the cache.
+     *
+     * @param q the query.
+     * @return the description of the query.
+     */
+    private static String signature(final Query q) {
+
+        if (q instanceof KnnFloatVectorQuery) {
+            final KnnFloatVectorQuery knn = (KnnFloatVectorQuery) q;
+            return String.format("knn:%s:%d:%s:%s", knn.getField(), knn.getK(), Arrays.toString(knn.getTargetCopy()),
+                    knn.getFilter());
+        }
+
+        return q.toString();
+    }
+
+    /**
+     * Returns the name of the entry of a key, the hexadecimal SHA-1 digest of the key.
+     *
+     * @param key the key.
+     * @return the name of the entry.
+     */
+    private static String name(final String key) {
+
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available.", e);
+        }
+
+        final StringBuilder name = new StringBuilder(digest.length * 2 + EXTENSION.length());
+        for (byte b : digest) {
+            name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return name.append(EXTENSION).toString();
+    }
+
+    /**
+     * Main method to compare the time taken to search some queries without the cache, the first time with the cache
+     * and once the cache is reopened, as by a later run.
+     *
+     * @param args the arguments to be passed to the method: the directory of the index and the directory of the cache.
+     * @throws IOException if something goes wrong while searching.
+     */
+    public static void main(String[] args) throws IOException {
+
+        if (args.length != 2) {
+            throw new IllegalArgumentException("Usage: ResultCache <index directory> <cache directory>");
+        }
+
+        try (DirectoryReader reader = DirectoryReader.open(FSDirectory.open(Paths.get(args[0])))) {
+
+            final IndexSearcher searcher = new IndexSearcher(reader);
+            searcher.setSimilarity(new BM25Similarity(2.0f, 0.85f));
+
+            // the terms of the body found in a few documents, to build queries of two to four of them
+            final List<BytesRef> words = new ArrayList<>();
+            final Terms terms = MultiTerms.getTerms(reader, ParsedTextDocument.Fields.BODY);
+            final TermsEnum te = terms.iterator();
+            for (BytesRef t = te.next(); t != null; t = te.next()) {
+                if (te.docFreq() >= 5) {
+                    words.add(BytesRef.deepCopyOf(t));
+                }
+            }
+
+            final Random random = new Random(42);
+            final List<Query> queries = new ArrayList<>();
+            for (int i = 0; i < 300; i++) {
+                final BooleanQuery.Builder bq = new BooleanQuery.Builder();
+                for (int j = 2 + random.nextInt(3); j > 0; j--) {
+                    bq.add(new TermQuery(new Term(ParsedTextDocument.Fields.BODY,
+                            words.get(random.nextInt(words.size())))), BooleanClause.Occur.SHOULD);
+                }
+                queries.add(bq.build());
+            }
+
+            System.out.printf("%d queries over %d document(s)%n", queries.size(), reader.numDocs());
+
+            // warm up the index
+            for (Query q : queries) {
+                searcher.search(q, 1000);
+            }
+
+            long start = System.nanoTime();
+            final List<TopDocs> expected = new ArrayList<>();
+            for (Query q : queries) {
+                expected.add(searcher.search(q, 1000));
+            }
+            System.out.printf("+ without cache: %.2f ms%n", (System.nanoTime() - start) / 1e6);
+
+            ResultCache cache = null;
+            for (String pass : new String[]{"first run", "second run", "reopened cache"}) {
+
+                // the first two passes share the cache, the last one reads it again from disk
+                if (cache == null || pass.startsWith("reopened")) {
+                    cache = new ResultCache(Paths.get(args[1]), 10000);
+                }
+                final long hits = cache.getHits();
+                final long misses = cache.getMisses();
+
+                start = System.nanoTime();
+                int mismatches = 0;
+                for (int i = 0; i < queries.size(); i++) {
+                    if (!same(expected.get(i), cache.search(searcher, queries.get(i), 1000))) {
+                        mismatches++;
+                    }
+                }
+
+                System.out.printf("+ %s: %.2f ms, %d hit(s), %d miss(es), %d mismatch(es)%n", pass,
+                        (System.nanoTime() - start) / 1e6, cache.getHits() - hits, cache.getMisses() - misses, mismatches);
+            }
+        }
+    }
+
+    /**
+     * Checks whether two top documents are the same.
+     *
+     * @param a the first top documents.
+     * @param b the second top documents.
+     * @return {@code true} if they have the same total hits, documents and scores.
+     */
+    private static boolean same(final TopDocs a, final TopDocs b) {
+
+        if (!a.totalHits.equals(b.totalHits) || a.scoreDocs.length != b.scoreDocs.length) {
+            return false;
+        }
+
+        for (int i = 0; i < a.scoreDocs.length; i++) {
+            if (a.scoreDocs[i].doc != b.scoreDocs[i].doc || a.scoreDocs[i].score != b.scoreDocs[i].score) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,553 @@
+/*
+ *  Copyright 2021-2023 University of Padua, Italy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package it.unipd.dei.se.searcher;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a TREC run, formatting its lines straight into reusable byte buffers which a background thread writes out, so
+ * that formatting a line allocates nothing and the searching thread does not wait for the disk.
+ * <p>
+ * Each line is the same as {@code printf(Locale.ENGLISH, "%s\tQ0\t%s\t%d\t%.6f\t%s%n", ...)} in UTF-8, including the
+ * score: its exact binary value is scaled to millionths and rounded half up, away from zero, which is what the
+ * {@code Formatter} does with {@code %.6f}. A float may well lie exactly on the midpoint between two numbers with 6
+ * decimals, e.g. {@code 122.0703125f}, and both then round it up, to {@code 122.070313}; another rounding mode, e.g.
+ * half even, would tell them apart. Scores of a billion or more and scores which are not finite go through the
+ * {@code Formatter}.
+ * <p>
+ * A writer is used by one thread at a time.
+ *
+ * @author CLOSE GROUP
+ * @version 1.00
+ * @since 1.00
+ */
+public class RunWriter implements Closeable {
+
+    /**
+     * The size of each buffer.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The number of buffers, being filled, waiting or being written.
+     */
+    private static final int BUFFERS = 4;
+
+    /**
+     * The largest score formatted without the {@code Formatter}.
+     */
+    private static final float MAX_FAST_SCORE = 1e9f;
+
+    /**
+     * The separator between the topic and the document.
+     */
+    private static final byte[] Q0 = "\tQ0\t".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * The end of a line.
+     */
+    private static final byte[] EOL = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * A buffer of formatted lines.
+     */
+    private static final class Chunk {
+
+        /**
+         * The bytes of the lines.
+         */
+        byte[] bytes;
+
+        /**
+         * The number of bytes used.
+         */
+        int length = 0;
+
+        /**
+         * Creates a new chunk.
+         *
+         * @param size the size of the chunk.
+         */
+        Chunk(final int size) {
+            this.bytes = new byte[size];
+        }
+    }
+
+    /**
+     * The chunk telling the writing thread to stop.
+     */
+    private final Chunk end = new Chunk(0);
+
+    /**
+     * The chunks ready to be filled.
+     */
+    private final BlockingQueue<Chunk> free = new ArrayBlockingQueue<>(BUFFERS);
+
+    /**
+     * The chunks waiting to be written, in order.
+     */
+    private final BlockingQueue<Chunk> full = new ArrayBlockingQueue<>(BUFFERS + 1);
+
+    /**
+     * The chunk being filled.
+     */
+    private Chunk chunk;
+
+    /**
+     * The output of the run.
+     */
+    private final OutputStream out;
+
+    /**
+     * The identifier of the run, encoded with the tab before it and the end of the line after it.
+     */
+    private final byte[] runID;
+
+    /**
+     * The thread writing the chunks.
+     */
+    private final Thread writer;
+
+    /**
+     * The first error of the writing thread, {@code null} if none.
+     */
+    private volatile IOException failure = null;
+
+    /**
+     * Whether the writer has been closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * Creates a new writer of a run into a file, compressed with gzip if requested.
+     *
+     * @param file  the file of the run, created or truncated.
+     * @param runID the identifier of the run.
+     * @param gzip  {@code true} to compress the run with gzip.
+     * @throws NullPointerException     if any of the parameters is {@code null}.
+     * @throws IllegalArgumentException if the identifier of the run is empty.
+     * @throws IOException              if something goes wrong while opening the file.
+     */
+    public RunWriter(final Path file, final String runID, final boolean gzip) throws IOException {
+        this(open(file, gzip), runID);
+    }
+
+    /**
+     * Creates a new writer of a run into a stream, which is closed with the writer.
+     *
+     * @param out   the stream of the run.
+     * @param runID the identifier of the run.
+     * @throws NullPointerException     if any of the parameters is {@code null}.
+     * @throws IllegalArgumentException if the identifier of the run is empty.
+     */
+    public RunWriter(final OutputStream out, final String runID) {
+
+        if (out == null) {
+            throw new NullPointerException("Output stream cannot be null.");
+        }
+
+        if (runID == null) {
+            throw new NullPointerException("Run identifier cannot be null.");
+        }
+
+        if (runID.isEmpty()) {
+            throw new IllegalArgumentException("Run identifier cannot be empty.");
+        }
+
+        this.out = out;
+
+        final byte[] id = runID.getBytes(StandardCharsets.UTF_8);
+        this.runID = new byte[1 + id.length + EOL.length];
+        this.runID[0] = '\t';
+        System.arraycopy(id, 0, this.runID, 1, id.length);
+        System.arraycopy(EOL, 0, this.runID, 1 + id.length, EOL.length);
+
+        chunk = new Chunk(BUFFER_SIZE);
+        for (int i = 1; i < BUFFERS; i++) {
+            free.add(new Chunk(BUFFER_SIZE));
+        }
+
+        writer = new Thread(this::drain, "run-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Opens the file of a run.
+     *
+     * @param file the file of the run.
+     * @param gzip {@code true} to compress the run with gzip.
+     * @return the stream of the run.
+     * @throws NullPointerException if the file is {@code null}.
+     * @throws IOException          if something goes wrong while opening the file.
+     */
+    private static OutputStream open(final Path file, final boolean gzip) throws IOException {
+
+        if (file == null) {
+            throw new NullPointerException("Run file cannot be null.");
+        }
+
+        final OutputStream out = Files.newOutputStream(file);
+        if (!gzip) {
+            return out;
+        }
+
+        // runs compress well even at the fastest level, which is several times faster than the default one
+        return new GZIPOutputStream(out, BUFFER_SIZE) {
+            {
+                def.setLevel(Deflater.BEST_SPEED);
+            }
+        };
+    }
+
+    /**
+     * Writes the chunks handed over, until the writer is closed, and then closes the output.
+     */
+    private void drain() {
+
+        try {
+            for (Chunk c = full.take(); c != end; c = full.take()) {
+                if (failure == null) {
+                    try {
+                        out.write(c.bytes, 0, c.length);
+                    } catch (IOException e) {
+                        // the chunks keep being recycled, so that the searching thread is not blocked
+                        failure = e;
+                    }
+                }
+                c.length = 0;
+                free.put(c);
+            }
+        } catch (InterruptedException e) {
+            failure = new IOException("Interrupted while writing the run.", e);
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a line of the run.
+     *
+     * @param topicID the identifier of the topic.
+     * @param docID   the identifier of the document.
+     * @param rank    the rank of the document.
+     * @param score   the score of the document.
+     * @throws IllegalStateException if the writer has been closed.
+     * @throws IOException           if something went wrong while writing the run.
+     */
+    public void write(final String topicID, final String docID, final int rank, final float score)
+            throws IOException {
+
+        if (closed) {
+            throw new IllegalStateException("Run writer already closed.");
+        }
+
+        if (failure != null) {
+            throw new IOException(String.format("Unable to write the run: %s.", failure.getMessage()), failure);
+        }
+
+        // at most three bytes per character, and 11 for the rank and 21 for the score
+        final int needed = 3 * (topicID.length() + docID.length()) + Q0.length + 11 + 1 + 21 + runID.length;
+        if (chunk.bytes.length - chunk.length < needed) {
+            handOver();
+            if (chunk.bytes.length < needed) {
+                chunk.bytes = new byte[needed];
+            }
+        }
+
+        final byte[] b = chunk.bytes;
+        int p = chunk.length;
+
+        p = putString(b, p, topicID);
+        System.arraycopy(Q0, 0, b, p, Q0.length);
+        p += Q0.length;
+        p = putString(b, p, docID);
+        b[p++] = '\t';
+        p = putLong(b, p, rank);
+        b[p++] = '\t';
+        p = putScore(b, p, score);
+        System.arraycopy(runID, 0, b, p, runID.length);
+        p += runID.length;
+
+        chunk.length = p;
+    }
+
+    /**
+     * Hands the lines written so far over to the writing thread, without waiting for them to be written.
+     *
+     * @throws IOException if something went wrong while writing the run.
+     */
+    public void flush() throws IOException {
+        if (chunk.length > 0) {
+            handOver();
+        }
+    }
+
+    /**
+     * Hands the chunk being filled over to the writing thread and takes a free one.
+     *
+     * @throws IOException if interrupted while waiting for a free chunk.
+     */
+    private void handOver() throws IOException {
+        try {
+            full.put(chunk);
+            chunk = free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing the run.", e);
+        }
+    }
+
+    /**
+     * Encodes a string in UTF-8.
+     *
+     * @param b the buffer.
+     * @param p the position where to write.
+     * @param s the string.
+     * @return the position after the string.
+     */
+    private static int putString(final byte[] b, int p, final String s) {
+
+        final int n = s.length();
+        for (int i = 0; i < n; i++) {
+            final char c = s.charAt(i);
+            if (c >= 0x80) {
+                // identifiers are ASCII in practice: the rest are encoded by the JDK
+                final byte[] encoded = s.getBytes(StandardCharsets.UTF_8);
+                System.arraycopy(encoded, 0, b, p - i, encoded.length);
+                return p - i + encoded.length;
+            }
+            b[p++] = (byte) c;
+        }
+
+        return p;
+    }
+
+    /**
+     * Writes a non negative number in decimal.
+     *
+     * @param b the buffer.
+     * @param p the position where to write.
+     * @param v the number.
+     * @return the position after the number.
+     */
+    private static int putLong(final byte[] b, final int p, long v) {
+
+        if (v < 0) {
+            b[p] = '-';
+            return putLong(b, p + 1, -v);
+        }
+
+        int digits = 1;
+        for (long t = v / 10; t > 0; t /= 10) {
+            digits++;
+        }
+
+        for (int i = p + digits - 1; i >= p; i--) {
+            b[i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+
+        return p + digits;
+    }
+
+    /**
+     * Writes a score with 6 decimals, as {@code %.6f} does.
+     *
+     * @param b     the buffer.
+     * @param p     the position where to write.
+     * @param score the score.
+     * @return the position after the score.
+     */
+    private static int putScore(final byte[] b, int p, final float score) {
+
+        if (!(Math.abs(score) < MAX_FAST_SCORE)) {
+            final byte[] formatted = String.format(Locale.ENGLISH, "%.6f", score).getBytes(StandardCharsets.UTF_8);
+            System.arraycopy(formatted, 0, b, p, formatted.length);
+            return p + formatted.length;
+        }
+
+        final int bits = Float.floatToRawIntBits(score);
+        if (bits < 0) {
+            // the Formatter keeps the sign of negative zero and of what rounds to it
+            b[p++] = '-';
+        }
+
+        // the exact value is mantissa * 2^exponent
+        final int biased = (bits >>> 23) & 0xff;
+        final long mantissa = biased == 0 ? bits & 0x7fffff : (bits & 0x7fffff) | 0x800000;
+        final int exponent = biased == 0 ? -149 : biased - 150;
+
+        final long scaled = mantissa * 1_000_000L;
+        final long millionths;
+        if (exponent >= 0) {
+            millionths = scaled << exponent;
+        } else if (exponent < -62) {
+            millionths = 0;
+        } else {
+            final int shift = -exponent;
+            final long remainder = scaled & ((1L << shift) - 1);
+            // half up, as the Formatter: a remainder of exactly one half, e.g. for 122.0703125f, rounds up
+            millionths = (scaled >>> shift) + (remainder >= 1L << (shift - 1) ? 1 : 0);
+        }
+
+        p = putLong(b, p, millionths / 1_000_000L);
+        b[p++] = '.';
+
+        long fraction = millionths % 1_000_000L;
+        for (int i = p + 5; i >= p; i--) {
+            b[i] = (byte) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+
+        return p + 6;
+    }
+
+    /**
+     * Writes out the lines written so far, waits for the writing thread and closes the output.
+     *
+     * @throws IOException if something went wrong while writing the run.
+     */
+    @Override
+    public void close() throws IOException {
+
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            if (chunk.length > 0) {
+                full.put(chunk);
+            }
+            full.put(end);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing the run.", e);
+        }
+
+        if (failure != null) {
+            throw new IOException(String.format("Unable to write the run: %s.", failure.getMessage()), failure);
+        }
+    }
+
+    /**
+     * Main method to check that the lines are the same as those of the {@code Formatter} and to compare their speed.
+     *
+     * @param args the arguments to be passed to the method: the directory where to write the runs.
+     * @throws IOException if something goes wrong while writing the runs.
+     */
+    public static void main(String[] args) throws IOException {
+
+        final Random random = new Random(42);
+
+        // scores of every magnitude, and random bit patterns
+        long mismatches = 0;
+        for (int i = 0; i < 5_000_000; i++) {
+            final float score = i % 2 == 0 ? Float.intBitsToFloat(random.nextInt())
+                    : (float) (Math.pow(10, random.nextInt(16) - 8) * random.nextGaussian());
+            final byte[] fast = new byte[64];
+            final int n = putScore(fast, 0, score);
+            final String expected = String.format(Locale.ENGLISH, "%.6f", score);
+            if (!expected.equals(new String(fast, 0, n, StandardCharsets.US_ASCII))) {
+                if (mismatches++ < 10) {
+                    System.out.printf("%s formatted as %s.%n", expected, new String(fast, 0, n,
+                            StandardCharsets.US_ASCII));
+                }
+            }
+        }
+        System.out.printf("%d mismatch(es) over 5000000 scores.%n", mismatches);
+
+        // a run of 2000 topics with 1000 documents each
+        final int topics = 2000;
+        final int docs = 1000;
+        final String[] docIDs = new String[docs];
+        final float[] scores = new float[docs];
+        for (int i = 0; i < docs; i++) {
+            docIDs[i] = "doc" + random.nextInt(2_000_000);
+            scores[i] = 40 * random.nextFloat();
+        }
+        Arrays.sort(scores);
+
+        final Path dir = Paths.get(args[0]);
+
+        for (int round = 0; round < 3; round++) {
+
+            long start = System.nanoTime();
+            try (PrintWriter run = new PrintWriter(Files.newBufferedWriter(dir.resolve("printf.txt"),
+                    StandardCharsets.UTF_8))) {
+                for (int t = 0; t < topics; t++) {
+                    final String topicID = "q" + t;
+                    for (int i = 0; i < docs; i++) {
+                        run.printf(Locale.ENGLISH, "%s\tQ0\t%s\t%d\t%.6f\t%s%n", topicID, docIDs[i], i,
+                                scores[docs - 1 - i], "seupd2223-close");
+                    }
+                    run.flush();
+                }
+            }
+            final long printf = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            try (RunWriter run = new RunWriter(dir.resolve("writer.txt"), "seupd2223-close", false)) {
+                for (int t = 0; t < topics; t++) {
+                    final String topicID = "q" + t;
+                    for (int i = 0; i < docs; i++) {
+                        run.write(topicID, docIDs[i], i, scores[docs - 1 - i]);
+                    }
+                }
+            }
+            final long writer = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            try (RunWriter run = new RunWriter(dir.resolve("writer.txt.gz"), "seupd2223-close", true)) {
+                for (int t = 0; t < topics; t++) {
+                    final String topicID = "q" + t;
+                    for (int i = 0; i < docs; i++) {
+                        run.write(topicID, docIDs[i], i, scores[docs - 1 - i]);
+                    }
+                }
+            }
+            final long gzip = System.nanoTime() - start;
+
+            System.out.printf("%d lines: printf %d ms, run writer %d ms, run writer with gzip %d ms; same run: %b.%n",
+                    topics * docs, printf / 1_000_000, writer / 1_000_000, gzip / 1_000_000,
+                    Arrays.equals(Files.readAllBytes(dir.resolve("printf.txt")),
+                            Files.readAllBytes(dir.resolve("writer.txt"))));
+        }
+    }
+}
@@ -0,0 +1,729 @@
+/*
+ *  Copyright 2021-2023 University of Padua, Italy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package it.unipd.dei.se.searcher;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import it.unipd.dei.se.analyzer.CloseAnalyzer;
+import it.unipd.dei.se.analyzer.LanguageRoutingAnalyzer;
+import it.unipd.dei.se.parser.Text.ParsedTextDocument;
+import it.unipd.dei.se.utils.LatencyHistogram;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.benchmark.quality.QualityQuery;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.queryparser.classic.QueryParserBase;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A resident search service over HTTP, built on the server of the JDK, answering queries with the identifiers and
+ * scores of the retrieved documents as JSON.
+ * <p>
+ * The index, the analyzer and the expansions of the topics are loaded once and stay warm across the requests, the
+ * searcher is managed by a {@link SearcherManager}, so that a new commit of the index is picked up by a refresh
+ * without restarting, and the requests are served by a pool with a bounded queue: when the queue is full, the server
+ * closes the connection of the new requests rather than letting the latency grow without bound.
+ * <p>
+ * The service answers to:
+ * <ul>
+ *     <li>{@code GET /search?q=<text>[&topic=<topic identifier>][&k=<documents>]}, searching the text, together with the
+ *     expansions of the topic if given, as {@link Searcher} does with weighted terms and pruning;</li>
+ *     <li>{@code POST /refresh}, opening the latest commit of the index if any;</li>
+ *     <li>{@code GET /stats}, describing the latency of the searches served so far.</li>
+ * </ul>
+ * The server is opened by {@link #start()}: until then, the service only searches in-process.
+ *
+ * @author CLOSE GROUP
+ * @version 1.00
+ * @since 1.00
+ */
+public class SearchService implements Closeable {
+
+    /**
+     * A document retrieved, as written in the responses.
+     */
+    static final class Hit {
+
+        /**
+         * The identifier of the document.
+         */
+        final String id;
+
+        /**
+         * The score of the document.
+         */
+        final float score;
+
+        /**
+         * Creates a new retrieved document.
+         *
+         * @param id    the identifier of the document.
+         * @param score the score of the document.
+         */
+        Hit(final String id, final float score) {
+            this.id = id;
+            this.score = score;
+        }
+    }
+
+    /**
+     * The response to a search, as written in JSON.
+     */
+    static final class Response {
+
+        /**
+         * The text searched.
+         */
+        final String query;
+
+        /**
+         * The topic whose expansions were searched, {@code null} if none.
+         */
+        final String topic;
+
+        /**
+         * The number of expansions searched.
+         */
+        final int expansions;
+
+        /**
+         * The time taken by the search, in milliseconds.
+         */
+        final double took;
+
+        /**
+         * The documents retrieved, without duplicate identifiers.
+         */
+        final List<Hit> hits;
+
+        /**
+         * Creates a new response.
+         *
+         * @param query      the text searched.
+         * @param topic      the topic whose expansions were searched.
+         * @param expansions the number of expansions searched.
+         * @param took       the time taken by the search, in milliseconds.
+         * @param hits       the documents retrieved.
+         */
+        Response(final String query, final String topic, final int expansions, final double took,
+                 final List<Hit> hits) {
+            this.query = query;
+            this.topic = topic;
+            this.expansions = expansions;
+            this.took = took;
+            this.hits = hits;
+        }
+    }
+
+    /**
+     * The analyzer of the queries.
+     */
+    private final Analyzer analyzer;
+
+    /**
+     * The analyzer of the queries, if it routes them to the chain of their language, {@code null} otherwise.
+     */
+    private final LanguageRoutingAnalyzer router;
+
+    /**
+     * The manager of the searcher.
+     */
+    private final SearcherManager manager;
+
+    /**
+     * The builder of the queries with weighted terms.
+     */
+    private final WeightedTermQueryBuilder builder;
+
+    /**
+     * The parser of the queries which cannot be reduced to weighted terms, one per thread.
+     */
+    private final ThreadLocal<QueryParser> qp;
+
+    /**
+     * The provider of the expansions of the topics.
+     */
+    private final ExpansionProvider expansions;
+
+    /**
+     * The maximum number of documents retrieved for a query.
+     */
+    private final int maxDocsRetrieved;
+
+    /**
+     * The resolver of the hits to the identifiers of the documents, for the reader of {@link #resolvedReader}.
+     */
+    private DocIDResolver resolver = null;
+
+    /**
+     * The reader the resolver was created for.
+     */
+    private IndexReader resolvedReader = null;
+
+    /**
+     * The number of threads serving the requests.
+     */
+    private final int threads;
+
+    /**
+     * The maximum number of requests waiting for a thread.
+     */
+    private final int queueCapacity;
+
+    /**
+     * The pool serving the requests, {@code null} until the service is started, since the service can also be searched
+     * in-process, e.g. by {@link LoadGenerator}.
+     */
+    private ThreadPoolExecutor executor = null;
+
+    /**
+     * The port to listen to, {@code 0} for any free port.
+     */
+    private final int port;
+
+    /**
+     * The HTTP server, {@code null} until the service is started.
+     */
+    private HttpServer server = null;
+
+    /**
+     * The latency of the searches served.
+     */
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    /**
+     * The number of requests rejected because the queue was full.
+     */
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * The JSON writer of the responses.
+     */
+    private final Gson gson = new Gson();
+
+    /**
+     * Creates a new service, not started yet.
+     *
+     * @param analyzer         the analyzer of the queries, the same used for indexing.
+     * @param similarity       the similarity.
+     * @param indexPath        the directory of the index.
+     * @param expansions       the provider of the expansions of the topics.
+     * @param maxDocsRetrieved the maximum number of documents retrieved for a query.
+     * @param port             the port to listen to, {@code 0} for any free port.
+     * @param threads          the number of threads serving the requests over HTTP.
+     * @param queueCapacity    the maximum number of requests over HTTP waiting for a thread.
+     * @throws NullPointerException     if any of the parameters is {@code null}.
+     * @throws IllegalArgumentException if any of the parameters assumes invalid values.
+     * @throws IOException              if something goes wrong while opening the index.
+     */
+    public SearchService(final Analyzer analyzer, final Similarity similarity, final String indexPath,
+                         final ExpansionProvider expansions, final int maxDocsRetrieved, final int port,
+                         final int threads, final int queueCapacity) throws IOException {
+
+        if (analyzer == null) {
+            throw new NullPointerException("Analyzer cannot be null.");
+        }
+
+        if (similarity == null) {
+            throw new NullPointerException("Similarity cannot be null.");
+        }
+
+        if (indexPath == null) {
+            throw new NullPointerException("Index path cannot be null.");
+        }
+
+        if (indexPath.isEmpty()) {
+            throw new IllegalArgumentException("Index path cannot be empty.");
+        }
+
+        if (expansions == null) {
+            throw new NullPointerException("Expansion provider cannot be null.");
+        }
+
+        if (maxDocsRetrieved <= 0) {
+            throw new IllegalArgumentException(
+                    "The maximum number of documents to be retrieved cannot be less than or equal to zero.");
+        }
+
+        if (threads <= 0) {
+            throw new IllegalArgumentException("The number of threads cannot be less than or equal to zero.");
+        }
+
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("The capacity of the queue cannot be less than or equal to zero.");
+        }
+
+        if (port < 0 || port > 65535) {
+            throw new IllegalArgumentException("The port must be between 0 and 65535.");
+        }
+
+        this.analyzer = analyzer;
+        this.router = analyzer instanceof LanguageRoutingAnalyzer ? (LanguageRoutingAnalyzer) analyzer : null;
+        this.builder = new WeightedTermQueryBuilder(analyzer, ParsedTextDocument.Fields.BODY);
+        this.qp = ThreadLocal.withInitial(() -> new QueryParser(ParsedTextDocument.Fields.BODY, this.analyzer));
+        this.expansions = expansions;
+        this.maxDocsRetrieved = maxDocsRetrieved;
+        this.port = port;
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+
+        manager = new SearcherManager(FSDirectory.open(Paths.get(indexPath)), new SearcherFactory() {
+            @Override
+            public IndexSearcher newSearcher(final IndexReader reader, final IndexReader previousReader) {
+                final IndexSearcher searcher = new IndexSearcher(reader);
+                searcher.setSimilarity(similarity);
+                return searcher;
+            }
+        });
+    }
+
+    /**
+     * Starts serving the requests over HTTP.
+     *
+     * @throws IllegalStateException if the service has already been started.
+     * @throws IOException           if something goes wrong while opening the server.
+     */
+    public synchronized void start() throws IOException {
+
+        if (server != null) {
+            throw new IllegalStateException("Search service already started.");
+        }
+
+        // without it, the headers and the body of small responses wait for the delayed acknowledgement of the client
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+
+        // a full queue closes the connection of the request, see ServerImpl.Dispatcher
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), (r, e) -> {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("Too many requests.");
+        });
+
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(executor);
+        server.createContext("/search", this::handleSearch);
+        server.createContext("/refresh", this::handleRefresh);
+        server.createContext("/stats", this::handleStats);
+        server.start();
+
+        System.out.printf("Search service listening on port %d.%n", getPort());
+    }
+
+    /**
+     * Returns the port the service listens to.
+     *
+     * @return the port.
+     * @throws IllegalStateException if the service has not been started.
+     */
+    public synchronized int getPort() {
+
+        if (server == null) {
+            throw new IllegalStateException("Search service not started.");
+        }
+
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Returns the latency of the searches served so far, measured by the service.
+     *
+     * @return the latency of the searches.
+     */
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * Returns the number of requests rejected because the queue was full.
+     *
+     * @return the number of rejected requests.
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Searches a text, also when the service has not been started, as {@link LoadGenerator} does.
+     *
+     * @param text    the text.
+     * @param topicID the topic whose expansions are searched too, {@code null} if none.
+     * @param k       the number of documents to retrieve.
+     * @return the response.
+     * @throws IOException    if something goes wrong while searching.
+     * @throws ParseException if something goes wrong while parsing the text.
+     */
+    Response search(final String text, final String topicID, final int k) throws IOException, ParseException {
+
+        final long start = System.nanoTime();
+
+        final List<String> exp = topicID != null ? expansions.getExpansions(topicID) : Collections.emptyList();
+        final float boost = Searcher.EXPANSION_BOOST * Math.max(1, exp.size());
+
+        // the language chosen by the router holds for the calling thread until its next text
+        if (router != null) {
+            router.route(text);
+        }
+
+        final Query q;
+        final Query weighted = builder.build(text, boost, exp);
+        if (weighted != null) {
+            q = weighted;
+        } else {
+            final BooleanQuery.Builder bq = new BooleanQuery.Builder();
+            for (String e : exp) {
+                bq.add(qp.get().parse(e), BooleanClause.Occur.SHOULD);
+            }
+            bq.add(new BoostQuery(qp.get().parse(QueryParserBase.escape(text)), boost), BooleanClause.Occur.MUST);
+            q = bq.build();
+        }
+
+        final IndexSearcher searcher = manager.acquire();
+        try {
+            final TopDocs docs = PruningSearch.search(searcher, q, k, k).topDocs;
+
+            final String[] docIDs = new String[docs.scoreDocs.length];
+            final int[] ranks = new int[docs.scoreDocs.length];
+            final int n = resolver(searcher.getIndexReader()).resolve(docs.scoreDocs,
+                    searcher.getIndexReader().storedFields(), docIDs, ranks);
+
+            final List<Hit> hits = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                final ScoreDoc sd = docs.scoreDocs[ranks[i]];
+                hits.add(new Hit(docIDs[i], sd.score));
+            }
+
+            final long elapsed = System.nanoTime() - start;
+            latencies.record(elapsed);
+
+            return new Response(text, topicID, exp.size(), elapsed / 1e6, hits);
+        } finally {
+            manager.release(searcher);
+        }
+    }
+
+    /**
+     * Returns the resolver of the identifiers for a reader, creating it the first time the reader is seen.
+     *
+     * @param reader the reader.
+     * @return the resolver of the identifiers.
+     * @throws IOException if something goes wrong while creating the resolver.
+     */
+    private synchronized DocIDResolver resolver(final IndexReader reader) throws IOException {
+
+        if (reader != resolvedReader) {
+            resolver = new DocIDResolver(reader, ParsedTextDocument.Fields.ID);
+            resolvedReader = reader;
+        }
+
+        return resolver;
+    }
+
+    /**
+     * Serves a search request.
+     *
+     * @param exchange the exchange.
+     * @throws IOException if something goes wrong while writing the response.
+     */
+    private void handleSearch(final HttpExchange exchange) throws IOException {
+
+        try {
+            final Map<String, String> params = parameters(exchange.getRequestURI());
+
+            final String text = params.get("q");
+            if (text == null || text.isBlank()) {
+                reply(exchange, 400, Map.of("error", "Missing query text q."));
+                return;
+            }
+
+            final int k;
+            try {
+                k = params.containsKey("k") ? Integer.parseInt(params.get("k")) : maxDocsRetrieved;
+            } catch (NumberFormatException e) {
+                reply(exchange, 400, Map.of("error", "The number of documents k must be an integer."));
+                return;
+            }
+
+            if (k <= 0 || k > maxDocsRetrieved) {
+                reply(exchange, 400, Map.of("error",
+                        String.format("The number of documents k must be between 1 and %d.", maxDocsRetrieved)));
+                return;
+            }
+
+            reply(exchange, 200, search(text, params.get("topic"), k));
+        } catch (IOException | ParseException | RuntimeException e) {
+            reply(exchange, 500, Map.of("error", String.valueOf(e.getMessage())));
+        }
+    }
+
+    /**
+     * Serves a refresh request.
+     *
+     * @param exchange the exchange.
+     * @throws IOException if something goes wrong while writing the response.
+     */
+    private void handleRefresh(final HttpExchange exchange) throws IOException {
+
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            reply(exchange, 405, Map.of("error", "Refresh with POST."));
+            return;
+        }
+
+        try {
+            manager.maybeRefreshBlocking();
+            reply(exchange, 200, Map.of("refreshed", true));
+        } catch (IOException | RuntimeException e) {
+            reply(exchange, 500, Map.of("error", String.valueOf(e.getMessage())));
+        }
+    }
+
+    /**
+     * Serves a statistics request.
+     *
+     * @param exchange the exchange.
+     * @throws IOException if something goes wrong while writing the response.
+     */
+    private void handleStats(final HttpExchange exchange) throws IOException {
+
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("requests", latencies.getCount());
+        stats.put("rejected", rejected.get());
+        stats.put("queued", executor.getQueue().size());
+        stats.put("mean_ms", latencies.getMean());
+        stats.put("p50_ms", latencies.getPercentile(50));
+        stats.put("p90_ms", latencies.getPercentile(90));
+        stats.put("p99_ms", latencies.getPercentile(99));
+        stats.put("max_ms", latencies.getMax());
+
+        reply(exchange, 200, stats);
+    }
+
+    /**
+     * Writes a response as JSON and closes the exchange.
+     *
+     * @param exchange the exchange.
+     * @param status   the status code.
+     * @param body     the body, written as JSON.
+     * @throws IOException if something goes wrong while writing the response.
+     */
+    private void reply(final HttpExchange exchange, final int status, final Object body) throws IOException {
+
+        final byte[] bytes = gson.toJson(body).getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Decodes the parameters of the query string of a request.
+     *
+     * @param uri the URI of the request.
+     * @return the parameters, the first value of each.
+     */
+    private static Map<String, String> parameters(final URI uri) {
+
+        final Map<String, String> params = new HashMap<>();
+        final String query = uri.getRawQuery();
+        if (query == null) {
+            return params;
+        }
+
+        for (String pair : query.split("&")) {
+            final int eq = pair.indexOf('=');
+            final String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            final String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            params.putIfAbsent(name, value);
+        }
+
+        return params;
+    }
+
+    /**
+     * Stops the server, if started, waiting a second for the requests being served, and closes the index.
+     *
+     * @throws IOException if something goes wrong while closing the index.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (server != null) {
+            server.stop(1);
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+        manager.close();
+    }
+
+    /**
+     * Main method to serve the index, or to measure the latency of the service under the load of several clients
+     * searching the titles of the topics, with their expansions, over and over.
+     *
+     * @param args the arguments to be passed to the method: {@code serve <index directory> <expansions file> <port>}
+     *             or {@code bench <index directory> <expansions file> <topics file> [clients] [requests]}.
+     * @throws Exception if something goes wrong while serving or measuring.
+     */
+    public static void main(String[] args) throws Exception {
+
+        if (args.length < 4 || !(args[0].equals("serve") || args[0].equals("bench"))) {
+            throw new IllegalArgumentException("Usage: SearchService serve <index directory> <expansions file> <port>"
+                    + " | bench <index directory> <expansions file> <topics file> [clients] [requests]");
+        }
+
+        final Analyzer analyzer = new CloseAnalyzer(CloseAnalyzer.TokenizerType.Standard, 2, 15, false,
+                "new-long-stoplist-fr.txt", CloseAnalyzer.StemFilterType.French, null, null, false, false, true);
+        final ExpansionProvider expansions = ExpansionProvider.open(Paths.get(args[2]),
+                ExpansionProvider.DEFAULT_LIMIT);
+        final int threads = Runtime.getRuntime().availableProcessors();
+
+        if (args[0].equals("serve")) {
+            final SearchService service = new SearchService(analyzer, new BM25Similarity(2.0f, 0.85f), args[1],
+                    expansions, 1000, Integer.parseInt(args[3]), threads, 64 * threads);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                System.out.println(service.getLatencies());
+                try {
+                    service.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }));
+            service.start();
+            return;
+        }
+
+        final int clients = args.length > 4 ? Integer.parseInt(args[4]) : 4;
+        final int requests = args.length > 5 ? Integer.parseInt(args[5]) : 5000;
+
+        final QualityQuery[] topics;
+        try (BufferedReader in = Files.newBufferedReader(Path.of(args[3]), StandardCharsets.UTF_8)) {
+            topics = new ClefQueryParser().readQueries(in);
+        }
+
+        try (SearchService service = new SearchService(analyzer, new BM25Similarity(2.0f, 0.85f), args[1],
+                expansions, 1000, 0, threads, 64 * threads)) {
+
+            service.start();
+
+            final ExecutorService responses = Executors.newFixedThreadPool(clients);
+            final HttpClient client = HttpClient.newBuilder().executor(responses).build();
+            final List<URI> uris = new ArrayList<>(topics.length);
+            for (QualityQuery t : topics) {
+                uris.add(URI.create(String.format("http://localhost:%d/search?q=%s&topic=%s", service.getPort(),
+                        URLEncoder.encode(t.getValue("title"), StandardCharsets.UTF_8),
+                        URLEncoder.encode(t.getQueryID(), StandardCharsets.UTF_8))));
+            }
+
+            // warm up the service, then measure from the clients
+            for (URI uri : uris) {
+                client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.discarding());
+            }
+
+            final LatencyHistogram clientLatencies = new LatencyHistogram();
+            final LatencyHistogram serverLatencies = service.getLatencies();
+            final long served = serverLatencies.getCount();
+            final AtomicInteger next = new AtomicInteger();
+            final AtomicInteger failed = new AtomicInteger();
+
+            final ExecutorService load = Executors.newFixedThreadPool(clients);
+            final List<Future<?>> running = new ArrayList<>(clients);
+            final long start = System.nanoTime();
+
+            for (int c = 0; c < clients; c++) {
+                running.add(load.submit(() -> {
+                    for (int i = next.getAndIncrement(); i < requests; i = next.getAndIncrement()) {
+                        final long t = System.nanoTime();
+                        try {
+                            final HttpResponse<byte[]> r = client.send(
+                                    HttpRequest.newBuilder(uris.get(i % uris.size())).build(),
+                                    HttpResponse.BodyHandlers.ofByteArray());
+                            if (r.statusCode() != 200) {
+                                failed.incrementAndGet();
+                            }
+                        } catch (IOException e) {
+                            failed.incrementAndGet();
+                        }
+                        clientLatencies.record(System.nanoTime() - t);
+                    }
+                    return null;
+                }));
+            }
+
+            for (Future<?> f : running) {
+                f.get();
+            }
+            final double seconds = (System.nanoTime() - start) / 1e9;
+            load.shutdown();
+            responses.shutdown();
+
+            System.out.printf("%d client(s), %d server thread(s), %d processor(s): %.1f requests/s, %d failed, " +
+                            "%d rejected%n", clients, threads, Runtime.getRuntime().availableProcessors(),
+                    requests / seconds, failed.get(), service.getRejected());
+            System.out.printf("+ client: %s%n", clientLatencies);
+            System.out.printf("+ server: %d search(es) measured, whole run %s%n",
+                    serverLatencies.getCount() - served, serverLatencies);
+        }
+
+        analyzer.close();
+    }
+}
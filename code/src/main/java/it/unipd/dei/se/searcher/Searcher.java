@@ -19,16 +19,19 @@ package it.unipd.dei.se.searcher;
 import ai.djl.MalformedModelException;
 import ai.djl.repository.zoo.ModelNotFoundException;
 import ai.djl.translate.TranslateException;
-import com.google.gson.Gson;
 import it.unipd.dei.se.analyzer.DocEmbeddings;
+import it.unipd.dei.se.analyzer.HashedNGramAnalyzer;
+import it.unipd.dei.se.analyzer.LanguageRoutingAnalyzer;
 import it.unipd.dei.se.parser.Embedded.ParsedEmbeddedDocument;
 import it.unipd.dei.se.parser.Text.ParsedTextDocument;
 import it.unipd.dei.se.utils.ReRanker;
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.core.LowerCaseFilterFactory;
 import org.apache.lucene.analysis.core.StopFilterFactory;
 import org.apache.lucene.analysis.custom.CustomAnalyzer;
 import org.apache.lucene.analysis.standard.StandardTokenizerFactory;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.benchmark.quality.QualityQuery;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.StoredFields;
@@ -44,16 +47,18 @@ import org.apache.lucene.store.FSDirectory;
 
 import javax.json.JsonReader;
 import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /**
@@ -78,6 +83,10 @@ public class Searcher {
         public static final String EMB = "embeddings";
     }
 
+    /**
+     * The boost given to the title for each of the expansions of a topic, or for a single one if it has none.
+     */
+    public static final float EXPANSION_BOOST = 14.68f;
 
     /**
      * The identifier of the run
@@ -85,9 +94,19 @@ public class Searcher {
     private final String runID;
 
     /**
-     * The run to be written
+     * The file of the run to be written, without the extension of the compressed run.
      */
-    private final PrintWriter run;
+    private final Path runFile;
+
+    /**
+     * Whether the run is compressed with gzip.
+     */
+    private boolean compressedRun = false;
+
+    /**
+     * The run to be written, opened when the search starts.
+     */
+    private RunWriter run = null;
 
     /**
      * The index reader
@@ -101,7 +120,18 @@ public class Searcher {
     /**
      * The index searcher.
      */
-    private final IndexSearcher searcher;
+    private IndexSearcher searcher;
+
+    /**
+     * The similarity used to rank the documents.
+     */
+    private final Similarity similarity;
+
+    /**
+     * The executor searching the segments of the index in parallel, {@code null} if each query searches them one after
+     * the other.
+     */
+    private ExecutorService segmentExecutor = null;
 
     /**
      * The topics to be searched
@@ -109,9 +139,34 @@ public class Searcher {
     private final QualityQuery[] topics;
 
     /**
-     * The query parser
+     * The analyzer used to parse the topics.
+     */
+    private final Analyzer analyzer;
+
+    /**
+     * The query parser of each thread, since parsers are not thread-safe.
+     */
+    private final ThreadLocal<QueryParser> qp;
+
+    /**
+     * The number of threads searching the topics concurrently.
+     */
+    private int threads = 1;
+
+    /**
+     * The analyzer routing each topic to the chain of its language, {@code null} if the analyzer does not route.
+     */
+    private final LanguageRoutingAnalyzer router;
+
+    /**
+     * The analyzer hashing the n-grams of the topics, {@code null} if the hashed n-grams field is not searched.
      */
-    private final QueryParser qp;
+    private HashedNGramAnalyzer hashedNGrams = null;
+
+    /**
+     * The boost of the clause searching the hashed n-grams field.
+     */
+    private float hashedNGramsBoost = 1.0f;
 
     /**
      * The maximum number of documents to retrieve
@@ -128,11 +183,58 @@ public class Searcher {
      */
     private final boolean useEmbeddings;
 
+    /**
+     * The provider of the expansions of the topics, loaded from {@link ExpansionProvider#DEFAULT_FILE} at the first
+     * search if not set.
+     */
+    private ExpansionProvider expansions = null;
+
+    /**
+     * The cache of the parsed expansions, {@code null} if the expansions are parsed at each search.
+     */
+    private CompiledExpansionCache expansionCache = null;
+
+    /**
+     * The cache of the documents retrieved for the queries, {@code null} if each query is searched.
+     */
+    private ResultCache resultCache = null;
+
     /**
      * text embeddings for re-ranking
      */
     private ReRanker reRanker =null;
 
+    /**
+     * The builder of the queries of the topics with weighted terms, {@code null} if the title and the expansions are
+     * parsed one by one.
+     */
+    private WeightedTermQueryBuilder weightedTerms = null;
+
+    /**
+     * Whether the top documents are searched letting Lucene skip the documents which cannot enter them.
+     */
+    private boolean pruning = false;
+
+    /**
+     * The report comparing, for each topic, the pruned and the exhaustive search, {@code null} if not reported.
+     */
+    private PrintWriter pruningReport = null;
+
+    /**
+     * The documents scored by the exhaustive and the pruned searches of the topics reported so far.
+     */
+    private final long[] reportedScored = new long[2];
+
+    /**
+     * The time taken by the exhaustive and the pruned searches of the topics reported so far, in nanoseconds.
+     */
+    private final long[] reportedTime = new long[2];
+
+    /**
+     * The resolver of the hits to the identifiers of the documents.
+     */
+    private final DocIDResolver docIDResolver;
+
     /**
      * Creates a new searcher.
      *
@@ -155,6 +257,101 @@ public class Searcher {
     public Searcher(final Analyzer analyzer, final Similarity similarity, final String indexPath,
                     final String topicsFile, final int expectedTopics, final String runID, final String runPath,
                     final int maxDocsRetrieved, boolean useEmbeddings, final String reRankModel) throws IOException, ModelNotFoundException, MalformedModelException {
+        this(analyzer, similarity, indexPath, readTopics(topicsFile, expectedTopics), runID, runPath,
+                maxDocsRetrieved, useEmbeddings, reRankModel);
+    }
+
+    /**
+     * Creates a new searcher without topics, searching the queries of a log with {@link #search(QueryStream)}.
+     *
+     * @param analyzer         the {@code Analyzer} to be used.
+     * @param similarity       the {@code Similarity} to be used.
+     * @param indexPath        the directory where containing the index to be searched.
+     * @param runID            the identifier of the run to be created.
+     * @param runPath          the path where to store the run.
+     * @param maxDocsRetrieved the maximum number of documents to be retrieved.
+     * @param useEmbeddings    use embeddings or not
+     * @param reRankModel      model name for re-ranking
+     * @throws NullPointerException     if any of the parameters is {@code null}.
+     * @throws IllegalArgumentException if any of the parameters assumes invalid values.
+     * @throws IOException for any I/O error
+     * @throws ModelNotFoundException if the model for re-ranking has not been found
+     * @throws MalformedModelException if the model for re-ranking is not setup correctly.
+     */
+    public Searcher(final Analyzer analyzer, final Similarity similarity, final String indexPath,
+                    final String runID, final String runPath, final int maxDocsRetrieved, boolean useEmbeddings,
+                    final String reRankModel) throws IOException, ModelNotFoundException, MalformedModelException {
+        this(analyzer, similarity, indexPath, new QualityQuery[0], runID, runPath, maxDocsRetrieved, useEmbeddings,
+                reRankModel);
+    }
+
+    /**
+     * Reads the topics to search for.
+     *
+     * @param topicsFile     the file containing the topics to search for.
+     * @param expectedTopics the total number of topics expected to be searched.
+     * @return the topics.
+     * @throws NullPointerException     if the file is {@code null}.
+     * @throws IllegalArgumentException if any of the parameters assumes invalid values.
+     */
+    private static QualityQuery[] readTopics(final String topicsFile, final int expectedTopics) {
+
+        if (topicsFile == null) {
+            throw new NullPointerException("Topics file cannot be null.");
+        }
+
+        if (topicsFile.isEmpty()) {
+            throw new IllegalArgumentException("Topics file cannot be empty.");
+        }
+
+        final QualityQuery[] topics;
+
+        try {
+            BufferedReader in = Files.newBufferedReader(Paths.get(topicsFile), StandardCharsets.UTF_8);
+
+            topics = new ClefQueryParser().readQueries(in);
+
+
+            in.close();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(
+                    String.format("Unable to process topic file %s: %s.", topicsFile, e.getMessage()), e);
+        }
+
+        if (expectedTopics <= 0) {
+            throw new IllegalArgumentException(
+                    "The expected number of topics to be searched cannot be less than or equal to zero.");
+        }
+
+        if (topics.length != expectedTopics) {
+            System.out.printf("Expected to search for %s topics; %s topics found instead.", expectedTopics,
+                    topics.length);
+        }
+
+        return topics;
+    }
+
+    /**
+     * Creates a new searcher for the given topics.
+     *
+     * @param analyzer         the {@code Analyzer} to be used.
+     * @param similarity       the {@code Similarity} to be used.
+     * @param indexPath        the directory where containing the index to be searched.
+     * @param topics           the topics to search for.
+     * @param runID            the identifier of the run to be created.
+     * @param runPath          the path where to store the run.
+     * @param maxDocsRetrieved the maximum number of documents to be retrieved.
+     * @param useEmbeddings    use embeddings or not
+     * @param reRankModel      model name for re-ranking
+     * @throws NullPointerException     if any of the parameters is {@code null}.
+     * @throws IllegalArgumentException if any of the parameters assumes invalid values.
+     * @throws IOException for any I/O error
+     * @throws ModelNotFoundException if the model for re-ranking has not been found
+     * @throws MalformedModelException if the model for re-ranking is not setup correctly.
+     */
+    private Searcher(final Analyzer analyzer, final Similarity similarity, final String indexPath,
+                     final QualityQuery[] topics, final String runID, final String runPath,
+                     final int maxDocsRetrieved, boolean useEmbeddings, final String reRankModel) throws IOException, ModelNotFoundException, MalformedModelException {
 
         if (analyzer == null) {
             throw new NullPointerException("Analyzer cannot be null.");
@@ -197,43 +394,28 @@ public class Searcher {
                     indexDir.toAbsolutePath().toString(), e.getMessage()), e);
         }
 
-        this.useEmbeddings = useEmbeddings;
-
-        searcher = new IndexSearcher(reader);
+        docIDResolver = new DocIDResolver(reader, ParsedTextDocument.Fields.ID);
 
-        if (!useEmbeddings) searcher.setSimilarity(similarity);
-
-        if (topicsFile == null) {
-            throw new NullPointerException("Topics file cannot be null.");
+        if (!docIDResolver.hasDocValues()) {
+            System.out.printf("Index without doc values for the document identifiers: " +
+                    "reading them from the stored fields.%n");
         }
 
-        if (topicsFile.isEmpty()) {
-            throw new IllegalArgumentException("Topics file cannot be empty.");
-        }
+        this.useEmbeddings = useEmbeddings;
 
-        try {
-            BufferedReader in = Files.newBufferedReader(Paths.get(topicsFile), StandardCharsets.UTF_8);
+        this.similarity = similarity;
 
-            topics = new ClefQueryParser().readQueries(in);
+        searcher = new IndexSearcher(reader);
 
+        if (!useEmbeddings) searcher.setSimilarity(similarity);
 
-            in.close();
-        } catch (IOException e) {
-            throw new IllegalArgumentException(
-                    String.format("Unable to process topic file %s: %s.", topicsFile, e.getMessage()), e);
-        }
+        this.topics = topics;
 
-        if (expectedTopics <= 0) {
-            throw new IllegalArgumentException(
-                    "The expected number of topics to be searched cannot be less than or equal to zero.");
-        }
+        this.analyzer = analyzer;
 
-        if (topics.length != expectedTopics) {
-            System.out.printf("Expected to search for %s topics; %s topics found instead.", expectedTopics,
-                    topics.length);
-        }
+        qp = ThreadLocal.withInitial(() -> new QueryParser(ParsedTextDocument.Fields.BODY, this.analyzer));
 
-        qp = new QueryParser(ParsedTextDocument.Fields.BODY, analyzer);
+        router = analyzer instanceof LanguageRoutingAnalyzer ? (LanguageRoutingAnalyzer) analyzer : null;
 
         if (runID == null) {
             throw new NullPointerException("Run identifier cannot be null.");
@@ -265,15 +447,7 @@ public class Searcher {
                     runDir.toAbsolutePath().toString()));
         }
 
-        Path runFile = runDir.resolve(runID + ".txt");
-        try {
-            run = new PrintWriter(Files.newBufferedWriter(runFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
-                    StandardOpenOption.TRUNCATE_EXISTING,
-                    StandardOpenOption.WRITE));
-        } catch (IOException e) {
-            throw new IllegalArgumentException(
-                    String.format("Unable to open run file %s: %s.", runFile.toAbsolutePath(), e.getMessage()), e);
-        }
+        runFile = runDir.resolve(runID + ".txt");
 
         if (maxDocsRetrieved <= 0) {
             throw new IllegalArgumentException(
@@ -296,6 +470,262 @@ public class Searcher {
         return elapsedTime;
     }
 
+    /**
+     * Sets the number of threads searching the topics concurrently. With more than one thread, the topics are parsed,
+     * searched and re-ranked on a pool of that many threads, each with its own query parser, while the run is still
+     * written in the order of the topics; re-ranking and embedding, whose models are shared, are done by one thread at
+     * a time.
+     *
+     * @param threads the number of threads, {@code 1} to search the topics one after the other.
+     * @throws IllegalArgumentException if the number of threads is less than or equal to zero.
+     */
+    public void setThreads(final int threads) {
+
+        if (threads <= 0) {
+            throw new IllegalArgumentException("The number of threads cannot be less than or equal to zero.");
+        }
+
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the number of threads searching the segments of the index for each query, so as to lower the latency of a
+     * single query on an index with several segments; see {@link BalancedSliceSearcher}.
+     *
+     * @param threads the number of threads, {@code 1} to search the segments one after the other.
+     * @throws IllegalArgumentException if the number of threads is less than or equal to zero.
+     */
+    public void setSegmentThreads(final int threads) {
+
+        if (threads <= 0) {
+            throw new IllegalArgumentException("The number of threads cannot be less than or equal to zero.");
+        }
+
+        if (segmentExecutor != null) {
+            segmentExecutor.shutdown();
+            segmentExecutor = null;
+        }
+
+        if (threads == 1) {
+            searcher = new IndexSearcher(reader);
+        } else {
+            segmentExecutor = Executors.newFixedThreadPool(threads);
+            searcher = new BalancedSliceSearcher(reader, segmentExecutor);
+        }
+
+        if (!useEmbeddings) searcher.setSimilarity(similarity);
+    }
+
+    /**
+     * Sets the provider of the expansions of the topics.
+     *
+     * @param expansions the provider of the expansions.
+     * @throws NullPointerException if the provider is {@code null}.
+     */
+    public void setExpansions(final ExpansionProvider expansions) {
+
+        if (expansions == null) {
+            throw new NullPointerException("Expansion provider cannot be null.");
+        }
+
+        this.expansions = expansions;
+        this.expansionCache = null;
+    }
+
+    /**
+     * Sets the cache of the parsed expansions, whose provider becomes the provider of the expansions of the topics.
+     * The same cache can be shared by several searchers, e.g. by the runs of different similarities.
+     *
+     * @param expansionCache the cache of the parsed expansions.
+     * @throws NullPointerException if the cache is {@code null}.
+     */
+    public void setExpansionCache(final CompiledExpansionCache expansionCache) {
+
+        if (expansionCache == null) {
+            throw new NullPointerException("Expansion cache cannot be null.");
+        }
+
+        this.expansions = expansionCache.getProvider();
+        this.expansionCache = expansionCache;
+    }
+
+    /**
+     * Sets the cache of the documents retrieved for the queries, so that the queries already searched on the same
+     * commit of the index, with the same similarity and number of documents, are not searched again; see
+     * {@link ResultCache}.
+     *
+     * @param resultCache the cache of the retrieved documents, {@code null} to search each query.
+     */
+    public void setResultCache(final ResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Sets whether the run is compressed with gzip, into a file with the {@code .txt.gz} extension rather than
+     * {@code .txt}.
+     *
+     * @param compressedRun {@code true} to compress the run.
+     */
+    public void setCompressedRun(final boolean compressedRun) {
+        this.compressedRun = compressedRun;
+    }
+
+    /**
+     * Sets whether the query of each topic is built by analyzing its title and expansions once and searching each
+     * distinct term once, weighted by the sum of its boosts, rather than by parsing them one by one; see
+     * {@link WeightedTermQueryBuilder}. The topics whose texts cannot be reduced to terms are still parsed.
+     *
+     * @param weightedTerms {@code true} to build the queries with weighted terms.
+     */
+    public void setWeightedTerms(final boolean weightedTerms) {
+        this.weightedTerms = weightedTerms ? new WeightedTermQueryBuilder(analyzer, ParsedTextDocument.Fields.BODY)
+                : null;
+    }
+
+    /**
+     * Sets whether the top documents are searched letting Lucene skip, through block-max WAND and MAXSCORE, the
+     * documents which cannot enter them, with the optional clauses of each topic flattened into a single disjunction;
+     * see {@link PruningSearch}. The same documents are retrieved, while the total number of hits is no longer counted.
+     *
+     * @param pruning {@code true} to skip the documents which cannot enter the top documents.
+     */
+    public void setPruning(final boolean pruning) {
+        this.pruning = pruning;
+    }
+
+    /**
+     * Reports, for each topic, the documents scored and the time taken by the search both pruned and exhaustive, the
+     * latter scoring every matching document, and whether they retrieve the same documents. Each topic is then searched
+     * twice more in each mode, alternately, and the times of the second searches are reported.
+     *
+     * @param reportFile the file of the report, as tab-separated values.
+     * @throws NullPointerException     if the file is {@code null}.
+     * @throws IllegalArgumentException if the file cannot be opened.
+     */
+    public void setPruningReport(final String reportFile) {
+
+        if (reportFile == null) {
+            throw new NullPointerException("Report file cannot be null.");
+        }
+
+        try {
+            pruningReport = new PrintWriter(Files.newBufferedWriter(Paths.get(reportFile), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(
+                    String.format("Unable to open report file %s: %s.", reportFile, e.getMessage()), e);
+        }
+
+        pruningReport.printf("topic\texhaustive_scored\tpruned_scored\texhaustive_ms\tpruned_ms\tsame_documents%n");
+    }
+
+    /**
+     * Searches also the hashed n-grams of each topic in the {@link ParsedTextDocument.Fields#HASHED_NGRAMS} field, as
+     * an optional clause besides the ones over the body.
+     *
+     * @param hashedNGrams the analyzer hashing the n-grams, the same used for indexing; {@code null} not to search the
+     *                     field.
+     * @param boost        the boost of the clause.
+     * @throws IllegalArgumentException if the boost is less than or equal to zero.
+     */
+    public void setHashedNGrams(final HashedNGramAnalyzer hashedNGrams, final float boost) {
+
+        if (boost <= 0) {
+            throw new IllegalArgumentException("Boost cannot be less than or equal to zero.");
+        }
+
+        this.hashedNGrams = hashedNGrams;
+        this.hashedNGramsBoost = boost;
+    }
+
+    /**
+     * Builds the query over the hashed n-grams of a text: each distinct hashed n-gram is an optional term, weighted by
+     * its frequency in the text.
+     *
+     * @param text the text.
+     * @return the query, {@code null} if the text has no n-grams.
+     * @throws IOException if something goes wrong while analyzing the text.
+     */
+    private Query hashedNGramQuery(final String text) throws IOException {
+
+        final Map<String, Integer> frequencies = new LinkedHashMap<>();
+
+        try (TokenStream stream = hashedNGrams.tokenStream(ParsedTextDocument.Fields.HASHED_NGRAMS, text)) {
+            final CharTermAttribute termAtt = stream.addAttribute(CharTermAttribute.class);
+
+            stream.reset();
+            while (stream.incrementToken()) {
+                frequencies.merge(termAtt.toString(), 1, Integer::sum);
+            }
+            stream.end();
+        }
+
+        if (frequencies.isEmpty()) {
+            return null;
+        }
+
+        final BooleanQuery.Builder bq = new BooleanQuery.Builder();
+        for (Map.Entry<String, Integer> e : frequencies.entrySet()) {
+            final Query tq = new TermQuery(new Term(ParsedTextDocument.Fields.HASHED_NGRAMS, e.getKey()));
+            bq.add(e.getValue() > 1 ? new BoostQuery(tq, e.getValue()) : tq, BooleanClause.Occur.SHOULD);
+        }
+
+        return new BoostQuery(bq.build(), hashedNGramsBoost);
+    }
+
+    /**
+     * The documents retrieved for a topic, in the order they are written in the run.
+     */
+    private static final class RankedTopic {
+
+        /**
+         * The identifier of the topic.
+         */
+        final String topicID;
+
+        /**
+         * The identifiers of the retrieved documents.
+         */
+        final String[] docIDs;
+
+        /**
+         * The ranks of the retrieved documents, as positions in the ranking before removing the duplicates.
+         */
+        final int[] ranks;
+
+        /**
+         * The scores of the retrieved documents.
+         */
+        final float[] scores;
+
+        /**
+         * The number of retrieved documents.
+         */
+        int size = 0;
+
+        /**
+         * The exhaustive search of the topic, {@code null} if not reported.
+         */
+        PruningSearch.Result exhaustive = null;
+
+        /**
+         * The pruned search of the topic, {@code null} if not reported.
+         */
+        PruningSearch.Result pruned = null;
+
+        /**
+         * Creates a new ranking for a topic.
+         *
+         * @param topicID  the identifier of the topic.
+         * @param capacity the maximum number of documents.
+         */
+        RankedTopic(final String topicID, final int capacity) {
+            this.topicID = topicID;
+            this.docIDs = new String[capacity];
+            this.ranks = new int[capacity];
+            this.scores = new float[capacity];
+        }
+    }
+
     /**
      * /** Searches for the specified topics.
      *
@@ -303,99 +733,347 @@ public class Searcher {
      * @throws ParseException if something goes wrong while parsing topics.
      */
     public void search() throws IOException, ParseException {
+        search(Arrays.asList(topics).iterator());
+    }
+
+    /**
+     * Searches for the queries of a log, one at a time as they are read, writing the run as they are searched: the
+     * memory used does not depend on the number of queries. The log is not closed.
+     *
+     * @param queries the queries of the log.
+     * @throws NullPointerException if the queries are {@code null}.
+     * @throws IOException          if something goes wrong while searching.
+     * @throws ParseException       if something goes wrong while parsing the queries.
+     */
+    public void search(final QueryStream queries) throws IOException, ParseException {
+
+        if (queries == null) {
+            throw new NullPointerException("Query stream cannot be null.");
+        }
+
+        try {
+            search((Iterator<QualityQuery>) queries);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        if (queries.getSkipped() > 0) {
+            System.out.printf("%d malformed query(ies) skipped.%n", queries.getSkipped());
+        }
+    }
+
+    /**
+     * Searches for the given topics, writing the run in their order.
+     *
+     * @param topics the topics.
+     * @throws IOException    if something goes wrong while searching.
+     * @throws ParseException if something goes wrong while parsing topics.
+     */
+    private void search(final Iterator<QualityQuery> topics) throws IOException, ParseException {
 
         System.out.printf("%n#### Start searching ####%n");
 
+        final Path file = compressedRun ? runFile.resolveSibling(runFile.getFileName() + ".gz") : runFile;
+        try {
+            run = new RunWriter(file, runID, compressedRun);
+        } catch (IOException e) {
+            reader.close();
+            throw new IOException(
+                    String.format("Unable to open run file %s: %s.", file.toAbsolutePath(), e.getMessage()), e);
+        }
+
         // the start time of the searching
         final long start = System.currentTimeMillis();
 
-        final Set<String> idField = new HashSet<>();
-        idField.add(ParsedTextDocument.Fields.ID);
+        // the totals of the pruning report
+        reportedScored[0] = reportedScored[1] = 0;
+        reportedTime[0] = reportedTime[1] = 0;
 
-        BooleanQuery.Builder bq = null;
-        TermQueryBuilder tq = null;
-        Query q = null;
-        TopDocs docs = null;
-        ScoreDoc[] sd = null;
-        String docID = null;
+        // the cache may be shared with other searchers
+        final long cacheHits = resultCache != null ? resultCache.getHits() : 0;
+        final long cacheMisses = resultCache != null ? resultCache.getMisses() : 0;
+
+        // the number of topics searched
+        int searched = 0;
 
-        // the set of document identifiers already retrieved
         try {
-            for (QualityQuery t : topics) {
-                HashSet<String> docIDs = new HashSet<>();
+            if (threads == 1) {
+                while (topics.hasNext()) {
+                    write(searchTopic(topics.next(), storedFields));
+                    searched++;
+                }
+            } else {
+                searched = searchConcurrently(topics);
+            }
+        } catch (TranslateException e) {
+            throw new RuntimeException(e);
+        } finally {
+            run.close();
+
+            if (pruningReport != null) {
+                pruningReport.close();
+            }
+
+            reader.close();
 
-                System.out.printf("Searching for topic %s.%n", t.getQueryID());
+            if (segmentExecutor != null) {
+                segmentExecutor.shutdown();
+            }
 
-                List<String> queries = null;
-                String query = QueryParserBase.escape(t.getValue(TOPIC_FIELDS.TITLE));
+            if (reRanker != null) {
+                reRanker.close();
+            }
+        }
 
-                if (useEmbeddings) {
-//                    float[] qe = DocEmbeddings.getInstance().generateDocEmbedding(query).toFloatVector();
-                    float[] qe = DocEmbeddings.getInstance().getEmbeddingForQuery(query);
-                    q = new KnnFloatVectorQuery(ParsedEmbeddedDocument.Fields.EMB_BODY, qe, 1000);
-                } else {
-                    bq = new BooleanQuery.Builder();
+        elapsedTime = System.currentTimeMillis() - start;
 
-                    queries = getExpansion(t.getQueryID());
+        System.out.printf("%d topic(s) searched in %d seconds.%n", searched, elapsedTime / 1000);
 
-                    List<Query> lq = new ArrayList<Query>();
+        if (pruningReport != null && searched > 0) {
+            System.out.printf("Exhaustive search: %d document(s) scored, %.2f ms per topic; pruned search: %d " +
+                            "document(s) scored, %.2f ms per topic.%n", reportedScored[0] / searched,
+                    reportedTime[0] / 1e6 / searched, reportedScored[1] / searched,
+                    reportedTime[1] / 1e6 / searched);
+        }
 
-                    for (String qr : queries) {
-                        lq.add(qp.parse(qr));
-                    }
+        if (resultCache != null) {
+            System.out.printf("%d topic(s) found in the result cache, %d searched.%n",
+                    resultCache.getHits() - cacheHits, resultCache.getMisses() - cacheMisses);
+        }
 
-                    for (Query query1 : lq) {
-                        bq.add(query1,  BooleanClause.Occur.SHOULD);
-                    }
+        System.out.printf("#### Searching complete ####%n");
+    }
 
-                    Query mainquery = new BoostQuery(qp.parse(query), 14.68f*lq.size());
-                    bq.add(mainquery, BooleanClause.Occur.MUST);
+    /**
+     * Searches the topics on a pool of threads, writing the run in the order of the topics as they complete.
+     * <p>
+     * At most a few topics per thread are searched ahead of the first one not yet written, so that the rankings kept
+     * in memory do not grow with the number of topics.
+     *
+     * @param topics the topics.
+     * @return the number of topics searched.
+     * @throws IOException        if something goes wrong while searching.
+     * @throws ParseException     if something goes wrong while parsing topics.
+     * @throws TranslateException if something goes wrong while embedding or re-ranking.
+     */
+    private int searchConcurrently(final Iterator<QualityQuery> topics)
+            throws IOException, ParseException, TranslateException {
 
-                    q = bq.build();
-                    System.out.println("Added " + queries.size() + " queries for " + t.getQueryID());
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final Deque<Future<RankedTopic>> pending = new ArrayDeque<>();
+        final int window = 4 * threads;
+        int searched = 0;
 
-                }
+        try {
+            while (topics.hasNext()) {
+                final QualityQuery t = topics.next();
+                searched++;
 
-                docs = searcher.search(q, maxDocsRetrieved);
+                // stored fields are not thread-safe: each topic gets its own
+                pending.add(pool.submit(() -> searchTopic(t, reader.storedFields())));
 
-                if (reRanker == null) {
-                    sd = docs.scoreDocs;
-                } else {
-                    sd = reRanker.sort(query, queries, docs.scoreDocs);
+                if (pending.size() > window) {
+                    write(next(pending));
                 }
+            }
+
+            while (!pending.isEmpty()) {
+                write(next(pending));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        return searched;
+    }
+
+    /**
+     * Waits for the first of the pending topics to be searched.
+     *
+     * @param pending the pending topics, in the order of the run.
+     * @return the documents retrieved for the topic.
+     * @throws IOException        if something went wrong while searching.
+     * @throws ParseException     if something went wrong while parsing the topic.
+     * @throws TranslateException if something went wrong while embedding or re-ranking.
+     */
+    private static RankedTopic next(final Deque<Future<RankedTopic>> pending)
+            throws IOException, ParseException, TranslateException {
+
+        try {
+            return pending.poll().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while searching the topics.", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof ParseException) {
+                throw (ParseException) cause;
+            }
+            if (cause instanceof TranslateException) {
+                throw (TranslateException) cause;
+            }
+            throw new IllegalStateException(String.format("Unable to search the topics: %s", cause.getMessage()),
+                    cause);
+        }
+    }
 
-                for (int i = 0, n = sd.length; i < n; i++) {
-                    docID = storedFields.document(sd[i].doc, idField).get(ParsedTextDocument.Fields.ID);
+    /**
+     * Searches a topic.
+     *
+     * @param t            the topic.
+     * @param storedFields the stored fields used to get the document identifiers, confined to the calling thread.
+     * @return the documents retrieved for the topic, without duplicates.
+     * @throws IOException        if something goes wrong while searching.
+     * @throws ParseException     if something goes wrong while parsing the topic.
+     * @throws TranslateException if something goes wrong while embedding or re-ranking.
+     */
+    private RankedTopic searchTopic(final QualityQuery t, final StoredFields storedFields)
+            throws IOException, ParseException, TranslateException {
 
-                    // if the document has already been retrieved, skip it -> avoid duplicates
-                    if (docIDs.contains(docID)) {
-                        continue;
-                    }
+        final QueryParser qp = this.qp.get();
 
-                    // otherwise, add it to the set of retrieved documents
-                    docIDs.add(docID);
+        BooleanQuery.Builder bq = null;
+        Query q = null;
+        TopDocs docs = null;
+        ScoreDoc[] sd = null;
 
-                    run.printf(Locale.ENGLISH, "%s\tQ0\t%s\t%d\t%.6f\t%s%n", t.getQueryID(), docID, i, sd[i].score, runID);
+        System.out.printf("Searching for topic %s.%n", t.getQueryID());
+
+        List<String> queries = null;
+        String query = QueryParserBase.escape(t.getValue(TOPIC_FIELDS.TITLE));
+
+        if (useEmbeddings) {
+//            float[] qe = DocEmbeddings.getInstance().generateDocEmbedding(query).toFloatVector();
+            final DocEmbeddings embeddings = DocEmbeddings.getInstance();
+            final float[] qe;
+            synchronized (embeddings) {
+                qe = embeddings.getEmbeddingForQuery(query);
+            }
+            q = new KnnFloatVectorQuery(ParsedEmbeddedDocument.Fields.EMB_BODY, qe, 1000);
+        } else {
+            bq = new BooleanQuery.Builder();
+
+            // the topic and its expansions are analyzed by the chain of the language of the topic
+            if (router != null) {
+                router.route(t.getValue(TOPIC_FIELDS.TITLE));
+            }
+
+            queries = getExpansion(t.getQueryID());
+
+            // each distinct term of the title and of the expansions searched once
+            final Query weighted = weightedTerms != null ? weightedTerms.build(t.getValue(TOPIC_FIELDS.TITLE),
+                    EXPANSION_BOOST * Math.max(1, queries.size()), queries) : null;
+
+            List<Query> lq;
+
+            if (weighted != null) {
+                lq = Collections.emptyList();
+                bq.add(weighted, BooleanClause.Occur.MUST);
+            } else if (expansionCache != null) {
+                lq = expansionCache.getQueries(t.getQueryID(), qp);
+            } else {
+                lq = new ArrayList<Query>();
+                for (String qr : queries) {
+                    lq.add(qp.parse(qr));
                 }
+            }
 
-                run.flush();
+            for (Query query1 : lq) {
+                bq.add(query1,  BooleanClause.Occur.SHOULD);
+            }
 
+            if (weighted == null) {
+                // a topic without expansions keeps the boost of a single one, rather than a null score
+                Query mainquery = new BoostQuery(qp.parse(query), EXPANSION_BOOST * Math.max(1, lq.size()));
+                bq.add(mainquery, BooleanClause.Occur.MUST);
             }
-        } catch (TranslateException e) {
-            throw new RuntimeException(e);
-        } finally {
-            run.close();
 
-            reader.close();
+            if (hashedNGrams != null) {
+                final Query ngrams = hashedNGramQuery(t.getValue(TOPIC_FIELDS.TITLE));
+                if (ngrams != null) {
+                    bq.add(ngrams, BooleanClause.Occur.SHOULD);
+                }
+            }
+
+            q = bq.build();
+            System.out.println("Added " + queries.size() + " queries for " + t.getQueryID());
 
-            reRanker.close();
         }
 
-        elapsedTime = System.currentTimeMillis() - start;
+        final Query searched = pruning ? PruningSearch.flatten(q) : q;
 
-        System.out.printf("%d topic(s) searched in %d seconds.%n", topics.length, elapsedTime / 1000);
+        docs = resultCache != null ? resultCache.search(searcher, searched, maxDocsRetrieved,
+                pruning ? "pruned" : ResultCache.EXHAUSTIVE, () -> topDocs(searched))
+                : topDocs(searched);
 
-        System.out.printf("#### Searching complete ####%n");
+        if (reRanker == null) {
+            sd = docs.scoreDocs;
+        } else {
+            // the re-ranking model is shared by all the threads
+            synchronized (reRanker) {
+                sd = reRanker.sort(query, queries, docs.scoreDocs);
+            }
+        }
+
+        final RankedTopic ranked = new RankedTopic(t.getQueryID(), sd.length);
+
+        if (pruningReport != null) {
+            // the second search in each mode, once the first has loaded what both need
+            for (int i = 0; i < 2; i++) {
+                ranked.exhaustive = PruningSearch.search(searcher, q, maxDocsRetrieved, Integer.MAX_VALUE);
+                ranked.pruned = PruningSearch.search(searcher, PruningSearch.flatten(q), maxDocsRetrieved,
+                        maxDocsRetrieved);
+            }
+        }
+
+        // the identifiers of the documents, without duplicates
+        ranked.size = docIDResolver.resolve(sd, storedFields, ranked.docIDs, ranked.ranks);
+        for (int i = 0; i < ranked.size; i++) {
+            ranked.scores[i] = sd[ranked.ranks[i]].score;
+        }
+
+        return ranked;
+    }
+
+    /**
+     * Searches the top documents of a query, pruned or not.
+     *
+     * @param q the query.
+     * @return the top documents.
+     * @throws IOException if something goes wrong while searching.
+     */
+    private TopDocs topDocs(final Query q) throws IOException {
+        return pruning ? PruningSearch.search(searcher, q, maxDocsRetrieved, maxDocsRetrieved).topDocs
+                : searcher.search(q, maxDocsRetrieved);
+    }
+
+    /**
+     * Writes the documents retrieved for a topic in the run.
+     *
+     * @param ranked the documents retrieved for the topic.
+     * @throws IOException if something went wrong while writing the run.
+     */
+    private void write(final RankedTopic ranked) throws IOException {
+
+        for (int i = 0; i < ranked.size; i++) {
+            run.write(ranked.topicID, ranked.docIDs[i], ranked.ranks[i], ranked.scores[i]);
+        }
+
+        if (pruningReport != null && ranked.exhaustive != null) {
+            pruningReport.printf(Locale.ENGLISH, "%s\t%d\t%d\t%.3f\t%.3f\t%b%n", ranked.topicID,
+                    ranked.exhaustive.scored, ranked.pruned.scored, ranked.exhaustive.elapsed / 1e6,
+                    ranked.pruned.elapsed / 1e6,
+                    PruningSearch.sameTopDocs(ranked.exhaustive.topDocs, ranked.pruned.topDocs));
+            pruningReport.flush();
+
+            reportedScored[0] += ranked.exhaustive.scored;
+            reportedScored[1] += ranked.pruned.scored;
+            reportedTime[0] += ranked.exhaustive.elapsed;
+            reportedTime[1] += ranked.pruned.elapsed;
+        }
     }
 
     /**
@@ -430,22 +1108,29 @@ public class Searcher {
     /**
      * Method to get the expansions for a query given the id of a query.
      * @param queryID the id of the query from which we get expansion
-     * @return list of expansions
-     * @throws IOException for any I/O error.
+     * @return list of expansions, at most as many as the limit of the provider of the expansions
+     * @throws IOException for any I/O error while loading the expansions the first time.
      */
     public List<String> getExpansion (String queryID) throws IOException {
-        Gson gson = new Gson();
-        BufferedReader reader = new BufferedReader(new FileReader("python_scripts/result.json"));
-        HashMap<String, ArrayList<String>> hmap = gson.fromJson(reader, HashMap.class);
+        return expansions().getExpansions(queryID);
+    }
 
-        ArrayList <String> list = hmap.get(queryID);
+    /**
+     * Returns the provider of the expansions, loading the default one the first time if none has been set.
+     *
+     * @return the provider of the expansions.
+     * @throws IOException if something goes wrong while loading the expansions.
+     */
+    private synchronized ExpansionProvider expansions() throws IOException {
 
+        if (expansions == null) {
+            expansions = new JsonExpansionProvider(Paths.get(ExpansionProvider.DEFAULT_FILE),
+                    ExpansionProvider.DEFAULT_LIMIT);
+        }
 
-        return list.stream().limit(3).collect(Collectors.toList());
+        return expansions;
     }
 
-
-
 }
 
 //TRY OTHER SIMILARITY NOW WITH QUERY EXPANSION
@@ -0,0 +1,374 @@
+/*
+ *  Copyright 2021-2023 University of Padua, Italy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package it.unipd.dei.se.searcher;
+
+import it.unipd.dei.se.analyzer.CloseAnalyzer;
+import it.unipd.dei.se.parser.Text.ParsedTextDocument;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
+import org.apache.lucene.analysis.tokenattributes.TermToBytesRefAttribute;
+import org.apache.lucene.benchmark.quality.QualityQuery;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.queryparser.classic.QueryParserBase;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.SynonymQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Builds the query of a topic from its title and its expansions analyzing each of them once and searching each
+ * distinct term once, weighted by the sum of the boosts of all its occurrences.
+ * <p>
+ * The expansions are mostly variants of the words of the title, which stemming reduces to the same terms: parsed one by
+ * one, each occurrence of a term becomes a clause of its own, whose postings are traversed again. With BM25 the score of
+ * a term is proportional to its boost, so a single clause for each term, boosted by the sum of the boosts of its
+ * occurrences, gives the same scores, up to the order of the floating point sums. The terms of the title, at least one
+ * of which must match as when the title is a required clause, make up the required disjunction, and the other terms of
+ * the expansions are optional clauses besides it. Tokens at the same position, e.g. expanded synonyms, are searched as a
+ * {@link SynonymQuery}, as the query parser does. Texts analyzed into token graphs, e.g. by multi-word synonyms or
+ * shingles, cannot be reduced to terms: then no query is built and the topic is better parsed as usual.
+ * <p>
+ * The title is plain text, escaped when parsed, while the expansions are parsed as they are, so that their query
+ * syntax, e.g. phrases, {@code +}/{@code -} prefixes, {@code AND}/{@code OR} operators or {@code field:} prefixes, is
+ * meaningful. Since analyzing an expansion as plain text would drop that meaning, no query is built either if any
+ * expansion contains query syntax: an expansion thus always means the same, whichever way its topic is searched, and
+ * an expansion with unbalanced syntax always fails to parse.
+ *
+ * @author CLOSE GROUP
+ * @version 1.00
+ * @since 1.00
+ */
+public class WeightedTermQueryBuilder {
+
+    /**
+     * The operators of the query parser, which {@link QueryParserBase#escape(String)} leaves unescaped.
+     */
+    private static final Pattern OPERATORS = Pattern.compile("(^|\\s)(AND|OR|NOT)(\\s|$)");
+
+    /**
+     * The {@code +} and {@code -} within a word, e.g. in "anti-virus", which the query parser reads as part of the term
+     * rather than as operators.
+     */
+    private static final Pattern WORD_SIGNS = Pattern.compile("(?<=\\S)[+-]");
+
+    /**
+     * The analyzer of the texts, the same used to parse the queries.
+     */
+    private final Analyzer analyzer;
+
+    /**
+     * The field searched.
+     */
+    private final String field;
+
+    /**
+     * Creates a new builder.
+     *
+     * @param analyzer the analyzer of the texts.
+     * @param field    the field searched.
+     * @throws NullPointerException     if any of the parameters is {@code null}.
+     * @throws IllegalArgumentException if the field is empty.
+     */
+    public WeightedTermQueryBuilder(final Analyzer analyzer, final String field) {
+
+        if (analyzer == null) {
+            throw new NullPointerException("Analyzer cannot be null.");
+        }
+
+        if (field == null) {
+            throw new NullPointerException("Field cannot be null.");
+        }
+
+        if (field.isEmpty()) {
+            throw new IllegalArgumentException("Field cannot be empty.");
+        }
+
+        this.analyzer = analyzer;
+        this.field = field;
+    }
+
+    /**
+     * Builds the query of a topic.
+     *
+     * @param title      the title of the topic, not escaped.
+     * @param titleBoost the boost of the title.
+     * @param expansions the expansions of the title.
+     * @return the query, or {@code null} if any of the texts is analyzed into a token graph or any of the expansions
+     * contains query syntax.
+     * @throws IOException if something goes wrong while analyzing the texts.
+     */
+    public Query build(final String title, final float titleBoost, final List<String> expansions) throws IOException {
+
+        for (String expansion : expansions) {
+            if (hasSyntax(expansion)) {
+                return null;
+            }
+        }
+
+        // the weight in the title and the total weight of each term, or group of terms at the same position
+        final Map<List<BytesRef>, float[]> weights = new LinkedHashMap<>();
+
+        if (!add(weights, title, titleBoost, true)) {
+            return null;
+        }
+
+        for (String expansion : expansions) {
+            if (!add(weights, expansion, 1.0f, false)) {
+                return null;
+            }
+        }
+
+        final BooleanQuery.Builder required = new BooleanQuery.Builder();
+        final BooleanQuery.Builder bq = new BooleanQuery.Builder();
+
+        for (Map.Entry<List<BytesRef>, float[]> e : weights.entrySet()) {
+            final Query q = new BoostQuery(termQuery(e.getKey()), e.getValue()[1]);
+            if (e.getValue()[0] > 0) {
+                required.add(q, BooleanClause.Occur.SHOULD);
+            } else {
+                bq.add(q, BooleanClause.Occur.SHOULD);
+            }
+        }
+
+        bq.add(required.build(), BooleanClause.Occur.MUST);
+
+        return bq.build();
+    }
+
+    /**
+     * Checks whether a text contains query syntax, i.e. whether the query parser reads it other than as plain text.
+     *
+     * @param text the text.
+     * @return {@code true} if the text contains query syntax.
+     */
+    static boolean hasSyntax(final String text) {
+
+        final String plain = WORD_SIGNS.matcher(text).replaceAll("");
+
+        return !QueryParserBase.escape(plain).equals(plain) || OPERATORS.matcher(text).find();
+    }
+
+    /**
+     * Adds the terms of a text to the weights of the terms.
+     *
+     * @param weights the weight in the title and the total weight of each term or group of terms.
+     * @param text    the text.
+     * @param boost   the boost of the text.
+     * @param title   whether the text is the title.
+     * @return {@code false} if the text is analyzed into a token graph.
+     * @throws IOException if something goes wrong while analyzing the text.
+     */
+    private boolean add(final Map<List<BytesRef>, float[]> weights, final String text, final float boost,
+                       final boolean title) throws IOException {
+
+        final List<List<BytesRef>> positions = new ArrayList<>();
+
+        try (TokenStream stream = analyzer.tokenStream(field, text)) {
+            final TermToBytesRefAttribute termAtt = stream.addAttribute(TermToBytesRefAttribute.class);
+            final PositionIncrementAttribute posIncAtt = stream.addAttribute(PositionIncrementAttribute.class);
+            final PositionLengthAttribute posLenAtt = stream.addAttribute(PositionLengthAttribute.class);
+
+            stream.reset();
+            while (stream.incrementToken()) {
+                if (posLenAtt.getPositionLength() > 1) {
+                    return false;
+                }
+                if (posIncAtt.getPositionIncrement() > 0 || positions.isEmpty()) {
+                    positions.add(new ArrayList<>(1));
+                }
+                positions.get(positions.size() - 1).add(BytesRef.deepCopyOf(termAtt.getBytesRef()));
+            }
+            stream.end();
+        }
+
+        for (List<BytesRef> terms : positions) {
+            final float[] w = weights.computeIfAbsent(terms, k -> new float[2]);
+            if (title) {
+                w[0] += boost;
+            }
+            w[1] += boost;
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the query of a term or of a group of terms at the same position.
+     *
+     * @param terms the terms.
+     * @return the query of the terms.
+     */
+    private Query termQuery(final List<BytesRef> terms) {
+
+        if (terms.size() == 1) {
+            return new TermQuery(new Term(field, terms.get(0)));
+        }
+
+        final SynonymQuery.Builder sq = new SynonymQuery.Builder(field);
+        for (BytesRef term : terms) {
+            sq.addTerm(new Term(field, term));
+        }
+
+        return sq.build();
+    }
+
+    /**
+     * Counts the postings lists traversed by a query, i.e. its term occurrences.
+     *
+     * @param q the query.
+     * @return the number of term occurrences of the query.
+     */
+    static int countTerms(final Query q) {
+
+        final int[] count = new int[1];
+        q.visit(new QueryVisitor() {
+            @Override
+            public void consumeTerms(final Query query, final Term... terms) {
+                count[0] += terms.length;
+            }
+
+            @Override
+            public QueryVisitor getSubVisitor(final BooleanClause.Occur occur, final Query parent) {
+                return this;
+            }
+        });
+
+        return count[0];
+    }
+
+    /**
+     * Main method to compare, for the topics and their expansions, the query parsed as usual with the one built with
+     * weighted terms: the postings lists traversed, the time taken by the search and the documents retrieved.
+     *
+     * @param args the arguments to be passed to the method: the directory of an index built with the French
+     *             configuration of {@link CloseAnalyzer}, the topics file and the expansions file.
+     * @throws IOException    if something goes wrong while searching.
+     * @throws ParseException if something goes wrong while parsing the topics.
+     */
+    public static void main(String[] args) throws IOException, ParseException {
+
+        if (args.length != 3) {
+            throw new IllegalArgumentException(
+                    "Usage: WeightedTermQueryBuilder <index directory> <topics file> <expansions file>");
+        }
+
+        final Analyzer analyzer = new CloseAnalyzer(CloseAnalyzer.TokenizerType.Standard, 2, 15, false,
+                "new-long-stoplist-fr.txt", CloseAnalyzer.StemFilterType.French, null, null, false, false, true);
+
+        final QualityQuery[] topics;
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(args[1]), StandardCharsets.UTF_8)) {
+            topics = new ClefQueryParser().readQueries(in);
+        }
+
+        final ExpansionProvider expansions = ExpansionProvider.open(Paths.get(args[2]), ExpansionProvider.DEFAULT_LIMIT);
+        final QueryParser qp = new QueryParser(ParsedTextDocument.Fields.BODY, analyzer);
+        final WeightedTermQueryBuilder builder = new WeightedTermQueryBuilder(analyzer, ParsedTextDocument.Fields.BODY);
+
+        final List<Query> parsed = new ArrayList<>(topics.length);
+        final List<Query> weighted = new ArrayList<>(topics.length);
+        int parsedTerms = 0;
+        int weightedTerms = 0;
+
+        for (QualityQuery t : topics) {
+            final String title = t.getValue("title");
+            final List<String> exp = expansions.getExpansions(t.getQueryID());
+
+            final BooleanQuery.Builder bq = new BooleanQuery.Builder();
+            for (String e : exp) {
+                bq.add(qp.parse(e), BooleanClause.Occur.SHOULD);
+            }
+            bq.add(new BoostQuery(qp.parse(QueryParserBase.escape(title)), Searcher.EXPANSION_BOOST * Math.max(1, exp.size())),
+                    BooleanClause.Occur.MUST);
+            parsed.add(bq.build());
+
+            // the topics for which no query is built are searched parsed, as by Searcher
+            final Query w = builder.build(title, Searcher.EXPANSION_BOOST * Math.max(1, exp.size()), exp);
+            weighted.add(w != null ? w : parsed.get(parsed.size() - 1));
+
+            parsedTerms += countTerms(parsed.get(parsed.size() - 1));
+            weightedTerms += countTerms(weighted.get(weighted.size() - 1));
+        }
+
+        System.out.printf("%d topic(s): %.2f postings lists per topic parsed, %.2f with weighted terms%n",
+                topics.length, (double) parsedTerms / topics.length, (double) weightedTerms / topics.length);
+
+        try (DirectoryReader reader = DirectoryReader.open(FSDirectory.open(Paths.get(args[0])))) {
+
+            final IndexSearcher searcher = new IndexSearcher(reader);
+            searcher.setSimilarity(new BM25Similarity(2.0f, 0.85f));
+
+            long parsedTime = Long.MAX_VALUE;
+            long weightedTime = Long.MAX_VALUE;
+            int different = 0;
+
+            // the best of some rounds
+            for (int round = 0; round < 5; round++) {
+
+                different = 0;
+                long p = 0;
+                long w = 0;
+
+                for (int i = 0; i < topics.length; i++) {
+                    long start = System.nanoTime();
+                    final TopDocs a = searcher.search(parsed.get(i), 1000);
+                    p += System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    final TopDocs b = searcher.search(weighted.get(i), 1000);
+                    w += System.nanoTime() - start;
+
+                    if (!PruningSearch.sameTopDocs(a, b)) {
+                        different++;
+                    }
+                }
+
+                parsedTime = Math.min(parsedTime, p);
+                weightedTime = Math.min(weightedTime, w);
+            }
+
+            System.out.printf("parsed %.3f ms per topic, weighted terms %.3f ms per topic, %d topic(s) with " +
+                            "different documents%n", parsedTime / 1e6 / topics.length,
+                    weightedTime / 1e6 / topics.length, different);
+        }
+
+        analyzer.close();
+    }
+}
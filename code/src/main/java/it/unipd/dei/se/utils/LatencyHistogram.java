@@ -0,0 +1,220 @@
+package it.unipd.dei.se.utils;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies, recorded by several threads at once without locks, to get their percentiles.
+ * <p>
+ * The latencies are recorded in microseconds, exactly up to {@value #SUB_BUCKETS} microseconds and then in buckets
+ * {@value #SUB_BUCKETS} per power of two, so that the percentiles are within about 1.6% of the recorded latencies, up to
+ * more than an hour.
+ *
+ * @author CLOSE GROUP
+ * @version 1.0
+ */
+public class LatencyHistogram {
+
+    /**
+     * The number of buckets for each power of two, and of microseconds recorded exactly.
+     */
+    private static final int SUB_BUCKETS = 64;
+
+    /**
+     * The base two logarithm of {@link #SUB_BUCKETS}.
+     */
+    private static final int SUB_BUCKET_BITS = 6;
+
+    /**
+     * The number of powers of two above {@link #SUB_BUCKETS} microseconds, up to about 2^32 microseconds.
+     */
+    private static final int POWERS = 32 - SUB_BUCKET_BITS;
+
+    /**
+     * The number of latencies in each bucket.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(SUB_BUCKETS * (POWERS + 1));
+
+    /**
+     * The number of latencies recorded.
+     */
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * The sum of the latencies recorded, in nanoseconds.
+     */
+    private final AtomicLong sum = new AtomicLong();
+
+    /**
+     * The largest latency recorded, in nanoseconds.
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /** Default constructor for the class
+     */
+    public LatencyHistogram() {
+        super();
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency, in nanoseconds.
+     * @throws IllegalArgumentException if the latency is negative.
+     */
+    public void record(final long nanos) {
+
+        if (nanos < 0) {
+            throw new IllegalArgumentException("Latency cannot be less than zero.");
+        }
+
+        counts.incrementAndGet(bucket(nanos / 1000));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+        max.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Returns the bucket of a latency.
+     *
+     * @param micros the latency, in microseconds.
+     * @return the index of the bucket.
+     */
+    private static int bucket(final long micros) {
+
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+
+        // the power of two of the latency, and its next bits below the leading one
+        final int power = Math.min(63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS + 1, POWERS);
+        if (power == POWERS && micros >= (long) SUB_BUCKETS << POWERS) {
+            return SUB_BUCKETS * (POWERS + 1) - 1;
+        }
+
+        return power * SUB_BUCKETS + (int) ((micros >>> (power - 1)) - SUB_BUCKETS);
+    }
+
+    /**
+     * Returns the largest latency of a bucket.
+     *
+     * @param bucket the index of the bucket.
+     * @return the largest latency of the bucket, in microseconds.
+     */
+    private static long highest(final int bucket) {
+
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        final int power = bucket / SUB_BUCKETS;
+        final long sub = bucket % SUB_BUCKETS + SUB_BUCKETS;
+
+        return ((sub + 1) << (power - 1)) - 1;
+    }
+
+    /**
+     * Returns the number of latencies recorded.
+     *
+     * @return the number of latencies recorded.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the mean of the latencies recorded.
+     *
+     * @return the mean latency, in milliseconds; {@code 0} if none has been recorded.
+     */
+    public double getMean() {
+        final long n = count.get();
+        return n == 0 ? 0 : sum.get() / 1e6 / n;
+    }
+
+    /**
+     * Returns the largest latency recorded.
+     *
+     * @return the largest latency, in milliseconds.
+     */
+    public double getMax() {
+        return max.get() / 1e6;
+    }
+
+    /**
+     * Returns a percentile of the latencies recorded, i.e. the latency which the given percentage of the latencies do
+     * not exceed.
+     *
+     * @param percentile the percentile, between {@code 0} and {@code 100}.
+     * @return the latency, in milliseconds; {@code 0} if none has been recorded.
+     * @throws IllegalArgumentException if the percentile is not between {@code 0} and {@code 100}.
+     */
+    public double getPercentile(final double percentile) {
+
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100.");
+        }
+
+        final long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                // never beyond the largest latency recorded
+                return Math.min(highest(i) / 1e3, getMax());
+            }
+        }
+
+        return getMax();
+    }
+
+    /**
+     * Describes the latencies recorded: count, mean, median, 90th, 99th and 99.9th percentiles and maximum.
+     *
+     * @return the description of the latencies.
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH,
+                "%d request(s): mean %.2f ms, p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms",
+                getCount(), getMean(), getPercentile(50), getPercentile(90), getPercentile(99),
+                getPercentile(99.9), getMax());
+    }
+
+    /**
+     * Main method to compare the percentiles of the histogram with the exact ones, on random latencies.
+     *
+     * @param args the arguments to be passed to the method; none.
+     */
+    public static void main(String[] args) {
+
+        final Random random = new Random(42);
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final long[] latencies = new long[1_000_000];
+
+        // log-normal latencies around a millisecond, with a long tail
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = (long) (1e6 * Math.exp(random.nextGaussian()));
+            histogram.record(latencies[i]);
+        }
+        Arrays.sort(latencies);
+
+        for (double p : new double[]{50, 90, 99, 99.9, 100}) {
+            final double exact = latencies[(int) Math.max(0, Math.ceil(p / 100 * latencies.length) - 1)] / 1e6;
+            final double approximate = histogram.getPercentile(p);
+            System.out.printf(Locale.ENGLISH, "p%s: exact %.4f ms, histogram %.4f ms, error %.2f%%%n", p, exact,
+                    approximate, 100 * (approximate - exact) / exact);
+        }
+
+        System.out.println(histogram);
+    }
+}